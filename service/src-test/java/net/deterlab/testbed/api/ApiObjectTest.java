@@ -18,6 +18,8 @@ import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.TimeZone;
 
+import javax.activation.DataHandler;
+
 import static org.hamcrest.CoreMatchers.*;
 
 /**
@@ -56,4 +58,17 @@ public class ApiObjectTest {
         String myDateStrExpected = "20160401T170000Z";
         assertThat(myDateStrResult, is(myDateStrExpected));
     }
+
+    @Test
+    public void bytesToDataNull() throws Exception {
+        assertThat(ApiObject.bytesToData(null), is(equalTo(null)));
+        assertThat(ApiObject.dataToBytes(null), is(equalTo(null)));
+    }
+
+    @Test
+    public void bytesToDataRoundTrip() throws Exception {
+        byte[] data = "aspect data".getBytes();
+        DataHandler dh = ApiObject.bytesToData(data);
+        assertThat(ApiObject.dataToBytes(dh), is(data));
+    }
 }
\ No newline at end of file
@@ -1,5 +1,7 @@
 package net.deterlab.testbed.api;
 
+import javax.activation.DataHandler;
+
 import mockit.Mock;
 import mockit.MockUp;
 import mockit.Mocked;
@@ -50,7 +52,7 @@ public class ExperimentAspectTest {
     }
     
     @Test
-    public void setData(@Mocked final byte[] data) {
+    public void setData(@Mocked final DataHandler data) {
         final ExperimentAspect o = new ExperimentAspect();
         o.setData(data);
         assertThat(o.getData(), is(data));
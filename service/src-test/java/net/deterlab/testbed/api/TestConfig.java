@@ -0,0 +1,23 @@
+package net.deterlab.testbed.api;
+
+import java.util.Properties;
+
+/**
+ * Lets tests run without a service.properties file by supplying the
+ * configuration properties directly.
+ */
+public class TestConfig extends Config {
+    /**
+     * Never created.
+     * @throws DeterFault never
+     */
+    private TestConfig() throws DeterFault { super(); }
+
+    /**
+     * Replace the configuration with the given properties.
+     * @param p the properties
+     */
+    static public void use(Properties p) {
+	props = p;
+    }
+}
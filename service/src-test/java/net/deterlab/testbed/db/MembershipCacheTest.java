@@ -0,0 +1,192 @@
+package net.deterlab.testbed.db;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import net.deterlab.testbed.api.DeterFault;
+import net.deterlab.testbed.api.Member;
+import net.deterlab.testbed.api.TestConfig;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for MembershipCache against canned query results.
+ */
+public class MembershipCacheTest {
+    /** The single member query */
+    static private final String MEMBER = "member";
+    /** The members query prefix */
+    static private final String MEMBERS = "members IN";
+
+    /**
+     * A connection that never touches a database.
+     */
+    static private class NoConnection extends SharedConnection {
+	/**
+	 * Create the connection.
+	 * @throws DeterFault never
+	 */
+	public NoConnection() throws DeterFault { super(); }
+
+	/**
+	 * Do not connect.
+	 */
+	protected void connect() { }
+    }
+
+    /**
+     * Database access answering from canned rows.  Project p has members
+     * alice (with permission A) and bob (with none).
+     */
+    static private class FakeDB extends DBObject {
+	/** Run before answering the single member query, if set */
+	public Runnable beforeMember = null;
+
+	/**
+	 * Create the fake.
+	 * @throws DeterFault never
+	 */
+	public FakeDB() throws DeterFault { super(new NoConnection()); }
+
+	/**
+	 * Return a statement answering the query.
+	 * @param sql the query
+	 * @return the statement
+	 */
+	public PreparedStatement getPreparedStatement(final String sql) {
+	    final List<String> params = new ArrayList<String>();
+
+	    return (PreparedStatement) Proxy.newProxyInstance(
+		    getClass().getClassLoader(),
+		    new Class<?>[] { PreparedStatement.class },
+		    new InvocationHandler() {
+			public Object invoke(Object o, Method m, Object[] a) {
+			    if ( m.getName().equals("setString"))
+				params.add((String) a[1]);
+			    if ( !m.getName().equals("executeQuery"))
+				return null;
+			    return answer(sql, params);
+			}
+		    });
+	}
+
+	/**
+	 * Answer a query.
+	 * @param sql the query
+	 * @param params its parameters
+	 * @return the results
+	 */
+	private ResultSet answer(String sql, List<String> params) {
+	    List<String[]> rows = new ArrayList<String[]>();
+	    List<String[]> all = Arrays.asList(
+		    new String[] { "p", "alice", "A" },
+		    new String[] { "p", "bob", null });
+
+	    if ( sql.equals(MEMBER)) {
+		if ( beforeMember != null ) beforeMember.run();
+		for (String[] r : all)
+		    if ( r[0].equals(params.get(0)) &&
+			    r[1].equals(params.get(1)))
+			rows.add(new String[] { r[2] });
+	    }
+	    else {
+		for (String[] r : all)
+		    if ( params.contains(r[0])) rows.add(r);
+	    }
+	    return resultSet(rows);
+	}
+    }
+
+    /**
+     * Return a result set over the rows.
+     * @param rows the rows
+     * @return the result set
+     */
+    static private ResultSet resultSet(final List<String[]> rows) {
+	return (ResultSet) Proxy.newProxyInstance(
+		MembershipCacheTest.class.getClassLoader(),
+		new Class<?>[] { ResultSet.class },
+		new InvocationHandler() {
+		    private int row = -1;
+
+		    public Object invoke(Object o, Method m, Object[] a) {
+			if ( m.getName().equals("next"))
+			    return ++row < rows.size();
+			if ( m.getName().equals("getString"))
+			    return rows.get(row)[(Integer) a[0] - 1];
+			return null;
+		    }
+		});
+    }
+
+    @Before
+    public void configure() {
+	TestConfig.use(new Properties());
+    }
+
+    @Test
+    public void membersAndPerms() throws Exception {
+	MembershipCache cache = new MembershipCache(MEMBERS, MEMBER, 10);
+	FakeDB db = new FakeDB();
+	List<Member> m =
+	    cache.getMembers(db, Arrays.asList("p")).get("p");
+
+	assertEquals(2, m.size());
+	assertEquals(Arrays.asList("A"),
+		new ArrayList<String>(cache.getPerms(db, "p", "alice")));
+	assertTrue(cache.getPerms(db, "p", "bob").isEmpty());
+	assertNull(cache.getPerms(db, "p", "carol"));
+    }
+
+    @Test
+    public void loadCompletedDuringGetPermsIsKept() throws Exception {
+	final MembershipCache cache =
+	    new MembershipCache(MEMBERS, MEMBER, 10);
+	final FakeDB db = new FakeDB();
+	final List<Exception> errors = new ArrayList<Exception>();
+
+	// Complete the entry between getPerms' cache check and its update
+	db.beforeMember = new Runnable() {
+	    public void run() {
+		Thread t = new Thread() {
+		    public void run() {
+			try {
+			    cache.getMembers(db, Arrays.asList("p"));
+			}
+			catch (Exception e) {
+			    errors.add(e);
+			}
+		    }
+		};
+
+		t.start();
+		try {
+		    t.join();
+		}
+		catch (InterruptedException ignored) { }
+	    }
+	};
+	assertNull(cache.getPerms(db, "p", "carol"));
+	db.beforeMember = null;
+	assertTrue(errors.isEmpty());
+
+	Map<String, List<Member>> rv =
+	    cache.getMembers(db, Arrays.asList("p"));
+
+	assertEquals(2, rv.get("p").size());
+	assertNull(cache.getPerms(db, "p", "carol"));
+    }
+}
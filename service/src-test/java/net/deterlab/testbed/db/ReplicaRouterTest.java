@@ -0,0 +1,214 @@
+package net.deterlab.testbed.db;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.DriverPropertyInfo;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.logging.Logger;
+
+import net.deterlab.testbed.api.TestConfig;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for choosing replicas and for reading a session's own writes.
+ * Connections come from a JDBC driver for jdbc:fake: URLs whose servers
+ * report the lags set in the test.
+ */
+public class ReplicaRouterTest {
+    /** A server that is not replicating */
+    static private final Long NOT_REPLICATING = null;
+    /** A server whose replication has stopped */
+    static private final Long STOPPED = -1L;
+    /** The lag each server reports, by URL */
+    static private Map<String, Long> lags =
+	Collections.synchronizedMap(new HashMap<String, Long>());
+
+    /**
+     * A JDBC driver for the fake servers.
+     */
+    static private class FakeDriver implements Driver {
+	public boolean acceptsURL(String url) {
+	    return url.startsWith("jdbc:fake:");
+	}
+
+	public Connection connect(final String url, Properties info) {
+	    if ( !acceptsURL(url)) return null;
+	    return (Connection) Proxy.newProxyInstance(
+		    getClass().getClassLoader(),
+		    new Class<?>[] { Connection.class },
+		    new InvocationHandler() {
+			public Object invoke(Object o, Method m, Object[] a) {
+			    if ( m.getName().equals("createStatement"))
+				return statement(url);
+			    if ( m.getName().equals("toString")) return url;
+			    return null;
+			}
+		    });
+	}
+
+	public DriverPropertyInfo[] getPropertyInfo(String url,
+		Properties info) {
+	    return new DriverPropertyInfo[0];
+	}
+
+	public int getMajorVersion() { return 1; }
+	public int getMinorVersion() { return 0; }
+	public boolean jdbcCompliant() { return false; }
+	public Logger getParentLogger() { return null; }
+    }
+
+    /**
+     * Return a statement on the server that answers SHOW SLAVE STATUS.
+     * @param url the server
+     * @return the statement
+     */
+    static private Statement statement(final String url) {
+	return (Statement) Proxy.newProxyInstance(
+		ReplicaRouterTest.class.getClassLoader(),
+		new Class<?>[] { Statement.class },
+		new InvocationHandler() {
+		    public Object invoke(Object o, Method m, Object[] a) {
+			if ( !m.getName().equals("executeQuery")) return null;
+			return status(lags.get(url));
+		    }
+		});
+    }
+
+    /**
+     * Return the SHOW SLAVE STATUS results for a lag.
+     * @param lag the lag, NOT_REPLICATING or STOPPED
+     * @return the results
+     */
+    static private ResultSet status(final Long lag) {
+	return (ResultSet) Proxy.newProxyInstance(
+		ReplicaRouterTest.class.getClassLoader(),
+		new Class<?>[] { ResultSet.class },
+		new InvocationHandler() {
+		    private boolean read = false;
+
+		    public Object invoke(Object o, Method m, Object[] a) {
+			String n = m.getName();
+
+			if ( n.equals("next")) {
+			    if ( lag == NOT_REPLICATING || read ) return false;
+			    return read = true;
+			}
+			if ( n.equals("getLong"))
+			    return lag.equals(STOPPED) ? 0L : lag;
+			if ( n.equals("wasNull")) return lag.equals(STOPPED);
+			return null;
+		    }
+		});
+    }
+
+    /** The registered driver */
+    private Driver driver;
+
+    @Before
+    public void setUp() throws Exception {
+	ReplicaRouter.reset();
+	driver = new FakeDriver();
+	DriverManager.registerDriver(driver);
+	lags.clear();
+	lags.put("jdbc:fake:current", 1L);
+	lags.put("jdbc:fake:behind", 100L);
+	lags.put("jdbc:fake:stopped", STOPPED);
+	lags.put("jdbc:fake:copy", NOT_REPLICATING);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+	ReplicaRouter.endRequest();
+	ReplicaRouter.reset();
+	DriverManager.deregisterDriver(driver);
+    }
+
+    /**
+     * Return a router over the given replicas.
+     * @param primaries the replicas that are primaries
+     * @param urls the replicas
+     * @return the router
+     */
+    private ReplicaRouter router(List<String> primaries, String... urls) {
+	return new ReplicaRouter(urls, primaries, 5, 10000, 30000);
+    }
+
+    @Test
+    public void onlyCurrentReplicasAreUsed() throws Exception {
+	ReplicaRouter r = router(Collections.<String>emptyList(),
+		"jdbc:fake:behind", "jdbc:fake:stopped", "jdbc:fake:copy",
+		"jdbc:fake:current");
+
+	for (int i = 0; i < 8; i++)
+	    assertEquals("jdbc:fake:current", r.connectReplica().toString());
+    }
+
+    @Test
+    public void unreplicatedCopyFallsBackToPrimary() throws Exception {
+	assertNull(router(Collections.<String>emptyList(),
+		    "jdbc:fake:copy").connectReplica());
+	assertNull(router(Collections.<String>emptyList()).connectReplica());
+    }
+
+    @Test
+    public void configuredPrimaryIsUsed() throws Exception {
+	ReplicaRouter r = router(Arrays.asList("jdbc:fake:copy"),
+		"jdbc:fake:copy");
+
+	assertEquals("jdbc:fake:copy", r.connectReplica().toString());
+    }
+
+    @Test
+    public void callReadsItsOwnWrites() throws Exception {
+	ReplicaRouter r = router(Collections.<String>emptyList(),
+		"jdbc:fake:current");
+
+	ReplicaRouter.startRequest(null);
+	assertNotNull(r.connectReplica());
+	ReplicaRouter.wrote();
+	assertNull(r.connectReplica());
+	ReplicaRouter.endRequest();
+	assertNotNull(r.connectReplica());
+    }
+
+    @Test
+    public void sessionReadsItsOwnWrites() throws Exception {
+	Properties props = new Properties();
+
+	props.setProperty("deterDbReplicaUrls", "jdbc:fake:current");
+	TestConfig.use(props);
+
+	ReplicaRouter r = ReplicaRouter.getInstance();
+
+	ReplicaRouter.startRequest("alice");
+	ReplicaRouter.wrote();
+	ReplicaRouter.endRequest();
+
+	// A later call in the same session still reads the primary
+	ReplicaRouter.startRequest("alice");
+	assertNull(r.connectReplica());
+	ReplicaRouter.endRequest();
+
+	// Others read the replica
+	ReplicaRouter.startRequest("bob");
+	assertNotNull(r.connectReplica());
+    }
+}
@@ -0,0 +1,89 @@
+package net.deterlab.testbed.db;
+
+import static org.junit.Assert.*;
+
+import java.util.Properties;
+
+import net.deterlab.testbed.api.TestConfig;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for sharing a thread's connections between pin and unpin.
+ */
+public class SharedConnectionTest {
+    /** The driver making the connections */
+    private TestDriver driver;
+
+    /**
+     * Open a new SharedConnection and make its underlying connection.
+     * @return the SharedConnection
+     * @throws Exception on errors
+     */
+    static private SharedConnection connect() throws Exception {
+	SharedConnection sc = new SharedConnection();
+
+	sc.open();
+	assertNotNull(sc.getConnection());
+	return sc;
+    }
+
+    @Before
+    public void setUp() throws Exception {
+	Properties props = new Properties();
+
+	props.setProperty("deterDbUrl", TestDriver.URL);
+	TestConfig.use(props);
+	driver = TestDriver.register();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+	SharedConnection.unpin();
+	driver.deregister();
+    }
+
+    @Test
+    public void unpinnedConnectionsAreClosed() throws Exception {
+	connect().close();
+	connect().forceClose();
+	assertEquals(2, driver.made());
+	assertEquals(0, driver.open());
+    }
+
+    @Test
+    public void pinnedConnectionIsReusedUntilUnpin() throws Exception {
+	SharedConnection.pin();
+	connect().close();
+	connect().close();
+	assertEquals(1, driver.made());
+	assertEquals(1, driver.open());
+	SharedConnection.unpin();
+	assertEquals(0, driver.open());
+
+	// Once unpinned, each connection is its own again
+	connect().close();
+	assertEquals(2, driver.made());
+	assertEquals(0, driver.open());
+    }
+
+    @Test
+    public void closingDoesNotClosePinnedConnection() throws Exception {
+	SharedConnection a = null;
+	SharedConnection b = null;
+
+	SharedConnection.pin();
+	a = connect();
+	b = connect();
+	a.forceClose();
+	assertEquals(1, driver.open());
+	b.close();
+	assertEquals(1, driver.open());
+	connect().close();
+	assertEquals(1, driver.made());
+	SharedConnection.unpin();
+	assertEquals(0, driver.open());
+    }
+}
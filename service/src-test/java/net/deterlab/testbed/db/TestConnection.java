@@ -0,0 +1,25 @@
+package net.deterlab.testbed.db;
+
+import net.deterlab.testbed.api.DeterFault;
+
+/**
+ * A SharedConnection that never touches a database, for tests whose
+ * DBObjects answer getPreparedStatement themselves.
+ */
+public class TestConnection extends SharedConnection {
+    /**
+     * Create the connection.
+     * @throws DeterFault if the configuration cannot be read
+     */
+    public TestConnection() throws DeterFault { super(); }
+
+    /**
+     * Do not connect.
+     */
+    protected void connect() { }
+
+    /**
+     * There is nothing to close.
+     */
+    public void close() { }
+}
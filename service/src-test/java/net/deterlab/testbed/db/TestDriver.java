@@ -0,0 +1,107 @@
+package net.deterlab.testbed.db;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.DriverPropertyInfo;
+import java.sql.SQLException;
+
+import java.util.Properties;
+import java.util.logging.Logger;
+
+/**
+ * A JDBC driver for jdbc:test: URLs whose connections only count how many
+ * are made and closed, for tests of how connections are shared.
+ */
+public class TestDriver implements Driver {
+    /** The URL of the test database */
+    static public final String URL = "jdbc:test:db";
+
+    /** Connections made */
+    private int made = 0;
+    /** Connections closed */
+    private int closed = 0;
+
+    /**
+     * Create and register a driver.
+     * @return the driver
+     * @throws SQLException if it cannot be registered
+     */
+    static public TestDriver register() throws SQLException {
+	TestDriver d = new TestDriver();
+
+	DriverManager.registerDriver(d);
+	return d;
+    }
+
+    /**
+     * Stop using the driver.
+     * @throws SQLException if it cannot be deregistered
+     */
+    public void deregister() throws SQLException {
+	DriverManager.deregisterDriver(this);
+    }
+
+    /**
+     * Return the number of connections made.
+     * @return the number of connections made
+     */
+    public synchronized int made() { return made; }
+
+    /**
+     * Return the number of connections made and not yet closed.
+     * @return the number of open connections
+     */
+    public synchronized int open() { return made - closed; }
+
+    /**
+     * Note a connection closing.
+     */
+    private synchronized void closed() { closed++; }
+
+    public boolean acceptsURL(String url) {
+	return url.startsWith("jdbc:test:");
+    }
+
+    public Connection connect(String url, Properties info) {
+	if ( !acceptsURL(url)) return null;
+	synchronized (this) {
+	    made++;
+	}
+	return (Connection) Proxy.newProxyInstance(
+		getClass().getClassLoader(),
+		new Class<?>[] { Connection.class },
+		new InvocationHandler() {
+		    /** True once closed */
+		    private boolean isClosed = false;
+
+		    public Object invoke(Object o, Method m, Object[] a) {
+			String n = m.getName();
+
+			if ( n.equals("close")) {
+			    if ( !isClosed ) closed();
+			    isClosed = true;
+			    return null;
+			}
+			if ( n.equals("isClosed")) return isClosed;
+			if ( m.getReturnType() == boolean.class ) return false;
+			if ( m.getReturnType() == int.class ) return 0;
+			return null;
+		    }
+		});
+    }
+
+    public DriverPropertyInfo[] getPropertyInfo(String url,
+	    Properties info) {
+	return new DriverPropertyInfo[0];
+    }
+
+    public int getMajorVersion() { return 1; }
+    public int getMinorVersion() { return 0; }
+    public boolean jdbcCompliant() { return false; }
+    public Logger getParentLogger() { return null; }
+}
@@ -0,0 +1,110 @@
+package net.deterlab.testbed.db;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Prepared statements for tests.  Executed statements are logged, queries
+ * are answered from canned rows chosen by the start of their SQL, and
+ * statements can be made to fail.  No keys are generated.
+ */
+public class TestStatements {
+    /** The executed statements, in order */
+    public List<String> log =
+	Collections.synchronizedList(new ArrayList<String>());
+    /** Statements starting with this fail (null for none) */
+    public String fail = null;
+    /** Canned rows keyed by the start of the query */
+    private Map<String, List<Object[]>> answers =
+	new LinkedHashMap<String, List<Object[]>>();
+
+    /**
+     * Answer queries starting with prefix with these rows.
+     * @param prefix the start of the query
+     * @param rows the rows
+     */
+    public void answer(String prefix, Object[]... rows) {
+	answers.put(prefix, Arrays.asList(rows));
+    }
+
+    /**
+     * Return true if a logged statement starts with prefix.
+     * @param prefix the start of the statement
+     * @return true if such a statement was executed
+     */
+    public boolean executed(String prefix) {
+	synchronized (log) {
+	    for (String sql : log)
+		if ( sql.startsWith(prefix)) return true;
+	}
+	return false;
+    }
+
+    /**
+     * Return a statement for the SQL.
+     * @param sql the statement
+     * @return the statement
+     */
+    public PreparedStatement statement(final String sql) {
+	return (PreparedStatement) Proxy.newProxyInstance(
+		getClass().getClassLoader(),
+		new Class<?>[] { PreparedStatement.class },
+		new InvocationHandler() {
+		    public Object invoke(Object o, Method m, Object[] a)
+			    throws SQLException {
+			String n = m.getName();
+
+			if ( n.equals("getGeneratedKeys"))
+			    return resultSet(new ArrayList<Object[]>());
+			if ( !n.equals("executeUpdate") &&
+				!n.equals("executeQuery"))
+			    return null;
+			if ( fail != null && sql.startsWith(fail))
+			    throw new SQLException("failed");
+			log.add(sql);
+			if ( n.equals("executeUpdate")) return 0;
+			for (Map.Entry<String, List<Object[]>> e :
+				answers.entrySet())
+			    if ( sql.startsWith(e.getKey()))
+				return resultSet(e.getValue());
+			return resultSet(new ArrayList<Object[]>());
+		    }
+		});
+    }
+
+    /**
+     * Return a result set over the rows.  Columns are numbered from 1.
+     * @param rows the rows
+     * @return the result set
+     */
+    static public ResultSet resultSet(final List<Object[]> rows) {
+	return (ResultSet) Proxy.newProxyInstance(
+		TestStatements.class.getClassLoader(),
+		new Class<?>[] { ResultSet.class },
+		new InvocationHandler() {
+		    private int row = -1;
+
+		    public Object invoke(Object o, Method m, Object[] a) {
+			String n = m.getName();
+
+			if ( n.equals("next")) return ++row < rows.size();
+			if ( n.startsWith("get") && a != null &&
+				a[0] instanceof Integer)
+			    return rows.get(row)[(Integer) a[0] - 1];
+			return null;
+		    }
+		});
+    }
+}
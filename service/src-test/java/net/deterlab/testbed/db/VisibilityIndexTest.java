@@ -0,0 +1,209 @@
+package net.deterlab.testbed.db;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import net.deterlab.testbed.api.AccessMember;
+import net.deterlab.testbed.api.DeterFault;
+import net.deterlab.testbed.api.TestConfig;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for VisibilityIndex and its upkeep when an access control list
+ * changes, against a database that records the statements it is given.
+ */
+public class VisibilityIndexTest {
+    /**
+     * A connection that never touches a database.
+     */
+    static private class NoConnection extends SharedConnection {
+	/**
+	 * Create the connection.
+	 * @throws DeterFault never
+	 */
+	public NoConnection() throws DeterFault { super(); }
+
+	/**
+	 * Do not connect.
+	 */
+	protected void connect() { }
+    }
+
+    /**
+     * Return a statement that records its SQL when executed, and fails if
+     * the SQL starts with the failure prefix.
+     * @param sql the statement
+     * @param log executed statements are added here
+     * @param fail the prefix of statements that fail (may be null)
+     * @return the statement
+     */
+    static private PreparedStatement statement(final String sql,
+	    final List<String> log, final String fail) {
+	return (PreparedStatement) Proxy.newProxyInstance(
+		VisibilityIndexTest.class.getClassLoader(),
+		new Class<?>[] { PreparedStatement.class },
+		new InvocationHandler() {
+		    public Object invoke(Object o, Method m, Object[] a)
+			    throws SQLException {
+			if ( !m.getName().equals("executeUpdate"))
+			    return null;
+			if ( fail != null && sql.startsWith(fail))
+			    throw new SQLException("failed");
+			log.add(sql);
+			return 0;
+		    }
+		});
+    }
+
+    /**
+     * Database access that records the statements it executes.
+     */
+    static private class FakeDB extends DBObject {
+	/** The executed statements */
+	public List<String> log = new ArrayList<String>();
+
+	/**
+	 * Create the fake.
+	 * @throws DeterFault never
+	 */
+	public FakeDB() throws DeterFault { super(new NoConnection()); }
+
+	/**
+	 * Return a recording statement.
+	 * @param sql the statement
+	 * @return the statement
+	 */
+	public PreparedStatement getPreparedStatement(String sql) {
+	    return statement(sql, log, null);
+	}
+    }
+
+    /**
+     * An experiment's access control list, recording its statements.
+     */
+    static private class FakeACL extends ACLObject {
+	/** The executed statements */
+	public List<String> log = new ArrayList<String>();
+	/** The prefix of statements that fail */
+	public String fail = null;
+
+	/**
+	 * Create the fake.
+	 * @throws DeterFault never
+	 */
+	public FakeACL() throws DeterFault {
+	    super("experiment", "experimentperms", "eidx", "experiments",
+		    "eid", new NoConnection());
+	}
+
+	/**
+	 * Return the experiment's name.
+	 * @return the experiment's name
+	 */
+	protected String getID() { return "p:e"; }
+
+	/**
+	 * Return a recording statement.
+	 * @param sql the statement
+	 * @return the statement
+	 */
+	public PreparedStatement getPreparedStatement(String sql) {
+	    return statement(sql, log, fail);
+	}
+
+	/**
+	 * There are no credentials to update.
+	 */
+	public void updateCircleCredentials() { }
+    }
+
+    @Before
+    public void configure() {
+	TestConfig.use(new Properties());
+    }
+
+    @Test
+    public void updateObjectReplacesRows() throws Exception {
+	FakeDB db = new FakeDB();
+
+	VisibilityIndex.updateObject(db, "library", "p:lib");
+	assertEquals(2, db.log.size());
+	assertTrue(db.log.get(0).startsWith("DELETE FROM visibility"));
+	assertTrue(db.log.get(1).startsWith("INSERT IGNORE INTO visibility"));
+	assertTrue(db.log.get(1).contains("FROM libraryperms"));
+	assertTrue(db.log.get(1).contains("perm.name='READ_LIBRARY'"));
+    }
+
+    @Test
+    public void anyResourcePermissionIsVisible() throws Exception {
+	FakeDB db = new FakeDB();
+
+	VisibilityIndex.updateObject(db, "resource", "system:n1");
+	assertEquals(2, db.log.size());
+	assertTrue(db.log.get(1).contains("FROM resourceperms"));
+	assertFalse(db.log.get(1).contains("permissions"));
+    }
+
+    @Test
+    public void updateUserCoversEveryType() throws Exception {
+	FakeDB db = new FakeDB();
+
+	VisibilityIndex.updateUser(db, "alice");
+	assertEquals(5, db.log.size());
+	assertTrue(db.log.get(0).startsWith("DELETE FROM visibility"));
+	for (String sql : db.log.subList(1, db.log.size()))
+	    assertTrue(sql.contains("cu.uidx="));
+    }
+
+    @Test
+    public void unindexedTypesAreRefused() throws Exception {
+	try {
+	    VisibilityIndex.visibleTo("project");
+	    fail("Indexed projects");
+	}
+	catch (DeterFault df) {
+	    assertEquals(DeterFault.internal, df.getErrorCode());
+	}
+	assertTrue(VisibilityIndex.visibleTo("experiment").contains(
+		    "otype='experiment'"));
+    }
+
+    @Test
+    public void aclChangeUpdatesIndex() throws Exception {
+	FakeACL acl = new FakeACL();
+
+	acl.assignPermissions(new AccessMember("p:c", null));
+	assertEquals(3, acl.log.size());
+	assertTrue(acl.log.get(0).startsWith("DELETE FROM experimentperms"));
+	assertTrue(acl.log.get(1).startsWith("DELETE FROM visibility"));
+	assertTrue(acl.log.get(2).startsWith("INSERT IGNORE INTO visibility"));
+    }
+
+    @Test
+    public void failedAclChangeLeavesIndexAndFault() throws Exception {
+	FakeACL acl = new FakeACL();
+
+	acl.fail = "DELETE FROM experimentperms";
+	try {
+	    acl.assignPermissions(new AccessMember("p:c", null));
+	    fail("ACL change succeeded");
+	}
+	catch (DeterFault df) {
+	    assertEquals(DeterFault.internal, df.getErrorCode());
+	    assertTrue(df.getDetailMessage().contains("Unexpected SQL error"));
+	}
+	assertTrue(acl.log.isEmpty());
+    }
+}
@@ -0,0 +1,78 @@
+package net.deterlab.testbed.embedding;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests for the simulation embedder's timing model.
+ */
+public class SimulationModelTest {
+
+    /**
+     * A model without jitter where hosts take 60s to boot and VMs 10s.
+     * @param fail failure rates by type
+     * @return the model
+     */
+    private SimulationModel model(Map<String, Double> fail) {
+	Map<String, Long> boot = new HashMap<>();
+
+	boot.put(SimulationModel.DEFAULT_TYPE, 10000L);
+	boot.put("testnode", 60000L);
+	return new SimulationModel(60.0, 5000L, 0.0, boot, fail,
+		new Random(1));
+    }
+
+    @Test
+    public void readyAfterSlowestHostAndVm() {
+	SimulationModel m = model(new HashMap<String, Double>());
+	List<String> vms = Arrays.asList("Qemu VM", "Qemu VM");
+	SimulationModel.Plan p = m.plan(Arrays.asList("testnode", "testnode"),
+		Arrays.asList(vms, vms));
+
+	assertFalse(p.failed);
+	assertEquals(5000L, p.initializing);
+	assertEquals(75000L, p.ready);
+	assertEquals(1250L, m.toWallClock(p.ready));
+	assertEquals(75000L, m.toSimulated(1250L));
+    }
+
+    @Test
+    public void failingVmFailsRealization() {
+	Map<String, Double> fail = new HashMap<>();
+
+	fail.put("Qemu VM", 1.0);
+	SimulationModel.Plan p = model(fail).plan(Arrays.asList("testnode"),
+		Arrays.asList(Arrays.asList("Qemu VM")));
+
+	assertTrue(p.failed);
+	assertEquals(75000L, p.ready);
+    }
+
+    @Test
+    public void parseTypes() throws Exception {
+	Map<String, Double> t = SimulationModel.parseTypes("x",
+		"testnode:90, Qemu VM:12.5");
+
+	assertEquals(90.0, t.get("testnode"), 0.0);
+	assertEquals(12.5, t.get("Qemu VM"), 0.0);
+    }
+
+    @Test
+    public void percentiles() {
+	SimulationModel.Latencies l = new SimulationModel.Latencies();
+
+	for (long i = 2000; i > 0; i--)
+	    l.add(i);
+	assertEquals(2000, l.getCount());
+	assertEquals(1000L, l.percentile(50));
+	assertEquals(1980L, l.percentile(99));
+	assertEquals(2000L, l.percentile(100));
+    }
+}
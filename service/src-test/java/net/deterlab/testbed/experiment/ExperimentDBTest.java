@@ -0,0 +1,387 @@
+package net.deterlab.testbed.experiment;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import net.deterlab.testbed.api.DeterFault;
+import net.deterlab.testbed.api.ExperimentAspect;
+import net.deterlab.testbed.api.TestConfig;
+import net.deterlab.testbed.db.TestConnection;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for how ExperimentDB orders and runs the aspects of a request.
+ */
+public class ExperimentDBTest {
+    /** What the aspects did, in order */
+    private List<String> events;
+    /** The Aspects by type */
+    private Map<String, Aspect> handlers;
+
+    /**
+     * An Aspect that records its transactions.
+     */
+    private class FakeAspect extends DefaultAspect {
+	/**
+	 * Create the Aspect.
+	 * @param t the type
+	 */
+	public FakeAspect(String t) { super(t); }
+
+	public void beginTransaction(ImmutableExperimentDB exp, long tid) {
+	    events.add("begin " + getType());
+	}
+
+	public void finalizeTransaction(ImmutableExperimentDB exp, long tid) {
+	    events.add("finalize " + getType());
+	}
+    }
+
+    /**
+     * An Aspect that depends on others.
+     */
+    private class FakeDependentAspect extends FakeAspect
+	    implements DependentAspect {
+	/** The types depended on */
+	private List<String> deps;
+
+	/**
+	 * Create the Aspect.
+	 * @param t the type
+	 * @param d the types depended on
+	 */
+	public FakeDependentAspect(String t, String... d) {
+	    super(t);
+	    deps = Arrays.asList(d);
+	}
+
+	public Collection<String> getDependencies() { return deps; }
+    }
+
+    /**
+     * The experiment, whose copies share no connection.
+     */
+    static private class FakeExperiment extends ImmutableExperimentDB {
+	/**
+	 * Create the experiment.
+	 * @throws DeterFault never
+	 */
+	public FakeExperiment() throws DeterFault {
+	    super("p:e", new TestConnection());
+	}
+
+	public ImmutableExperimentDB copy() throws DeterFault {
+	    return new FakeExperiment();
+	}
+    }
+
+    /**
+     * A factory handing out the test's Aspects.
+     */
+    private class FakeFactory extends AspectFactory {
+	/**
+	 * Create the factory.
+	 * @throws DeterFault never
+	 */
+	public FakeFactory() throws DeterFault { super(); }
+
+	public Aspect getInstance(String type) {
+	    return handlers.get(type);
+	}
+    }
+
+    /**
+     * An operation that runs a script for each aspect, by aspect name.
+     * Aspects whose names start with "bad" then raise a fault.
+     */
+    static private class Scripted extends ExperimentDB.AspectOperation {
+	/** The scripts */
+	private Map<String, Runnable> scripts =
+	    new LinkedHashMap<String, Runnable>();
+
+	/**
+	 * Run r when processing the named aspect.
+	 * @param name the aspect name
+	 * @param r the script
+	 */
+	public void on(String name, Runnable r) { scripts.put(name, r); }
+
+	public Collection<ExperimentAspect> call(Aspect asp,
+		ImmutableExperimentDB e, long tid, ExperimentAspect a)
+	    throws DeterFault {
+	    Runnable r = scripts.get(a.getName());
+
+	    if ( r != null ) r.run();
+	    if ( a.getName().startsWith("bad"))
+		throw new DeterFault(DeterFault.request, a.getName());
+	    return Arrays.asList(a);
+	}
+    }
+
+    /**
+     * Return an aspect.
+     * @param type the type
+     * @param name the name
+     * @return the aspect
+     */
+    static private ExperimentAspect aspect(String type, String name) {
+	ExperimentAspect a = new ExperimentAspect();
+
+	a.setType(type);
+	a.setName(name);
+	return a;
+    }
+
+    /**
+     * Return a Runnable that waits for a latch.
+     * @param l the latch
+     * @return the Runnable
+     */
+    static private Runnable await(final CountDownLatch l) {
+	return new Runnable() {
+	    public void run() {
+		try {
+		    l.await(10, TimeUnit.SECONDS);
+		}
+		catch (InterruptedException ignored) { }
+	    }
+	};
+    }
+
+    /**
+     * Return the type names of the waves.
+     * @param waves the waves
+     * @return the type names
+     */
+    static private List<List<String>> types(
+	    List<List<ExperimentDB.AspectGroup>> waves) {
+	List<List<String>> rv = new ArrayList<List<String>>();
+
+	for (List<ExperimentDB.AspectGroup> w : waves) {
+	    List<String> t = new ArrayList<String>();
+
+	    for (ExperimentDB.AspectGroup g : w)
+		t.add(g.type);
+	    rv.add(t);
+	}
+	return rv;
+    }
+
+    /**
+     * Return groups for the test's Aspects, in the order given.
+     * @param types the group types
+     * @return the groups
+     */
+    private Map<String, ExperimentDB.AspectGroup> groups(String... types) {
+	Map<String, ExperimentDB.AspectGroup> rv =
+	    new LinkedHashMap<String, ExperimentDB.AspectGroup>();
+
+	for (String t : types)
+	    rv.put(t, new ExperimentDB.AspectGroup(t, handlers.get(t)));
+	return rv;
+    }
+
+    @Before
+    public void setUp() {
+	TestConfig.use(new Properties());
+	events = Collections.synchronizedList(new ArrayList<String>());
+	handlers = new LinkedHashMap<String, Aspect>();
+	handlers.put("a", new FakeAspect("a"));
+	handlers.put("b", new FakeAspect("b"));
+	handlers.put("c", new FakeDependentAspect("c", "a", "c", "missing"));
+	handlers.put("d", new FakeDependentAspect("d", "c"));
+	handlers.put("x", new FakeDependentAspect("x", "y"));
+	handlers.put("y", new FakeDependentAspect("y", "x"));
+    }
+
+    @Test
+    public void independentGroupsShareAWave() throws Exception {
+	assertEquals(Arrays.asList(Arrays.asList("b", "a")),
+		types(ExperimentDB.orderGroups(groups("b", "a"))));
+    }
+
+    @Test
+    public void groupsFollowTheirDependencies() throws Exception {
+	// Self and missing dependencies are ignored
+	assertEquals(Arrays.asList(Arrays.asList("b", "a"),
+		    Arrays.asList("c"), Arrays.asList("d")),
+		types(ExperimentDB.orderGroups(groups("d", "c", "b", "a"))));
+	assertEquals(Arrays.asList(Arrays.asList("c")),
+		types(ExperimentDB.orderGroups(groups("c"))));
+    }
+
+    @Test
+    public void circularDependenciesAreRefused() throws Exception {
+	try {
+	    ExperimentDB.orderGroups(groups("a", "x", "y"));
+	    fail("Ordered circular dependencies");
+	}
+	catch (DeterFault df) {
+	    assertEquals(DeterFault.internal, df.getErrorCode());
+	}
+    }
+
+    @Test
+    public void resultsKeepRequestOrder() throws Exception {
+	FakeExperiment exp = new FakeExperiment();
+	ExperimentAspect[] req = new ExperimentAspect[] {
+	    aspect("a", "a0"), aspect("b", "b1"), aspect("a", "a2"),
+	};
+	List<ExperimentAspect> rv = new ArrayList<ExperimentAspect>(
+		exp.processAspects(req, new FakeFactory(), exp,
+		    new Scripted()));
+
+	assertEquals(Arrays.asList(req), rv);
+	assertTrue(events.contains("finalize a"));
+	assertTrue(events.contains("finalize b"));
+    }
+
+    @Test
+    public void earliestAspectsFaultIsReported() throws Exception {
+	FakeExperiment exp = new FakeExperiment();
+	Scripted op = new Scripted();
+	final CountDownLatch aStarted = new CountDownLatch(1);
+	final CountDownLatch bFailed = new CountDownLatch(1);
+
+	// b fails on its later aspect first, then a on its earlier one
+	op.on("bad1", new Runnable() {
+	    public void run() {
+		aStarted.countDown();
+		await(bFailed).run();
+	    }
+	});
+	op.on("bad2", new Runnable() {
+	    public void run() {
+		await(aStarted).run();
+		bFailed.countDown();
+	    }
+	});
+	try {
+	    exp.processAspects(new ExperimentAspect[] {
+		    aspect("b", "b0"), aspect("a", "bad1"),
+		    aspect("b", "bad2"),
+		}, new FakeFactory(), exp, op);
+	    fail("Faults were not reported");
+	}
+	catch (DeterFault df) {
+	    assertEquals("bad1", df.getDetailMessage());
+	}
+	assertTrue(events.contains("finalize a"));
+	assertTrue(events.contains("finalize b"));
+    }
+
+    @Test
+    public void unexpectedErrorWaitsForOtherGroups() throws Exception {
+	FakeExperiment exp = new FakeExperiment();
+	Scripted op = new Scripted();
+	final CountDownLatch bStarted = new CountDownLatch(1);
+
+	op.on("a0", new Runnable() {
+	    public void run() {
+		await(bStarted).run();
+		throw new IllegalStateException("unexpected");
+	    }
+	});
+	op.on("b1", new Runnable() {
+	    public void run() {
+		bStarted.countDown();
+		try {
+		    Thread.sleep(200);
+		}
+		catch (InterruptedException ignored) { }
+		events.add("b1 done");
+	    }
+	});
+	try {
+	    exp.processAspects(new ExperimentAspect[] {
+		    aspect("a", "a0"), aspect("b", "b1"),
+		}, new FakeFactory(), exp, op);
+	    fail("Error was not thrown");
+	}
+	catch (IllegalStateException e) {
+	    assertEquals("unexpected", e.getMessage());
+	}
+	int done = events.indexOf("b1 done");
+
+	assertTrue(done >= 0);
+	assertTrue(done < events.indexOf("finalize a"));
+	assertTrue(done < events.indexOf("finalize b"));
+    }
+
+    @Test
+    public void earlierAspectsRunAfterALaterFault() throws Exception {
+	FakeExperiment exp = new FakeExperiment();
+	Scripted op = new Scripted();
+	final CountDownLatch bFailing = new CountDownLatch(1);
+
+	// a is held until b has faulted on a later aspect
+	op.on("a0", new Runnable() {
+	    public void run() {
+		await(bFailing).run();
+		try {
+		    Thread.sleep(200);
+		}
+		catch (InterruptedException ignored) { }
+	    }
+	});
+	op.on("a1", new Runnable() {
+	    public void run() { events.add("a1 ran"); }
+	});
+	op.on("bad2", new Runnable() {
+	    public void run() { bFailing.countDown(); }
+	});
+	op.on("a3", new Runnable() {
+	    public void run() { events.add("a3 ran"); }
+	});
+	try {
+	    exp.processAspects(new ExperimentAspect[] {
+		    aspect("a", "a0"), aspect("a", "a1"),
+		    aspect("b", "bad2"), aspect("a", "a3"),
+		}, new FakeFactory(), exp, op);
+	    fail("Fault was not reported");
+	}
+	catch (DeterFault df) {
+	    assertEquals("bad2", df.getDetailMessage());
+	}
+	assertTrue(events.contains("a1 ran"));
+	assertFalse(events.contains("a3 ran"));
+    }
+
+    @Test
+    public void callerRunsGroupsThePoolHasNotStarted() throws Exception {
+	FakeExperiment exp = new FakeExperiment();
+	Scripted op = new Scripted();
+	final CountDownLatch release = new CountDownLatch(1);
+	final List<Thread> ran = new ArrayList<Thread>();
+	AspectExecutor executor = AspectExecutor.getInstance();
+
+	// Keep every pool thread busy
+	for (int i = 0; i < 16; i++)
+	    executor.submit(await(release));
+	op.on("b1", new Runnable() {
+	    public void run() { ran.add(Thread.currentThread()); }
+	});
+	try {
+	    exp.processAspects(new ExperimentAspect[] {
+		    aspect("a", "a0"), aspect("b", "b1"),
+		}, new FakeFactory(), exp, op);
+	}
+	finally {
+	    release.countDown();
+	}
+	assertEquals(Arrays.asList(Thread.currentThread()), ran);
+	assertTrue(events.contains("finalize b"));
+    }
+}
@@ -0,0 +1,71 @@
+package net.deterlab.testbed.experiment;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for reading ranges of aspect files.
+ */
+public class FileRangeDataSourceTest {
+    /** A ten byte file */
+    private File file;
+
+    @Before
+    public void makeFile() throws Exception {
+	FileOutputStream out;
+
+	file = File.createTempFile("range", null);
+	out = new FileOutputStream(file);
+	out.write("0123456789".getBytes());
+	out.close();
+    }
+
+    @After
+    public void removeFile() {
+	file.delete();
+    }
+
+    /**
+     * Read everything the source returns.
+     * @param ds the source
+     * @return the contents as a string
+     */
+    private String read(FileRangeDataSource ds) throws Exception {
+	ByteArrayOutputStream bos = new ByteArrayOutputStream();
+	InputStream in = ds.getInputStream();
+	byte[] buf = new byte[3];
+	int r;
+
+	while ( (r = in.read(buf)) != -1)
+	    bos.write(buf, 0, r);
+	in.close();
+	return bos.toString();
+    }
+
+    @Test
+    public void middleRange() throws Exception {
+	FileRangeDataSource ds = new FileRangeDataSource(file, 2, 5);
+
+	assertEquals("23456", read(ds));
+	assertEquals(5, ds.getLength());
+    }
+
+    @Test
+    public void restOfFile() throws Exception {
+	assertEquals("789", read(new FileRangeDataSource(file, 7, -1)));
+    }
+
+    @Test
+    public void clippedAtEnd() throws Exception {
+	assertEquals("89", read(new FileRangeDataSource(file, 8, 100)));
+	assertEquals("", read(new FileRangeDataSource(file, 20, 5)));
+    }
+}
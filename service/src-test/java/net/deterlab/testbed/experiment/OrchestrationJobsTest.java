@@ -0,0 +1,157 @@
+package net.deterlab.testbed.experiment;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import java.util.Arrays;
+
+import net.deterlab.testbed.api.DeterFault;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for running orchestrations through OrchestrationJobs.
+ */
+public class OrchestrationJobsTest {
+    /** Directory for the logs and scripts */
+    private File dir;
+
+    @Before
+    public void setUp() throws Exception {
+	dir = Files.createTempDirectory("orch").toFile();
+    }
+
+    @After
+    public void tearDown() {
+	for (File f : dir.listFiles())
+	    f.delete();
+	dir.delete();
+    }
+
+    /**
+     * Write an orchestrator script that runs the given shell commands.
+     * @param body the commands
+     * @return the script's path
+     * @throws Exception on errors
+     */
+    private String script(String body) throws Exception {
+	File f = new File(dir, "orch.sh");
+
+	Files.write(f.toPath(), ("#!/bin/sh\n" + body + "\n").getBytes());
+	f.setExecutable(true);
+	return f.getAbsolutePath();
+    }
+
+    @Test
+    public void jobRecordsExitAndLog() throws Exception {
+	OrchestrationJobs jobs = new OrchestrationJobs(1, 1,
+		script("echo orchestrating; exit 3"), dir);
+	OrchestrationJobs.Job job = jobs.submit("p:e", "orch", new byte[0]);
+
+	assertTrue(job.await(10000));
+	assertEquals(OrchestrationJobs.Job.FAILED, job.getStatus());
+	assertEquals(3, job.getExitCode());
+	assertEquals("orchestrating\n", job.readLog(0, 1000));
+	assertEquals("strating\n", job.readLog(5, 1000));
+	jobs.shutdown();
+    }
+
+    @Test
+    public void oneActiveJobPerExperiment() throws Exception {
+	OrchestrationJobs jobs = new OrchestrationJobs(2, 1,
+		script("sleep 30"), dir);
+	OrchestrationJobs.Job job = jobs.submit("p:e", "orch", new byte[0]);
+
+	assertNotNull(job);
+	assertNull(jobs.submit("p:e", "orch", new byte[0]));
+	assertSame(job, jobs.getJob("p:e"));
+	assertTrue(jobs.cancel("p:e"));
+	assertTrue(job.await(10000));
+	assertEquals(OrchestrationJobs.Job.CANCELLED, job.getStatus());
+	assertFalse(jobs.cancel("p:e"));
+	jobs.shutdown();
+    }
+
+    @Test
+    public void queuedJobCancelsAndFullQueueRefuses() throws Exception {
+	OrchestrationJobs jobs = new OrchestrationJobs(1, 1,
+		script("sleep 30"), dir);
+	OrchestrationJobs.Job running =
+	    jobs.submit("p:a", "orch", new byte[0]);
+
+	// Let the worker take the first job so the second fills the queue
+	for (int i = 0; i < 100 && running.getStarted() == null; i++)
+	    Thread.sleep(50);
+
+	OrchestrationJobs.Job queued =
+	    jobs.submit("p:b", "orch", new byte[0]);
+
+	try {
+	    jobs.submit("p:c", "orch", new byte[0]);
+	    fail("Full queue accepted a job");
+	}
+	catch (DeterFault df) {
+	    assertEquals(DeterFault.busy, df.getErrorCode());
+	}
+	assertNull(jobs.getJob("p:c"));
+	assertTrue(queued.cancel());
+	assertEquals(OrchestrationJobs.Job.CANCELLED, queued.getStatus());
+	assertNull(queued.getStarted());
+	assertTrue(running.cancel());
+	assertTrue(running.await(10000));
+	jobs.shutdown();
+    }
+
+    @Test
+    public void unexpectedErrorFailsJob() throws Exception {
+	OrchestrationJobs jobs = new OrchestrationJobs(1, 1,
+		script("exit 0"), dir);
+	// No procedure to write out
+	OrchestrationJobs.Job job = jobs.submit("p:e", "orch", null);
+
+	assertTrue(job.await(10000));
+	assertEquals(OrchestrationJobs.Job.FAILED, job.getStatus());
+	assertNotNull(jobs.submit("p:e", "orch", new byte[0]));
+	jobs.shutdown();
+    }
+
+    @Test
+    public void logReadsKeepCharactersWhole() throws Exception {
+	String text = "a\u00e9\u20ac\ud83d\ude00b";
+	byte[] bytes = text.getBytes("UTF-8");
+	File out = new File(dir, "out");
+	// The log ends part way through a character
+	byte[] partial = Arrays.copyOf(bytes, bytes.length + 1);
+
+	partial[bytes.length] = bytes[3];
+	Files.write(out.toPath(), partial);
+
+	OrchestrationJobs jobs = new OrchestrationJobs(1, 1,
+		script("cat " + out.getAbsolutePath()), dir);
+	OrchestrationJobs.Job job = jobs.submit("p:e", "orch", new byte[0]);
+
+	assertTrue(job.await(10000));
+	assertEquals(text, job.readLog(0, 1000));
+	assertEquals("a\u00e9", job.readLog(0, 2));
+	assertEquals("\u20ac", job.readLog(2, 1));
+
+	// Following the log in small pieces reads everything once
+	for (int length = 1; length < 6; length++) {
+	    StringBuilder sb = new StringBuilder();
+	    long offset = 0;
+
+	    for (int i = 0; i < 20 && offset < bytes.length; i++) {
+		String s = job.readLog(offset, length);
+
+		sb.append(s);
+		offset += s.getBytes("UTF-8").length;
+	    }
+	    assertEquals(text, sb.toString());
+	}
+	jobs.shutdown();
+    }
+}
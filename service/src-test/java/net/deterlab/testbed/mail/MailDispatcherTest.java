@@ -0,0 +1,149 @@
+package net.deterlab.testbed.mail;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Properties;
+
+import net.deterlab.testbed.api.Config;
+import net.deterlab.testbed.api.DeterFault;
+import net.deterlab.testbed.api.TestConfig;
+import net.deterlab.testbed.db.TestConnection;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for how the dispatcher retries, gives up on and defers messages,
+ * with an outbox and transport held in memory.
+ */
+public class MailDispatcherTest {
+    /** Messages the outbox hands out */
+    private List<MailMessage> pending;
+    /** Addresses of the messages sent */
+    private List<String> sent;
+    /** Address and next attempt (null for given up) of failed messages */
+    private List<String> failed;
+
+    /**
+     * An outbox that hands out the pending messages and records results.
+     */
+    private class FakeOutbox extends MailOutboxDB {
+	/**
+	 * Create the outbox.
+	 * @throws DeterFault never
+	 */
+	public FakeOutbox() throws DeterFault { super(new TestConnection()); }
+
+	public List<MailMessage> getPending(int limit) {
+	    return new ArrayList<MailMessage>(pending);
+	}
+
+	public void sent(MailMessage m) { sent.add(m.getAddress()); }
+
+	public void failed(MailMessage m, String error, Date next) {
+	    failed.add(m.getAddress() + " " +
+		    ((next != null) ? "retry" : "gave up"));
+	}
+    }
+
+    /**
+     * A transport that rejects addresses starting with "perm" permanently
+     * and those starting with "temp" temporarily.  The connection drops
+     * while sending to addresses starting with "drop".
+     */
+    static private class FakeTransport implements MailTransport {
+	/** True while connected */
+	private boolean open = false;
+
+	public void open() { open = true; }
+
+	public void send(MailMessage m) throws DeterFault {
+	    String a = m.getAddress();
+
+	    if ( a.startsWith("perm"))
+		throw new DeterFault(DeterFault.request, "550 " + a);
+	    if ( a.startsWith("temp"))
+		throw new DeterFault(DeterFault.internal, "451 " + a);
+	    if ( a.startsWith("drop")) {
+		open = false;
+		throw new DeterFault(DeterFault.internal, "dropped");
+	    }
+	}
+
+	public boolean isOpen() { return open; }
+
+	public void close() { open = false; }
+    }
+
+    /**
+     * A dispatcher over the fake outbox.  It is never started; the tests
+     * send batches themselves.
+     */
+    private class FakeDispatcher extends MailDispatcher {
+	/**
+	 * Create the dispatcher.
+	 */
+	public FakeDispatcher() {
+	    super(new FakeTransport(), 10, 3, 1000L, 60000L);
+	}
+
+	protected MailOutboxDB openOutbox() throws DeterFault {
+	    return new FakeOutbox();
+	}
+    }
+
+    /**
+     * Make pending messages to the addresses.
+     * @param attempts the attempts each has already had
+     * @param addrs the addresses
+     */
+    private void queue(int attempts, String... addrs) {
+	for (String a : addrs)
+	    pending.add(new MailMessage(pending.size(), a, "s", "b",
+			attempts));
+    }
+
+    @Before
+    public void setUp() {
+	TestConfig.use(new Properties());
+	pending = new ArrayList<MailMessage>();
+	sent = new ArrayList<String>();
+	failed = new ArrayList<String>();
+    }
+
+    @Test
+    public void permanentFailuresAreNotRetried() throws Exception {
+	queue(0, "a@x", "perm@x", "temp@x");
+	queue(2, "temp2@x");
+
+	assertEquals(4, new FakeDispatcher().sendBatch());
+	assertEquals(Arrays.asList("a@x"), sent);
+	assertEquals(Arrays.asList("perm@x gave up", "temp@x retry",
+		    "temp2@x gave up"), failed);
+    }
+
+    @Test
+    public void droppedConnectionDefersTheRest() throws Exception {
+	queue(0, "a@x", "drop@x", "b@x", "c@x");
+
+	// Only the message in flight is charged an attempt
+	assertEquals(0, new FakeDispatcher().sendBatch());
+	assertEquals(Arrays.asList("a@x"), sent);
+	assertEquals(Arrays.asList("drop@x retry"), failed);
+    }
+
+    @Test
+    public void mailerIsTheDefaultTransport() throws Exception {
+	Config config = new Config();
+
+	assertTrue(MailDispatcher.makeTransport(null, config)
+		instanceof MailerTransport);
+	assertTrue(MailDispatcher.makeTransport(
+		    SmtpMailTransport.class.getName(), config)
+		instanceof SmtpMailTransport);
+    }
+}
@@ -0,0 +1,169 @@
+package net.deterlab.testbed.mail;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import net.deterlab.testbed.api.DeterFault;
+
+/**
+ * Exercise the SMTP transport against a minimal relay on the loopback
+ * interface.
+ */
+public class SmtpMailTransportTest {
+    /** The fake relay's listening socket */
+    private ServerSocket server;
+    /** Thread running the fake relay */
+    private Thread relay;
+    /** Commands and data lines the relay received */
+    private List<String> received;
+
+    @Before
+    public void startRelay() throws Exception {
+	server = new ServerSocket(0);
+	received = Collections.synchronizedList(new ArrayList<String>());
+	relay = new Thread(new Runnable() {
+	    public void run() { serve(); }
+	});
+	relay.start();
+    }
+
+    @After
+    public void stopRelay() throws Exception {
+	server.close();
+	relay.join(5000);
+    }
+
+    /**
+     * Accept one session.  Recipients at "bad.example" are refused.
+     */
+    private void serve() {
+	try (Socket s = server.accept()) {
+	    BufferedReader in = new BufferedReader(
+		    new InputStreamReader(s.getInputStream(), "US-ASCII"));
+	    PrintWriter out = new PrintWriter(s.getOutputStream(), true);
+	    String line = null;
+	    boolean data = false;
+
+	    out.print("220 fake ESMTP\r\n");
+	    out.flush();
+	    while ( (line = in.readLine()) != null ) {
+		received.add(line);
+		String reply = null;
+
+		if ( data ) {
+		    if ( line.equals(".")) {
+			data = false;
+			reply = "250 queued";
+		    }
+		}
+		else if ( line.startsWith("EHLO"))
+		    reply = "250-fake\r\n250 8BITMIME";
+		else if ( line.startsWith("RCPT"))
+		    reply = line.contains("bad.example") ?
+			"550 no such user" : "250 ok";
+		else if ( line.equals("DATA")) {
+		    data = true;
+		    reply = "354 go ahead";
+		}
+		else if ( line.equals("QUIT")) {
+		    out.print("221 bye\r\n");
+		    out.flush();
+		    break;
+		}
+		else reply = "250 ok";
+
+		if ( reply != null ) {
+		    out.print(reply + "\r\n");
+		    out.flush();
+		}
+	    }
+	}
+	catch (Exception ignored) { }
+    }
+
+    @Test
+    public void sendBatch() throws Exception {
+	SmtpMailTransport t = new SmtpMailTransport("localhost",
+		server.getLocalPort(), "ops@example.org");
+
+	t.open();
+	t.send(new MailMessage("a@example.org", "one", "hello\n.hidden\n"));
+	try {
+	    t.send(new MailMessage("x@bad.example", "two", "refused"));
+	    fail("refused recipient was accepted");
+	}
+	catch (DeterFault df) {
+	    // 550 is permanent
+	    assertEquals(DeterFault.request, df.getErrorCode());
+	}
+	assertTrue(t.isOpen());
+	t.send(new MailMessage("b@example.org", "three", "bye"));
+	t.close();
+	relay.join(5000);
+
+	assertTrue(received.contains("RCPT TO:<a@example.org>"));
+	assertTrue(received.contains("Subject: one"));
+	assertTrue(received.contains("..hidden"));
+	assertTrue(received.contains("RSET"));
+	assertTrue(received.contains("RCPT TO:<b@example.org>"));
+	assertEquals(2, Collections.frequency(received, "DATA"));
+	assertEquals("QUIT", received.get(received.size() - 1));
+	assertTrue(received.contains("MIME-Version: 1.0"));
+	assertTrue(received.contains(
+		    "Content-Type: text/plain; charset=UTF-8"));
+    }
+
+    @Test
+    public void injectionIsRefused() throws Exception {
+	SmtpMailTransport t = new SmtpMailTransport("localhost",
+		server.getLocalPort(), "ops@example.org");
+
+	t.open();
+	for (String a : new String[] {
+		"a@example.org>\r\nRCPT TO:<b@example.org",
+		"a@example.org\nBcc: b@example.org", "-oQ@example.org",
+		"no-at-sign", null }) {
+	    try {
+		t.send(new MailMessage(a, "s", "body"));
+		fail("accepted " + a);
+	    }
+	    catch (DeterFault expected) { }
+	}
+	t.send(new MailMessage("a@example.org",
+		    "one\r\nBcc: b@example.org", "body"));
+	t.close();
+	relay.join(5000);
+
+	assertEquals(1, Collections.frequency(received, "DATA"));
+	assertTrue(received.contains("Subject: one Bcc: b@example.org"));
+	for (String line : received)
+	    assertFalse(line, line.startsWith("Bcc:"));
+    }
+
+    @Test
+    public void nonAsciiSubjectIsEncoded() {
+	String e = SmtpMailTransport.encodeHeader("caf\u00e9");
+
+	assertEquals("=?UTF-8?B?Y2Fmw6k=?=", e);
+	assertEquals("plain", SmtpMailTransport.encodeHeader("plain"));
+    }
+
+    @Test
+    public void backoffDoubles() {
+	assertEquals(1000L, MailDispatcher.backoff(1, 1000L));
+	assertEquals(4000L, MailDispatcher.backoff(3, 1000L));
+	assertEquals(24L * 60 * 60 * 1000, MailDispatcher.backoff(40, 1000L));
+    }
+}
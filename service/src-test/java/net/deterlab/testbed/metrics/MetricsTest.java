@@ -0,0 +1,64 @@
+package net.deterlab.testbed.metrics;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * Tests for histograms and per-request metrics.
+ */
+public class MetricsTest {
+
+    @Test
+    public void bucketsBoundValues() {
+	for (long v = 1; v < 100000; v += 7) {
+	    long bound = Histogram.upperBound(Histogram.bucket(v));
+
+	    assertTrue(v <= bound);
+	    assertTrue(bound <= v + v / 4);
+	}
+	assertEquals(Long.MAX_VALUE,
+		Histogram.upperBound(Histogram.bucket(Long.MAX_VALUE)));
+    }
+
+    @Test
+    public void percentiles() {
+	Histogram h = new Histogram("us");
+
+	for (long v = 1; v <= 1000; v++)
+	    h.add(v);
+	assertEquals(1000, h.getCount());
+	assertEquals(500500, h.getTotal());
+	assertEquals(1000, h.getMax());
+	assertEquals(1000, h.percentile(100));
+	assertTrue(h.percentile(50) >= 500 && h.percentile(50) <= 625);
+	assertTrue(h.percentile(99) >= 990);
+    }
+
+    @Test
+    public void statementsChargedToRequest() {
+	Metrics.reset(null);
+	Metrics.statement(5000);
+	Metrics.startRequest("Test.op");
+	Metrics.statement(2000000);
+	Metrics.statement(1000000);
+	Metrics.authorization(4000000);
+	Metrics.endRequest(true);
+
+	assertEquals(3, Metrics.getHistogram("db.statement").getCount());
+	assertEquals(1, Metrics.getHistogram("api.Test.op").getCount());
+	assertEquals(3000, Metrics.getHistogram("api.Test.op.db").getTotal());
+	assertEquals(4000,
+		Metrics.getHistogram("api.Test.op.authz").getTotal());
+	assertEquals(2, Metrics.getHistogram("api.Test.op.sql").getMax());
+	assertEquals(Long.valueOf(1), Metrics.getCounter("api.Test.op.faults"));
+
+	Metrics.cacheAccess("c", 3, 1);
+	assertEquals(Long.valueOf(3), Metrics.getCounter("cache.c.hit"));
+	Metrics.reset(Arrays.asList("cache.c.hit"));
+	assertNull(Metrics.getCounter("cache.c.hit"));
+	assertNotNull(Metrics.getCounter("cache.c.miss"));
+    }
+}
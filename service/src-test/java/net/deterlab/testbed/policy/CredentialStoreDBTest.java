@@ -0,0 +1,132 @@
+package net.deterlab.testbed.policy;
+
+import static org.junit.Assert.*;
+
+import java.sql.PreparedStatement;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Properties;
+
+import net.deterlab.abac.Credential;
+import net.deterlab.abac.InternalCredential;
+import net.deterlab.abac.Role;
+import net.deterlab.testbed.api.DeterFault;
+import net.deterlab.testbed.api.TestConfig;
+import net.deterlab.testbed.db.TestConnection;
+import net.deterlab.testbed.db.TestStatements;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for the credential sets a batch of calls keeps, with the database
+ * replaced by canned statements.
+ */
+public class CredentialStoreDBTest {
+    /** The statements */
+    private TestStatements statements;
+    /** The sets read from the database, in order */
+    private List<String> reads;
+
+    /**
+     * A store whose sets each hold one credential named for the set.
+     */
+    private class FakeStore extends CredentialStoreDB {
+	/**
+	 * Create the store.
+	 * @throws DeterFault never
+	 */
+	public FakeStore() throws DeterFault { super(new TestConnection()); }
+
+	public PreparedStatement getPreparedStatement(String sql) {
+	    return statements.statement(sql);
+	}
+
+	public PreparedStatement getPreparedStatement(String sql, int flags) {
+	    return statements.statement(sql);
+	}
+
+	protected List<List<String>> findCredentialsBySet(
+		List<CredentialSet> sets) {
+	    List<List<String>> rv = new ArrayList<List<String>>();
+
+	    for (CredentialSet s : sets) {
+		reads.add(s.getName());
+		rv.add(Arrays.asList(s.getName() + ".member <- x"));
+	    }
+	    return rv;
+	}
+    }
+
+    /**
+     * Return credential sets for users.
+     * @param uids the users
+     * @return the sets
+     */
+    static private List<CredentialSet> users(String... uids) {
+	List<CredentialSet> rv = new ArrayList<CredentialSet>();
+
+	for (String u : uids)
+	    rv.add(new CredentialSet("user", u));
+	return rv;
+    }
+
+    @Before
+    public void setUp() {
+	TestConfig.use(new Properties());
+	statements = new TestStatements();
+	reads = new ArrayList<String>();
+	CredentialStoreDB.startBatch();
+    }
+
+    @After
+    public void tearDown() {
+	CredentialStoreDB.endBatch();
+    }
+
+    @Test
+    public void batchReadsEachSetOnce() throws Exception {
+	FakeStore store = new FakeStore();
+	Collection<String> creds = null;
+
+	store.batchCredentials(users("alice"));
+	creds = store.batchCredentials(users("alice", "bob"));
+	assertEquals(Arrays.asList("alice", "bob"), reads);
+	assertEquals(Arrays.asList("alice.member <- x", "bob.member <- x"),
+		new ArrayList<String>(creds));
+
+	// Outside a batch nothing is kept
+	CredentialStoreDB.endBatch();
+	store.batchCredentials(users("alice"));
+	assertEquals(2, reads.size());
+	assertTrue(statements.executed("SELECT c.cred FROM credentials AS c"));
+    }
+
+    @Test
+    public void addingCredentialsDropsKeptSets() throws Exception {
+	FakeStore store = new FakeStore();
+	Credential c = new InternalCredential(new Role("alice.member"),
+		new Role("bob"));
+
+	store.batchCredentials(users("alice"));
+	store.addCredentials(Arrays.asList(c), users("alice"));
+	store.batchCredentials(users("alice"));
+	assertEquals(Arrays.asList("alice", "alice"), reads);
+    }
+
+    @Test
+    public void removingCredentialsDropsKeptSets() throws Exception {
+	FakeStore store = new FakeStore();
+
+	statements.answer("SELECT c.idx", new Object[] { "7" });
+	store.batchCredentials(users("alice"));
+	store.removeCredentials(users("alice"));
+	assertTrue(statements.executed("DELETE FROM credentials"));
+	store.batchCredentials(users("alice"));
+	assertEquals(Arrays.asList("alice", "alice"), reads);
+    }
+}
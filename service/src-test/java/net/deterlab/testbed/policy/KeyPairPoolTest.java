@@ -0,0 +1,83 @@
+package net.deterlab.testbed.policy;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.security.KeyPair;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import net.deterlab.testbed.api.DeterFault;
+
+/**
+ * Tests for the pre-generated key pair pool.
+ */
+public class KeyPairPoolTest {
+
+    @Test
+    public void poolFillsAndHandsOutDistinctKeys() throws Exception {
+	KeyPairPool pool = new KeyPairPool(2);
+
+	for (int i = 0; i < 200 && pool.size() < 2; i++)
+	    Thread.sleep(50);
+	assertEquals(2, pool.size());
+
+	KeyPair a = pool.take();
+	KeyPair b = pool.take();
+	assertNotNull(a);
+	assertNotNull(b);
+	assertFalse(a.getPublic().equals(b.getPublic()));
+	pool.shutdown();
+    }
+
+    @Test
+    public void saveAndLoadRoundTrip() throws Exception {
+	File f = File.createTempFile("keypool", ".bin");
+	char[] pw = "secret".toCharArray();
+	KeyPair kp = KeyPairPool.generate();
+
+	try {
+	    KeyPairPool.save(f, pw, Arrays.asList(kp));
+	    List<KeyPair> back = KeyPairPool.load(f, pw);
+
+	    assertEquals(1, back.size());
+	    assertEquals(kp.getPublic(), back.get(0).getPublic());
+	    assertArrayEquals(kp.getPrivate().getEncoded(),
+		    back.get(0).getPrivate().getEncoded());
+	}
+	finally {
+	    f.delete();
+	}
+    }
+
+    @Test(expected = DeterFault.class)
+    public void wrongPasswordFails() throws Exception {
+	File f = File.createTempFile("keypool", ".bin");
+
+	try {
+	    KeyPairPool.save(f, "secret".toCharArray(),
+		    Arrays.asList(KeyPairPool.generate()));
+	    KeyPairPool.load(f, "guess".toCharArray());
+	}
+	finally {
+	    f.delete();
+	}
+    }
+
+    @Test
+    public void savedKeysAreRestoredOnce() throws Exception {
+	File f = File.createTempFile("keypool", ".bin");
+	char[] pw = "secret".toCharArray();
+	KeyPair kp = KeyPairPool.generate();
+
+	KeyPairPool.save(f, pw, Arrays.asList(kp));
+	KeyPairPool pool = new KeyPairPool(4, f, pw);
+
+	assertFalse(f.exists());
+	assertEquals(kp.getPublic(), pool.take().getPublic());
+	pool.shutdown();
+	f.delete();
+    }
+}
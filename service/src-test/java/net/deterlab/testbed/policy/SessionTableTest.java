@@ -0,0 +1,74 @@
+package net.deterlab.testbed.policy;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import net.deterlab.abac.Identity;
+
+/**
+ * Tests for the in-memory session table.
+ */
+public class SessionTableTest {
+
+    @Before
+    public void clear() {
+	SessionTable.clear();
+    }
+
+    @Test
+    public void bindingsExpire() {
+	long now = System.currentTimeMillis();
+
+	SessionTable.bind("k1", "alice", now + 60000);
+	SessionTable.bind("k2", "bob", now - 1);
+	assertEquals("alice", SessionTable.lookup("k1"));
+	assertNull(SessionTable.lookup("k2"));
+	assertNull(SessionTable.lookup("k3"));
+    }
+
+    @Test
+    public void unbindRemovesBindings() {
+	long later = System.currentTimeMillis() + 60000;
+
+	SessionTable.bind("k1", "alice", later);
+	SessionTable.bind("k2", "alice", later);
+	SessionTable.bind("k3", "bob", later);
+	SessionTable.unbind("k3");
+	assertNull(SessionTable.lookup("k3"));
+	SessionTable.unbindUid("alice");
+	assertNull(SessionTable.lookup("k1"));
+	assertNull(SessionTable.lookup("k2"));
+    }
+
+    @Test
+    public void lookupsAcrossAnUnbindAreNotRemembered() {
+	long later = System.currentTimeMillis() + 60000;
+	long gen = SessionTable.generation();
+
+	// The binding was read before the unbind and delete finished
+	SessionTable.unbind("k1");
+	assertFalse(SessionTable.bind("k1", "alice", later, gen));
+	assertNull(SessionTable.lookup("k1"));
+
+	gen = SessionTable.generation();
+	SessionTable.unbindUid("bob");
+	assertFalse(SessionTable.bind("k2", "bob", later, gen));
+	assertNull(SessionTable.lookup("k2"));
+
+	gen = SessionTable.generation();
+	assertTrue(SessionTable.bind("k1", "alice", later, gen));
+	assertEquals("alice", SessionTable.lookup("k1"));
+    }
+
+    @Test
+    public void identitiesAreParsedOnce() throws Exception {
+	Identity orig = new Identity("alice");
+	Identity a = SessionTable.getIdentity(orig.getCertificate());
+	Identity b = SessionTable.getIdentity(orig.getCertificate());
+
+	assertEquals(orig.getKeyID(), a.getKeyID());
+	assertSame(a, b);
+    }
+}
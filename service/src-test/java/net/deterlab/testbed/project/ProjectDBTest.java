@@ -0,0 +1,141 @@
+package net.deterlab.testbed.project;
+
+import static org.junit.Assert.*;
+
+import java.sql.PreparedStatement;
+
+import java.util.Properties;
+
+import net.deterlab.testbed.api.DeterFault;
+import net.deterlab.testbed.api.TestConfig;
+import net.deterlab.testbed.circle.CircleDB;
+import net.deterlab.testbed.db.TestConnection;
+import net.deterlab.testbed.db.TestStatements;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for tombstoning projects, against canned query results.
+ */
+public class ProjectDBTest {
+    /** The statements both fakes execute */
+    private TestStatements db;
+
+    /**
+     * The project's linked circle.
+     */
+    private class FakeCircle extends CircleDB {
+	/**
+	 * Create the circle.
+	 * @throws DeterFault never
+	 */
+	public FakeCircle() throws DeterFault {
+	    super("p:p", new TestConnection());
+	}
+
+	/**
+	 * Return a statement from the canned database.
+	 * @param sql the statement
+	 * @return the statement
+	 */
+	public PreparedStatement getPreparedStatement(String sql) {
+	    return db.statement(sql);
+	}
+
+	/**
+	 * There are no credentials to remove.
+	 * @param uid ignored
+	 */
+	public void removeUserCredentials(String uid) { }
+    }
+
+    /**
+     * Project p, with index 7.
+     */
+    private class FakeProject extends ProjectDB {
+	/**
+	 * Create the project.
+	 * @throws DeterFault never
+	 */
+	public FakeProject() throws DeterFault {
+	    super("p", new TestConnection());
+	}
+
+	/**
+	 * Return a statement from the canned database.
+	 * @param sql the statement
+	 * @return the statement
+	 */
+	public PreparedStatement getPreparedStatement(String sql) {
+	    return db.statement(sql);
+	}
+
+	/**
+	 * Return the linked circle.
+	 * @return the linked circle
+	 * @throws DeterFault never
+	 */
+	public CircleDB getLinkedCircle() throws DeterFault {
+	    return new FakeCircle();
+	}
+
+	/**
+	 * There are no credentials to remove.
+	 * @param uid ignored
+	 */
+	public void removeUserCredentials(String uid) { }
+    }
+
+    @Before
+    public void setUp() {
+	TestConfig.use(new Properties());
+	db = new TestStatements();
+	db.answer("SELECT idx FROM projects", new Object[] { 7 });
+	db.answer("SELECT uid FROM circleusers",
+		new Object[] { "alice" }, new Object[] { "bob" });
+    }
+
+    @Test
+    public void tombstoneHidesProjectAndCircle() throws Exception {
+	ProjectDB p = new FakeProject();
+
+	p.tombstone();
+	assertEquals("p:7", p.getName());
+
+	// The circle loses its members, and they lose what it shared
+	assertTrue(db.executed("DELETE FROM circleusers"));
+	assertTrue(db.executed("DELETE FROM circleperms"));
+	int refreshed = 0;
+	for (String sql : db.log)
+	    if ( sql.startsWith("DELETE FROM visibility WHERE uidx"))
+		refreshed++;
+	assertEquals(2, refreshed);
+
+	// The project loses its members and is renamed and marked
+	assertTrue(db.executed("DELETE FROM projectusers"));
+	assertTrue(db.executed("DELETE FROM projectperms"));
+	assertTrue(db.executed("UPDATE scopenames SET name"));
+	assertTrue(db.executed("UPDATE rawprojects SET removed"));
+
+	// Reclaiming the rows is left to the collector
+	assertFalse(db.executed("DELETE FROM circles"));
+	assertFalse(db.executed("DELETE FROM rawprojects"));
+    }
+
+    @Test
+    public void missingProjectIsNotTombstoned() throws Exception {
+	ProjectDB p = new FakeProject();
+
+	db.answer("SELECT idx FROM projects");
+	try {
+	    p.tombstone();
+	    fail("Tombstoned a missing project");
+	}
+	catch (DeterFault df) {
+	    assertEquals(DeterFault.request, df.getErrorCode());
+	}
+	assertEquals("p", p.getName());
+	assertFalse(db.executed("DELETE FROM circleusers"));
+    }
+}
@@ -0,0 +1,49 @@
+package net.deterlab.testbed.realization;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * Tests for waking realization event waiters.
+ */
+public class RealizationEventsTest {
+    @Test
+    public void changeBeforeWaitIsNotMissed() throws InterruptedException {
+	long seen = RealizationEvents.changes();
+	long start = System.currentTimeMillis();
+
+	RealizationEvents.changed();
+	RealizationEvents.await(seen, 10000);
+	assertTrue(System.currentTimeMillis() - start < 5000);
+	assertEquals(seen + 1, RealizationEvents.changes());
+    }
+
+    @Test
+    public void changeWakesWaiter() throws InterruptedException {
+	long seen = RealizationEvents.changes();
+	long start = System.currentTimeMillis();
+	Thread t = new Thread() {
+	    public void run() {
+		try {
+		    Thread.sleep(50);
+		}
+		catch (InterruptedException ignored) { }
+		RealizationEvents.changed();
+	    }
+	};
+
+	t.start();
+	RealizationEvents.await(seen, 10000);
+	assertTrue(System.currentTimeMillis() - start < 5000);
+	t.join();
+    }
+
+    @Test
+    public void waitTimesOut() throws InterruptedException {
+	long start = System.currentTimeMillis();
+
+	RealizationEvents.await(RealizationEvents.changes(), 50);
+	assertTrue(System.currentTimeMillis() - start >= 50);
+    }
+}
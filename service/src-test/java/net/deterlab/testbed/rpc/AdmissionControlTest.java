@@ -0,0 +1,62 @@
+package net.deterlab.testbed.rpc;
+
+import static org.junit.Assert.*;
+
+import net.deterlab.testbed.api.DeterFault;
+
+import org.junit.Test;
+
+/**
+ * Tests for the admission control bulkheads.
+ */
+public class AdmissionControlTest {
+    /**
+     * Enter the bulkhead and return the fault code, or DeterFault.none if
+     * the call was admitted.
+     * @param b the bulkhead
+     * @param caller the caller
+     * @return the fault code
+     */
+    private int tryEnter(AdmissionControl.Bulkhead b, String caller) {
+	try {
+	    b.enter(caller);
+	    return DeterFault.none;
+	}
+	catch (DeterFault df) {
+	    return df.getErrorCode();
+	}
+    }
+
+    @Test
+    public void perCallerLimit() {
+	AdmissionControl.Bulkhead b =
+	    new AdmissionControl.Bulkhead("test", 10, 2, 0, 0);
+
+	assertEquals(DeterFault.none, tryEnter(b, "a"));
+	assertEquals(DeterFault.none, tryEnter(b, "a"));
+	assertEquals(DeterFault.busy, tryEnter(b, "a"));
+	assertEquals(DeterFault.none, tryEnter(b, "b"));
+	b.exit("a");
+	assertEquals(DeterFault.none, tryEnter(b, "a"));
+    }
+
+    @Test
+    public void queueAndTimeout() {
+	AdmissionControl.Bulkhead full =
+	    new AdmissionControl.Bulkhead("test", 1, 5, 0, 1000);
+
+	assertEquals(DeterFault.none, tryEnter(full, "a"));
+	// No queue: rejected without waiting
+	assertEquals(DeterFault.busy, tryEnter(full, "b"));
+
+	AdmissionControl.Bulkhead timed =
+	    new AdmissionControl.Bulkhead("test", 1, 5, 1, 10);
+
+	assertEquals(DeterFault.none, tryEnter(timed, "a"));
+	assertEquals(DeterFault.busy, tryEnter(timed, "b"));
+	timed.exit("a");
+	// The rejected call did not hold the slot
+	assertEquals(DeterFault.none, tryEnter(timed, "b"));
+	assertTrue(DeterFault.isRetryable(DeterFault.busy));
+    }
+}
@@ -0,0 +1,133 @@
+package net.deterlab.testbed.rpc;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import net.deterlab.testbed.api.DeterFault;
+import net.deterlab.testbed.api.TestConfig;
+import net.deterlab.testbed.db.SharedConnection;
+import net.deterlab.testbed.db.TestDriver;
+
+import org.apache.axiom.om.OMElement;
+
+import org.apache.axis2.context.MessageContext;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for how a batch makes its calls, with the services replaced by a
+ * script keyed on the operation name.
+ */
+public class BatchMessageReceiverTest {
+    /** The driver making the connections */
+    private TestDriver driver;
+    /** The operations called, in order */
+    private List<String> ran;
+
+    /**
+     * A receiver whose calls each use a database connection.  Operations
+     * starting with "bad" then raise a fault and those starting with
+     * "boom" an unexpected error.
+     */
+    private class ScriptedReceiver extends BatchMessageReceiver {
+	Response invokeCall(MessageContext inMessage, OMElement req,
+		Outcome o, String caller) throws DeterFault {
+	    SharedConnection sc = new SharedConnection();
+
+	    ran.add(o.operation);
+	    sc.open();
+	    sc.getConnection();
+	    sc.close();
+	    if ( o.operation.startsWith("bad"))
+		throw new DeterFault(DeterFault.request, o.operation);
+	    if ( o.operation.startsWith("boom"))
+		throw new IllegalStateException(o.operation);
+	    return null;
+	}
+    }
+
+    /**
+     * Return an element that answers the given methods with the given
+     * values.
+     * @param answers method names alternating with their values
+     * @return the element
+     */
+    static private OMElement element(final Object... answers) {
+	return (OMElement) Proxy.newProxyInstance(
+		BatchMessageReceiverTest.class.getClassLoader(),
+		new Class<?>[] { OMElement.class },
+		new InvocationHandler() {
+		    public Object invoke(Object o, Method m, Object[] a) {
+			for (int i = 0; i < answers.length; i += 2)
+			    if ( m.getName().equals(answers[i]))
+				return answers[i+1];
+			return null;
+		    }
+		});
+    }
+
+    /**
+     * Return call elements for the operations, all on the Users service.
+     * @param ops the operation names
+     * @return the call elements
+     */
+    static private List<OMElement> calls(String... ops) {
+	List<OMElement> rv = new ArrayList<OMElement>();
+
+	for (String op : ops)
+	    rv.add(element("getAttributeValue", "Users",
+			"getFirstElement", element("getLocalName", op)));
+	return rv;
+    }
+
+    @Before
+    public void setUp() throws Exception {
+	Properties props = new Properties();
+
+	props.setProperty("deterDbUrl", TestDriver.URL);
+	TestConfig.use(props);
+	driver = TestDriver.register();
+	ran = new ArrayList<String>();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+	driver.deregister();
+    }
+
+    @Test
+    public void callsShareOneConnection() throws Exception {
+	new ScriptedReceiver().callAll(null, calls("a", "b", "c"), null,
+		"alice");
+	assertEquals(Arrays.asList("a", "b", "c"), ran);
+	assertEquals(1, driver.made());
+	assertEquals(0, driver.open());
+    }
+
+    @Test
+    public void failedCallsDoNotStopLaterCalls() throws Exception {
+	List<BatchMessageReceiver.Outcome> outcomes =
+	    new ScriptedReceiver().callAll(null,
+		    calls("a", "bad", "boom", "d"), null, "alice");
+
+	assertEquals(Arrays.asList("a", "bad", "boom", "d"), ran);
+	assertEquals(4, outcomes.size());
+	assertNull(outcomes.get(0).fault);
+	assertEquals(DeterFault.request, outcomes.get(1).fault.getErrorCode());
+	assertEquals(DeterFault.internal,
+		outcomes.get(2).fault.getErrorCode());
+	assertNull(outcomes.get(3).fault);
+	assertEquals("d", outcomes.get(3).operation);
+	assertEquals(0, driver.open());
+    }
+}
@@ -0,0 +1,286 @@
+package net.deterlab.testbed.rpc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import java.util.Iterator;
+
+import javax.xml.namespace.QName;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+import net.deterlab.testbed.api.AccessMember;
+import net.deterlab.testbed.api.ApiObject;
+import net.deterlab.testbed.api.ExperimentAspect;
+import net.deterlab.testbed.api.ExperimentDescription;
+
+import org.apache.axiom.om.OMElement;
+
+import org.apache.axiom.om.impl.builder.StAXOMBuilder;
+
+import org.apache.axis2.databinding.utils.BeanUtil;
+
+import org.apache.axis2.engine.DefaultObjectSupplier;
+
+import org.apache.axis2.util.StreamWrapper;
+
+/**
+ * Compares the CPU time the generated serializers and the Axis2 reflective
+ * bean serializer take to write and read a viewExperiments result.  The
+ * generated classes must be on the classpath (ant benchmark.receivers).
+ * Times are per result, in microseconds of the calling thread's CPU time.
+ * <p>
+ * Usage: DispatchBenchmark [experiments [iterations]]
+ * @author DETER team
+ * @version 1.0
+ */
+public class DispatchBenchmark {
+    /** Namespace of the elements */
+    static private final String NS = "http://api.testbed.deterlab.net/xsd";
+    /** Element name of each experiment */
+    static private final QName RETURN = new QName(NS, "return");
+
+    /** Discards what is written to it */
+    static private class NullOutputStream extends OutputStream {
+	public void write(int b) { }
+	public void write(byte[] b, int off, int len) { }
+    }
+
+    /** The thread CPU time source */
+    private ThreadMXBean cpu;
+    /** The result being serialized */
+    private ExperimentDescription[] result;
+    /** The result as XML */
+    private String xml;
+    /** Iterations of each measurement */
+    private int iterations;
+
+    /**
+     * Make a result with the given number of experiments, each with a few
+     * ACL entries and aspects.
+     * @param n the number of experiments
+     * @param iterations iterations of each measurement
+     * @throws XMLStreamException if the result cannot be written
+     */
+    public DispatchBenchmark(int n, int iterations)
+	    throws XMLStreamException {
+	cpu = ManagementFactory.getThreadMXBean();
+	result = new ExperimentDescription[n];
+	this.iterations = iterations;
+	for (int i = 0; i < n; i++) {
+	    ExperimentDescription e = new ExperimentDescription();
+	    AccessMember[] acl = new AccessMember[3];
+	    ExperimentAspect[] aspects = new ExperimentAspect[4];
+
+	    for (int j = 0; j < acl.length; j++) {
+		acl[j] = new AccessMember();
+		acl[j].setCircleId("proj" + j + ":circle");
+		acl[j].setPermissions(new String[] {
+		    "READ_EXPERIMENT", "MODIFY_EXPERIMENT" });
+	    }
+	    for (int j = 0; j < aspects.length; j++) {
+		aspects[j] = new ExperimentAspect();
+		aspects[j].setType("layout");
+		aspects[j].setSubType("sub" + j);
+		aspects[j].setName("aspect" + j);
+		aspects[j].setData(ApiObject.bytesToData(new byte[256]));
+	    }
+	    e.setExperimentId("proj:experiment" + i);
+	    e.setOwner("user" + i);
+	    e.setACL(acl);
+	    e.setAspects(aspects);
+	    e.setPerms(new String[] { "READ_EXPERIMENT" });
+	    result[i] = e;
+	}
+	ByteArrayOutputStream bos = new ByteArrayOutputStream();
+	XMLStreamWriter w = startDocument(bos);
+
+	writeGenerated(w);
+	w.writeEndElement();
+	w.close();
+	xml = bos.toString();
+    }
+
+    /**
+     * Start a response document on a stream.
+     * @param out the stream
+     * @return the writer, inside the response element
+     * @throws XMLStreamException on errors
+     */
+    private XMLStreamWriter startDocument(OutputStream out)
+	    throws XMLStreamException {
+	XMLStreamWriter w =
+	    XMLOutputFactory.newInstance().createXMLStreamWriter(out);
+
+	w.writeStartElement("ns", "viewExperimentsResponse", NS);
+	w.writeNamespace("ns", NS);
+	w.writeNamespace("xsi", Serializers.XSI);
+	return w;
+    }
+
+    /**
+     * Write the result with the generated serializer.
+     * @param w the stream
+     * @throws XMLStreamException on errors
+     */
+    private void writeGenerated(XMLStreamWriter w)
+	    throws XMLStreamException {
+	Serializer<ExperimentDescription> s =
+	    Serializers.forClass(ExperimentDescription.class);
+
+	for (ExperimentDescription e : result)
+	    s.write(w, NS, "return", e);
+    }
+
+    /**
+     * Write the result with the Axis2 bean serializer, as
+     * RPCMessageReceiver does.
+     * @param w the stream
+     * @throws XMLStreamException on errors
+     */
+    private void writeReflective(XMLStreamWriter w)
+	    throws XMLStreamException {
+	for (ExperimentDescription e : result) {
+	    XMLStreamReader r = BeanUtil.getPullParser(e, RETURN, null,
+		    true, false);
+
+	    new StAXOMBuilder(new StreamWrapper(r)).getDocumentElement()
+		.serialize(w);
+	}
+    }
+
+    /**
+     * Read the result with the generated serializer.
+     * @return the number of experiments read
+     * @throws XMLStreamException on errors
+     */
+    private int readGenerated() throws XMLStreamException {
+	Serializer<ExperimentDescription> s =
+	    Serializers.forClass(ExperimentDescription.class);
+	XMLStreamReader r = XMLInputFactory.newInstance().createXMLStreamReader(
+		new StringReader(xml));
+	int n = 0;
+
+	Serializers.enter(r);
+	while ( r.nextTag() == XMLStreamReader.START_ELEMENT )
+	    if ( s.read(r) != null ) n++;
+	return n;
+    }
+
+    /**
+     * Read the result with the Axis2 bean deserializer, as
+     * RPCMessageReceiver does.
+     * @return the number of experiments read
+     * @throws Exception on errors
+     */
+    private int readReflective() throws Exception {
+	XMLStreamReader r = XMLInputFactory.newInstance().createXMLStreamReader(
+		new StringReader(xml));
+	OMElement resp = new StAXOMBuilder(r).getDocumentElement();
+	DefaultObjectSupplier sup = new DefaultObjectSupplier();
+	int n = 0;
+
+	for (Iterator<?> i = resp.getChildElements(); i.hasNext(); )
+	    if ( BeanUtil.deserialize(ExperimentDescription.class,
+			(OMElement) i.next(), sup, null) != null ) n++;
+	return n;
+    }
+
+    /**
+     * One measured operation.
+     */
+    private interface Operation {
+	/**
+	 * Do the operation once.
+	 * @throws Exception on errors
+	 */
+	public void run() throws Exception;
+    }
+
+    /**
+     * Run an operation repeatedly, after warming up, and print the CPU
+     * time per result.
+     * @param label the label to print
+     * @param op the operation
+     * @throws Exception on errors
+     */
+    private void measure(String label, Operation op) throws Exception {
+	for (int i = 0; i < iterations / 10 + 1; i++)
+	    op.run();
+
+	long start = cpu.getCurrentThreadCpuTime();
+
+	for (int i = 0; i < iterations; i++)
+	    op.run();
+
+	double us = (cpu.getCurrentThreadCpuTime() - start) / 1000.0 /
+	    iterations / result.length;
+
+	System.out.println(String.format("%-12s %10.2f us/experiment",
+		    label, us));
+    }
+
+    /**
+     * Run the measurements.
+     * @throws Exception on errors
+     */
+    public void run() throws Exception {
+	if ( Serializers.forClass(ExperimentDescription.class) == null )
+	    throw new IllegalStateException("Generated serializers are " +
+		    "not on the classpath");
+	System.out.println(result.length + " experiments, " + xml.length() +
+		" bytes, " + iterations + " iterations");
+	measure("write gen", new Operation() {
+	    public void run() throws Exception {
+		XMLStreamWriter w = startDocument(new NullOutputStream());
+
+		writeGenerated(w);
+		w.close();
+	    }
+	});
+	measure("write refl", new Operation() {
+	    public void run() throws Exception {
+		XMLStreamWriter w = startDocument(new NullOutputStream());
+
+		writeReflective(w);
+		w.close();
+	    }
+	});
+	measure("read gen", new Operation() {
+	    public void run() throws Exception { readGenerated(); }
+	});
+	measure("read refl", new Operation() {
+	    public void run() throws Exception { readReflective(); }
+	});
+    }
+
+    /**
+     * Run the benchmark.
+     * @param args the number of experiments and iterations
+     */
+    static public void main(String[] args) {
+	try {
+	    int n = (args.length > 0) ? Integer.parseInt(args[0]) : 100;
+	    int iter = (args.length > 1) ? Integer.parseInt(args[1]) : 1000;
+
+	    new DispatchBenchmark(n, iter).run();
+	}
+	catch (NumberFormatException e) {
+	    System.err.println("Usage: DispatchBenchmark " +
+		    "[experiments [iterations]]");
+	    System.exit(20);
+	}
+	catch (Exception e) {
+	    System.err.println("Benchmark failed: " + e);
+	    System.exit(20);
+	}
+    }
+}
@@ -0,0 +1,117 @@
+package net.deterlab.testbed.rpc;
+
+import static org.junit.Assert.*;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import java.util.Arrays;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.junit.Test;
+
+/**
+ * Tests for the simple type readers and writers used by the generated
+ * dispatchers.
+ */
+public class SerializersTest {
+    /** Namespace for the test elements */
+    static private final String NS = "http://api.testbed.deterlab.net/xsd";
+
+    /**
+     * Write some values inside a wrapper element and return a reader
+     * positioned on the wrapper.
+     * @param values the values to write, alternating name and value
+     * @return the reader
+     */
+    private XMLStreamReader roundTrip(Object... values) throws Exception {
+	StringWriter sw = new StringWriter();
+	XMLStreamWriter w =
+	    XMLOutputFactory.newInstance().createXMLStreamWriter(sw);
+
+	w.writeStartElement("ns", "wrapper", NS);
+	w.writeNamespace("ns", NS);
+	w.writeNamespace("xsi", Serializers.XSI);
+	for (int i = 0; i < values.length; i += 2) {
+	    String n = (String) values[i];
+	    Object v = values[i+1];
+
+	    if ( v instanceof Double )
+		Serializers.writeDouble(w, NS, n, (Double) v);
+	    else if ( v instanceof byte[] )
+		Serializers.writeBytes(w, NS, n, (byte[]) v);
+	    else
+		Serializers.writeValue(w, NS, n, v);
+	}
+	w.writeEndElement();
+	w.close();
+
+	XMLStreamReader r = XMLInputFactory.newInstance().createXMLStreamReader(
+		new StringReader(sw.toString()));
+
+	Serializers.enter(r);
+	return r;
+    }
+
+    @Test
+    public void simpleValues() throws Exception {
+	XMLStreamReader r = roundTrip("s", "a <b> & c", "i", 17,
+		"l", 1L << 40, "b", true, "d", 2.5);
+
+	r.nextTag();
+	assertEquals("a <b> & c", Serializers.readString(r));
+	r.nextTag();
+	assertEquals(17, Serializers.readInt(r));
+	r.nextTag();
+	assertEquals(1L << 40, Serializers.readLong(r));
+	r.nextTag();
+	assertTrue(Serializers.readBoolean(r));
+	r.nextTag();
+	assertEquals(2.5, Serializers.readDouble(r), 0.0);
+	assertEquals(XMLStreamConstants.END_ELEMENT, r.nextTag());
+    }
+
+    @Test
+    public void nilAndInfinity() throws Exception {
+	XMLStreamReader r = roundTrip("s", null, "d",
+		Double.NEGATIVE_INFINITY, "b", new byte[] { 1, 2, 3 });
+
+	r.nextTag();
+	assertTrue(Serializers.isNil(r));
+	assertNull(Serializers.readIntObject(r));
+	r.nextTag();
+	assertEquals(Double.NEGATIVE_INFINITY, Serializers.readDouble(r), 0.0);
+	r.nextTag();
+	assertArrayEquals(new byte[] { 1, 2, 3 }, Serializers.readBytes(r));
+    }
+
+    @Test
+    public void skipNested() throws Exception {
+	StringReader in =
+	    new StringReader("<w><a><b>x</b><c/></a><d>y</d></w>");
+	XMLStreamReader r = XMLInputFactory.newInstance().createXMLStreamReader(
+		in);
+
+	Serializers.enter(r);
+	r.nextTag();
+	Serializers.skip(r);
+	r.nextTag();
+	assertEquals("d", r.getLocalName());
+	assertEquals("y", Serializers.readString(r));
+    }
+
+    @Test
+    public void listsToArrays() {
+	assertNull(Serializers.toArray(null, new String[0]));
+	assertArrayEquals(new String[] { "a", "b" },
+		Serializers.toArray(Arrays.asList("a", "b"), new String[0]));
+	assertTrue(Arrays.equals(new long[] { 3L, 4L },
+		Serializers.toLongArray(Arrays.asList(3L, 4L))));
+	assertNull(Serializers.toIntegerArray(null));
+    }
+}
@@ -0,0 +1,107 @@
+package net.deterlab.testbed.system;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import net.deterlab.testbed.api.DeterFault;
+
+import org.junit.Test;
+
+/**
+ * Tests for how TombstoneCollector batches its work, with the database
+ * work replaced by a script of batch sizes.
+ */
+public class TombstoneCollectorTest {
+    /** Long enough that the periodic scan runs only at startup */
+    static private final long POLL = 3600000L;
+
+    /**
+     * A collector whose batches reclaim the scripted number of objects.  A
+     * negative number throws a fault instead.  Once the script runs out,
+     * batches reclaim nothing.
+     */
+    static private class ScriptedCollector extends TombstoneCollector {
+	/** Batch results still to come */
+	private List<Integer> script;
+	/** Batches run */
+	private int calls;
+
+	/**
+	 * Create the collector.
+	 * @param batch objects per batch
+	 * @param s the batch results
+	 */
+	public ScriptedCollector(int batch, Integer... s) {
+	    super(batch, 0, POLL, POLL);
+	    script = new ArrayList<Integer>(Arrays.asList(s));
+	}
+
+	/**
+	 * Run the next scripted batch.
+	 * @return the scripted number reclaimed
+	 * @throws DeterFault if the script says to
+	 */
+	protected int collectBatch() throws DeterFault {
+	    int n = 0;
+
+	    synchronized (this) {
+		calls++;
+		if ( !script.isEmpty()) n = script.remove(0);
+		notifyAll();
+	    }
+	    if ( n < 0 )
+		throw new DeterFault(DeterFault.internal, "scripted");
+	    return n;
+	}
+
+	/**
+	 * Wait until at least n batches have run, then a little longer for
+	 * any that should not.
+	 * @param n the number of batches
+	 * @return the number of batches run
+	 * @throws InterruptedException if interrupted
+	 */
+	public synchronized int await(int n) throws InterruptedException {
+	    long end = System.currentTimeMillis() + 10000;
+
+	    while ( calls < n && System.currentTimeMillis() < end )
+		wait(100);
+	    wait(200);
+	    return calls;
+	}
+    }
+
+    @Test
+    public void collectsUntilShortBatch() throws Exception {
+	ScriptedCollector c = new ScriptedCollector(2, 2, 2, 1, 2);
+
+	c.start();
+	// The startup scan stops after the short batch
+	assertEquals(3, c.await(3));
+	c.wakeup();
+	assertEquals(5, c.await(5));
+	c.shutdown();
+    }
+
+    @Test
+    public void faultsDoNotStopCollector() throws Exception {
+	ScriptedCollector c = new ScriptedCollector(2, 2, -1, 0);
+
+	c.start();
+	assertEquals(2, c.await(2));
+	c.wakeup();
+	assertEquals(3, c.await(3));
+	c.shutdown();
+    }
+
+    @Test
+    public void retriesBackOffUpToADay() throws Exception {
+	assertEquals(1000L, TombstoneCollector.backoff(1, 1000L));
+	assertEquals(4000L, TombstoneCollector.backoff(3, 1000L));
+	assertEquals(24 * 3600 * 1000L,
+		TombstoneCollector.backoff(100, 1000L));
+    }
+}
@@ -0,0 +1,180 @@
+package net.deterlab.testbed.topology;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * Tests for the binary topology encoding.
+ */
+public class BinaryTopdlTest {
+
+    /**
+     * Build a description with a LAN of computers, a region expanded from a
+     * fragment, and a name map.
+     * @param n the number of computers
+     * @return the description
+     * @throws TopologyException on errors
+     */
+    private TopologyDescription description(int n) throws TopologyException {
+	Map<String, String> attrs = new HashMap<String, String>();
+	Substrate lan = new Substrate("lan", new Capacity(1000.0, "max"),
+		new Latency(0.5, "average"), null, null, null, null, null);
+	TopologyDescription td = new TopologyDescription("2.0",
+		Arrays.asList(lan), null, null, null, null);
+
+	attrs.put("containers:node_type", "embedded_pnode");
+	for (int i = 0; i < n; i++) {
+	    Computer c = new Computer("n" + i, null,
+		    Arrays.asList(new CPU("x86", 2, null)),
+		    Arrays.asList(new OperatingSystem("Linux", "3.2",
+			    "Ubuntu", "12.04", null)),
+		    null, Arrays.asList(new Storage(8.0, "true", null)),
+		    null, null, null, null, attrs);
+
+	    new Interface(lan, "inf000", null, new Latency(0.1, "max"),
+		    null).connect(c, null);
+	    td.addElement(c);
+	}
+
+	Fragment f = new Fragment("frag", null, null, null, null);
+	Substrate fs = new Substrate("fs", null, null, null, null, null,
+		null, null);
+	Element fe = new OtherElement("fe", null, null);
+	new Interface(fs, "if0", null, null, null).connect(fe, null);
+	f.addSubstrate(fs);
+	f.addElement(fe);
+	f.getInterfaceMap().put("r0if", "fe");
+	td.addFragment(f);
+
+	Region r = new Region("r0", 1, "frag", null, null);
+	new Interface(lan, "r0if", null, null, null).connect(r, null);
+	td.addElement(r);
+
+	Map<String, String> names = new HashMap<String, String>();
+	names.put("fe", "r0-fe");
+	td.addNameMap(new NameMap("/r0", names, null));
+	td.setAttribute("owner", "test");
+	return td;
+    }
+
+    /**
+     * Encode and decode a description.
+     * @param td the description
+     * @return the decoded copy
+     * @throws Exception on errors
+     */
+    private TopologyDescription roundTrip(TopologyDescription td)
+	    throws Exception {
+	ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+	td.writeBinary(out);
+	assertTrue(BinaryTopdl.isBinary(out.toByteArray()));
+	return TopologyDescription.binaryToTopology(
+		new ByteArrayInputStream(out.toByteArray()));
+    }
+
+    @Test
+    public void roundTrip() throws Exception {
+	TopologyDescription td = description(5);
+	TopologyDescription copy = roundTrip(td);
+
+	copy.sameAs(td);
+	td.sameAs(copy);
+	assertEquals("test", copy.getAttribute("owner"));
+	assertEquals(6, copy.getSubstrate("lan").getInterfaces().size());
+	assertEquals("r0-fe", copy.getNameMap("/r0").getMap().get("fe"));
+	assertEquals("fe",
+		copy.getFragment("frag").getInterfaceMap().get("r0if"));
+
+	// Still expands like the original
+	copy.validate(true);
+	assertNotNull(copy.getElement("r0-fe"));
+    }
+
+    @Test
+    public void smallerThanXML() throws Exception {
+	TopologyDescription td = description(500);
+	ByteArrayOutputStream bin = new ByteArrayOutputStream();
+	ByteArrayOutputStream xml = new ByteArrayOutputStream();
+	OutputStreamWriter w = new OutputStreamWriter(xml);
+
+	td.writeBinary(bin);
+	td.writeXML(w, "experiment");
+	w.close();
+	assertTrue(bin.size() * 5 < xml.size());
+    }
+
+    @Test(expected = IOException.class)
+    public void truncated() throws Exception {
+	ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+	description(2).writeBinary(out);
+	TopologyDescription.binaryToTopology(new ByteArrayInputStream(
+		Arrays.copyOf(out.toByteArray(), out.size() / 2)));
+    }
+
+    @Test(expected = IOException.class)
+    public void truncatedWithLength() throws Exception {
+	ByteArrayOutputStream out = new ByteArrayOutputStream();
+	byte[] half = null;
+
+	description(2).writeBinary(out);
+	half = Arrays.copyOf(out.toByteArray(), out.size() / 2);
+	TopologyDescription.binaryToTopology(new ByteArrayInputStream(half),
+		half.length);
+    }
+
+    /**
+     * Return an encoding whose version string claims to be len bytes long
+     * but holds only a few.
+     * @param len the claimed length
+     * @return the encoding
+     */
+    private byte[] hugeString(int len) {
+	ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+	out.write(BinaryTopdl.MAGIC, 0, BinaryTopdl.MAGIC.length);
+	out.write(BinaryTopdl.VERSION);
+	out.write(1);	// A new string
+	for (int v = len; ; v >>>= 7) {
+	    if ( (v & ~0x7f) == 0 ) {
+		out.write(v);
+		break;
+	    }
+	    out.write((v & 0x7f) | 0x80);
+	}
+	out.write('2');
+	return out.toByteArray();
+    }
+
+    @Test
+    public void oversizedCountsAreRejected() throws Exception {
+	for (int len : new int[] { Integer.MAX_VALUE, 1 << 24, 100 }) {
+	    byte[] data = hugeString(len);
+
+	    // With the length known, and hidden from the decoder
+	    try {
+		TopologyDescription.binaryToTopology(
+			new ByteArrayInputStream(data), data.length);
+		fail("Accepted string of length " + len);
+	    }
+	    catch (IOException expected) { }
+	    try {
+		TopologyDescription.binaryToTopology(new FilterInputStream(
+			    new ByteArrayInputStream(data)) { });
+		fail("Accepted string of length " + len);
+	    }
+	    catch (IOException expected) { }
+	}
+    }
+}
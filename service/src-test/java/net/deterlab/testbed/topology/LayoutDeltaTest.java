@@ -0,0 +1,113 @@
+package net.deterlab.testbed.topology;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringWriter;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * Tests for layout deltas.
+ */
+public class LayoutDeltaTest {
+
+    /**
+     * A layout with two computers on a LAN and a region expanded from a
+     * one element fragment.
+     * @return the layout
+     * @throws TopologyException on errors
+     */
+    private TopologyDescription layout() throws TopologyException {
+	Substrate lan = new Substrate("lan", null, null, null, null, null,
+		null, null);
+	TopologyDescription td = new TopologyDescription("2.0",
+		Arrays.asList(lan), null, null, null, null);
+
+	for (String n : new String[] { "a", "b" }) {
+	    Computer c = new Computer(n, null, null, null, null, null, null,
+		    null, null, null, null);
+
+	    new Interface(lan, "inf000", null, null, null).connect(c, null);
+	    td.addElement(c);
+	}
+
+	Fragment f = new Fragment("frag", null, null, null, null);
+	Substrate fs = new Substrate("fs", null, null, null, null, null,
+		null, null);
+	Element fe = new OtherElement("fe", null, null);
+	new Interface(fs, "if0", null, null, null).connect(fe, null);
+	f.addSubstrate(fs);
+	f.addElement(fe);
+	td.addFragment(f);
+	td.addElement(new Region("r0", 1, "frag", null, null));
+	td.validate(false);
+	return td;
+    }
+
+    /**
+     * Parse a delta.
+     * @param xml the XML form
+     * @return the delta
+     * @throws Exception on errors
+     */
+    private LayoutDelta delta(String xml) throws Exception {
+	return LayoutDelta.xmlToDelta(
+		new ByteArrayInputStream(xml.getBytes("UTF-8")));
+    }
+
+    @Test
+    public void localDeltaMatchesReexpansion() throws Exception {
+	TopologyDescription td = layout();
+	TopologyDescription full = td.clone();
+	LayoutDelta d = delta("<layoutdelta>" +
+		"<add><substrates><name>lan2</name></substrates>" +
+		"<elements><computer><name>c</name></computer></elements>" +
+		"</add>" +
+		"<connect element=\"c\" interface=\"inf000\" " +
+		    "substrate=\"lan\"/>" +
+		"<connect element=\"a\" interface=\"inf001\" " +
+		    "substrate=\"lan2\"/>" +
+		"<setattribute element=\"b\" attribute=\"role\" " +
+		    "value=\"server\"/>" +
+		"<removeelement name=\"b\"/>" +
+		"</layoutdelta>");
+
+	full.validate(true);
+	assertTrue(d.isLocal(td));
+	d.apply(td);
+	d.apply(full);
+
+	TopologyDescription expanded = td.clone();
+	expanded.validate(true);
+	full.sameAs(expanded);
+	assertNull(full.getElement("b"));
+	assertEquals(2, full.getElement("a").getInterfaces().size());
+	assertEquals(2, full.getSubstrate("lan").getInterfaces().size());
+
+	// The XML form round trips
+	StringWriter w = new StringWriter();
+	d.writeXML(w, "layoutdelta");
+	assertEquals(d.getChanges().size(),
+		delta(w.toString()).getChanges().size());
+    }
+
+    @Test
+    public void regionChangesAreNotLocal() throws Exception {
+	TopologyDescription td = layout();
+
+	assertFalse(delta("<layoutdelta><setattribute element=\"r0\" " +
+		    "attribute=\"x\" value=\"y\"/></layoutdelta>").isLocal(td));
+	assertFalse(delta("<layoutdelta><removefragment name=\"frag\"/>" +
+		    "</layoutdelta>").isLocal(td));
+	assertTrue(delta("<layoutdelta><disconnect element=\"a\" " +
+		    "interface=\"inf000\"/></layoutdelta>").isLocal(td));
+    }
+
+    @Test(expected = TopologyException.class)
+    public void missingElement() throws Exception {
+	delta("<layoutdelta><removeelement name=\"zz\"/></layoutdelta>").apply(
+		layout());
+    }
+}
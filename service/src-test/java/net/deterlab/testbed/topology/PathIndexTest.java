@@ -0,0 +1,156 @@
+package net.deterlab.testbed.topology;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * Tests for the topology path index and the region operations that use it.
+ */
+public class PathIndexTest {
+
+    /**
+     * Return an attribute map holding a path.
+     * @param path the path
+     * @return the map
+     */
+    private Map<String, String> path(String path) {
+	Map<String, String> rv = new HashMap<String, String>();
+
+	rv.put("path", path);
+	return rv;
+    }
+
+    /**
+     * Make a substrate with the given attributes.
+     * @param n the name
+     * @param a the attributes
+     * @return the substrate
+     */
+    private Substrate substrate(String n, Map<String, String> a) {
+	return new Substrate(n, null, null, null, null, null, null, a);
+    }
+
+    @Test
+    public void membersFollowPaths() throws Exception {
+	Topology t = new Topology();
+	Element a = new Element("a", null, path("/r1/"));
+	Element b = new Element("b", null, path("/r1/r2/"));
+	Element c = new Element("c", null, null);
+	PathIndex pi = t.getPathIndex();
+
+	t.addElement(a);
+	t.addElement(b);
+	t.addElement(c);
+	t.addSubstrate(substrate("s", path("/r1/r2/")));
+
+	assertEquals(new HashSet<Element>(Arrays.asList(a, b)),
+		new HashSet<Element>(pi.getElements("r1")));
+	assertEquals(Arrays.asList(b), pi.getElements("r2"));
+	assertEquals(1, pi.getSubstrates("r2").size());
+	assertEquals(1, pi.regionIndex("r1", b));
+	assertEquals(2, pi.regionIndex("r2", b));
+	assertEquals(-1, pi.regionIndex("r2", a));
+	assertEquals(3, pi.pathLength(b));
+	assertEquals(-1, pi.pathLength(c));
+
+	t.removeElement(a);
+	assertEquals(Arrays.asList(b), pi.getElements("r1"));
+
+	// Path changes made after insertion are picked up
+	b.removeAttribute("path");
+	c.setAttribute("path", "/r1/");
+	assertEquals(Arrays.asList(c), pi.getElements("r1"));
+	assertTrue(pi.getElements("r2").isEmpty());
+    }
+
+    @Test
+    public void pathChangesReachEachHoldingTopology() throws Exception {
+	Topology t1 = new Topology();
+	Topology t2 = new Topology();
+	Element a = new Element("a", null, path("/r1/"));
+
+	t1.addElement(a);
+	t2.addElement(a);
+	a.setAttribute("path", "/r2/");
+	assertEquals(Arrays.asList(a), t1.getPathIndex().getElements("r2"));
+	assertEquals(Arrays.asList(a), t2.getPathIndex().getElements("r2"));
+
+	t1.removeElement(a);
+	a.setAttribute("path", "/r3/");
+	assertTrue(t1.getPathIndex().getElements("r3").isEmpty());
+	assertTrue(t1.getPathIndex().getElements("r2").isEmpty());
+	assertEquals(Arrays.asList(a), t2.getPathIndex().getElements("r3"));
+    }
+
+    @Test
+    public void interfacePathsAreIndexed() throws Exception {
+	Topology t = new Topology();
+	Substrate s = substrate("s", null);
+	Element a = new Element("a", null, path("/r1/"));
+	Interface i = new Interface(s, "inf000", null, null, null);
+	PathIndex pi = t.getPathIndex();
+
+	i.setAttribute("interface_path", "x/y");
+	i.connect(a, null);
+	t.addSubstrate(s);
+	t.addElement(a);
+
+	String[] p = pi.getInterfacePath(i);
+	assertEquals(Arrays.asList("x", "y"), Arrays.asList(p));
+	assertSame(p, pi.getInterfacePath(i));
+
+	i.setAttribute("interface_path", "z");
+	assertEquals(Arrays.asList("z"), Arrays.asList(pi.getInterfacePath(i)));
+
+	// Interfaces connected later are indexed too
+	Interface j = new Interface(s, "inf001", null, null, null);
+	j.setAttribute("interface_path", "w");
+	j.connect(a, null);
+	assertSame(pi.getInterfacePath(j), pi.getInterfacePath(j));
+
+	i.disconnect();
+	i.removeAttribute("interface_path");
+	assertNull(pi.getInterfacePath(i));
+    }
+
+    @Test
+    public void collapseExistingRegion() throws Exception {
+	Topology t = new Topology();
+	Substrate in = substrate("in", path("/r1/"));
+	Substrate out = substrate("out", null);
+	Map<String, String> ia = new HashMap<String, String>();
+	Element a = new Element("a", null, path("/r1/"));
+	Element b = new Element("b", null, path("/r1/"));
+	Element c = new Element("c", null, null);
+
+	ia.put("interface_path", "if0");
+	new Interface(in, "inf000", null, null, null).connect(a, null);
+	new Interface(in, "inf001", null, null, null).connect(b, null);
+	new Interface(out, "inf002", null, null, ia).connect(b, null);
+	new Interface(out, "inf003", null, null, null).connect(c, null);
+	t.addSubstrate(in);
+	t.addSubstrate(out);
+	t.addElement(a);
+	t.addElement(b);
+	t.addElement(c);
+
+	Region r = new Region("r1", 1, "frag", null, null);
+	Util.collapseExistingRegion(t, r);
+
+	assertNull(t.getElement("a"));
+	assertNull(t.getElement("b"));
+	assertNull(t.getSubstrate("in"));
+	assertSame(r, t.getElement("r1"));
+	assertEquals(1, r.getInterfaces().size());
+	Interface i = r.getInterfaces().iterator().next();
+	assertEquals("if0", i.getName());
+	assertSame(out, i.getSubstrate());
+	assertTrue(t.getPathIndex().getElements("r1").isEmpty());
+    }
+}
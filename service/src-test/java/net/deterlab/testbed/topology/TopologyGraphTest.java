@@ -0,0 +1,141 @@
+package net.deterlab.testbed.topology;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Tests for the adjacency structure and queries over a topology.
+ */
+public class TopologyGraphTest {
+
+    /**
+     * Make a substrate with the given latency and capacity.
+     * @param n the name
+     * @param lat the latency
+     * @param cap the capacity
+     * @return the substrate
+     */
+    private Substrate substrate(String n, double lat, double cap) {
+	return new Substrate(n, new Capacity(cap, "max"),
+		new Latency(lat, "max"), null, null, null, null, null);
+    }
+
+    /**
+     * Connect e to s through a new interface.
+     * @param e the element
+     * @param s the substrate
+     */
+    private void link(Element e, Substrate s) {
+	new Interface(s, null, null, null, null).connect(e, null);
+    }
+
+    @Test
+    public void paths() throws Exception {
+	Topology t = new Topology();
+	Element a = new Element("a", null, null);
+	Element b = new Element("b", null, null);
+	Element c = new Element("c", null, null);
+	Element d = new Element("d", null, null);
+	Substrate fast = substrate("fast", 1.0, 100.0);
+	Substrate slow = substrate("slow", 10.0, 1000.0);
+	Substrate tail = substrate("tail", 1.0, 1000.0);
+
+	// a - fast - b - fast2 - c is cheaper than a - slow - c
+	Substrate fast2 = substrate("fast2", 1.0, 100.0);
+	link(a, fast);
+	link(b, fast);
+	link(b, fast2);
+	link(c, fast2);
+	link(a, slow);
+	link(c, slow);
+	for (Substrate s : Arrays.asList(fast, fast2, slow, tail))
+	    t.addSubstrate(s);
+	for (Element e : Arrays.asList(a, b, c, d))
+	    t.addElement(e);
+
+	TopologyGraph g = t.getGraph();
+	assertEquals(8, g.size());
+	assertEquals(12, g.getEdgeCount());
+	assertEquals(2, g.getNeighbors(a).size());
+	assertEquals(1, g.hops(a, c));
+	assertEquals(2.0, g.latency(a, c), 0.0);
+	assertEquals(Arrays.<ConnectedObject>asList(a, fast, b, fast2, c),
+		g.shortestPath(a, c));
+	assertEquals(1000.0, g.bottleneck(a, c), 0.0);
+	assertEquals(-1, g.hops(a, d));
+	assertFalse(g.connected(a, d));
+	assertEquals(3, g.getComponents().size());
+	assertSame(g, t.getGraph());
+
+	// Connecting d rebuilds the graph.
+	link(d, tail);
+	link(c, tail);
+	TopologyGraph g2 = t.getGraph();
+	assertNotSame(g, g2);
+	assertTrue(g2.connected(a, d));
+	assertEquals(1, g2.getComponents().size());
+	assertEquals(1.0, g2.latency(a, d) - g2.latency(a, c), 0.0);
+
+	// So does a latency change.
+	slow.setLatency(0.5, "max");
+	assertEquals(0.5, t.getGraph().latency(a, c), 0.0);
+	t.removeElement(b);
+	assertEquals(7, t.getGraph().size());
+    }
+
+    @Test
+    public void changesElsewhereKeepTheGraph() throws Exception {
+	Topology t = new Topology();
+	Topology other = new Topology();
+	Element a = new Element("a", null, null);
+	Element b = new Element("b", null, null);
+	Substrate s = substrate("s", 1.0, 100.0);
+	Substrate os = substrate("os", 1.0, 100.0);
+
+	link(a, s);
+	t.addSubstrate(s);
+	t.addElement(a);
+	other.addSubstrate(os);
+	other.addElement(b);
+
+	TopologyGraph g = t.getGraph();
+	link(b, os);
+	os.setLatency(5.0, "max");
+	assertSame(g, t.getGraph());
+
+	// Objects that have left the topology do not affect it either
+	t.removeElement(a);
+	g = t.getGraph();
+	link(a, os);
+	assertSame(g, t.getGraph());
+	s.setCapacity(10.0, "max");
+	assertNotSame(g, t.getGraph());
+    }
+
+    @Test
+    public void filters() throws Exception {
+	Topology t = new Topology();
+	OperatingSystem linux = new OperatingSystem("Linux", "4", null, null,
+		null);
+	Computer pc = new Computer("pc", null, null, Arrays.asList(linux),
+		null, null, null, null, null, null, null);
+	Element e = new Element("e", null, null);
+
+	e.setAttribute("role", "router");
+	t.addElement(pc);
+	t.addElement(e);
+
+	TopologyGraph g = t.getGraph();
+	List<Computer> linuxen = g.withOS("Linux", null);
+	assertEquals(1, linuxen.size());
+	assertSame(pc, linuxen.get(0));
+	assertTrue(g.withOS("Linux", "3").isEmpty());
+	assertEquals(Arrays.<ConnectedObject>asList(e),
+		g.withAttribute("role", "router"));
+	assertTrue(g.withAttribute("role", "host").isEmpty());
+    }
+}
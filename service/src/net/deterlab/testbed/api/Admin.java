@@ -2,16 +2,25 @@ package net.deterlab.testbed.api;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.Set;
 
 import org.apache.log4j.Logger;
 
 import net.deterlab.testbed.circle.CircleDB;
+import net.deterlab.testbed.db.DBObject;
 import net.deterlab.testbed.db.SharedConnection;
+import net.deterlab.testbed.db.VisibilityIndex;
 import net.deterlab.testbed.experiment.ExperimentDB;
 import net.deterlab.testbed.library.LibraryDB;
+import net.deterlab.testbed.metrics.Histogram;
+import net.deterlab.testbed.metrics.Metrics;
 import net.deterlab.testbed.policy.CredentialSet;
 import net.deterlab.testbed.policy.CredentialStoreDB;
 import net.deterlab.testbed.policy.PolicyFile;
@@ -230,7 +239,8 @@ public class Admin extends DeterService {
 
     /**
      * Reset the access control policies.  This call clears the policy caches
-     * and logs all users out. Rewriting the policies can take a while.
+     * and logs all users out. Rewriting the policies can take a while.  It
+     * also rebuilds the visibility index used by the listing calls.
      * @return true if all goes well
      * @throws DeterFault on errors
      */
@@ -244,6 +254,7 @@ public class Admin extends DeterService {
 	Collection<ResourceDB> resources = null;
 	Collection<RealizationDB> realizations = null;
 	CredentialStoreDB cdb = null;
+	DBObject db = null;
 
 	log.info("resetAccessControl");
 	try {
@@ -278,10 +289,20 @@ public class Admin extends DeterService {
 	    // Projects
 	    log.info("updating projects policy");
 	    projects = ProjectDB.getProjects(null, null, sc);
+	    Set<String> names = new HashSet<String>();
+	    for (ProjectDB p : projects )
+		names.add(p.getName());
+	    // Load every membership in one query; updateUserCredentials then
+	    // finds each member's permissions in the membership cache.
+	    Map<String, List<Member>> members =
+		ProjectDB.getMembers(names, sc);
 	    for (ProjectDB p : projects ) {
-		p.updatePolicyCredentials();
-		for (Member m: p.getMembers())
-		    p.updateUserCredentials(m.getUid());
+		// getProjects returns a project once per member
+		if ( names.remove(p.getName())) {
+		    p.updatePolicyCredentials();
+		    for (Member m: members.get(p.getName()))
+			p.updateUserCredentials(m.getUid());
+		}
 		p.close();
 	    }
 	    projects = null;
@@ -290,10 +311,16 @@ public class Admin extends DeterService {
 	    // Circles
 	    log.info("updating circles policy");
 	    circles = CircleDB.getCircles(null, null, sc);
+	    names = new HashSet<String>();
+	    for (CircleDB c : circles )
+		names.add(c.getName());
+	    members = CircleDB.getMembers(names, sc);
 	    for (CircleDB c : circles ) {
-		c.updatePolicyCredentials();
-		for (Member m: c.getMembers())
-		    c.updateUserCredentials(m.getUid());
+		if ( names.remove(c.getName())) {
+		    c.updatePolicyCredentials();
+		    for (Member m: members.get(c.getName()))
+			c.updateUserCredentials(m.getUid());
+		}
 		c.close();
 	    }
 	    circles = null;
@@ -338,6 +365,12 @@ public class Admin extends DeterService {
 	    }
 	    log.info("realizations policy updated");
 	    realizations = null;
+	    log.info("rebuilding visibility index");
+	    db = new DBObject(sc);
+	    VisibilityIndex.rebuild(db);
+	    db.close();
+	    db = null;
+	    log.info("visibility index rebuilt");
 	    sc.close();
 	    log.info("resetAccessControl succeeded");
 	    return true;
@@ -366,6 +399,7 @@ public class Admin extends DeterService {
 		for (RealizationDB r : realizations)
 		    r.forceClose();
 	    if ( cdb != null ) cdb.forceClose();
+	    if ( db != null ) db.forceClose();
 	    if ( sc != null ) sc.forceClose();
 	    throw df;
 	}
@@ -401,6 +435,67 @@ public class Admin extends DeterService {
 	}
     }
 
+    /**
+     * Return the values of the service's timers and counters (see Metrics).
+     * @param names the timers to return; all of them if empty
+     * @return the values
+     * @throws DeterFault on errors
+     */
+    public TimerValue[] getTimerValues(String[] names) throws DeterFault {
+	SharedConnection sc = null;
+	List<TimerValue> rv = new ArrayList<TimerValue>();
+
+	log.info("getTimerValues");
+	try {
+	    sc = new SharedConnection();
+	    sc.open();
+	    checkAccess("getTimerValues",
+		    new CredentialSet("system", null), sc);
+	    sc.close();
+	}
+	catch (DeterFault df) {
+	    log.error("getTimerValues failed: " + df);
+	    if (sc != null) sc.forceClose();
+	    throw df;
+	}
+
+	for (String n : (names != null && names.length > 0) ?
+		Arrays.asList(names) : Metrics.getNames()) {
+	    Histogram h = Metrics.getHistogram(n);
+	    Long c = Metrics.getCounter(n);
+
+	    if ( h != null ) rv.add(new TimerValue(n, h));
+	    else if ( c != null ) rv.add(new TimerValue(n, c));
+	}
+	return rv.toArray(new TimerValue[0]);
+    }
+
+    /**
+     * Reset the service's timers and counters to zero.
+     * @param names the timers to reset; all of them if empty
+     * @return true if all goes well
+     * @throws DeterFault on errors
+     */
+    public boolean removeTimers(String[] names) throws DeterFault {
+	SharedConnection sc = null;
+
+	log.info("removeTimers");
+	try {
+	    sc = new SharedConnection();
+	    sc.open();
+	    checkAccess("removeTimers",
+		    new CredentialSet("system", null), sc);
+	    sc.close();
+	}
+	catch (DeterFault df) {
+	    log.error("removeTimers failed: " + df);
+	    if (sc != null) sc.forceClose();
+	    throw df;
+	}
+	Metrics.reset((names != null) ? Arrays.asList(names) : null);
+	return true;
+    }
+
     /**
      * Add a permission to the system, valid for a given kind of object.
      * @param name The name of the new permission
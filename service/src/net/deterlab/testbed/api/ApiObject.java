@@ -1,11 +1,15 @@
 package net.deterlab.testbed.api;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.util.Date;
 import java.util.TimeZone;
 import java.text.SimpleDateFormat;
 import java.text.FieldPosition;
 import java.text.ParsePosition;
 
+import javax.activation.DataHandler;
+
 /**
  * Base class for any object that is visible in the API.  This is mainly a
  * container for static utility functions.
@@ -52,6 +56,39 @@ public class ApiObject {
 	else return format.parse(v, new ParsePosition(0));
     }
 
+    /**
+     * Put a byte array into a DataHandler so it can be passed through the
+     * API.  Opaque data fields are DataHandlers so that they can travel as
+     * MTOM attachments rather than inline base64.
+     * @param b the bytes
+     * @return a DataHandler holding the bytes (null if b is null)
+     */
+    public static DataHandler bytesToData(byte[] b) {
+	if ( b == null ) return null;
+	return new DataHandler(b, "application/octet-stream");
+    }
+
+    /**
+     * Read the contents of a DataHandler into a byte array.  The data may be
+     * backed by a file or an attachment that has not been read yet.
+     * @param dh the DataHandler
+     * @return the contents (null if dh is null)
+     * @throws DeterFault if the data cannot be read
+     */
+    public static byte[] dataToBytes(DataHandler dh) throws DeterFault {
+	if ( dh == null ) return null;
+	try {
+	    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+
+	    dh.writeTo(bos);
+	    return bos.toByteArray();
+	}
+	catch (IOException e) {
+	    throw new DeterFault(DeterFault.internal,
+		    "Cannot read data: " + e.getMessage());
+	}
+    }
+
     /**
      * placeholder constructor
      */
@@ -7,6 +7,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.apache.log4j.Logger;
@@ -1044,6 +1045,12 @@ public class Circles extends ProfileService {
 	    List<CircleDescription> rv = new ArrayList<CircleDescription>();
 	    circles = CircleDB.getCircles(uid, regex, sc);
 
+	    // Read all the memberships at once
+	    List<String> names = new ArrayList<String>();
+	    for (CircleDB c : circles )
+		names.add(c.getName());
+	    Map<String, List<Member>> members = CircleDB.getMembers(names, sc);
+
 	    for (CircleDB c : circles ){
 		String name = c.getName();
 
@@ -1053,7 +1060,7 @@ public class Circles extends ProfileService {
 		}
 		CircleDescription cd = new CircleDescription(c.getName(), 
 			c.getOwner());
-		cd.setMembers(c.getMembers());
+		cd.setMembers(members.get(name));
 		rv.add(cd);
 		c.close();
 	    }
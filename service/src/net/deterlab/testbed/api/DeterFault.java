@@ -22,6 +22,7 @@ import org.apache.axis2.AxisFault;
  *<dt>PASSWORD</dt><dd><i>Expored Password</i>. Only operations relevant to a password reset can be successfully carried out.</dd>
  *<dt>LOGIN</dt><dd><i>Not Logged In (or login expired)</i>.  The user must log in to carry out this operation.</dd>
  *<dt>UNIMPLEMENTED</dt><dd><i>Unimplemented feature.</i> Though legal and perhaps invoked properly, this operation is unimplemented.  Send money to developers.</dd>
+ *<dt>BUSY</dt><dd><i>Server Busy</i>. The server has too many operations of this kind in progress, or too many from this caller, and did not start this one.  Nothing was changed; retry the request later.</dd>
  *</dl>
  *
  * @author DETER team
@@ -53,6 +54,8 @@ public class DeterFault extends Exception {
     static public final int login = 5;
     /** Error code: Feature is unimplemented.  */
     static public final int unimplemented = 6;
+    /** Error code: Server is too busy to start the operation; retry later */
+    static public final int busy = 7;
     /**
      * Default error strings for each code.  Keep these in sync with the
      * constants.
@@ -60,7 +63,7 @@ public class DeterFault extends Exception {
     static protected final String[] defaultMessage = new String[] {
 	"No Error", "Access Denied", "Badly Formed Request", "Internal Error",
 	    "Expired Password", "Not Logged In (or login expired)",
-	    "Unimplemented feature"
+	    "Unimplemented feature", "Server Busy"
     };
 
 
@@ -91,6 +94,14 @@ public class DeterFault extends Exception {
      */
     public DeterFault(int code, String detail) { this(code, null, detail); }
 
+    /**
+     * Return true if a request that failed with the given code may succeed
+     * if it is simply sent again later.
+     * @param code the error code
+     * @return true if the request may be retried
+     */
+    static public boolean isRetryable(int code) { return code == busy; }
+
     /**
      * Return the error code.
      * @return the error code.
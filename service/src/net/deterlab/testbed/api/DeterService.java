@@ -3,8 +3,8 @@ package net.deterlab.testbed.api;
 import org.apache.axis2.context.MessageContext;
 import org.apache.catalina.connector.Request;
 
+import java.io.IOException;
 import java.io.Reader;
-import java.io.OutputStreamWriter;
 
 import java.lang.reflect.Constructor;
 
@@ -30,12 +30,20 @@ import net.deterlab.testbed.db.SharedConnection;
 
 import net.deterlab.testbed.embedding.Embedder;
 
+import net.deterlab.testbed.mail.MailDispatcher;
+import net.deterlab.testbed.mail.MailMessage;
+
+import net.deterlab.testbed.metrics.Metrics;
+
 import net.deterlab.testbed.policy.Credentials;
 import net.deterlab.testbed.policy.CredentialSet;
 import net.deterlab.testbed.policy.CredentialStoreDB;
+import net.deterlab.testbed.policy.SessionTable;
 
 import net.deterlab.testbed.project.ProjectDB;
 
+import net.deterlab.testbed.system.TombstoneCollector;
+
 import net.deterlab.testbed.topology.TopologyDescription;
 
 import net.deterlab.testbed.user.UserDB;
@@ -78,6 +86,25 @@ public class DeterService {
 	    Logger.getRootLogger().error("Error configuring logs: " + 
 		    e.getMessage());
 	}
+	// Start sending any mail left in the outbox.
+	try {
+	    MailDispatcher.getInstance();
+	}
+	catch (DeterFault df) {
+	    Logger.getRootLogger().error("Error starting mail dispatcher: " +
+		    df);
+	}
+	// Reclaim objects removed before a restart.
+	wakeCollector();
+	// Log the metrics periodically.
+	try {
+	    String v = new Config().getProperty("metricsDumpInterval");
+
+	    Metrics.startDump((v != null) ? Long.parseLong(v) : 300);
+	}
+	catch (DeterFault|NumberFormatException e) {
+	    Logger.getRootLogger().error("Error starting metrics dump: " + e);
+	}
     }
 
     /**
@@ -115,7 +142,7 @@ public class DeterService {
 	    throw new DeterFault(DeterFault.request, 
 		    "No client certificate and one is required");
 	try {
-	    return new Identity(certs[0]);
+	    return SessionTable.getIdentity(certs[0]);
 	} catch (ABACException e) {
 	    throw new DeterFault(DeterFault.access,
 		    "Error creating ABAC identity from X.509: " + 
@@ -137,47 +164,44 @@ public class DeterService {
 	}
     }
 
-    // XXX This is very ad-hoc right now and a better implementation will be
-    // needed
     /**
-     * Send an e-mail to address with the given subject and conntent.
+     * Send an e-mail to address with the given subject and conntent.  The
+     * message is placed in the persistent outbox and sent in the background
+     * by the MailDispatcher, so this does not wait for delivery.
      * @param address destination address
      * @param subject the subject line of the e-mail
      * @param content the contents of the e-mail 
-     * @throws DeterFault if the mail cannot be submitted
+     * @throws DeterFault if the mail cannot be queued
      */
     protected void sendEmail(String address, String subject, 
 	    Reader content) throws DeterFault {
-	Config config = new Config();
-	// /usr/bin/mail expects the destination last
-	ProcessBuilder mailer = new ProcessBuilder(
-		config.getMailer(), "-s", subject, address);
-	Process m = null;
-	OutputStreamWriter stdin = null;
+	StringBuilder body = new StringBuilder();
 	char[] buf= new char[10 * 1024];
 	int r = 0;	    // Scratch
 
 	try { 
-	    m = mailer.start();
-	    stdin = new OutputStreamWriter(m.getOutputStream());
 	    while ( (r = content.read(buf)) != -1)  
-		stdin.write(buf, 0, r);
-	    stdin.close();
-	    r = m.waitFor();
-
-	    if ( r != 0 ) 
-		throw new DeterFault(DeterFault.internal,
-		    "Cannot send mail: mailer returned " + r);
-
+		body.append(buf, 0, r);
 	}
-	catch (DeterFault df) {
-	    // Throw any inner DeterFaults out unmodified
-	    throw df;
+	catch (IOException e ) {
+	    throw new DeterFault(DeterFault.internal, 
+		    "Cannot read mail content: " + e.getMessage());
 	}
-	catch (Exception e ) {
+	MailDispatcher.getInstance().enqueue(
+		new MailMessage(address, subject, body.toString()));
+    }
 
-	    throw new DeterFault(DeterFault.internal, 
-		    "Cannot send mail: " + e.getMessage());
+    /**
+     * Ask the TombstoneCollector to reclaim removed objects soon.  Errors
+     * are logged; the collector's periodic scan will find the objects.
+     */
+    protected void wakeCollector() {
+	try {
+	    TombstoneCollector.getInstance().wakeup();
+	}
+	catch (DeterFault df) {
+	    Logger.getRootLogger().error(
+		    "Error starting tombstone collector: " + df);
 	}
     }
     /**
@@ -205,6 +229,8 @@ public class DeterService {
 	Identity caller = null;
 	String target = null;
 	boolean loadedUser = false;
+	long started = System.nanoTime();
+	long t = 0;
 
 	if ( attr == null || csets == null )
 	    throw new DeterFault(DeterFault.internal,
@@ -212,7 +238,11 @@ public class DeterService {
 
 	try {
 	    String uid = u;
-	    cdb = new CredentialStoreDB(sc);
+
+	    // Loading credentials only reads, so without a connection from
+	    // the caller a replica will do.
+	    cdb = new CredentialStoreDB((sc != null) ?
+		    sc : new SharedConnection(true));
 
 	    if ( uid == null ) {
 		caller = getCallerIdentity();
@@ -236,7 +266,9 @@ public class DeterService {
 		    log.debug("Loading user " + uid);
 		sets.add(new CredentialSet("user", uid));
 	    }
+	    t = System.nanoTime();
 	    cdb.loadContext(ctxt, sets);
+	    Metrics.time("abac.load", System.nanoTime() - t);
 	    cdb.close();
 
 	    if ( caller != null ) target = caller.getKeyID();
@@ -244,12 +276,18 @@ public class DeterService {
 	}
 	catch (DeterFault df) {
 	    if (cdb != null ) cdb.forceClose();
+	    Metrics.authorization(System.nanoTime() - started);
 	    throw df;
 	}
 
+	t = System.nanoTime();
 	Context.QueryResult qr = ctxt.query(cr.scopeRoleString(attr), 
 		target);
 
+	Metrics.time("abac.query", System.nanoTime() - t);
+	Metrics.value("abac.contextSize", ctxt.credentials().size());
+	Metrics.authorization(System.nanoTime() - started);
+
 	if ( qr.getSuccess() ) {
 
 	    if ( log.isDebugEnabled()) {
@@ -1,13 +1,16 @@
 
 package net.deterlab.testbed.api;
 
+import javax.activation.DataHandler;
+
 /**
  * An aspect of a Experiment as passed through the SPI calls. An aspect is
  * some data that makes up the experiment, identified by type, subtype, and a
  * name.  That triple must be unique (including a null subtype), and different
  * types of aspect are free to impose their own meaning on the various
  * components.  The data portion of an aspect is either local in the Data
- * field, or stored remotely ay the URI in DataReference.
+ * field, or stored remotely ay the URI in DataReference.  Local data is
+ * a DataHandler so large aspects can be streamed as MTOM attachments.
  * <p>
  * This class is the interface representation of an Aspect.  An Aspect
  * implementation is defined by the <a href="../experiment/Aspect.html">Aspect
@@ -25,7 +28,7 @@ public class ExperimentAspect extends ApiObject {
     /** The subtype of the aspect (scoped by type) */
     protected String name;
     /**  Data about the aspect */
-    protected byte[] data;
+    protected DataHandler data;
     /** Reference to data located elsewhere */
     protected String dataRef;
 
@@ -72,12 +75,12 @@ public class ExperimentAspect extends ApiObject {
      * Return the data
      * @return the data
      */
-    public byte[] getData() { return data; }
+    public DataHandler getData() { return data; }
     /**
      * Set the data
      * @param d the new data
      */
-    public void setData(byte[] d) { data = d; }
+    public void setData(DataHandler d) { data = d; }
     /**
      * Return the data reference (A URI)
      * @return the data reference (A URI)
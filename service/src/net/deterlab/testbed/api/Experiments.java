@@ -7,12 +7,15 @@ import java.util.List;
 import java.util.Set;
 import java.util.TreeSet;
 
+import javax.activation.DataHandler;
+
 import org.apache.log4j.Logger;
 
 import net.deterlab.testbed.db.SharedConnection;
 import net.deterlab.testbed.embedding.Embedder;
 import net.deterlab.testbed.experiment.ExperimentDB;
 import net.deterlab.testbed.experiment.ExperimentProfileDB;
+import net.deterlab.testbed.experiment.OrchestrationJobs;
 import net.deterlab.testbed.policy.CredentialSet;
 import net.deterlab.testbed.topology.TopologyDescription;
 
@@ -685,7 +688,13 @@ public class Experiments extends ProfileService {
 		log.warn("Could not remove profile: " + df.getDetailMessage());
 		if (profile != null ) profile.forceClose();
 	    }
-	    rem.remove();
+	    // The experiment is out of use once tombstoned; its storage is
+	    // reclaimed in the background.
+	    rem.tombstone();
+	    rem.close();
+	    sc.close();
+	    OrchestrationJobs.getInstance().remove(eid);
+	    wakeCollector();
 	    log.info("removeExperiment eid " + eid + " succeeded");
 	    return true;
 	}
@@ -793,7 +802,8 @@ public class Experiments extends ProfileService {
 	    if ( uid == null )
 		throw new DeterFault(DeterFault.request, "Missing uid");
 
-	    sc = new SharedConnection();
+	    // Only reads, so a replica will do
+	    sc = new SharedConnection(true);
 	    sc.open();
 
 	    checkAccess("user_" + uid + "_viewExperiments",
@@ -859,4 +869,207 @@ public class Experiments extends ProfileService {
 	    throw df;
 	}
     }
+
+    /**
+     * Return part of the data of one of an experiment's aspects.  Aspect
+     * data can be large, so this lets a caller fetch it in pieces rather than
+     * all at once through viewExperiments.  The range is clipped to the end
+     * of the data, so a piece shorter than requested is the last one.  The
+     * data is returned as an MTOM attachment when the caller asks for MTOM.
+     * @param eid the experiment
+     * @param type the aspect type
+     * @param subType the aspect subtype (may be null)
+     * @param name the aspect name
+     * @param offset offset of the first byte to return (optional, default 0)
+     * @param length the number of bytes to return (optional, default the
+     * rest of the data)
+     * @return the data
+     * @throws DeterFault on errors
+     */
+    public DataHandler getExperimentAspectData(String eid, String type,
+	    String subType, String name, Long offset, Long length)
+	throws DeterFault {
+	SharedConnection sc = null;
+	ExperimentDB exp = null;
+
+	log.info("getExperimentAspectData " + eid + " " + type + " " +
+		subType + " " + name);
+	try {
+	    if ( eid == null )
+		throw new DeterFault(DeterFault.request, "eid is required");
+	    if ( type == null )
+		throw new DeterFault(DeterFault.request, "type is required");
+	    if ( name == null )
+		throw new DeterFault(DeterFault.request, "name is required");
+
+	    sc = new SharedConnection();
+	    sc.open();
+
+	    exp = new ExperimentDB(eid, sc);
+	    if ( !exp.isValid())
+		throw new DeterFault(DeterFault.request,
+			"Invalid experiment " + eid);
+
+	    checkAccess("experiment_" + eid + "_getExperimentAspectData",
+		    new CredentialSet("experiment", eid), sc);
+
+	    DataHandler rv = exp.getAspectData(type, subType, name,
+		    (offset != null) ? offset : 0,
+		    (length != null) ? length : -1);
+
+	    exp.close();
+	    sc.close();
+	    log.info("getExperimentAspectData " + eid + " " + name +
+		    " succeeded");
+	    return rv;
+	}
+	catch (DeterFault df) {
+	    log.error("getExperimentAspectData " + eid + " " + name +
+		    " failed: " + df);
+	    if ( exp != null ) exp.forceClose();
+	    if (sc != null ) sc.forceClose();
+	    throw df;
+	}
+    }
+
+    /**
+     * Check that the experiment exists and that the caller may carry out the
+     * operation on it.
+     * @param eid the experiment
+     * @param op the operation
+     * @throws DeterFault if the experiment does not exist or access is denied
+     */
+    private void checkOrchestrationAccess(String eid, String op)
+	    throws DeterFault {
+	SharedConnection sc = null;
+	ExperimentDB exp = null;
+
+	try {
+	    if ( eid == null )
+		throw new DeterFault(DeterFault.request, "eid is required");
+
+	    sc = new SharedConnection();
+	    sc.open();
+
+	    exp = new ExperimentDB(eid, sc);
+	    if ( !exp.isValid())
+		throw new DeterFault(DeterFault.request,
+			"Invalid experiment " + eid);
+
+	    checkAccess("experiment_" + eid + "_" + op,
+		    new CredentialSet("experiment", eid), sc);
+	    exp.close();
+	    sc.close();
+	}
+	catch (DeterFault df) {
+	    if ( exp != null ) exp.forceClose();
+	    if (sc != null ) sc.forceClose();
+	    throw df;
+	}
+    }
+
+    /**
+     * Return the state of the experiment's latest orchestration.  Realizing
+     * an experiment with an orchestration aspect queues a run of the
+     * orchestrator; this reports whether it is waiting, running or done and
+     * how it ended.  Only the latest orchestration since the service started
+     * is known.
+     * @param eid the experiment
+     * @return the orchestration's state
+     * @throws DeterFault on errors, including if the experiment has not been
+     * orchestrated
+     */
+    public OrchestrationStatus getOrchestrationStatus(String eid)
+	    throws DeterFault {
+	log.info("getOrchestrationStatus " + eid);
+	try {
+	    checkOrchestrationAccess(eid, "getOrchestrationStatus");
+
+	    OrchestrationJobs.Job job =
+		OrchestrationJobs.getInstance().getJob(eid);
+
+	    if ( job == null )
+		throw new DeterFault(DeterFault.request,
+			"No orchestration for " + eid);
+
+	    OrchestrationStatus rv = new OrchestrationStatus();
+
+	    rv.setId(job.getId());
+	    rv.setAspect(job.getAspect());
+	    rv.setStatus(job.getStatus());
+	    rv.setExitCode(job.getExitCode());
+	    rv.setDetail(job.getDetail());
+	    rv.setSubmitted(ApiObject.dateToString(job.getSubmitted()));
+	    rv.setStarted(ApiObject.dateToString(job.getStarted()));
+	    rv.setFinished(ApiObject.dateToString(job.getFinished()));
+	    log.info("getOrchestrationStatus " + eid + " succeeded");
+	    return rv;
+	}
+	catch (DeterFault df) {
+	    log.error("getOrchestrationStatus " + eid + " failed: " + df);
+	    throw df;
+	}
+    }
+
+    /**
+     * Return part of the orchestrator's output for the experiment's latest
+     * orchestration.  The offset counts from the start of that
+     * orchestration's output, so a caller following a running orchestration
+     * asks for the output after what it has already read.  The range is
+     * clipped to the output written so far.
+     * @param eid the experiment
+     * @param offset offset of the first byte to return (optional, default 0)
+     * @param length the most bytes to return (optional, default 65536)
+     * @return the output
+     * @throws DeterFault on errors, including if the experiment has not been
+     * orchestrated
+     */
+    public String getOrchestrationLog(String eid, Long offset, Integer length)
+	    throws DeterFault {
+	log.info("getOrchestrationLog " + eid);
+	try {
+	    checkOrchestrationAccess(eid, "getOrchestrationLog");
+
+	    OrchestrationJobs.Job job =
+		OrchestrationJobs.getInstance().getJob(eid);
+
+	    if ( job == null )
+		throw new DeterFault(DeterFault.request,
+			"No orchestration for " + eid);
+
+	    String rv = job.readLog((offset != null) ? offset : 0,
+		    (length != null) ? length : 65536);
+
+	    log.info("getOrchestrationLog " + eid + " succeeded");
+	    return rv;
+	}
+	catch (DeterFault df) {
+	    log.error("getOrchestrationLog " + eid + " failed: " + df);
+	    throw df;
+	}
+    }
+
+    /**
+     * Cancel the experiment's queued or running orchestration.  A queued
+     * orchestration is dropped; a running orchestrator is stopped.
+     * @param eid the experiment
+     * @return true if an orchestration was cancelled, false if none was
+     * queued or running
+     * @throws DeterFault on errors
+     */
+    public boolean cancelOrchestration(String eid) throws DeterFault {
+	log.info("cancelOrchestration " + eid);
+	try {
+	    checkOrchestrationAccess(eid, "cancelOrchestration");
+
+	    boolean rv = OrchestrationJobs.getInstance().cancel(eid);
+
+	    log.info("cancelOrchestration " + eid + " succeeded");
+	    return rv;
+	}
+	catch (DeterFault df) {
+	    log.error("cancelOrchestration " + eid + " failed: " + df);
+	    throw df;
+	}
+    }
 }
@@ -0,0 +1,125 @@
+package net.deterlab.testbed.api;
+
+/**
+ * The state of an experiment's latest orchestration.  Realizing an
+ * experiment with an orchestration aspect queues a run of the orchestrator;
+ * its status is one of queued, running, succeeded, failed or cancelled.
+ * Times not yet reached are null.
+ *
+ * @author DETER Team
+ * @version 1.0
+ * @see Experiments
+ */
+public class OrchestrationStatus extends ApiObject {
+    /** The job ID */
+    protected long id;
+    /** The orchestration aspect's name */
+    protected String aspect;
+    /** The status */
+    protected String status;
+    /** The orchestrator's exit code, or -1 */
+    protected int exitCode;
+    /** Why the orchestration failed, if it did */
+    protected String detail;
+    /** The time the orchestration was queued (as a string) */
+    protected String submitted;
+    /** The time the orchestrator started (as a string) */
+    protected String started;
+    /** The time the orchestration finished (as a string) */
+    protected String finished;
+
+    /**
+     * Create an empty status.
+     */
+    public OrchestrationStatus() {
+	id = -1;
+	aspect = null;
+	status = null;
+	exitCode = -1;
+	detail = null;
+	submitted = null;
+	started = null;
+	finished = null;
+    }
+
+    /**
+     * Get the job ID
+     * @return the job ID
+     */
+    public long getId() { return id; }
+    /**
+     * Set the job ID
+     * @param i the new job ID
+     */
+    public void setId(long i) { id = i; }
+    /**
+     * Get the orchestration aspect's name
+     * @return the orchestration aspect's name
+     */
+    public String getAspect() { return aspect; }
+    /**
+     * Set the orchestration aspect's name
+     * @param a the new name
+     */
+    public void setAspect(String a) { aspect = a; }
+    /**
+     * Get the status
+     * @return the status
+     */
+    public String getStatus() { return status; }
+    /**
+     * Set the status
+     * @param s the new status
+     */
+    public void setStatus(String s) { status = s; }
+    /**
+     * Get the orchestrator's exit code
+     * @return the orchestrator's exit code
+     */
+    public int getExitCode() { return exitCode; }
+    /**
+     * Set the orchestrator's exit code
+     * @param c the new exit code
+     */
+    public void setExitCode(int c) { exitCode = c; }
+    /**
+     * Get why the orchestration failed
+     * @return why the orchestration failed
+     */
+    public String getDetail() { return detail; }
+    /**
+     * Set why the orchestration failed
+     * @param d the new explanation
+     */
+    public void setDetail(String d) { detail = d; }
+    /**
+     * Get the time the orchestration was queued
+     * @return the time the orchestration was queued
+     */
+    public String getSubmitted() { return submitted; }
+    /**
+     * Set the time the orchestration was queued
+     * @param t the new time
+     */
+    public void setSubmitted(String t) { submitted = t; }
+    /**
+     * Get the time the orchestrator started
+     * @return the time the orchestrator started
+     */
+    public String getStarted() { return started; }
+    /**
+     * Set the time the orchestrator started
+     * @param t the new time
+     */
+    public void setStarted(String t) { started = t; }
+    /**
+     * Get the time the orchestration finished
+     * @return the time the orchestration finished
+     */
+    public String getFinished() { return finished; }
+    /**
+     * Set the time the orchestration finished
+     * @param t the new time
+     */
+    public void setFinished(String t) { finished = t; }
+}
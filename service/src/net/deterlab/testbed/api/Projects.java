@@ -7,6 +7,7 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.apache.log4j.Logger;
@@ -361,9 +362,12 @@ public class Projects extends ProfileService {
 		log.warn("Could not remove profile: " + df.getDetailMessage());
 		if (profile != null) profile.forceClose();
 	    }
-	    project.remove();
+	    // The project is out of use once tombstoned; the rest is
+	    // reclaimed in the background.
+	    project.tombstone();
 	    project.close();
 	    sc.close();
+	    wakeCollector();
 	    log.info("removeProject succeeded for " + projectid);
 	    return true;
 	}
@@ -1102,7 +1106,8 @@ public class Projects extends ProfileService {
 
 	log.info("viewProjects for " + logUid + " " + regex );
 	try {
-	    sc = new SharedConnection();
+	    // Only reads, so a replica will do
+	    sc = new SharedConnection(true);
 	    sc.open();
 
 	    if (uid == null )
@@ -1114,10 +1119,17 @@ public class Projects extends ProfileService {
 	    List<ProjectDescription> rv = new ArrayList<ProjectDescription>();
 	    projects = ProjectDB.getProjects(uid, regex, sc);
 
+	    // Read all the memberships at once
+	    List<String> names = new ArrayList<String>();
+	    for (ProjectDB p : projects )
+		names.add(p.getName());
+	    Map<String, List<Member>> members =
+		ProjectDB.getMembers(names, sc);
+
 	    for (ProjectDB p : projects ){
 		ProjectDescription pd = new ProjectDescription(p.getName(), 
 			p.getOwner(), p.isApproved());
-		pd.setMembers(p.getMembers());
+		pd.setMembers(members.get(p.getName()));
 		rv.add(pd);
 		p.close();
 	    }
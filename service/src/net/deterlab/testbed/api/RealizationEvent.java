@@ -0,0 +1,60 @@
+package net.deterlab.testbed.api;
+
+/**
+ * A change in a realization's status.  Each realization keeps a log of its
+ * status changes, numbered in the order they happened.  Sequence numbers
+ * increase across all realizations, so a client that has seen the event
+ * with a given number asks for the events after it.
+ *
+ * @author DETER Team
+ * @version 1.0
+ * @see Realizations
+ */
+public class RealizationEvent extends ApiObject {
+    /** The event's sequence number */
+    protected long sequence;
+    /** The realization's new status */
+    protected String status;
+    /** The time of the change (as a string) */
+    protected String time;
+
+    /**
+     * Create an empty event.
+     */
+    public RealizationEvent() {
+	sequence = -1;
+	status = null;
+	time = null;
+    }
+
+    /**
+     * Get the sequence number
+     * @return the sequence number
+     */
+    public long getSequence() { return sequence; }
+    /**
+     * Set the sequence number
+     * @param s the new sequence number
+     */
+    public void setSequence(long s) { sequence = s; }
+    /**
+     * Get the new status
+     * @return the new status
+     */
+    public String getStatus() { return status; }
+    /**
+     * Set the new status
+     * @param s the new status
+     */
+    public void setStatus(String s) { status = s; }
+    /**
+     * Get the time of the change
+     * @return the time of the change
+     */
+    public String getTime() { return time; }
+    /**
+     * Set the time of the change
+     * @param t the new time
+     */
+    public void setTime(String t) { time = t; }
+}
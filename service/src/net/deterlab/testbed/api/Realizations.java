@@ -14,6 +14,7 @@ import net.deterlab.testbed.experiment.ExperimentDB;
 import net.deterlab.testbed.policy.CredentialSet;
 import net.deterlab.testbed.policy.CredentialStoreDB;
 import net.deterlab.testbed.realization.RealizationDB;
+import net.deterlab.testbed.realization.RealizationEvents;
 
 /**
  * This service manages realizations used in realizing experiment that
@@ -30,6 +31,15 @@ import net.deterlab.testbed.realization.RealizationDB;
  * <a href="Circles.html">circles</a> to permissions.  These are represented as
  * collections of <a href="AccessMember.html">AccessMember</a> objects.
  * <p>
+ * Status changes are logged for each realization and can be watched with
+ * getRealizationEvents.  Configuration properties (all optional):
+ * <dl>
+ * <dt>realizationEventMaxWait</dt><dd>longest wait, in seconds, a
+ *	getRealizationEvents call may ask for (default 60)</dd>
+ * <dt>realizationEventPoll</dt><dd>milliseconds between reads of the event
+ *	log while waiting, to see changes made by other processes
+ *	(default 2000)</dd>
+ * </dl>
  *
  * @author ISI DETER team
  * @version 1.0
@@ -43,6 +53,12 @@ public class Realizations extends DeterService {
     // XXX
     /** Embedder */
     private Embedder defaultEmbedder;
+    /** Longest wait for realization events in seconds */
+    private int eventMaxWait;
+    /** Milliseconds between reads of the event log while waiting */
+    private int eventPoll;
+    /** Most events returned by one call */
+    static private final int EVENT_LIMIT = 100;
 
     /**
      * Construct a Resources service.
@@ -50,10 +66,15 @@ public class Realizations extends DeterService {
     public Realizations() { 
 	setLogger(Logger.getLogger(this.getClass()));
 	defaultEmbedder = null;
+	eventMaxWait = 60;
+	eventPoll = 2000;
 	try {
 	    Config config = new Config();
 	    String defaultEmbedderString =
 		config.getProperty("defaultEmbedder");
+	    eventMaxWait = intProperty(config, "realizationEventMaxWait",
+		    eventMaxWait);
+	    eventPoll = intProperty(config, "realizationEventPoll", eventPoll);
 	    defaultEmbedder = getEmbedder(defaultEmbedderString, null);
 	}
 	catch (DeterFault df) {
@@ -62,6 +83,26 @@ public class Realizations extends DeterService {
 	}
     }
 
+    /**
+     * Read an integer property, returning a default if it is missing or
+     * malformed.
+     * @param config the configuration
+     * @param name the property name
+     * @param def the default value
+     * @return the value
+     */
+    static private int intProperty(Config config, String name, int def) {
+	String v = config.getProperty(name);
+
+	if ( v == null ) return def;
+	try {
+	    return Integer.parseInt(v);
+	}
+	catch (NumberFormatException e) {
+	    return def;
+	}
+    }
+
     /**
      * Set the logger for this class.  Subclasses set it so that appropriate
      * prefixes show up in the log file.
@@ -369,4 +410,68 @@ public class Realizations extends DeterService {
 	    throw df;
 	}
     }
+
+    /**
+     * Return the changes in a realization's status after the given event,
+     * oldest first.  If there are none the call waits up to wait seconds
+     * for one before returning an empty array, so a client can follow a
+     * realization by passing the last sequence number it saw, instead of
+     * repeatedly reading the whole description with viewRealizations.
+     * At most 100 events are returned at once.  The caller needs
+     * READ_REALIZATION or ownership.
+     * <p>
+     * The views returned are
+     * <a href="RealizationEvent.html">RealizationEvent</a> objects.
+     *
+     * @param name the realization to watch
+     * @param after the sequence number of the last event seen (optional,
+     * all events if omitted)
+     * @param wait seconds to wait for an event (optional, no wait if
+     * omitted; limited to the realizationEventMaxWait configuration)
+     * @return the events
+     * @throws DeterFault on failure
+     * @see RealizationEvent
+     */
+    public RealizationEvent[] getRealizationEvents(String name, Long after,
+	    Integer wait) throws DeterFault {
+	SharedConnection sc = null;
+	long seq = (after != null) ? after : 0;
+	long w = (wait != null) ? Math.min(Math.max(wait, 0), eventMaxWait) : 0;
+	long deadline = System.currentTimeMillis() + w * 1000L;
+
+	log.info("getRealizationEvents " + name + " after " + seq);
+	try {
+	    if ( name == null )
+		throw new DeterFault(DeterFault.request, "name is required");
+
+	    sc = new SharedConnection(true);
+	    checkAccess("realization_" + name + "_getRealizationEvents",
+		    new CredentialSet("realization", name), sc);
+
+	    while (true) {
+		long seen = RealizationEvents.changes();
+		List<RealizationEvent> rv = RealizationDB.getEvents(name, seq,
+			EVENT_LIMIT, sc);
+		long left = deadline - System.currentTimeMillis();
+
+		if ( !rv.isEmpty() || left <= 0 ) {
+		    log.info("getRealizationEvents " + name + " succeeded");
+		    return rv.toArray(new RealizationEvent[0]);
+		}
+		try {
+		    // The connection is closed while waiting.
+		    RealizationEvents.await(seen, Math.min(left, eventPoll));
+		}
+		catch (InterruptedException e) {
+		    Thread.currentThread().interrupt();
+		    return new RealizationEvent[0];
+		}
+	    }
+	}
+	catch (DeterFault df) {
+	    log.error("getRealizationEvents " + name + " failed: " + df);
+	    if (sc != null ) sc.forceClose();
+	    throw df;
+	}
+    }
 }
@@ -7,6 +7,8 @@ import java.util.List;
 import java.util.Set;
 import java.util.TreeSet;
 
+import javax.activation.DataHandler;
+
 /**
  * A resource description as passed through the SPI calls. A description
  * identifies the physical or virtual resources that the testbed assigns to
@@ -25,7 +27,7 @@ public class ResourceDescription extends ApiObject {
     /** Is the resource persistent */
     private boolean persist;
     /** The optional data */
-    private byte[] data;
+    private DataHandler data;
     /** Facets of this resource */
     private List<ResourceFacet> facets;
     /** Tags on this facet */
@@ -91,12 +93,12 @@ public class ResourceDescription extends ApiObject {
      * Return the data
      * @return the data
      */
-    public byte[] getData() { return data; }
+    public DataHandler getData() { return data; }
     /**
      * Set the data
      * @param d the new data
      */
-    public void setData(byte[] d) { data = d; }
+    public void setData(DataHandler d) { data = d; }
     /**
      * Return the tags as an array
      * @return the tags as an array
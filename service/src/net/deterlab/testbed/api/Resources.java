@@ -7,6 +7,8 @@ import java.util.List;
 import java.util.Set;
 import java.util.TreeSet;
 
+import javax.activation.DataHandler;
+
 import org.apache.log4j.Logger;
 
 import net.deterlab.testbed.db.SharedConnection;
@@ -104,7 +106,7 @@ public class Resources extends DeterService {
      * @see ResourceFacet
      */
     public boolean createResource(String name, String type, Boolean persist,
-	    String description, byte[] data, ResourceFacet[] facets,
+	    String description, DataHandler data, ResourceFacet[] facets,
 	    ResourceTag[] tags, AccessMember[] accessLists) throws DeterFault {
 
 	SharedConnection sc = null;
@@ -135,7 +137,7 @@ public class Resources extends DeterService {
 	    nres.setType(type);
 	    nres.setPersist((persist != null) ? persist : false);
 	    if ( description != null ) nres.setDescription(description);
-	    if ( data != null ) nres.setData(data);
+	    if ( data != null ) nres.setData(ApiObject.dataToBytes(data));
 	    nres.create(facets, Arrays.asList(accessLists), tags);
 	    nres.close();
 	    sc.close();
@@ -327,7 +329,7 @@ public class Resources extends DeterService {
 		    ef.add(f.export());
 		rd.setFacets(ef);
 		if ( r.getData() != null )
-		    rd.setData(r.getData());
+		    rd.setData(ApiObject.bytesToData(r.getData()));
 		rv.add(rd);
 		r.close();
 	    }
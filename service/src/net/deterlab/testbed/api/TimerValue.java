@@ -0,0 +1,151 @@
+package net.deterlab.testbed.api;
+
+import net.deterlab.testbed.metrics.Histogram;
+
+/**
+ * The value of one of the service's timers or counters, returned from
+ * getTimerValues.  Timers report how many times they ran, the total and the
+ * distribution of their values; counters report only the count and total,
+ * which are the same.
+ * @author the DETER Team
+ * @version 1.0
+ */
+public class TimerValue extends ApiObject {
+    /** The timer name */
+    protected String name;
+    /** Units of the total and percentiles (e.g. us), empty for counts */
+    protected String units;
+    /** Number of values */
+    protected long count;
+    /** Sum of the values */
+    protected long total;
+    /** Median */
+    protected long p50;
+    /** 90th percentile */
+    protected long p90;
+    /** 99th percentile */
+    protected long p99;
+    /** Largest value */
+    protected long max;
+
+    /**
+     * Create an empty value.
+     */
+    public TimerValue() { }
+
+    /**
+     * Describe a histogram.
+     * @param n the name
+     * @param h the histogram
+     */
+    public TimerValue(String n, Histogram h) {
+	name = n;
+	units = h.getUnits();
+	count = h.getCount();
+	total = h.getTotal();
+	p50 = h.percentile(50);
+	p90 = h.percentile(90);
+	p99 = h.percentile(99);
+	max = h.getMax();
+    }
+
+    /**
+     * Describe a counter.
+     * @param n the name
+     * @param c the count
+     */
+    public TimerValue(String n, long c) {
+	name = n;
+	units = "";
+	count = c;
+	total = c;
+    }
+
+    /**
+     * Return the name
+     * @return the name
+     */
+    public String getName() { return name; }
+    /**
+     * Set the name
+     * @param n the new name
+     */
+    public void setName(String n) { name = n; }
+
+    /**
+     * Return the units
+     * @return the units
+     */
+    public String getUnits() { return units; }
+    /**
+     * Set the units
+     * @param u the new units
+     */
+    public void setUnits(String u) { units = u; }
+
+    /**
+     * Return the count
+     * @return the count
+     */
+    public long getCount() { return count; }
+    /**
+     * Set the count
+     * @param c the new count
+     */
+    public void setCount(long c) { count = c; }
+
+    /**
+     * Return the total
+     * @return the total
+     */
+    public long getTotal() { return total; }
+    /**
+     * Set the total
+     * @param t the new total
+     */
+    public void setTotal(long t) { total = t; }
+
+    /**
+     * Return the median
+     * @return the median
+     */
+    public long getP50() { return p50; }
+    /**
+     * Set the median
+     * @param p the new median
+     */
+    public void setP50(long p) { p50 = p; }
+
+    /**
+     * Return the 90th percentile
+     * @return the 90th percentile
+     */
+    public long getP90() { return p90; }
+    /**
+     * Set the 90th percentile
+     * @param p the new 90th percentile
+     */
+    public void setP90(long p) { p90 = p; }
+
+    /**
+     * Return the 99th percentile
+     * @return the 99th percentile
+     */
+    public long getP99() { return p99; }
+    /**
+     * Set the 99th percentile
+     * @param p the new 99th percentile
+     */
+    public void setP99(long p) { p99 = p; }
+
+    /**
+     * Return the largest value
+     * @return the largest value
+     */
+    public long getMax() { return max; }
+    /**
+     * Set the largest value
+     * @param m the new largest value
+     */
+    public void setMax(long m) { max = m; }
+}
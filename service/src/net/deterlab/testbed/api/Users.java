@@ -22,6 +22,7 @@ import net.deterlab.testbed.library.LibraryDB;
 import net.deterlab.testbed.policy.CredentialSet;
 import net.deterlab.testbed.policy.CredentialStoreDB;
 import net.deterlab.testbed.policy.Credentials;
+import net.deterlab.testbed.policy.KeyPairPool;
 import net.deterlab.testbed.policy.PolicyFile;
 import net.deterlab.testbed.project.ProjectDB;
 import net.deterlab.testbed.user.CryptPasswordHash;
@@ -136,10 +137,17 @@ public class Users extends ProfileService {
     /** Users log */
     private Logger log;
     /**
-     * Construct a Users service.
+     * Construct a Users service.  Start filling the key pair pool so that
+     * the first logins do not have to generate keys.
      */
     public Users() { 
 	setLogger(Logger.getLogger(this.getClass()));
+	try {
+	    KeyPairPool.getInstance();
+	}
+	catch (DeterFault df) {
+	    log.error("Cannot start key pair pool: " + df);
+	}
     }
 
     /**
@@ -401,7 +409,9 @@ public class Users extends ProfileService {
 	UserProfileDB up = null;
 
 	try {
-	    Profile rv = getProfile(uid, up = new UserProfileDB());
+	    // Only reads, so a replica will do
+	    Profile rv = getProfile(uid,
+		    up = new UserProfileDB(new SharedConnection(true)));
 	    up.close();
 	    return rv;
 	}
@@ -1109,7 +1119,8 @@ public class Users extends ProfileService {
 	    if ( uid == null ) 
 		throw new DeterFault(DeterFault.request, "Missing uid");
 
-	    sc = new SharedConnection();
+	    // Only reads, so a replica will do
+	    sc = new SharedConnection(true);
 	    sc.open();
 
 	    checkAccess("user_" + uid + "_getNotifications", 
@@ -7,7 +7,8 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.SQLIntegrityConstraintViolationException;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -16,8 +17,10 @@ import java.util.Set;
 import net.deterlab.testbed.api.Config;
 import net.deterlab.testbed.api.DeterFault;
 import net.deterlab.testbed.api.Member;
+import net.deterlab.testbed.db.MembershipCache;
 import net.deterlab.testbed.db.PolicyObject;
 import net.deterlab.testbed.db.SharedConnection;
+import net.deterlab.testbed.db.VisibilityIndex;
 import net.deterlab.testbed.policy.CredentialStoreDB;
 import net.deterlab.testbed.policy.PolicyFile;
 
@@ -33,6 +36,23 @@ public class CircleDB  extends PolicyObject {
     /** String for the token indicating all valid permissions */
     static public String ALL_PERMS = "ALL_PERMS";
 
+    /** Circle memberships and permissions, shared by all CircleDBs */
+    static private MembershipCache members = new MembershipCache(
+	    "SELECT c.circleid, u.uid, perm.name FROM circleusers AS cu " +
+		"JOIN circles AS c ON cu.cidx = c.idx " +
+		"JOIN users AS u ON cu.uidx = u.idx " +
+		"LEFT JOIN circleperms AS cp " +
+		    "ON cp.cidx = cu.cidx AND cp.uidx = cu.uidx " +
+		"LEFT JOIN permissions AS perm ON cp.permidx = perm.idx " +
+	    "WHERE c.circleid IN",
+	    "SELECT perm.name FROM circleusers AS cu " +
+		"LEFT JOIN circleperms AS cp " +
+		    "ON cp.cidx = cu.cidx AND cp.uidx = cu.uidx " +
+		"LEFT JOIN permissions AS perm ON cp.permidx = perm.idx " +
+	    "WHERE cu.cidx=(SELECT idx FROM circles WHERE circleid=?) " +
+		"AND cu.uidx=(SELECT idx FROM users WHERE uid=?)",
+	    1024);
+
     /**
      * Create an empty CircleDB
      * @throws DeterFault if the DB setup fails
@@ -180,28 +200,7 @@ public class CircleDB  extends PolicyObject {
     public boolean isMember(String uid) throws DeterFault {
 	if ( getName() == null || uid == null ) return false;
 
-	try {
-	    PreparedStatement p = getPreparedStatement(
-		    "SELECT COUNT(*) FROM circleusers " +
-			"WHERE uidx=(SELECT idx FROM users WHERE uid=?) "+ 
-			"AND cidx=(SELECT idx FROM circles WHERE circleid=?)");
-	    p.setString(1, uid);
-	    p.setString(2, getName());
-
-	    ResultSet r = p.executeQuery();
-	    int rows = 0;
-	    boolean rv = false;
-	    while (r.next()) {
-		if (rows++ > 0)
-		    throw new DeterFault(DeterFault.internal,
-			    "Strange circleusers??");
-		if ( r.getInt(1) > 0 ) rv = true;
-	    }
-	    return rv;
-	}
-	catch (SQLException e) {
-	    throw new DeterFault(DeterFault.internal, e.getMessage());
-	}
+	return members.getPerms(this, getName(), uid) != null;
     }
     /**
      * Return true if this circle is linked to a project.  Such circles will
@@ -270,48 +269,37 @@ public class CircleDB  extends PolicyObject {
      * @throws DeterFault if something is wrong internally
      */
     public List<Member> getMembers() throws DeterFault {
-	List<Member> m = new ArrayList<Member>();
-
 	if ( getName() == null ) 
 	    throw new DeterFault(DeterFault.internal, 
 		    "getMembers failed. Circle does not have a name");
 
-	try {
-	    Map<String, Set<String>> users = new HashMap<String, Set<String>>();
-
-	    PreparedStatement p = getPreparedStatement(
-		    "SELECT uid FROM circleusers LEFT JOIN users AS u " +
-			"ON uidx = u.idx " +
-		    "WHERE cidx=(SELECT idx FROM circles WHERE circleid=?)");
-	    p.setString(1, getName());
-	    ResultSet r= p.executeQuery();
-	    while (r.next())
-		users.put(r.getString(1), new HashSet<String>());
-
-	    p = getPreparedStatement(
-		    "SELECT uid, name FROM circleperms " +
-			"LEFT JOIN permissions AS p ON permidx = p.idx " +
-			"LEFT JOIN users AS u ON uidx = u.idx " +
-			"WHERE cidx=(SELECT idx FROM circles " +
-			    "WHERE circleid=?)");
-	    p.setString(1, getName());
-	    r = p.executeQuery();
-
-	    while (r.next()) {
-		String uid = r.getString(1);
+	return members.getMembers(this,
+		Collections.singleton(getName())).get(getName());
+    }
 
-		if ( !users.containsKey(uid) )
-		    throw new DeterFault(DeterFault.internal,
-			    "circleusers and circleperms out of sync!");
-		users.get(uid).add(r.getString(2));
-	    }
+    /**
+     * Return the members of each of the named circles.  All the memberships
+     * are read in one query (or from the membership cache).  Circles that do
+     * not exist have no members.
+     * @param circleids the circles to look up
+     * @param sc the shared connection to use (may be null)
+     * @return a map from circle name to its members
+     * @throws DeterFault if something is wrong internally
+     */
+    static public Map<String, List<Member>> getMembers(
+	    Collection<String> circleids, SharedConnection sc)
+	throws DeterFault {
+	CircleDB cdb = null;
 
-	    for (String uid: users.keySet())
-		m.add(new Member(uid, users.get(uid).toArray(new String[0])));
-	    return m;
+	try {
+	    cdb = new CircleDB(null, sc);
+	    Map<String, List<Member>> rv = members.getMembers(cdb, circleids);
+	    cdb.close();
+	    return rv;
 	}
-	catch (SQLException e) {
-	    throw new DeterFault(DeterFault.internal, e.getMessage());
+	catch (DeterFault df) {
+	    if ( cdb != null ) cdb.forceClose();
+	    throw df;
 	}
     }
 
@@ -331,28 +319,12 @@ public class CircleDB  extends PolicyObject {
 	    throw new DeterFault(DeterFault.internal, 
 		    "getPerms failed. no uid");
 
-	try {
-	    if ( !isMember(uid))
-		throw new DeterFault(DeterFault.request,
-			"getPerms failed. Cannot find uid " + uid);
+	Set<String> rv = members.getPerms(this, getName(), uid);
 
-	    Set<String> rv = new HashSet<String>();
-	    PreparedStatement p = getPreparedStatement(
-		    "SELECT name FROM circleperms " +
-			"LEFT JOIN permissions AS p ON permidx = p.idx " +
-			"WHERE cidx=(SELECT idx FROM circles " +
-			    "WHERE circleid=?) "+
-			"AND uidx = (SELECT idx FROM users WHERE uid = ?)");
-	    p.setString(1, getName());
-	    p.setString(2, uid);
-	    ResultSet r = p.executeQuery();
-	    while (r.next())
-		rv.add(r.getString(1));
-	    return rv;
-	}
-	catch (SQLException e) {
-	    throw new DeterFault(DeterFault.internal, e.getMessage());
-	}
+	if ( rv == null )
+	    throw new DeterFault(DeterFault.request,
+		    "getPerms failed. Cannot find uid " + uid);
+	return rv;
     }
 
     /**
@@ -462,6 +434,8 @@ public class CircleDB  extends PolicyObject {
 		p.setString(3, perm);
 		p.executeUpdate();
 	    }
+	    members.invalidate(getName(), uid);
+	    VisibilityIndex.updateUser(this, uid);
 	    updateUserCredentials(uid);
 	}
 	catch (SQLIntegrityConstraintViolationException e) {
@@ -474,6 +448,10 @@ public class CircleDB  extends PolicyObject {
 	catch (SQLException e) {
 	    throw new DeterFault(DeterFault.internal, e.getMessage());
 	}
+	finally {
+	    // A partial change leaves the cached membership unknown
+	    members.invalidate(getName(), uid);
+	}
     }
     /**
      * Change the given user's permissions.
@@ -515,11 +493,15 @@ public class CircleDB  extends PolicyObject {
 		p.setString(3, perm);
 		p.executeUpdate();
 	    }
+	    members.invalidate(getName(), uid);
 	    updateUserCredentials(uid);
 	}
 	catch (SQLException e) {
 	    throw new DeterFault(DeterFault.internal, e.getMessage());
 	}
+	finally {
+	    members.invalidate(getName(), uid);
+	}
     }
 
     /**
@@ -555,11 +537,16 @@ public class CircleDB  extends PolicyObject {
 	    p.setString(1, getName());
 	    p.setString(2, uid);
 	    p.executeUpdate();
+	    members.invalidate(getName(), uid);
+	    VisibilityIndex.updateUser(this, uid);
 	    removeUserCredentials(uid);
 	}
 	catch (SQLException e) {
 	    throw new DeterFault(DeterFault.internal, e.getMessage());
 	}
+	finally {
+	    members.invalidate(getName(), uid);
+	}
     }
 
     /**
@@ -603,7 +590,8 @@ public class CircleDB  extends PolicyObject {
 	    p.setString(1, getName());
 	    p.setString(2, owner);
 	    p.executeUpdate();
-	    
+	    members.invalidate(getName());
+
 	    updatePolicyCredentials();
 	    updateOwnerCredentials(null, owner);
 	    updateUserCredentials(owner);
@@ -614,21 +602,32 @@ public class CircleDB  extends PolicyObject {
     }
 
     /**
-     * Completely remove this circle.  The profile must be empty when this is
-     * called - it must have had removeAll() called.  All challenges must be
-     * removed as well.
+     * Remove every member of this circle, with their permissions and
+     * credentials.  The members' visible objects are recomputed, so objects
+     * shared only through this circle drop out of their listings.
      * @throws DeterFault if something goes wrong
      */
-    public void remove() throws DeterFault {
+    public void removeMembers() throws DeterFault {
 	if ( getName() == null)
-	    throw new DeterFault(DeterFault.internal, 
+	    throw new DeterFault(DeterFault.internal,
 		    "remove failed. Circle does not have a name");
 
 	// Clear credentials first as they refer to the circle
 	removeUserCredentials(null);
 	try {
-	    // Remove the users
+	    // Remember the members, whose visible objects change
+	    List<String> uids = new ArrayList<String>();
 	    PreparedStatement p = getPreparedStatement(
+		    "SELECT uid FROM circleusers AS cu " +
+			"JOIN users AS u ON cu.uidx = u.idx " +
+		    "WHERE cu.cidx=(SELECT idx FROM circles WHERE circleid=?)");
+	    p.setString(1, getName());
+	    ResultSet r = p.executeQuery();
+	    while (r.next())
+		uids.add(r.getString(1));
+
+	    // Remove the users
+	    p = getPreparedStatement(
 		    "DELETE FROM circleusers " +
 		    "WHERE cidx=(SELECT idx FROM circles WHERE circleid=?)");
 	    p.setString(1, getName());
@@ -639,12 +638,30 @@ public class CircleDB  extends PolicyObject {
 		    "WHERE cidx=(SELECT idx FROM circles WHERE circleid=?)");
 	    p.setString(1, getName());
 	    p.executeUpdate();
+	    members.invalidate(getName());
 	    // Credentials
 	    removeUserCredentials(null);
 
-	    // Now get out of any experiment and library ACLs (the call above
+	    for (String uid : uids)
+		VisibilityIndex.updateUser(this, uid);
+	}
+	catch (SQLException e) {
+	    throw new DeterFault(DeterFault.internal, e.getMessage());
+	}
+    }
+
+    /**
+     * Completely remove this circle.  The profile must be empty when this is
+     * called - it must have had removeAll() called.  All challenges must be
+     * removed as well.
+     * @throws DeterFault if something goes wrong
+     */
+    public void remove() throws DeterFault {
+	removeMembers();
+	try {
+	    // Now get out of any experiment and library ACLs (removeMembers
 	    // removes the ABAC permissions)
-	    p = getPreparedStatement(
+	    PreparedStatement p = getPreparedStatement(
 		    "DELETE FROM experimentperms " +
 		    "WHERE cidx=(SELECT idx FROM circles WHERE circleid=?)");
 	    p.setString(1, getName());
@@ -192,25 +192,28 @@ public abstract class ACLObject extends PolicyObject {
 	    p.executeUpdate();
 
 	    // No permissions means delete the entry, which is done.
-	    if ( perms == null || perms.isEmpty()) return;
-
-	    // Add new permissions back in. It would be faster to build one
-	    // statement and execute it, but an ACL modification is not time
-	    // critical and this allows better error messages.
-	    p = getPreparedStatement("INSERT INTO " + table + " " +
-		    "(" + linkIndex +", cidx, permidx) " +
-		    "VALUES (" +
-			"(SELECT idx FROM " + objectTable + " " +
-			    "WHERE " + objectIDColumn +"=?)," +
-			"(SELECT idx FROM circles WHERE circleid=?)," +
-			"(SELECT idx FROM permissions WHERE name=?))"
-		);
-	    p.setString(1, getID());
-	    p.setString(2, m.getCircleId());
-	    for ( String perm : perms) {
-		p.setString(3, perm);
-		p.executeUpdate();
+	    // Otherwise add new permissions back in. It would be faster to
+	    // build one statement and execute it, but an ACL modification is
+	    // not time critical and this allows better error messages.
+	    if ( perms != null && !perms.isEmpty()) {
+		p = getPreparedStatement("INSERT INTO " + table + " " +
+			"(" + linkIndex +", cidx, permidx) " +
+			"VALUES (" +
+			    "(SELECT idx FROM " + objectTable + " " +
+				"WHERE " + objectIDColumn +"=?)," +
+			    "(SELECT idx FROM circles WHERE circleid=?)," +
+			    "(SELECT idx FROM permissions WHERE name=?))"
+		    );
+		p.setString(1, getID());
+		p.setString(2, m.getCircleId());
+		for ( String perm : perms) {
+		    p.setString(3, perm);
+		    p.executeUpdate();
+		}
 	    }
+
+	    // The ACL changed, so the readers did too.
+	    VisibilityIndex.updateObject(this, getPolicyType(), getID());
 	}
 	catch (SQLIntegrityConstraintViolationException e) {
 	    throw new DeterFault(DeterFault.request,
@@ -0,0 +1,308 @@
+package net.deterlab.testbed.db;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import net.deterlab.testbed.api.DeterFault;
+import net.deterlab.testbed.api.Member;
+
+import net.deterlab.testbed.metrics.Metrics;
+
+/**
+ * Loads and remembers the members of projects or circles and their
+ * permissions.  Membership of a whole set of objects is read in one query
+ * (per few hundred objects) rather than two queries per object, and
+ * membership of a single user in one query rather than one to test
+ * membership and another to get permissions.
+ * <p>
+ * Results are kept per (object, uid).  An object whose whole membership has
+ * been loaded is marked complete, so non-members are answered from memory
+ * too.  The owning class must call invalidate when it changes membership or
+ * permissions.  A load that overlaps an invalidation is not remembered, so a
+ * slow reader cannot reinstate stale data.  The cache is bounded by the
+ * number of objects and drops the least recently used.  Loads read from a
+ * replica are not remembered either, since the replica may not yet reflect
+ * an invalidation.
+ * @author DETER team
+ * @version 1.0
+ */
+public class MembershipCache {
+    /**
+     * What is known about one object's membership.  A uid mapped to null is
+     * known not to be a member.
+     */
+    static private class Entry {
+	/** uid to permissions (null for non-members) */
+	public Map<String, Set<String>> perms = new HashMap<>();
+	/** True if perms holds every member */
+	public boolean complete = false;
+    }
+
+    /** Most object IDs put in one IN clause */
+    static private final int CHUNK = 500;
+
+    /** Query prefix selecting (id, uid, permission) rows; see constructor */
+    private String membersQuery;
+    /** Query selecting one user's permission rows; see constructor */
+    private String memberQuery;
+    /** Maximum number of objects remembered */
+    private int limit;
+    /** Object ID to entry, in access order */
+    private LinkedHashMap<String, Entry> entries;
+    /** Incremented by every invalidation */
+    private long generation;
+
+    /**
+     * Create a cache.  The members query is completed by the cache with
+     * "(?, ?, ...)" and must return one row per (object ID, uid, permission
+     * name) with a NULL permission name for members without permissions.
+     * The member query takes the object ID and uid as parameters and returns
+     * one row per permission name - a single NULL name for a member without
+     * permissions and no rows for a non-member.
+     * @param members the members query prefix, ending in "IN"
+     * @param member the single member query
+     * @param l the maximum number of objects to remember
+     */
+    public MembershipCache(String members, String member, int l) {
+	membersQuery = members;
+	memberQuery = member;
+	limit = l;
+	entries = new LinkedHashMap<>(16, 0.75f, true);
+	generation = 0;
+    }
+
+    /**
+     * Return the entry for id, creating it if necessary.  Caller must hold
+     * the lock.
+     * @param id the object ID
+     * @return the entry
+     */
+    private Entry entry(String id) {
+	Entry e = entries.get(id);
+
+	if ( e != null ) return e;
+	e = new Entry();
+	entries.put(id, e);
+	if ( entries.size() > limit ) {
+	    String eldest = entries.keySet().iterator().next();
+	    entries.remove(eldest);
+	}
+	return e;
+    }
+
+    /**
+     * Return the permissions of uid in the object, or null if uid is not a
+     * member.  The set returned belongs to the caller.
+     * @param db database access, generally the calling PolicyObject
+     * @param id the object ID
+     * @param uid the user
+     * @return the permissions or null
+     * @throws DeterFault on database errors
+     */
+    public Set<String> getPerms(DBObject db, String id, String uid)
+	    throws DeterFault {
+	long gen = 0;
+
+	synchronized (this) {
+	    Entry e = entries.get(id);
+
+	    if ( e != null ) {
+		if ( e.perms.containsKey(uid)) {
+		    Set<String> p = e.perms.get(uid);
+
+		    Metrics.cacheAccess("membership", true);
+		    return (p != null) ? new HashSet<String>(p) : null;
+		}
+		if ( e.complete ) {
+		    Metrics.cacheAccess("membership", true);
+		    return null;
+		}
+	    }
+	    gen = generation;
+	}
+	Metrics.cacheAccess("membership", false);
+
+	try {
+	    PreparedStatement p = db.getPreparedStatement(memberQuery);
+	    p.setString(1, id);
+	    p.setString(2, uid);
+	    ResultSet r = p.executeQuery();
+	    Set<String> rv = null;
+
+	    while (r.next()) {
+		if ( rv == null ) rv = new HashSet<String>();
+		String perm = r.getString(1);
+		if ( perm != null ) rv.add(perm);
+	    }
+	    synchronized (this) {
+		// A getMembers that completed the entry meanwhile has already
+		// recorded uid.
+		if ( gen == generation && !fromReplica(db) ) {
+		    Entry e = entry(id);
+
+		    if ( !e.complete )
+			e.perms.put(uid,
+				(rv != null) ? new HashSet<String>(rv) : null);
+		}
+	    }
+	    return rv;
+	}
+	catch (SQLException e) {
+	    throw new DeterFault(DeterFault.internal, e.getMessage());
+	}
+    }
+
+    /**
+     * Return the members of each object in ids, reading those not already
+     * known from the database in as few queries as possible.  Objects that
+     * do not exist have no members.
+     * @param db database access, generally a PolicyObject of the right type
+     * @param ids the object IDs
+     * @return a map from object ID to members, in the order of ids
+     * @throws DeterFault on database errors
+     */
+    public Map<String, List<Member>> getMembers(DBObject db,
+	    Collection<String> ids) throws DeterFault {
+	Map<String, Map<String, Set<String>>> found = new HashMap<>();
+	List<String> missing = new ArrayList<String>();
+	long gen = 0;
+
+	synchronized (this) {
+	    for (String id : ids) {
+		Entry e = entries.get(id);
+
+		if ( e != null && e.complete )
+		    found.put(id, copy(e.perms));
+		else if ( !missing.contains(id))
+		    missing.add(id);
+	    }
+	    gen = generation;
+	}
+	Metrics.cacheAccess("membership", found.size(), missing.size());
+
+	try {
+	    for (int i = 0; i < missing.size(); i += CHUNK) {
+		List<String> chunk =
+		    missing.subList(i, Math.min(i + CHUNK, missing.size()));
+		StringBuilder sb = new StringBuilder(membersQuery);
+
+		sb.append(" (");
+		for (int j = 0; j < chunk.size(); j++)
+		    sb.append((j == 0) ? "?" : ", ?");
+		sb.append(")");
+
+		PreparedStatement p = db.getPreparedStatement(sb.toString());
+		int idx = 1;
+		for (String id : chunk) {
+		    p.setString(idx++, id);
+		    found.put(id, new HashMap<String, Set<String>>());
+		}
+		ResultSet r = p.executeQuery();
+		while (r.next()) {
+		    Map<String, Set<String>> users = found.get(r.getString(1));
+		    String uid = r.getString(2);
+		    String perm = r.getString(3);
+
+		    if ( users == null ) continue;
+		    if ( !users.containsKey(uid))
+			users.put(uid, new HashSet<String>());
+		    if ( perm != null ) users.get(uid).add(perm);
+		}
+	    }
+	}
+	catch (SQLException e) {
+	    throw new DeterFault(DeterFault.internal, e.getMessage());
+	}
+
+	synchronized (this) {
+	    if ( gen == generation && !fromReplica(db) ) {
+		for (String id : missing) {
+		    Entry e = entry(id);
+
+		    e.perms = copy(found.get(id));
+		    e.complete = true;
+		}
+	    }
+	}
+
+	Map<String, List<Member>> rv = new LinkedHashMap<>();
+	for (String id : ids) {
+	    List<Member> m = new ArrayList<Member>();
+	    Map<String, Set<String>> users = found.get(id);
+
+	    for (Map.Entry<String, Set<String>> u : users.entrySet())
+		m.add(new Member(u.getKey(),
+			    u.getValue().toArray(new String[0])));
+	    rv.put(id, m);
+	}
+	return rv;
+    }
+
+    /**
+     * Return true if db reads from a replica.
+     * @param db database access
+     * @return true if db reads from a replica
+     */
+    static private boolean fromReplica(DBObject db) {
+	SharedConnection sc = db.getSharedConnection();
+
+	return sc != null && sc.onReplica();
+    }
+
+    /**
+     * Deep copy a uid to permissions map.
+     * @param m the map to copy
+     * @return the copy
+     */
+    static private Map<String, Set<String>> copy(Map<String, Set<String>> m) {
+	Map<String, Set<String>> rv = new HashMap<>();
+
+	for (Map.Entry<String, Set<String>> e : m.entrySet())
+	    rv.put(e.getKey(), (e.getValue() != null) ?
+		    new HashSet<String>(e.getValue()) : null);
+	return rv;
+    }
+
+    /**
+     * Forget what is known about uid in the object.  Call after adding or
+     * removing uid or changing its permissions.
+     * @param id the object ID
+     * @param uid the user
+     */
+    public synchronized void invalidate(String id, String uid) {
+	Entry e = entries.get(id);
+
+	generation++;
+	if ( e == null ) return;
+	e.perms.remove(uid);
+	e.complete = false;
+    }
+
+    /**
+     * Forget everything about the object.  Call after creating or removing
+     * it.
+     * @param id the object ID
+     */
+    public synchronized void invalidate(String id) {
+	generation++;
+	entries.remove(id);
+    }
+
+    /**
+     * Forget everything.
+     */
+    public synchronized void clear() {
+	generation++;
+	entries.clear();
+    }
+}
@@ -0,0 +1,369 @@
+package net.deterlab.testbed.db;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.deterlab.testbed.api.Config;
+import net.deterlab.testbed.api.DeterFault;
+
+import net.deterlab.testbed.metrics.Metrics;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Chooses a read replica for read-only SharedConnections.  Replicas are
+ * used in turn.  One that cannot be reached, or that lags the primary by
+ * more than the configured limit, is skipped for a while, and when no
+ * replica is usable the connection goes to the primary.
+ * <p>
+ * Reads are also sent to the primary for a while after the same session
+ * has changed data, so a caller always reads its own writes.  The message
+ * receiver brackets each API call with startRequest and endRequest, naming
+ * the session by the caller's certificate; primary connections report
+ * their updates through WRITES.  A call that has written reads from the
+ * primary for the rest of the call even without a session.
+ * <p>
+ * The lag is read from SHOW SLAVE STATUS, so the replica account needs the
+ * REPLICATION CLIENT privilege.  A server that is not replicating is
+ * skipped like one that lags: it may be a copy that was never attached, or
+ * one whose replication was reset, and its data could be arbitrarily old.
+ * Servers that are current without replicating (e.g. another primary, or
+ * a local copy used for testing) must be listed in deterDbReplicaPrimaries;
+ * their lag is not checked.  There is one router per service process.
+ * <p>
+ * Configuration properties (all optional):
+ * <dl>
+ * <dt>deterDbReplicaUrls</dt><dd>comma separated JDBC URLs of replicas of
+ *	deterDbUrl (default none, so everything uses the primary)</dd>
+ * <dt>deterDbReplicaPrimaries</dt><dd>comma separated URLs from
+ *	deterDbReplicaUrls that are primaries rather than replicas, and are
+ *	always current (default none)</dd>
+ * <dt>replicaMaxLag</dt><dd>seconds a replica may lag the primary and
+ *	still be used; negative skips the lag check (default 5)</dd>
+ * <dt>replicaWriteWindow</dt><dd>seconds after a session changes data
+ *	during which its reads go to the primary.  It should be more than
+ *	replicaMaxLag (default 10)</dd>
+ * <dt>replicaRetryDelay</dt><dd>seconds a failed or lagging replica is
+ *	skipped (default 30)</dd>
+ * </dl>
+ * @author DETER team
+ * @version 1.0
+ */
+public class ReplicaRouter {
+    /** Milliseconds between lag checks of a replica */
+    static private final long LAG_CHECK_INTERVAL = 1000;
+    /** Sessions remembered before stale ones are purged */
+    static private final int PURGE_SIZE = 4096;
+    /** The per-process router */
+    static private volatile ReplicaRouter instance = null;
+    /** The calling thread's API call */
+    static private ThreadLocal<Request> current = new ThreadLocal<>();
+
+    /** Tells the router that the calling thread has changed data */
+    static public final Runnable WRITES = new Runnable() {
+	public void run() { wrote(); }
+    };
+
+    /**
+     * One replica and its health.
+     */
+    static private class Replica {
+	/** JDBC URL */
+	public String url;
+	/** True if the server is a primary, which is always current */
+	public boolean primary;
+	/** Time (ms) before which the replica is skipped */
+	public volatile long downUntil;
+	/** Time (ms) of the last lag check */
+	public volatile long checked;
+
+	/**
+	 * Create a replica.
+	 * @param u the JDBC URL
+	 * @param p true if the server is a primary
+	 */
+	public Replica(String u, boolean p) {
+	    url = u;
+	    primary = p;
+	    downUntil = 0;
+	    checked = 0;
+	}
+    }
+
+    /**
+     * One API call in progress.
+     */
+    static private class Request {
+	/** The caller's session; may be null */
+	public String session;
+	/** True once the call has changed data */
+	public boolean wrote;
+
+	/**
+	 * Start a call.
+	 * @param s the session
+	 */
+	public Request(String s) {
+	    session = s;
+	    wrote = false;
+	}
+    }
+
+    /** The replicas */
+    private Replica[] replicas;
+    /** The next replica to try */
+    private AtomicInteger next;
+    /** Greatest usable lag in seconds (negative for no check) */
+    private long maxLag;
+    /** Milliseconds after a write during which a session uses the primary */
+    private long writeWindow;
+    /** Milliseconds a failed replica is skipped */
+    private long retryDelay;
+    /** Time (ms) of each session's last write */
+    private Map<String, Long> lastWrite;
+    /** Logger */
+    private Logger log;
+
+    /**
+     * Create a router.
+     * @param urls the replica URLs (may be empty)
+     * @param primaries the replica URLs that are primaries (may be empty)
+     * @param lag greatest usable lag in seconds (negative for no check)
+     * @param window milliseconds a session reads from the primary after it
+     *	writes
+     * @param retry milliseconds a failed replica is skipped
+     */
+    public ReplicaRouter(String[] urls, Collection<String> primaries,
+	    long lag, long window, long retry) {
+	replicas = new Replica[urls.length];
+	for (int i = 0; i < urls.length; i++)
+	    replicas[i] = new Replica(urls[i], primaries.contains(urls[i]));
+	next = new AtomicInteger(0);
+	maxLag = lag;
+	writeWindow = window;
+	retryDelay = retry;
+	lastWrite = new ConcurrentHashMap<>();
+	log = Logger.getLogger(getClass());
+    }
+
+    /**
+     * Return the router for this process, creating it from the service
+     * configuration if necessary.
+     * @return the router
+     * @throws DeterFault if the configuration cannot be read
+     */
+    static public synchronized ReplicaRouter getInstance()
+	    throws DeterFault {
+	if ( instance != null ) return instance;
+
+	Config config = new Config();
+
+	instance = new ReplicaRouter(
+		listProperty(config, "deterDbReplicaUrls"),
+		Arrays.asList(listProperty(config, "deterDbReplicaPrimaries")),
+		intProperty(config, "replicaMaxLag", 5),
+		intProperty(config, "replicaWriteWindow", 10) * 1000L,
+		intProperty(config, "replicaRetryDelay", 30) * 1000L);
+	return instance;
+    }
+
+    /**
+     * Forget the per-process router, so the next getInstance reads the
+     * configuration again.  Note the package scope.
+     */
+    static synchronized void reset() {
+	instance = null;
+    }
+
+    /**
+     * Read a comma separated list property, returning an empty list if it
+     * is missing.
+     * @param config the configuration
+     * @param name the property name
+     * @return the values
+     */
+    static private String[] listProperty(Config config, String name) {
+	String v = config.getProperty(name);
+
+	if ( v == null || v.trim().isEmpty()) return new String[0];
+	return v.trim().split("\\s*,\\s*");
+    }
+
+    /**
+     * Read an integer property, returning a default if it is missing or
+     * malformed.
+     * @param config the configuration
+     * @param name the property name
+     * @param def the default value
+     * @return the value
+     */
+    static private int intProperty(Config config, String name, int def) {
+	String v = config.getProperty(name);
+
+	if ( v == null ) return def;
+	try {
+	    return Integer.parseInt(v);
+	}
+	catch (NumberFormatException e) {
+	    return def;
+	}
+    }
+
+    /**
+     * Return true if any replicas are configured.  If not, there is no need
+     * to track writes.
+     * @return true if any replicas are configured
+     */
+    public boolean hasReplicas() { return replicas.length > 0; }
+
+    /**
+     * Note that the calling thread has started an API call for the given
+     * session.
+     * @param session the caller's session (may be null)
+     */
+    static public void startRequest(String session) {
+	current.set(new Request(session));
+    }
+
+    /**
+     * Note that the calling thread has finished its API call.
+     */
+    static public void endRequest() {
+	current.remove();
+    }
+
+    /**
+     * Note that the calling thread has changed data.
+     */
+    static public void wrote() {
+	Request r = current.get();
+	ReplicaRouter rr = instance;
+
+	if ( r == null ) return;
+	r.wrote = true;
+	if ( r.session != null && rr != null ) rr.sessionWrote(r.session);
+    }
+
+    /**
+     * Remember a session's write, purging sessions that have not written
+     * recently when there are many.
+     * @param session the session
+     */
+    private void sessionWrote(String session) {
+	long now = System.currentTimeMillis();
+
+	lastWrite.put(session, now);
+	if ( lastWrite.size() < PURGE_SIZE ) return;
+	for (Iterator<Long> i = lastWrite.values().iterator(); i.hasNext(); )
+	    if ( now - i.next() > writeWindow ) i.remove();
+    }
+
+    /**
+     * Return true if the calling thread must read from the primary to see
+     * its own writes.
+     * @return true if the calling thread must read from the primary
+     */
+    boolean primaryRequired() {
+	Request r = current.get();
+
+	if ( r == null ) return false;
+	if ( r.wrote ) return true;
+	if ( r.session == null ) return false;
+
+	Long t = lastWrite.get(r.session);
+
+	return t != null && System.currentTimeMillis() - t <= writeWindow;
+    }
+
+    /**
+     * Return the replica's lag in seconds, or -1 if it is not replicating
+     * or replication has stopped.
+     * @param c a connection to the replica
+     * @return the lag
+     * @throws SQLException if the lag cannot be read
+     */
+    private long lag(Connection c) throws SQLException {
+	Statement s = c.createStatement();
+
+	try {
+	    ResultSet r = s.executeQuery("SHOW SLAVE STATUS");
+
+	    // Not replicating at all
+	    if ( !r.next() ) return -1;
+
+	    long lag = r.getLong("Seconds_Behind_Master");
+
+	    return r.wasNull() ? -1 : lag;
+	}
+	finally {
+	    s.close();
+	}
+    }
+
+    /**
+     * Return a read-only connection to a usable replica, or null if the
+     * caller should use the primary.  The connection is not wrapped.
+     * @return the connection or null
+     */
+    public Connection connectReplica() {
+	if ( replicas.length == 0 ) return null;
+	if ( primaryRequired() ) {
+	    Metrics.count("db.replica.consistency", 1);
+	    return null;
+	}
+
+	long now = System.currentTimeMillis();
+	int start = next.getAndIncrement();
+
+	for (int i = 0; i < replicas.length; i++) {
+	    int ri = Math.floorMod(start + i, replicas.length);
+	    Replica r = replicas[ri];
+	    Connection c = null;
+
+	    if ( r.downUntil > now ) continue;
+	    try {
+		c = DriverManager.getConnection(r.url);
+		c.setReadOnly(true);
+		if ( !r.primary && maxLag >= 0 &&
+			now - r.checked > LAG_CHECK_INTERVAL ) {
+		    long lag = lag(c);
+
+		    if ( lag < 0 || lag > maxLag ) {
+			// Do not log the URL; it may hold a password.
+			log.warn("Skipping replica " + ri + ": " +
+				((lag < 0) ? "not replicating" :
+				    "lag " + lag + "s"));
+			r.downUntil = now + retryDelay;
+			c.close();
+			continue;
+		    }
+		    r.checked = now;
+		}
+		Metrics.count("db.replica.reads", 1);
+		return c;
+	    }
+	    catch (SQLException e) {
+		log.warn("Skipping replica " + ri + ": " + e.getMessage());
+		r.downUntil = now + retryDelay;
+		if ( c != null ) {
+		    try {
+			c.close();
+		    }
+		    catch (SQLException ignored) { }
+		}
+	    }
+	}
+	Metrics.count("db.replica.fallbacks", 1);
+	return null;
+    }
+}
@@ -7,33 +7,107 @@ import java.sql.SQLException;
 import net.deterlab.testbed.api.Config;
 import net.deterlab.testbed.api.DeterFault;
 
+import net.deterlab.testbed.metrics.TimedConnection;
+
 /**
  * A connection shared among DBObjects.  This exports a fairly minimal supset
  * of the Connection interface.  There's a little reference counting in
- * here as well as some error handling.
+ * here as well as some error handling.  A read-only SharedConnection may be
+ * routed to a read replica (see ReplicaRouter); it must not be used to
+ * change data.
+ * <p>
+ * Between pin and unpin, every SharedConnection a thread connects uses the
+ * same primary connection, and the same replica connection when it reads
+ * from one, so that a batch of API calls does not make a connection for
+ * each call.
  * @author DETER Team
  * @version 1.0
  */
 public class SharedConnection {
+    /**
+     * The connections shared by a thread's SharedConnections while it has
+     * them pinned.
+     */
+    static private class Pinned {
+	/** The primary connection, once one is made */
+	public Connection primary = null;
+	/** The replica connection, once one is made */
+	public Connection replica = null;
+    }
+
+    /** The calling thread's pinned connections; null if none are pinned */
+    static private ThreadLocal<Pinned> pinned = new ThreadLocal<>();
+
     /** reference count */
     private int refs;
     /** The underlying shared connection. */
     private Connection c;
     /** The DETER config that tells where the DB is. */
     private Config config;
+    /** True if this connection may be routed to a replica */
+    private boolean readOnly;
+    /** True if the underlying connection is to a replica */
+    private boolean replica;
+    /** True if the underlying connection is pinned and not ours to close */
+    private boolean borrowed;
 
     /**
      * Get a new SharedConnection, already open.
      * @throws DeterFault if the underlying connection fails to initialize
      */
     public SharedConnection() throws DeterFault {
+	this(false);
+    }
+
+    /**
+     * Get a new SharedConnection, possibly read-only.  A read-only
+     * connection reads from a replica when one is usable.
+     * @param ro true if the connection will only be read
+     * @throws DeterFault if the underlying connection fails to initialize
+     */
+    public SharedConnection(boolean ro) throws DeterFault {
 	refs = 0;
 	c = null;
 	config = new Config();
+	readOnly = ro;
+	replica = false;
+	borrowed = false;
     }
 
     /**
-     * If the underlying connection doesn't exist, make it.
+     * Pin the calling thread's connections: until unpin, its
+     * SharedConnections share one primary and one replica connection,
+     * each made when first needed.  Closing a SharedConnection leaves them
+     * open.
+     */
+    static public void pin() {
+	pinned.set(new Pinned());
+    }
+
+    /**
+     * Stop sharing the calling thread's pinned connections and close them.
+     */
+    static public void unpin() {
+	Pinned p = pinned.get();
+
+	pinned.remove();
+	if ( p == null ) return;
+	for (Connection pc : new Connection[] { p.primary, p.replica }) {
+	    try {
+		if ( pc != null ) pc.close();
+	    }
+	    catch (SQLException ignored) { }
+	}
+    }
+
+    /**
+     * If the underlying connection doesn't exist, make it.  Its statements
+     * are timed (see TimedConnection).  A read-only connection goes to a
+     * replica if the ReplicaRouter picks one.  Updates made through a
+     * primary connection are reported to the router.  The choice is made
+     * when the underlying connection is made and kept while it is open.
+     * If the thread has pinned its connections, the pinned ones are used,
+     * and a pinned replica only while the router would pick one.
      */
     protected void connect() throws DeterFault {
 	try {
@@ -42,7 +116,44 @@ public class SharedConnection {
 		if ( c.isClosed()) c = null;
 		else return;
 	    }
-	    c = DriverManager.getConnection(config.getDeterDbUrl());
+	    ReplicaRouter router = ReplicaRouter.getInstance();
+	    Pinned p = pinned.get();
+
+	    if ( p != null ) {
+		if ( p.primary != null && p.primary.isClosed())
+		    p.primary = null;
+		if ( p.replica != null && p.replica.isClosed())
+		    p.replica = null;
+	    }
+	    borrowed = (p != null);
+
+	    if ( readOnly ) {
+		if ( p != null && p.replica != null ) {
+		    if ( !router.primaryRequired() ) {
+			c = p.replica;
+			replica = true;
+			return;
+		    }
+		}
+		else {
+		    Connection rc = router.connectReplica();
+
+		    if ( rc != null ) {
+			c = TimedConnection.wrap(rc);
+			replica = true;
+			if ( p != null ) p.replica = c;
+			return;
+		    }
+		}
+	    }
+	    if ( p != null && p.primary != null ) c = p.primary;
+	    else {
+		c = TimedConnection.wrap(
+			DriverManager.getConnection(config.getDeterDbUrl()),
+			router.hasReplicas() ? ReplicaRouter.WRITES : null);
+		if ( p != null ) p.primary = c;
+	    }
+	    replica = false;
 	}
 	catch (SQLException e) {
 	    c = null;
@@ -50,6 +161,19 @@ public class SharedConnection {
 	}
     }
 
+    /**
+     * Return true if this connection may be routed to a replica.
+     * @return true if this connection may be routed to a replica
+     */
+    public boolean isReadOnly() { return readOnly; }
+
+    /**
+     * Return true if the underlying connection is to a replica, whose data
+     * may be slightly behind the primary's.
+     * @return true if the underlying connection is to a replica
+     */
+    public boolean onReplica() { return c != null && replica; }
+
     /**
      * Start sharing this connection.
      * @throws DeterFault if the underlying connection was closed and could not
@@ -59,13 +183,13 @@ public class SharedConnection {
 
     /**
      * Stop sharing this connection - close the underlying connection if the
-     * count has gone below 1.
+     * count has gone below 1.  A pinned connection stays open.
      * @throws DeterFault if the underlying connection fails to close
      */
     public void close() throws DeterFault {
 	if ( --refs == 0 ) {
 	    try {
-		c.close();
+		if ( !borrowed ) c.close();
 		c = null;
 	    }
 	    catch (SQLException e) {
@@ -82,7 +206,7 @@ public class SharedConnection {
      */
     public void forceClose() {
 	try {
-	    if (c != null ) c.close();
+	    if (c != null && !borrowed ) c.close();
 	    c = null;
 	}
 	catch (SQLException e) {
@@ -106,7 +230,7 @@ public class SharedConnection {
      */
     protected void finalize() { 
 	try {
-	    if ( c != null ) c.close();
+	    if ( c != null && !borrowed ) c.close();
 	}
 	catch (SQLException ignored) { }
     }
@@ -0,0 +1,229 @@
+package net.deterlab.testbed.db;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import net.deterlab.testbed.api.DeterFault;
+
+/**
+ * Maintains the visibility table, which holds a row for each (user, object)
+ * pair where the user belongs to a circle that the object's access control
+ * list gives read permission.  Listing calls filter on it with a single
+ * indexed lookup (see visibleTo) rather than joining the ACL, permissions and
+ * circle membership tables on every call.  Ownership is not part of the
+ * index; listings test the owner column directly.
+ * <p>
+ * The index is derived data.  ACLObject.assignPermissions updates an
+ * object's rows, CircleDB updates a user's rows when circle membership
+ * changes, the object classes remove an object's rows when they remove it,
+ * and Admin.resetAccessControl rebuilds the whole table.  Resources have no
+ * read permission, so any permission on a resource makes it visible.
+ * @author DETER team
+ * @version 1.0
+ */
+public class VisibilityIndex {
+    /**
+     * How to find the read permissions of one type of object.
+     */
+    static private class Kind {
+	/** The object type, as used by PolicyObject */
+	public String type;
+	/** The ACL table */
+	public String perms;
+	/** Column in the ACL table holding the object index */
+	public String link;
+	/** The object table */
+	public String objects;
+	/** Column in the object table holding the object identifier */
+	public String id;
+	/** The permission that allows reading, or null for any permission */
+	public String read;
+
+	/**
+	 * Create a Kind.
+	 * @param t the object type
+	 * @param p the ACL table
+	 * @param l the object index column in the ACL table
+	 * @param o the object table
+	 * @param i the identifier column in the object table
+	 * @param r the read permission (may be null)
+	 */
+	public Kind(String t, String p, String l, String o, String i,
+		String r) {
+	    type = t;
+	    perms = p;
+	    link = l;
+	    objects = o;
+	    id = i;
+	    read = r;
+	}
+
+	/**
+	 * Return a statement that adds index rows from every entry in this
+	 * ACL table.  The caller may append further conditions (starting
+	 * with AND) on a (ACL rows) or cu (circle membership).
+	 * @return the statement
+	 */
+	public String insert() {
+	    StringBuilder sb = new StringBuilder(
+		    "INSERT IGNORE INTO visibility (uidx, otype, oidx) " +
+		    "SELECT DISTINCT cu.uidx, '" + type + "', a." + link +
+		    " FROM " + perms + " AS a " +
+		    "JOIN circleusers AS cu ON a.cidx = cu.cidx ");
+
+	    if ( read != null )
+		sb.append("JOIN permissions AS perm ON a.permidx = perm.idx " +
+			"AND perm.name='" + read + "' " +
+			"AND perm.valid_for='" + type + "' ");
+	    sb.append("WHERE a." + link + " IS NOT NULL ");
+	    return sb.toString();
+	}
+    }
+
+    /** The indexed object types */
+    static private final Kind[] kinds = new Kind[] {
+	new Kind("experiment", "experimentperms", "eidx", "experiments",
+		"eid", "READ_EXPERIMENT"),
+	new Kind("library", "libraryperms", "lidx", "libraries",
+		"libid", "READ_LIBRARY"),
+	new Kind("realization", "realizationperms", "ridx", "realizations",
+		"name", "READ_REALIZATION"),
+	new Kind("resource", "resourceperms", "ridx", "resources",
+		"name", null),
+    };
+
+    /**
+     * Return the Kind for a type.
+     * @param type the object type
+     * @return the Kind
+     * @throws DeterFault if the type is not indexed
+     */
+    static private Kind getKind(String type) throws DeterFault {
+	for (Kind k : kinds)
+	    if ( k.type.equals(type) ) return k;
+	throw new DeterFault(DeterFault.internal,
+		"No visibility index for " + type);
+    }
+
+    /**
+     * Return a condition selecting the objects of the given type that the
+     * user can read through circle membership.  The condition applies to
+     * the object table's idx column and takes the uid as its one parameter.
+     * @param type the object type
+     * @return the SQL condition
+     * @throws DeterFault if the type is not indexed
+     */
+    static public String visibleTo(String type) throws DeterFault {
+	return "idx IN (SELECT oidx FROM visibility " +
+	    "WHERE uidx=(SELECT idx FROM users WHERE uid=?) " +
+	    "AND otype='" + getKind(type).type + "') ";
+    }
+
+    /**
+     * Recompute the rows for one object from its access control list.
+     * @param db database access, generally the object
+     * @param type the object type
+     * @param id the object identifier
+     * @throws DeterFault on database errors
+     */
+    static public void updateObject(DBObject db, String type, String id)
+	    throws DeterFault {
+	Kind k = getKind(type);
+
+	if ( id == null ) return;
+	removeObject(db, type, id);
+	try {
+	    PreparedStatement p = db.getPreparedStatement(k.insert() +
+		    "AND a." + k.link + "=(SELECT idx FROM " + k.objects +
+			" WHERE " + k.id + "=?)");
+	    p.setString(1, id);
+	    p.executeUpdate();
+	}
+	catch (SQLException e) {
+	    throw new DeterFault(DeterFault.internal,
+		    "Cannot update visibility of " + type + " " + id + ": " +
+		    e.getMessage());
+	}
+    }
+
+    /**
+     * Recompute the rows for one user from their circle memberships.
+     * @param db database access
+     * @param uid the user
+     * @throws DeterFault on database errors
+     */
+    static public void updateUser(DBObject db, String uid)
+	    throws DeterFault {
+	if ( uid == null ) return;
+	try {
+	    PreparedStatement p = db.getPreparedStatement(
+		    "DELETE FROM visibility " +
+		    "WHERE uidx=(SELECT idx FROM users WHERE uid=?)");
+	    p.setString(1, uid);
+	    p.executeUpdate();
+
+	    for (Kind k : kinds) {
+		p = db.getPreparedStatement(k.insert() +
+			"AND cu.uidx=(SELECT idx FROM users WHERE uid=?)");
+		p.setString(1, uid);
+		p.executeUpdate();
+	    }
+	}
+	catch (SQLException e) {
+	    throw new DeterFault(DeterFault.internal,
+		    "Cannot update visibility for " + uid + ": " +
+		    e.getMessage());
+	}
+    }
+
+    /**
+     * Remove the rows for an object.  Call before the object's row is
+     * deleted.
+     * @param db database access, generally the object
+     * @param type the object type
+     * @param id the object identifier
+     * @throws DeterFault on database errors
+     */
+    static public void removeObject(DBObject db, String type, String id)
+	    throws DeterFault {
+	Kind k = getKind(type);
+
+	if ( id == null ) return;
+	try {
+	    PreparedStatement p = db.getPreparedStatement(
+		    "DELETE FROM visibility WHERE otype=? AND oidx=" +
+			"(SELECT idx FROM " + k.objects +
+			" WHERE " + k.id + "=?)");
+	    p.setString(1, k.type);
+	    p.setString(2, id);
+	    p.executeUpdate();
+	}
+	catch (SQLException e) {
+	    throw new DeterFault(DeterFault.internal,
+		    "Cannot remove visibility of " + type + " " + id + ": " +
+		    e.getMessage());
+	}
+    }
+
+    /**
+     * Rebuild the whole table from the access control lists.
+     * @param db database access
+     * @throws DeterFault on database errors
+     */
+    static public void rebuild(DBObject db) throws DeterFault {
+	try {
+	    PreparedStatement p = db.getPreparedStatement(
+		    "DELETE FROM visibility");
+	    p.executeUpdate();
+
+	    for (Kind k : kinds) {
+		p = db.getPreparedStatement(k.insert());
+		p.executeUpdate();
+	    }
+	}
+	catch (SQLException e) {
+	    throw new DeterFault(DeterFault.internal,
+		    "Cannot rebuild visibility index: " + e.getMessage());
+	}
+    }
+}
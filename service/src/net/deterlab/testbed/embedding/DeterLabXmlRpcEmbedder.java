@@ -440,7 +440,8 @@ public class DeterLabXmlRpcEmbedder implements Embedder {
 		sc = new SharedConnection();
 		sc.open();
 
-		rList = RealizationDB.getRealizations(uid,
+		// Access was checked by the caller; do not filter by uid
+		rList = RealizationDB.getRealizations(null,
 			"^" + realizationName+"$", -1, -1, null);
 
 		if ( rList.size() != 1 )
@@ -930,7 +931,8 @@ public class DeterLabXmlRpcEmbedder implements Embedder {
 		sc = new SharedConnection();
 		sc.open();
 
-		rList = RealizationDB.getRealizations(uid,
+		// Access was checked by the caller; do not filter by uid
+		rList = RealizationDB.getRealizations(null,
 			"^" + realizationName+"$", -1, -1, null);
 
 		if ( rList.size() == 0 )
@@ -1023,7 +1025,8 @@ public class DeterLabXmlRpcEmbedder implements Embedder {
 
 	    String tbUrl = config.getProperty("testbedUrl");
 
-	    rList = RealizationDB.getRealizations(uid,
+	    // Access was checked by the caller; do not filter by uid
+	    rList = RealizationDB.getRealizations(null,
 		    "^" + name + "$", -1, -1, null);
 
 	    if ( rList.size() == 0 )
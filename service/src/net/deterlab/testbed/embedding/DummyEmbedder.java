@@ -126,7 +126,9 @@ public class DummyEmbedder implements Embedder {
 	    boolean sendNotifications) throws DeterFault {
 	RealizationDB nr = new RealizationDB();
 	RealizationDescription rd = new RealizationDescription();
-	List<ResourceDB> availableNodes = ResourceDB.getResources(uid,
+	// Allocation ignores the nodes' access control lists, so do not
+	// filter by uid.
+	List<ResourceDB> availableNodes = ResourceDB.getResources(null,
 		"testnode", null, "none", true, new ArrayList<ResourceTag>(),
 		-1, -1, null);
 	Map<String, List<IfData>> availableInterfaces = new HashMap<>();
@@ -0,0 +1,404 @@
+package net.deterlab.testbed.embedding;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.deterlab.testbed.api.AccessMember;
+import net.deterlab.testbed.api.Config;
+import net.deterlab.testbed.api.DeterFault;
+import net.deterlab.testbed.api.RealizationDescription;
+import net.deterlab.testbed.api.ResourceFacet;
+import net.deterlab.testbed.api.ResourceTag;
+import net.deterlab.testbed.realization.RealizationDB;
+import net.deterlab.testbed.resource.ResourceDB;
+import net.deterlab.testbed.topology.Element;
+import net.deterlab.testbed.topology.TopologyDescription;
+
+import org.apache.log4j.Logger;
+
+/**
+ * An embedder that simulates a testbed, for capacity testing the realization
+ * path without hardware.  It allocates free testnodes and creates VM
+ * resources on them as the DummyEmbedder does, then moves the realization
+ * through Initializing to Active (or Failed) at times drawn from a
+ * SimulationModel.  The state changes run on a shared scheduled thread pool,
+ * so many thousands of realizations can be in progress at once, and the model
+ * can compress time so long boots finish quickly.
+ * <p>
+ * The embedder records how long each startRealization call takes and how long
+ * each realization takes to become active or fail; getStatistics summarizes
+ * them and a summary is logged periodically.
+ * <p>
+ * In addition to the SimulationModel properties, the configuration may set
+ * simulationThreads, the number of threads that make state changes (default
+ * 16), and simulationVmsPerHost (default 4).
+ * @author the DETER Team
+ * @version 1.0
+ */
+public class SimulationEmbedder implements Embedder {
+    /** The type of resource allocated as hosts */
+    static public final String HOST_TYPE = "testnode";
+    /** The type of the VM resources created */
+    static public final String VM_TYPE = "Qemu VM";
+    /** Log a summary after this many realizations finish */
+    static public final int SUMMARY_INTERVAL = 1000;
+
+    /**
+     * Changes a realization's state.  The last change of a realization
+     * records how long it took.
+     */
+    private static class Transition implements Runnable {
+	/** The realization to change */
+	private String realizationName;
+	/** The new status */
+	private String newStatus;
+	/** When startRealization was called; 0 if this is not the last */
+	private long started;
+
+	/**
+	 * Create a transition.
+	 * @param r the realization to change
+	 * @param ns the new status
+	 * @param s when the realization started, 0 if not the last change
+	 */
+	public Transition(String r, String ns, long s) {
+	    realizationName = r;
+	    newStatus = ns;
+	    started = s;
+	}
+
+	/**
+	 * Change the state and, if this is the last change, record the time
+	 * taken.
+	 */
+	public void run() {
+	    RealizationDB nr = null;
+
+	    try {
+		nr = new RealizationDB();
+		nr.setName(realizationName);
+		nr.load();
+		nr.setStatus(newStatus);
+		nr.save();
+		nr.close();
+	    }
+	    catch (DeterFault df) {
+		if ( nr != null ) nr.forceClose();
+		log.warn("Cannot move " + realizationName + " to " +
+			newStatus + ": " + df);
+	    }
+	    if ( started == 0 ) return;
+
+	    tasks.remove(realizationName);
+	    long simulated = model.toSimulated(
+		    System.currentTimeMillis() - started);
+
+	    if ( newStatus.equals("Failed") ) failed.add(simulated);
+	    else ready.add(simulated);
+	    if ( finished.incrementAndGet() % SUMMARY_INTERVAL == 0 )
+		log.info(getStatistics());
+	}
+    }
+
+    /** Logger */
+    static private Logger log = Logger.getLogger(SimulationEmbedder.class);
+    /** Timing model; null until the first realization */
+    static private SimulationModel model = null;
+    /** Runs the state changes */
+    static private ScheduledThreadPoolExecutor executor = null;
+    /** VMs per host */
+    static private int vmsPerHost = 4;
+    /** Pending state changes of each realization */
+    static private Map<String, List<ScheduledFuture<?>>> tasks =
+	new ConcurrentHashMap<>();
+    /** Hosts allocated to each realization */
+    static private Map<String, List<String>> hosts =
+	new ConcurrentHashMap<>();
+    /**
+     * Hosts allocated to any realization.  Realizations being created are not
+     * yet in the database, so this keeps concurrent calls from taking the
+     * same host.
+     */
+    static private Set<String> claimed =
+	Collections.synchronizedSet(new HashSet<String>());
+    /** Wall clock ms taken by startRealization */
+    static private SimulationModel.Latencies allocation =
+	new SimulationModel.Latencies();
+    /** Simulated ms from start to active */
+    static private SimulationModel.Latencies ready =
+	new SimulationModel.Latencies();
+    /** Simulated ms from start to failure */
+    static private SimulationModel.Latencies failed =
+	new SimulationModel.Latencies();
+    /** Realizations that have become active or failed */
+    static private AtomicInteger finished = new AtomicInteger();
+
+    /**
+     * Read the configuration and start the thread pool, if that has not been
+     * done.
+     * @throws DeterFault if the configuration is bad
+     */
+    static private synchronized void init() throws DeterFault {
+	if ( model != null ) return;
+
+	Config config = new Config();
+	String v = null;
+	int threads = 16;
+
+	try {
+	    if ( (v = config.getProperty("simulationThreads")) != null )
+		threads = Integer.parseInt(v);
+	    if ( (v = config.getProperty("simulationVmsPerHost")) != null )
+		vmsPerHost = Integer.parseInt(v);
+	}
+	catch (NumberFormatException e) {
+	    throw new DeterFault(DeterFault.internal,
+		    "Bad simulation configuration: " + v);
+	}
+	if ( threads < 1 || vmsPerHost < 1 )
+	    throw new DeterFault(DeterFault.internal,
+		    "Bad simulation configuration: " + v);
+
+	final AtomicInteger threadNo = new AtomicInteger();
+
+	executor = new ScheduledThreadPoolExecutor(threads,
+		new ThreadFactory() {
+		    public Thread newThread(Runnable r) {
+			Thread t = new Thread(r,
+				"simulation-" + threadNo.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		    }
+		});
+	executor.setRemoveOnCancelPolicy(true);
+	model = SimulationModel.fromConfig(config, new Random());
+    }
+
+    /**
+     * Summarize the realization timings so far.
+     * @return the summary
+     */
+    static public String getStatistics() {
+	return "in progress=" + tasks.size() +
+	    " allocation: " + allocation.summary() +
+	    " active: " + ready.summary() +
+	    " failed: " + failed.summary();
+    }
+
+    /**
+     * Claim free hosts for a realization.  Hosts are tried from a random
+     * starting point so concurrent calls rarely contend for the same ones.
+     * Hosts are allocated whatever their access control lists say, so the
+     * search does not filter by user.
+     * @param n the number of hosts needed
+     * @return the claimed hosts
+     * @throws DeterFault if there are not enough
+     */
+    static private List<ResourceDB> claimHosts(int n) throws DeterFault {
+	List<ResourceDB> free = ResourceDB.getResources(null, HOST_TYPE, null,
+		"none", true, new ArrayList<ResourceTag>(), -1, -1, null);
+	List<ResourceDB> rv = new ArrayList<>();
+	int first = free.isEmpty() ? 0 : new Random().nextInt(free.size());
+
+	for (int i = 0; i < free.size() && rv.size() < n; i++) {
+	    ResourceDB h = free.get((first + i) % free.size());
+
+	    if ( claimed.add(h.getName()) ) rv.add(h);
+	}
+	if ( rv.size() < n ) {
+	    for (ResourceDB h : rv)
+		claimed.remove(h.getName());
+	    throw new DeterFault(DeterFault.request,
+		    "Insufficient Resources");
+	}
+	return rv;
+    }
+
+    /**
+     * Begin realizing an experiment on the simulated testbed in the given
+     * circle.  The realization is allocated before this returns and moves to
+     * Initializing and then Active or Failed as the model dictates.
+     * @param uid user id realizing the experiment
+     * @param eid experiment ID to realize
+     * @param cid the circle in which to realize the experiment
+     * @param acl the initial access control list
+     * @param td a description of the topology to create
+     * @param sendNotifications if true send notifications when state changes
+     * @return a description of the realization.
+     * @throws DeterFault on errors
+     */
+    public RealizationDescription startRealization(String uid, String eid,
+	    String cid, AccessMember[] acl, TopologyDescription td,
+	    boolean sendNotifications) throws DeterFault {
+	long started = System.currentTimeMillis();
+
+	init();
+
+	List<Element> elements = new ArrayList<>(td.getElements());
+	List<ResourceDB> outers = claimHosts(
+		(elements.size() + vmsPerHost - 1) / vmsPerHost);
+	List<String> hostNames = new ArrayList<>();
+	List<String> hostTypes = new ArrayList<>();
+	List<List<String>> vmTypes = new ArrayList<>();
+	RealizationDB nr = new RealizationDB();
+	RealizationDescription rd = new RealizationDescription();
+	String rName = null;
+	final char destChar = '!';
+
+	for (ResourceDB h : outers) {
+	    hostNames.add(h.getName());
+	    hostTypes.add(h.getType());
+	    vmTypes.add(new ArrayList<String>());
+	}
+
+	try {
+	    nr.create(eid, cid, td, Arrays.asList(acl), uid);
+	    nr.setEmbedderName(getClass().getName());
+	    nr.save();
+	    rName = nr.getName();
+	    hosts.put(rName, hostNames);
+	    rd.setName(rName);
+	    rd.setExperiment(nr.getExperimentID());
+	    rd.setCircle(nr.getCircleID());
+	    rd.setACL(acl);
+
+	    for (int i = 0; i < elements.size(); i++) {
+		Element e = elements.get(i);
+		ResourceDB outer = outers.get(i / vmsPerHost);
+		// Allocate and assign the new VM
+		ResourceDB vmResource = new ResourceDB("system:" +
+			rName.replace(':', destChar) + destChar +
+			e.getName().replace(':', destChar));
+
+		vmResource.create(new ResourceFacet[0],
+			new ArrayList<AccessMember>(), new ResourceTag[0]);
+		vmResource.setType(VM_TYPE);
+		vmResource.setPersist(false);
+		vmResource.save();
+		vmTypes.get(i / vmsPerHost).add(VM_TYPE);
+
+		nr.addContainmentEntry(outer.getName(), vmResource.getName());
+		nr.addMappingEntry(e.getName(), vmResource.getName());
+		vmResource.close();
+	    }
+
+	    nr.setStatus("Allocated");
+	    nr.save();
+	}
+	catch (DeterFault df) {
+	    if ( rName != null ) hosts.remove(rName);
+	    for (String h : hostNames)
+		claimed.remove(h);
+	    nr.forceClose();
+	    throw df;
+	}
+	for (ResourceDB h : outers)
+	    h.close();
+
+	rd.setStatus(nr.getStatus());
+	rd.setContainment(nr.getContainment());
+	rd.setMapping(nr.getMapping());
+	nr.close();
+
+	SimulationModel.Plan p = model.plan(hostTypes, vmTypes);
+	List<ScheduledFuture<?>> rTasks = new ArrayList<>();
+
+	tasks.put(rName, rTasks);
+	synchronized (rTasks) {
+	    rTasks.add(executor.schedule(
+			new Transition(rName, "Initializing", 0),
+			model.toWallClock(p.initializing),
+			TimeUnit.MILLISECONDS));
+	    rTasks.add(executor.schedule(
+			new Transition(rName, p.failed ? "Failed" : "Active",
+			    started),
+			model.toWallClock(p.ready), TimeUnit.MILLISECONDS));
+	}
+	allocation.add(System.currentTimeMillis() - started);
+	return rd;
+    }
+
+    /**
+     * Terminate the realization, whether in process or complete.  Release
+     * resources and cancel the process.  Status remains live, and the
+     * realization can be restarted.
+     * @param uid the user calling
+     * @param name the realization to terminate
+     * @return current realization description
+     * @throws DeterFault on errors
+     */
+    public RealizationDescription terminateRealization(String uid, String name)
+	throws DeterFault {
+	List<RealizationDB> rList = RealizationDB.getRealizations(null,
+		"^" + name + "$", -1, -1, null);
+	List<ResourceDB> resources = null;
+	List<ScheduledFuture<?>> rTasks = null;
+	List<String> rHosts = null;
+	RealizationDB rdb = null;
+	RealizationDescription rd = new RealizationDescription();
+
+	if ( rList.size() == 0 )
+	    throw new DeterFault(DeterFault.request,
+		    "No such realization: " + name);
+	if ( rList.size() > 1 )
+	    throw new DeterFault(DeterFault.internal,
+		    "Multiple realizations (!?)): " + name);
+
+	// Cancel pending state changes first so none overwrites the status
+	if ( (rTasks = tasks.remove(name)) != null ) {
+	    synchronized (rTasks) {
+		for (ScheduledFuture<?> f : rTasks)
+		    f.cancel(false);
+	    }
+	}
+
+	rdb = rList.get(0);
+	rdb.load();
+	rdb.setStatus("Releasing");
+
+	// Order is important.  Get the allocated virtual resources, disconnect
+	// them, then delete them.
+	resources = ResourceDB.getResources(null, null, null, name, false,
+		new ArrayList<ResourceTag>(), -1, -1, null);
+	rdb.setMapping(new HashMap<String, Set<String>>());
+	rdb.setContainment(new HashMap<String, Set<String>>());
+	rdb.save();
+
+	if ( (rHosts = hosts.remove(name)) != null ) {
+	    for (String h : rHosts)
+		claimed.remove(h);
+	}
+
+	for (ResourceDB r : resources) {
+	    r.remove();
+	    r.close();
+	}
+
+	rdb.setStatus("Empty");
+	rdb.save();
+
+	rd.setName(rdb.getName());
+	rd.setExperiment(rdb.getExperimentID());
+	rd.setCircle(rdb.getCircleID());
+	rd.setStatus(rdb.getStatus());
+	rd.setACL(rdb.getACL());
+	rd.setContainment(rdb.getContainment());
+	rd.setMapping(rdb.getMapping());
+	rdb.remove();
+	rdb.close();
+	return rd;
+    }
+}
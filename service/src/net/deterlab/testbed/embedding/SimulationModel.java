@@ -0,0 +1,301 @@
+package net.deterlab.testbed.embedding;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import net.deterlab.testbed.api.Config;
+import net.deterlab.testbed.api.DeterFault;
+
+/**
+ * The timing and failure model behind the SimulationEmbedder.  Each resource
+ * type has a mean boot time and a probability that booting fails.  A
+ * realization's hosts boot in parallel and each host's VMs boot after it, so
+ * the realization is ready when the slowest host and its slowest VM are, and
+ * fails if any of its resources does.  Boot times are drawn uniformly from the
+ * mean plus or minus the jitter.
+ * <p>
+ * Times in the model are simulated time.  The time scale compresses them: at a
+ * scale of 60 a 30 minute boot takes 30 seconds of wall clock time.
+ * <p>
+ * Configuration properties (all optional):
+ * <dl>
+ * <dt>simulationTimeScale</dt><dd>simulated seconds per wall clock second
+ *	(default 1)</dd>
+ * <dt>simulationAllocateTime</dt><dd>seconds from allocation to
+ *	initializing (default 5)</dd>
+ * <dt>simulationJitter</dt><dd>fraction boot times vary from the mean
+ *	(default 0.25)</dd>
+ * <dt>simulationBootTimes</dt><dd>mean boot seconds by resource type, as
+ *	type:seconds,type:seconds.  The type "default" covers the rest
+ *	(default 30)</dd>
+ * <dt>simulationFailureRates</dt><dd>boot failure probability by resource
+ *	type, in the same form (default 0)</dd>
+ * </dl>
+ * @author DETER team
+ * @version 1.0
+ */
+public class SimulationModel {
+    /** The type whose values apply to types not otherwise listed */
+    static public final String DEFAULT_TYPE = "default";
+
+    /**
+     * When a realization changes state, in simulated milliseconds from its
+     * allocation.
+     */
+    static public class Plan {
+	/** When the realization starts initializing */
+	public long initializing;
+	/** When the realization is active or has failed */
+	public long ready;
+	/** True if a resource fails to boot */
+	public boolean failed;
+    }
+
+    /**
+     * A distribution of latencies.  Safe for concurrent use.
+     */
+    static public class Latencies {
+	/** The samples, in the order recorded */
+	private long[] samples;
+	/** Number of samples */
+	private int count;
+
+	/**
+	 * An empty distribution.
+	 */
+	public Latencies() {
+	    samples = new long[1024];
+	    count = 0;
+	}
+
+	/**
+	 * Add a sample.
+	 * @param ms the latency in milliseconds
+	 */
+	public synchronized void add(long ms) {
+	    if ( count == samples.length )
+		samples = Arrays.copyOf(samples, 2 * count);
+	    samples[count++] = ms;
+	}
+
+	/**
+	 * Return the number of samples.
+	 * @return the number of samples
+	 */
+	public synchronized int getCount() { return count; }
+
+	/**
+	 * Return the given percentile of the samples.
+	 * @param pct the percentile (0-100)
+	 * @return the latency, 0 if there are no samples
+	 */
+	public synchronized long percentile(double pct) {
+	    if ( count == 0 ) return 0;
+
+	    long[] sorted = Arrays.copyOf(samples, count);
+	    int i = (int) Math.ceil(pct / 100.0 * count) - 1;
+
+	    Arrays.sort(sorted);
+	    return sorted[Math.max(0, Math.min(i, count-1))];
+	}
+
+	/**
+	 * Summarize the distribution.
+	 * @return the count and percentiles as a string
+	 */
+	public synchronized String summary() {
+	    return String.format("n=%d p50=%dms p90=%dms p99=%dms max=%dms",
+		    count, percentile(50), percentile(90), percentile(99),
+		    percentile(100));
+	}
+    }
+
+    /** Simulated time per unit of wall clock time */
+    private double timeScale;
+    /** Simulated ms from allocation to initializing */
+    private long allocateTime;
+    /** Fraction boot times vary from the mean */
+    private double jitter;
+    /** Mean simulated boot ms by type */
+    private Map<String, Long> bootTimes;
+    /** Boot failure probability by type */
+    private Map<String, Double> failureRates;
+    /** Draws boot times and failures */
+    private Random random;
+
+    /**
+     * Create a model.
+     * @param scale simulated time per unit of wall clock time
+     * @param allocate simulated ms from allocation to initializing
+     * @param j fraction boot times vary from the mean
+     * @param boot mean simulated boot ms by type, including the default type
+     * @param fail boot failure probability by type
+     * @param r draws boot times and failures
+     */
+    public SimulationModel(double scale, long allocate, double j,
+	    Map<String, Long> boot, Map<String, Double> fail, Random r) {
+	timeScale = scale;
+	allocateTime = allocate;
+	jitter = j;
+	bootTimes = boot;
+	failureRates = fail;
+	random = r;
+    }
+
+    /**
+     * Read a double property, returning a default if it is missing.
+     * @param config the configuration
+     * @param name the property name
+     * @param def the default value
+     * @return the value
+     * @throws DeterFault if the value is malformed
+     */
+    static private double doubleProperty(Config config, String name,
+	    double def) throws DeterFault {
+	String v = config.getProperty(name);
+
+	if ( v == null ) return def;
+	try {
+	    return Double.parseDouble(v);
+	}
+	catch (NumberFormatException e) {
+	    throw new DeterFault(DeterFault.internal,
+		    "Bad " + name + ": " + v);
+	}
+    }
+
+    /**
+     * Parse a list of type:value pairs.  Resource types may contain spaces,
+     * so the value is after the last colon.
+     * @param name the property name, for errors
+     * @param v the property value, may be null
+     * @return the values by type
+     * @throws DeterFault if the value is malformed
+     */
+    static protected Map<String, Double> parseTypes(String name, String v)
+	    throws DeterFault {
+	Map<String, Double> rv = new HashMap<>();
+
+	if ( v == null ) return rv;
+	for (String pair : v.split(",")) {
+	    int colon = pair.lastIndexOf(':');
+
+	    if ( pair.trim().isEmpty() ) continue;
+	    try {
+		if ( colon == -1 ) throw new NumberFormatException(pair);
+		rv.put(pair.substring(0, colon).trim(),
+			Double.parseDouble(pair.substring(colon+1).trim()));
+	    }
+	    catch (NumberFormatException e) {
+		throw new DeterFault(DeterFault.internal,
+			"Bad " + name + ": " + pair);
+	    }
+	}
+	return rv;
+    }
+
+    /**
+     * Create a model from the service configuration.
+     * @param config the configuration
+     * @param r draws boot times and failures
+     * @return the model
+     * @throws DeterFault if the configuration is bad
+     */
+    static public SimulationModel fromConfig(Config config, Random r)
+	    throws DeterFault {
+	Map<String, Long> boot = new HashMap<>();
+	double scale = doubleProperty(config, "simulationTimeScale", 1.0);
+
+	if ( scale <= 0 )
+	    throw new DeterFault(DeterFault.internal,
+		    "simulationTimeScale must be positive");
+
+	boot.put(DEFAULT_TYPE, 30000L);
+	for (Map.Entry<String, Double> e : parseTypes("simulationBootTimes",
+		    config.getProperty("simulationBootTimes")).entrySet())
+	    boot.put(e.getKey(), (long) (e.getValue() * 1000));
+
+	return new SimulationModel(scale,
+		(long) (doubleProperty(config,
+			"simulationAllocateTime", 5.0) * 1000),
+		doubleProperty(config, "simulationJitter", 0.25),
+		boot, parseTypes("simulationFailureRates",
+		    config.getProperty("simulationFailureRates")), r);
+    }
+
+    /**
+     * Draw a boot time for a resource of the given type.
+     * @param type the resource type
+     * @return the boot time in simulated ms
+     */
+    public synchronized long bootTime(String type) {
+	Long mean = bootTimes.get(type);
+
+	if ( mean == null ) mean = bootTimes.get(DEFAULT_TYPE);
+	if ( mean == null ) return 0;
+	return Math.max(0L, (long) (mean *
+		    (1.0 + jitter * (2.0 * random.nextDouble() - 1.0))));
+    }
+
+    /**
+     * Decide whether a resource of the given type fails to boot.
+     * @param type the resource type
+     * @return true if it fails
+     */
+    public synchronized boolean fails(String type) {
+	Double p = failureRates.get(type);
+
+	if ( p == null ) p = failureRates.get(DEFAULT_TYPE);
+	return p != null && random.nextDouble() < p;
+    }
+
+    /**
+     * Plan a realization.  The lists are parallel: host i has type
+     * hostTypes[i] and VMs of the types in vmTypes[i].
+     * @param hostTypes the type of each host
+     * @param vmTypes the types of the VMs on each host
+     * @return the plan
+     */
+    public Plan plan(List<String> hostTypes, List<List<String>> vmTypes) {
+	Plan p = new Plan();
+	long failedAt = Long.MAX_VALUE;
+
+	p.initializing = allocateTime;
+	p.ready = allocateTime;
+	for (int i = 0; i < hostTypes.size(); i++) {
+	    long host = allocateTime + bootTime(hostTypes.get(i));
+	    long done = host;
+
+	    if ( fails(hostTypes.get(i)) ) failedAt = Math.min(failedAt, host);
+	    for (String vm : vmTypes.get(i)) {
+		long t = host + bootTime(vm);
+
+		if ( fails(vm) ) failedAt = Math.min(failedAt, t);
+		done = Math.max(done, t);
+	    }
+	    p.ready = Math.max(p.ready, done);
+	}
+	if ( failedAt != Long.MAX_VALUE ) {
+	    p.failed = true;
+	    p.ready = failedAt;
+	}
+	return p;
+    }
+
+    /**
+     * Convert simulated time to wall clock time.
+     * @param ms simulated milliseconds
+     * @return wall clock milliseconds
+     */
+    public long toWallClock(long ms) { return (long) (ms / timeScale); }
+
+    /**
+     * Convert wall clock time to simulated time.
+     * @param ms wall clock milliseconds
+     * @return simulated milliseconds
+     */
+    public long toSimulated(long ms) { return (long) (ms * timeScale); }
+}
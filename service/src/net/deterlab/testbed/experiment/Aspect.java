@@ -58,15 +58,19 @@ public interface Aspect  {
      * accept new aspects of the same type and name as the input aspect, but
      * other fields may be manipulated.  The Collection returned from here will
      * overwrite the existing aspects (or add them if new) when the transaction
-     * is finalized.
+     * is finalized.  Aspects that the change makes obsolete, e.g., subtypes it
+     * no longer produces, are added to removals and are removed from the
+     * experiment then.  Only their type, subtype and name are used.
      * @param exp the experiment being operated on
      * @param transactionID a unique identifier for this transaction
      * @param inputAspect the requested aspect addition
+     * @param removals aspects to remove from the experiment are added here
      * @return a collection of aspects to be overwritten in the experiment
      * @throws DeterFault if the aspect addition is unacceptable
      */
     public Collection<ExperimentAspect> changeAspect(ImmutableExperimentDB exp,
-	    long transactionID, ExperimentAspect inputAspect) throws DeterFault;
+	    long transactionID, ExperimentAspect inputAspect,
+	    Collection<ExperimentAspect> removals) throws DeterFault;
     /**
      * Remove an instance of this aspect from the experiment.  The removeAspect
      * parameter includes the name and type of the aspect to remove - other
@@ -0,0 +1,101 @@
+package net.deterlab.testbed.experiment;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.deterlab.testbed.api.Config;
+import net.deterlab.testbed.api.DeterFault;
+
+/**
+ * The threads that process aspects of different types at once.  There is
+ * one pool per service process, shared by all requests.  A request runs one
+ * type on its own thread and hands the others to the pool.  When done with
+ * its own, the request runs any it handed off that the pool has not
+ * started, so it never waits on work queued behind other requests and the
+ * pool's queue holds no more than the pool is about to run.
+ * <p>
+ * Configuration properties (all optional):
+ * <dl>
+ * <dt>aspectThreads</dt><dd>threads in the pool (default 4)</dd>
+ * </dl>
+ * @author DETER team
+ * @version 1.0
+ */
+public class AspectExecutor {
+    /** The per-process executor */
+    static private AspectExecutor instance = null;
+
+    /** The pool */
+    private ExecutorService executor;
+
+    /**
+     * Create an executor with the given number of threads.
+     * @param threads threads in the pool
+     */
+    public AspectExecutor(int threads) {
+	final AtomicInteger count = new AtomicInteger(0);
+
+	executor = Executors.newFixedThreadPool(Math.max(threads, 1),
+		new ThreadFactory() {
+		    public Thread newThread(Runnable r) {
+			Thread t = new Thread(r,
+				"aspect-" + count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		    }
+		});
+    }
+
+    /**
+     * Return the integer value of a configuration property, or the default
+     * if it is missing or malformed.
+     * @param config the configuration
+     * @param name the property name
+     * @param def the default
+     * @return the value
+     */
+    static private int intProperty(Config config, String name, int def) {
+	String v = config.getProperty(name);
+
+	if ( v == null ) return def;
+	try {
+	    return Integer.parseInt(v);
+	}
+	catch (NumberFormatException e) {
+	    return def;
+	}
+    }
+
+    /**
+     * Return the per-process executor, creating it from the configuration
+     * the first time.
+     * @return the per-process executor
+     * @throws DeterFault if the configuration cannot be read
+     */
+    static public synchronized AspectExecutor getInstance()
+	    throws DeterFault {
+	if ( instance == null )
+	    instance = new AspectExecutor(
+		    intProperty(new Config(), "aspectThreads", 4));
+	return instance;
+    }
+
+    /**
+     * Run a task on the pool.
+     * @param r the task
+     * @return a Future that completes with the task
+     */
+    public Future<?> submit(Runnable r) {
+	return executor.submit(r);
+    }
+
+    /**
+     * Stop the pool once the tasks already given to it finish.
+     */
+    public void shutdown() {
+	executor.shutdown();
+    }
+}
@@ -43,8 +43,17 @@ public class AspectFactory {
     public AspectFactory() throws DeterFault {
 	log = Logger.getLogger(this.getClass());
 
-	if ( aspects != null ) return;
+	synchronized (AspectFactory.class) {
+	    if ( aspects == null ) load();
+	}
+    }
 
+    /**
+     * Read the configuration file and load the aspect constructors.  Log
+     * problems.  The caller holds the class lock.
+     * @throws DeterFault if the configuration cannot be read
+     */
+    private void load() throws DeterFault {
 	aspects = new HashMap<String, Aspect>();
 	constructors = new HashMap<String, Constructor>();
 
@@ -97,6 +106,19 @@ public class AspectFactory {
      * @throws DeterFault if no such ASpect can be built
      */
     public Aspect getInstance(String type) throws DeterFault {
+	synchronized (aspects) {
+	    return makeInstance(type);
+	}
+    }
+
+    /**
+     * Produce an Aspect, as getInstance does.  The caller holds the lock on
+     * aspects.
+     * @param type the aspect type
+     * @return an appropriate generator
+     * @throws DeterFault if no such ASpect can be built
+     */
+    private Aspect makeInstance(String type) throws DeterFault {
 	Aspect rv = aspects.get(type);
 
 	if (rv != null ) return rv;
@@ -138,12 +160,15 @@ public class AspectFactory {
      */
     public long getTransactionID() {
 	Random r = new Random();
-	long tid = r.nextLong();
 
-	while (tids.contains(tid) )
-	    tid = r.nextLong();
-	tids.add(tid);
-	return tid;
+	synchronized (tids) {
+	    long tid = r.nextLong();
+
+	    while (tids.contains(tid) )
+		tid = r.nextLong();
+	    tids.add(tid);
+	    return tid;
+	}
     }
 
     /**
@@ -153,6 +178,8 @@ public class AspectFactory {
      * @param tid the ID to return
      */
     public void releaseTransactionID(long tid) {
-	tids.remove(tid);
+	synchronized (tids) {
+	    tids.remove(tid);
+	}
     }
 }
@@ -64,12 +64,13 @@ public class DefaultAspect implements Aspect {
      * @param exp the experiment being operated on
      * @param transactionID a unique identifier for this transaction
      * @param inputAspect the requested aspect addition
+     * @param removals aspects to remove from the experiment are added here
      * @return a collection of aspects to be overwritten in the experiment
      * @throws DeterFault if the aspect addition is unacceptable
      */
     public Collection<ExperimentAspect> changeAspect(ImmutableExperimentDB exp,
-	    long transactionID, ExperimentAspect inputAspect)
-	    throws DeterFault {
+	    long transactionID, ExperimentAspect inputAspect,
+	    Collection<ExperimentAspect> removals) throws DeterFault {
 	List<ExperimentAspect> rlist = new ArrayList<ExperimentAspect>();
 	List<ExperimentAspect> rv = new ArrayList<ExperimentAspect>();
 	List<ExperimentAspect> asps = null;
@@ -0,0 +1,21 @@
+package net.deterlab.testbed.experiment;
+
+import java.util.Collection;
+
+/**
+ * An Aspect plugin that must see the work of other aspect types.  When a
+ * request holds aspects of several types, each type is processed in its
+ * own thread, at the same time as the others.  The aspects of a type that
+ * implements this interface are processed only after those of every type
+ * it names that is in the same request.  Types that are not in the request
+ * are ignored.
+ * @author DETER team
+ * @version 1.0
+ */
+public interface DependentAspect extends Aspect {
+    /**
+     * Return the aspect types that must be processed before this one.
+     * @return the aspect types that must be processed before this one
+     */
+    public Collection<String> getDependencies();
+}
@@ -1,7 +1,7 @@
 package net.deterlab.testbed.experiment;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Properties;
@@ -57,7 +57,14 @@ public class EmbedderAspect extends DefaultAspect {
 		try {
 		    Properties props = new Properties();
 
-		    props.loadFromXML(new ByteArrayInputStream(a.getData()));
+		    InputStream in = a.getData().getInputStream();
+
+		    try {
+			props.loadFromXML(in);
+		    }
+		    finally {
+			in.close();
+		    }
 		    for (String p : props.stringPropertyNames()) {
 			String v = null;
 
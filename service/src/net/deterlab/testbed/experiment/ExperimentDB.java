@@ -1,10 +1,10 @@
 package net.deterlab.testbed.experiment;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
@@ -12,9 +12,19 @@ import java.sql.SQLException;
 import java.sql.SQLIntegrityConstraintViolationException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.activation.DataHandler;
+import javax.activation.FileDataSource;
 
 import net.deterlab.testbed.api.AccessMember;
 import net.deterlab.testbed.api.ChangeResult;
@@ -23,6 +33,7 @@ import net.deterlab.testbed.api.DeterFault;
 import net.deterlab.testbed.api.ExperimentAspect;
 import net.deterlab.testbed.db.ACLObject;
 import net.deterlab.testbed.db.SharedConnection;
+import net.deterlab.testbed.db.VisibilityIndex;
 import net.deterlab.testbed.topology.TopologyDescription;
 
 /**
@@ -34,6 +45,8 @@ import net.deterlab.testbed.topology.TopologyDescription;
 public class ExperimentDB extends ACLObject {
     /** The name of the experiment */
     private String eid;
+    /** Failed attempts to reclaim this experiment's tombstone */
+    private int reclaimAttempts;
 
     /**
      * This is an experiment aspect including both its database and filesystem
@@ -49,8 +62,9 @@ public class ExperimentDB extends ACLObject {
 	protected String subType;
 	/** Aspect Name */
 	protected String name;
-	/** This aspect's representation - null until loaded */
-	protected byte[] data;
+	/** This aspect's representation - null until loaded.  A loaded
+	 * aspect's data is backed by its file and read only when used. */
+	protected DataHandler data;
 	/** Path to this aspect's representation in the file system, if any */
 	protected String path;
 	/** Reference to this aspect's representation if it's not in the file
@@ -136,43 +150,41 @@ public class ExperimentDB extends ACLObject {
 	 * Return the data (if any).
 	 * @return the data (if any).
 	 */
-	public byte[] getData() { return data; }
+	public DataHandler getData() { return data; }
 	/**
 	 * Set the data
 	 * @param d the new data
 	 */
-	public void setData(byte[] d) { data = d; }
+	public void setData(DataHandler d) { data = d; }
 
 	/**
-	 * Write the bytes to a file
-	 * @param b the bytes to write
+	 * Stream data to a file.  The data is written to a temporary file in
+	 * the same directory that then replaces the destination, so the data
+	 * may safely be the destination's current contents.
+	 * @param d the data to write
 	 * @param file the file to write
 	 * @throws IOException if there is a problem writing the file
 	 */
-	private void writeBytesToFile(byte[] b, File file) throws IOException {
-	    FileOutputStream p = new FileOutputStream(file);
-	    p.write(b);
-	    p.flush();
-	    p.close();
-	}
+	private void writeDataToFile(DataHandler d, File file)
+		throws IOException {
+	    File tmp = File.createTempFile(".aspect", null,
+		    file.getAbsoluteFile().getParentFile());
 
-	/**
-	 * Read the bytes from a file
-	 * @param file the file to read
-	 * @return the bytes in the file
-	 * @throws IOException if there is a problem reading the file
-	 */
-	private byte[] readBytesFromFile(File file) throws IOException {
-	    ByteArrayOutputStream rv = new ByteArrayOutputStream();
-	    FileInputStream f = new FileInputStream(file);
-	    byte[] buf = new byte[16 * 1024];
-	    int r = 0;
-
-	    while ( (r = f.read(buf)) != -1)
-		rv.write(buf, 0, r);
-	    f.close();
-	    rv.close();
-	    return rv.toByteArray();
+	    try {
+		FileOutputStream p = new FileOutputStream(tmp);
+
+		try {
+		    d.writeTo(p);
+		}
+		finally {
+		    p.close();
+		}
+		Files.move(tmp.toPath(), file.toPath(),
+			StandardCopyOption.REPLACE_EXISTING);
+	    }
+	    finally {
+		tmp.delete();
+	    }
 	}
 
 	/**
@@ -273,8 +285,8 @@ public class ExperimentDB extends ACLObject {
 		    throw new DeterFault(DeterFault.internal,
 			    "Aspect has no definition");
 		if ( !getData) return;
-		setData(readBytesFromFile(
-			    getAspectFile(getComponentDirectory())));
+		setData(new DataHandler(new FileDataSource(
+			    getAspectFile(getComponentDirectory()))));
 	    }
 	    catch (SQLException e) {
 		throw new DeterFault(DeterFault.internal,
@@ -301,7 +313,7 @@ public class ExperimentDB extends ACLObject {
 		    throw new DeterFault(DeterFault.request, "Untyped aspect");
 
 		String dataRef=getReference();
-		byte[] data = getData();
+		DataHandler data = getData();
 		File path = (getPath() != null) ? new File(getPath()) : null;
 
 		if (dataRef == null && data == null)
@@ -312,7 +324,7 @@ public class ExperimentDB extends ACLObject {
 		    if ( path == null)
 			path = makeAspectFile(getComponentDirectory(), create);
 		    if (putData)
-			writeBytesToFile(data, path);
+			writeDataToFile(data, path);
 		}
 		String where =
 			"WHERE eidx=(SELECT idx FROM experiments WHERE eid=?) "+
@@ -326,13 +338,9 @@ public class ExperimentDB extends ACLObject {
 			"SELECT idx FROM experimentaspects "+ where);
 		p.setString(1, getEid());
 		p.setString(2, getType());
-		if (getSubType() != null )  {
-		    p.setString(3, getSubType());
-		    p.setString(4, getName());
-		}
-		else {
-		    p.setString(3, getName());
-		}
+		p.setString(3, getName());
+		if (getSubType() != null )
+		    p.setString(4, getSubType());
 		ResultSet r = p.executeQuery();
 		String q = null;
 		int rows = 0;
@@ -600,7 +608,7 @@ public class ExperimentDB extends ACLObject {
      * Functor to call an Aspect method in the context of processAspects,
      * below.
      */
-    static private abstract class AspectOperation {
+    static abstract class AspectOperation {
 	/**
 	 * Call an operation on an Aspect.
 	 * @param asp the Aspect
@@ -613,6 +621,272 @@ public class ExperimentDB extends ACLObject {
 	public abstract Collection<ExperimentAspect> call(Aspect asp,
 		ImmutableExperimentDB e, long tid, ExperimentAspect a)
 	    throws DeterFault;
+
+	/**
+	 * Return true if calls on aspects of different types may run at
+	 * the same time.  Operations that carry state from one call to the
+	 * next return false and see the aspects in the order given.
+	 * @return true if calls on different types may run at once
+	 */
+	public boolean isConcurrent() { return true; }
+    }
+
+    /**
+     * The aspects of one type in a processAspects call.  They are handled in
+     * order by one thread.
+     */
+    static class AspectGroup {
+	/** The aspect type */
+	public String type;
+	/** The Aspect that handles them */
+	public Aspect aspect;
+	/** Their positions in the aspects passed to processAspects */
+	public List<Integer> indices;
+	/** True once beginTransaction has succeeded */
+	public boolean started;
+	/** The fault that stopped the group, if any */
+	public DeterFault fault;
+	/** The position of the aspect that raised the fault */
+	public int faultIndex;
+
+	/**
+	 * Start a group.
+	 * @param t the aspect type
+	 * @param asp the Aspect that handles them
+	 */
+	public AspectGroup(String t, Aspect asp) {
+	    type = t;
+	    aspect = asp;
+	    indices = new ArrayList<Integer>();
+	    started = false;
+	    fault = null;
+	    faultIndex = -1;
+	}
+    }
+
+    /**
+     * Order the groups for processing.  Each inner list is a wave of groups
+     * that may run at once; every group follows the groups of the types it
+     * depends on (see DependentAspect).  Dependencies on types not present
+     * are ignored.
+     * @param groups the groups in the order their types first appear
+     * @return the waves
+     * @throws DeterFault if the dependencies are circular
+     */
+    static List<List<AspectGroup>> orderGroups(
+	    Map<String, AspectGroup> groups) throws DeterFault {
+	List<List<AspectGroup>> waves = new ArrayList<List<AspectGroup>>();
+	List<AspectGroup> pending = new ArrayList<AspectGroup>(groups.values());
+	Set<String> done = new HashSet<String>();
+
+	while ( !pending.isEmpty()) {
+	    List<AspectGroup> wave = new ArrayList<AspectGroup>();
+
+	    for (AspectGroup g : pending) {
+		boolean ready = true;
+
+		if ( g.aspect instanceof DependentAspect ) {
+		    Collection<String> deps =
+			((DependentAspect) g.aspect).getDependencies();
+
+		    for (String d : deps != null ? deps :
+			    new ArrayList<String>()) {
+			if ( !d.equals(g.type) && groups.containsKey(d) &&
+				!done.contains(d)) {
+			    ready = false;
+			    break;
+			}
+		    }
+		}
+		if ( ready ) wave.add(g);
+	    }
+	    if ( wave.isEmpty()) {
+		List<String> types = new ArrayList<String>();
+
+		for (AspectGroup g : pending)
+		    types.add(g.type);
+		throw new DeterFault(DeterFault.internal,
+			"Circular aspect dependencies among " + types);
+	    }
+	    pending.removeAll(wave);
+	    for (AspectGroup g : wave)
+		done.add(g.type);
+	    waves.add(wave);
+	}
+	return waves;
+    }
+
+    /** The earliest fault position when there has been no fault */
+    static private final int NO_FAULT = Integer.MAX_VALUE;
+
+    /**
+     * Record a fault at position i if it is earlier than any recorded so
+     * far.  A position of -1 stops every group.
+     * @param first the earliest fault position so far
+     * @param i the position of the new fault
+     */
+    static private void faultAt(AtomicInteger first, int i) {
+	int f = first.get();
+
+	while ( i < f && !first.compareAndSet(f, i))
+	    f = first.get();
+    }
+
+    /**
+     * Begin the transaction on a group's Aspect and call fcn on each of its
+     * aspects in order, putting the vetted aspects in results at the
+     * aspect's position.  Stop at the first fault, recording it in the
+     * group, or at an aspect that comes after a fault another group has
+     * recorded.  Aspects before that fault are still processed, so the
+     * earliest fault is always found.
+     * @param g the group
+     * @param aspects the ExperimentAspects passed to processAspects
+     * @param exp the experiment to pass to the Aspect
+     * @param tid the transaction ID
+     * @param fcn the operation to carry out
+     * @param results the vetted aspects by position
+     * @param first the position of the earliest fault so far
+     */
+    static private void runGroup(AspectGroup g, ExperimentAspect[] aspects,
+	    ImmutableExperimentDB exp, long tid, AspectOperation fcn,
+	    List<Collection<ExperimentAspect>> results, AtomicInteger first) {
+	int i = g.indices.get(0);
+
+	try {
+	    g.aspect.beginTransaction(exp, tid);
+	    g.started = true;
+	    for (int idx : g.indices) {
+		if ( idx > first.get()) return;
+		i = idx;
+		results.set(i, fcn.call(g.aspect, exp, tid, aspects[i]));
+	    }
+	}
+	catch (DeterFault df) {
+	    g.fault = df;
+	    g.faultIndex = i;
+	    faultAt(first, i);
+	}
+    }
+
+    /**
+     * Run a wave of groups at once.  The first runs on this thread with the
+     * caller's experiment; the rest are handed to the AspectExecutor, each
+     * reading the experiment through its own copy.  Once its own group is
+     * done, this thread runs any handed off group that the executor has not
+     * started, rather than wait for it behind other requests' work.  Returns
+     * or throws only when all are done, so the transaction is never
+     * finalized under a running group.
+     * @param wave the groups
+     * @param aspects the ExperimentAspects passed to processAspects
+     * @param me the caller's experiment
+     * @param tid the transaction ID
+     * @param fcn the operation to carry out
+     * @param results the vetted aspects by position
+     * @param first the position of the earliest fault so far
+     * @throws DeterFault if the executor cannot be created
+     */
+    static private void runWave(List<AspectGroup> wave,
+	    final ExperimentAspect[] aspects, final ImmutableExperimentDB me,
+	    final long tid, final AspectOperation fcn,
+	    final List<Collection<ExperimentAspect>> results,
+	    final AtomicInteger first) throws DeterFault {
+	List<Future<?>> futures = new ArrayList<Future<?>>();
+	List<AtomicBoolean> claims = new ArrayList<AtomicBoolean>();
+	boolean done = false;
+
+	try {
+	    if ( wave.size() > 1 ) {
+		AspectExecutor executor = AspectExecutor.getInstance();
+
+		for (final AspectGroup g : wave.subList(1, wave.size())) {
+		    // Whichever thread claims the group runs it
+		    final AtomicBoolean claim = new AtomicBoolean(false);
+
+		    claims.add(claim);
+		    futures.add(executor.submit(new Runnable() {
+			public void run() {
+			    ImmutableExperimentDB exp = null;
+
+			    if ( !claim.compareAndSet(false, true)) return;
+			    try {
+				exp = me.copy();
+			    }
+			    catch (DeterFault df) {
+				g.fault = df;
+				g.faultIndex = g.indices.get(0);
+				faultAt(first, g.faultIndex);
+				return;
+			    }
+			    try {
+				runGroup(g, aspects, exp, tid, fcn, results,
+					first);
+			    }
+			    finally {
+				exp.forceClose();
+			    }
+			}
+		    }));
+		}
+	    }
+	    runGroup(wave.get(0), aspects, me, tid, fcn, results, first);
+	    for (int i = 0; i < claims.size(); i++) {
+		if ( !claims.get(i).compareAndSet(false, true)) continue;
+		futures.get(i).cancel(false);
+		futures.set(i, null);
+		runGroup(wave.get(i+1), aspects, me, tid, fcn, results, first);
+	    }
+	    done = true;
+	}
+	finally {
+	    if ( !done ) {
+		// Something unexpected was thrown here; stop the other groups
+		// early and keep those not yet started from starting.
+		faultAt(first, -1);
+		for (int i = 0; i < claims.size(); i++) {
+		    if ( !claims.get(i).compareAndSet(false, true)) continue;
+		    futures.get(i).cancel(false);
+		    futures.set(i, null);
+		}
+	    }
+	    awaitGroups(wave, futures, first);
+	}
+    }
+
+    /**
+     * Wait for the groups of a wave that the AspectExecutor ran.  A group
+     * that throws is given an internal fault.
+     * @param wave the groups; all but the first were handed off
+     * @param futures the handed off groups' Futures, in wave order, null
+     * for those run by the caller
+     * @param first the position of the earliest fault so far
+     */
+    static private void awaitGroups(List<AspectGroup> wave,
+	    List<Future<?>> futures, AtomicInteger first) {
+	boolean interrupted = false;
+
+	// The groups must all be done before the transaction is finalized,
+	// so keep waiting if interrupted.
+	for (int i = 0; i < futures.size(); ) {
+	    AspectGroup g = wave.get(i+1);
+
+	    try {
+		if ( futures.get(i) != null ) futures.get(i).get();
+		i++;
+	    }
+	    catch (InterruptedException e) {
+		interrupted = true;
+		faultAt(first, -1);
+	    }
+	    catch (ExecutionException e) {
+		g.fault = new DeterFault(DeterFault.internal,
+			"Error processing " + g.type + " aspects: " +
+			e.getCause());
+		if ( g.faultIndex == -1 ) g.faultIndex = g.indices.get(0);
+		faultAt(first, g.faultIndex);
+		i++;
+	    }
+	}
+	if ( interrupted ) Thread.currentThread().interrupt();
     }
 
     /**
@@ -622,6 +896,14 @@ public class ExperimentDB extends ACLObject {
      * function.  This encapsulates a fairly intricate pair of loops to
      * reasonably deal with the possibilities of errors in the Aspects during
      * the transaction.
+     * <p>
+     * The aspects are grouped by type.  If fcn allows it, the groups run at
+     * the same time, each type's aspects in order, and a DependentAspect's
+     * group waits for the groups it depends on.  Otherwise the aspects are
+     * handled one at a time in the order given.  Either way processing stops
+     * at the first fault, the fault reported is the one raised by the
+     * earliest aspect in the array, and the vetted aspects are returned in
+     * array order.
      * @param aspects the ExperimentAspects to process
      * @param aspectFactory a factory to generate Aspect objects
      * @param me the ImmutableExperiment on which the loops operate
@@ -631,47 +913,106 @@ public class ExperimentDB extends ACLObject {
      * @throws DeterFault on errors. The routine is careful to clean up Aspects
      *	    on a thrown fault.
      */
-    private Collection<ExperimentAspect> processAspects(
+    Collection<ExperimentAspect> processAspects(
 	    ExperimentAspect[] aspects, AspectFactory aspectFactory,
 	    ImmutableExperimentDB me, AspectOperation fcn)
 	throws DeterFault {
 
 	List<ExperimentAspect> asps = new ArrayList<ExperimentAspect>();
-	Set<String> started = new HashSet<String>();
+	Map<String, AspectGroup> groups =
+	    new LinkedHashMap<String, AspectGroup>();
+	List<Collection<ExperimentAspect>> results =
+	    new ArrayList<Collection<ExperimentAspect>>(
+		    Collections.nCopies(aspects.length,
+			(Collection<ExperimentAspect>) null));
+	AtomicInteger earliest = new AtomicInteger(NO_FAULT);
 	DeterFault aspectException = null;
-	long tid = aspectFactory.getTransactionID();
+	int limit = aspects.length;
 
-	// Walk through the ExperimentAspects passed in, and call fcn on them
-	// via Aspect objects.  If an exception is generated anywhere in the
-	// loop we still have to finalize any Aspects.  The routine throws the
-	// first generated exception, if any.
-	try {
-	    for (ExperimentAspect a: aspects) {
-		String t = a.getType();
-		Aspect asp = aspectFactory.getInstance(t);
+	// Find the Aspect for each type up front.  If one cannot be found,
+	// only the aspects before it are processed, as though they had been
+	// handled in order, and its fault is reported if they raise none.
+	for (int i = 0; i < aspects.length; i++) {
+	    String t = aspects[i].getType();
+	    AspectGroup g = groups.get(t);
 
-		if (asp == null )
-		    throw new DeterFault(DeterFault.request,
-			    "Cannot process aspect " + t);
+	    if ( g == null ) {
+		Aspect asp = null;
 
-		if ( !started.contains(t)) {
-		    asp.beginTransaction(me, tid);
-		    started.add(t);
+		try {
+		    asp = aspectFactory.getInstance(t);
+		    if (asp == null )
+			throw new DeterFault(DeterFault.request,
+				"Cannot process aspect " + t);
+		}
+		catch (DeterFault df) {
+		    aspectException = df;
+		    limit = i;
+		    break;
+		}
+		g = new AspectGroup(t, asp);
+		groups.put(t, g);
+	    }
+	    g.indices.add(i);
+	}
+
+	List<List<AspectGroup>> waves = null;
+
+	if ( fcn.isConcurrent()) waves = orderGroups(groups);
+
+	long tid = aspectFactory.getTransactionID();
+
+	// Call fcn on the aspects via Aspect objects.  If a fault is
+	// generated anywhere we still have to finalize any Aspects.  The
+	// routine throws the earliest aspect's fault, if any.
+	try {
+	    if ( waves != null ) {
+		for (List<AspectGroup> wave : waves) {
+		    if ( earliest.get() != NO_FAULT ) break;
+		    runWave(wave, aspects, me, tid, fcn, results, earliest);
+		}
+	    }
+	    else {
+		for (int i = 0; i < limit; i++) {
+		    AspectGroup g = groups.get(aspects[i].getType());
+
+		    try {
+			if ( !g.started ) {
+			    g.aspect.beginTransaction(me, tid);
+			    g.started = true;
+			}
+			results.set(i, fcn.call(g.aspect, me, tid, aspects[i]));
+		    }
+		    catch (DeterFault df) {
+			g.fault = df;
+			g.faultIndex = i;
+			break;
+		    }
 		}
-		asps.addAll(fcn.call(asp, me, tid, a));
 	    }
 	}
 	catch (DeterFault df) {
-	    aspectException = df;
+	    if ( aspectException == null ) aspectException = df;
 	}
 	finally {
+	    DeterFault first = null;
+	    int firstIndex = limit;
+
+	    for (AspectGroup g : groups.values()) {
+		if ( g.fault != null && g.faultIndex < firstIndex ) {
+		    first = g.fault;
+		    firstIndex = g.faultIndex;
+		}
+	    }
+	    if ( first != null ) aspectException = first;
+
 	    // Tell all the generators that we are done, so they can give
 	    // errors if necessary.  Note that we call all the
 	    // finalizeTransaction routines, even if one fails.
-	    for (String t: started ) {
+	    for (AspectGroup g: groups.values() ) {
+		if ( !g.started ) continue;
 		try {
-		    Aspect asp = aspectFactory.getInstance(t);
-		    asp.finalizeTransaction(me, tid);
+		    g.aspect.finalizeTransaction(me, tid);
 		}
 		catch (DeterFault df) {
 		    if ( aspectException == null ) aspectException = df;
@@ -680,6 +1021,9 @@ public class ExperimentDB extends ACLObject {
 	    aspectFactory.releaseTransactionID(tid);
 	}
 	if ( aspectException != null ) throw aspectException;
+
+	for (int i = 0; i < limit; i++)
+	    if ( results.get(i) != null ) asps.addAll(results.get(i));
 	return asps;
     }
 
@@ -910,6 +1254,42 @@ public class ExperimentDB extends ACLObject {
 	}
     }
 
+    /**
+     * Return part of the data of a stored aspect.  The data is read from the
+     * aspect's file only as it is sent, so large aspects can be fetched in
+     * pieces.  A range that extends past the end of the data is clipped, so
+     * a piece shorter than requested is the last one.
+     * @param type the aspect type
+     * @param subType the aspect subtype (may be null)
+     * @param name the aspect name
+     * @param offset offset of the first byte to return
+     * @param length the number of bytes to return; if negative, the rest of
+     * the data
+     * @return the data
+     * @throws DeterFault if the aspect does not exist or its data is stored
+     * elsewhere
+     */
+    public DataHandler getAspectData(String type, String subType,
+	    String name, long offset, long length) throws DeterFault {
+	ExperimentAspectDB edb = new ExperimentAspectDB(type, subType, name);
+
+	if ( offset < 0 )
+	    throw new DeterFault(DeterFault.request, "Negative offset");
+	edb.load(false);
+	if ( edb.getReference() != null )
+	    throw new DeterFault(DeterFault.request,
+		    "Aspect data is a reference: " + edb.getReference());
+	try {
+	    return new DataHandler(new FileRangeDataSource(
+			edb.getAspectFile(getComponentDirectory()),
+			offset, length));
+	}
+	catch (IOException e) {
+	    throw new DeterFault(DeterFault.internal,
+		    "Error reading aspect file: " + e.getMessage());
+	}
+    }
+
     /**
      * Get some aspects as ExperimentAspectDBs (used internally by other aspect
      * manipulators).  The aspects to fetch are encoded as ExperimentAspects
@@ -1185,6 +1565,9 @@ public class ExperimentDB extends ACLObject {
 	Collection<ExperimentAspect> asps = null;
 	ImmutableExperimentDB me = new ImmutableExperimentDB(this);
 	AspectFactory aspectFactory = new AspectFactory();
+	// Groups may run on several threads
+	final Collection<ExperimentAspect> removals =
+	    Collections.synchronizedList(new ArrayList<ExperimentAspect>());
 
 	asps = processAspects(aspects.toArray(new ExperimentAspect[0]),
 		aspectFactory, me,
@@ -1192,12 +1575,13 @@ public class ExperimentDB extends ACLObject {
 		    public Collection<ExperimentAspect> call(Aspect asp,
 			    ImmutableExperimentDB e, long tid,
 			    ExperimentAspect a) throws DeterFault {
-			return asp.changeAspect(e, tid, a);
+			return asp.changeAspect(e, tid, a, removals);
 		    }
 		});
 
-	// Gather up the aspects and overwrite them.  Successes are returned as
-	// the rv.  After the aspects cleared them above, all should succeed.
+	// Gather up the aspects and overwrite them, then remove those the
+	// changes made obsolete.  Successes are returned as the rv.  After the
+	// aspects cleared them above, all should succeed.
 	for (ExperimentAspect a : asps) {
 	    ExperimentAspectDB adb = new ExperimentAspectDB(a.getType(),
 		    a.getSubType(), a.getName());
@@ -1213,6 +1597,19 @@ public class ExperimentDB extends ACLObject {
 			    false));
 	    }
 	}
+	for (ExperimentAspect a : removals) {
+	    ExperimentAspectDB adb = new ExperimentAspectDB(a.getType(),
+		    a.getSubType(), a.getName());
+
+	    try {
+		adb.remove();
+		rv.add(new ChangeResult(a.getName(), null, true));
+	    }
+	    catch (DeterFault df) {
+		rv.add(new ChangeResult(a.getName(), df.getDetailMessage(),
+			    false));
+	    }
+	}
 	return rv;
     }
 
@@ -1236,6 +1633,13 @@ public class ExperimentDB extends ACLObject {
 	 */
 	public TopologyDescription getRealizationDescription() { return td; }
 
+	/**
+	 * Return false: each call sees the description the calls before it
+	 * collected.
+	 * @return false
+	 */
+	public boolean isConcurrent() { return false; }
+
 	/**
 	 * Call realize aspect on an aspect.  If the aspect updates the
 	 * collected description, update the collected description and omit the
@@ -1347,6 +1751,7 @@ public class ExperimentDB extends ACLObject {
 		    "WHERE eidx=(SELECT idx FROM experiments WHERE eid=?)");
 	    p.setString(1, getEid());
 	    p.executeUpdate();
+	    VisibilityIndex.removeObject(this, getPolicyType(), getEid());
 	    p = getPreparedStatement( "DELETE FROM experimentperms " +
 		    "WHERE eidx=(SELECT idx FROM experiments WHERE eid=?)");
 	    p.setString(1, getEid());
@@ -1371,6 +1776,146 @@ public class ExperimentDB extends ACLObject {
 	}
     }
 
+    /**
+     * Take the experiment out of use without reclaiming its storage.  Its
+     * credentials, visibility and library memberships are removed, its
+     * configuration directory is moved aside and it is renamed eid:idx.
+     * That is not a valid experiment name, so the experiment can no longer
+     * be found or authorized and its name can be reused at once.  After
+     * this call the ExperimentDB refers to the tombstone, and remove()
+     * reclaims the rest.  TombstoneCollector does that later.
+     * @throws DeterFault on error
+     */
+    public void tombstone() throws DeterFault {
+	PreparedStatement p = null;
+	String dir = null;
+	int idx = -1;
+
+	if ( getEid() == null )
+	    throw new DeterFault(DeterFault.request,
+		    "Cannot remove experiment with no name");
+	try {
+	    p = getPreparedStatement("SELECT idx, compdir FROM experiments " +
+		    "WHERE eid=? AND removed IS NULL");
+	    p.setString(1, getEid());
+	    ResultSet r = p.executeQuery();
+
+	    if ( !r.next() )
+		throw new DeterFault(DeterFault.request, "No such experiment");
+	    idx = r.getInt(1);
+	    dir = r.getString(2);
+
+	    // Credentials and visibility are found by name, so they go now.
+	    removeCredentials();
+	    VisibilityIndex.removeObject(this, getPolicyType(), getEid());
+	    p = getPreparedStatement("DELETE FROM librarymembers WHERE eidx=?");
+	    p.setInt(1, idx);
+	    p.executeUpdate();
+
+	    // Move the directory out of the way of a new experiment with this
+	    // name.  If it cannot be moved, clean it now.
+	    if ( dir != null ) {
+		File root = new File(dir);
+		File moved = new File(root.getParentFile(),
+			root.getName() + ":" + idx);
+
+		if ( root.exists() ) {
+		    if ( root.renameTo(moved) ) dir = moved.getAbsolutePath();
+		    else cleanDir(root);
+		}
+	    }
+
+	    String tomb = getEid() + ":" + idx;
+
+	    p = getPreparedStatement("UPDATE experiments " +
+		    "SET eid=?, compdir=?, removed=NOW() WHERE idx=?");
+	    p.setString(1, tomb);
+	    p.setString(2, dir);
+	    p.setInt(3, idx);
+	    p.executeUpdate();
+	    // Not a valid scoped name, so do not use setEid.
+	    eid = tomb;
+	}
+	catch (SQLException e) {
+	    throw new DeterFault(DeterFault.internal,
+		    "Database error removing experiment: " + e);
+	}
+    }
+
+    /**
+     * Return the number of failed attempts to reclaim this tombstone, as of
+     * when getTombstones returned it.
+     * @return the number of failed attempts
+     */
+    public int getReclaimAttempts() { return reclaimAttempts; }
+
+    /**
+     * Record a failed attempt to reclaim this tombstone.  getTombstones
+     * skips it until the delay has passed.
+     * @param delay seconds before the next attempt
+     * @throws DeterFault on error
+     */
+    public void reclaimFailed(long delay) throws DeterFault {
+	try {
+	    PreparedStatement p = getPreparedStatement("UPDATE experiments " +
+		    "SET reclaimattempts = reclaimattempts + 1, " +
+			"nextreclaim = NOW() + INTERVAL ? SECOND " +
+		    "WHERE eid=? AND removed IS NOT NULL");
+	    p.setLong(1, delay);
+	    p.setString(2, getEid());
+	    p.executeUpdate();
+	}
+	catch (SQLException e) {
+	    throw new DeterFault(DeterFault.internal,
+		    "Database error recording reclaim failure: " + e);
+	}
+    }
+
+    /**
+     * Return up to count experiments that have been tombstoned but not yet
+     * removed, oldest first.  Tombstones whose last reclaim failed are
+     * skipped until their next attempt is due.  All the returned
+     * ExperimentDBs share the given connection.
+     * @param count the number to return
+     * @param sc the shared connection to use
+     * @return a list of ExperimentDBs
+     * @throws DeterFault on error
+     */
+    static public List<ExperimentDB> getTombstones(int count,
+	    SharedConnection sc) throws DeterFault {
+	List<ExperimentDB> rv = new ArrayList<ExperimentDB>();
+
+	if ( sc == null) sc = new SharedConnection();
+	try {
+	    sc.open();
+	    PreparedStatement p = sc.getConnection().prepareStatement(
+		    "SELECT eid, reclaimattempts FROM experiments " +
+		    "WHERE removed IS NOT NULL AND " +
+			"(nextreclaim IS NULL OR nextreclaim <= NOW()) " +
+		    "ORDER BY removed LIMIT ?");
+	    p.setInt(1, count);
+	    ResultSet r = p.executeQuery();
+	    while (r.next()) {
+		ExperimentDB e = new ExperimentDB(sc);
+
+		e.eid = r.getString(1);
+		e.reclaimAttempts = r.getInt(2);
+		rv.add(e);
+	    }
+	    sc.close();
+	    return rv;
+	}
+	catch (SQLException e) {
+	    for (ExperimentDB exp : rv)
+		exp.forceClose();
+	    try {
+		sc.close();
+	    }
+	    catch (DeterFault ignored) { }
+	    throw new DeterFault(DeterFault.internal, "SQL Exception: " +e);
+	}
+    }
+
     /**
      * Return ExperimentDBs readable by the given user, that match regex and
      * that are in library.  Any of the parameters can be null.  All the
@@ -1387,9 +1932,11 @@ public class ExperimentDB extends ACLObject {
     static public List<ExperimentDB> getExperiments(String uid,
 	    String lib, String regex, int offset, int count,
 	    SharedConnection sc) throws DeterFault {
-	StringBuilder query = new StringBuilder("SELECT eid FROM experiments ");
+	// Tombstoned experiments are never listed
+	StringBuilder query = new StringBuilder("SELECT eid FROM experiments " +
+		"WHERE removed IS NULL ");
 	Connection c = null;
-	boolean whereAdded = false;
+	boolean whereAdded = true;
 	int sqlIdx = 1;
 	List<ExperimentDB> rv = new ArrayList<ExperimentDB>();
 
@@ -1403,22 +1950,10 @@ public class ExperimentDB extends ACLObject {
 		    query.append("WHERE ");
 		    whereAdded = true;
 		}
-		// Pretty complex.  Get the experiment indices from
-		// experimentperms entries where the permission index matches
-		// EXPERIMENT_READ and the cidx is a circle that has uid as a
-		// member.
-		query.append(
-			"(idx IN "+
-			    "(SELECT DISTINCT eidx FROM experimentperms " +
-			    "WHERE permidx=(" +
-				"SELECT idx FROM permissions "+
-				"WHERE name='READ_EXPERIMENT' and " +
-				    "valid_for='experiment') " +
-			    "AND cidx IN (" +
-				"SELECT DISTINCT cidx FROM circleusers " +
-				"WHERE uidx=(SELECT idx FROM users " +
-				    "WHERE uid=?))"+
-			") OR owneridx=(SELECT idx FROM users WHERE uid=?)) ");
+		// Experiments uid can read through a circle, from the
+		// visibility index, or owns.
+		query.append("(" + VisibilityIndex.visibleTo("experiment") +
+			"OR owneridx=(SELECT idx FROM users WHERE uid=?)) ");
 	    }
 	    if ( lib != null ) {
 		if ( whereAdded ) query.append("AND ");
@@ -0,0 +1,169 @@
+package net.deterlab.testbed.experiment;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import javax.activation.DataSource;
+
+/**
+ * A read-only DataSource that presents a byte range of a file.  The file is
+ * opened each time getInputStream is called and only the range is read, so
+ * a large aspect can be sent in pieces without holding it in memory.
+ * @author DETER team
+ * @version 1.0
+ */
+public class FileRangeDataSource implements DataSource {
+    /** The file */
+    private File file;
+    /** Offset of the first byte */
+    private long offset;
+    /** Number of bytes in the range */
+    private long length;
+
+    /**
+     * Stops reading at the end of the range.
+     */
+    static private class RangeInputStream extends FilterInputStream {
+	/** Bytes left in the range */
+	private long left;
+
+	/**
+	 * Wrap a stream positioned at the start of the range.
+	 * @param in the stream
+	 * @param len the length of the range
+	 */
+	public RangeInputStream(InputStream in, long len) {
+	    super(in);
+	    left = len;
+	}
+
+	/**
+	 * Read a byte.
+	 * @return the byte or -1 at the end of the range
+	 * @throws IOException on errors
+	 */
+	public int read() throws IOException {
+	    if ( left <= 0 ) return -1;
+
+	    int b = super.read();
+
+	    if ( b != -1 ) left--;
+	    return b;
+	}
+
+	/**
+	 * Read bytes into a buffer.
+	 * @param b the buffer
+	 * @param off where in the buffer to start
+	 * @param len the most bytes to read
+	 * @return the number of bytes read or -1 at the end of the range
+	 * @throws IOException on errors
+	 */
+	public int read(byte[] b, int off, int len) throws IOException {
+	    if ( left <= 0 ) return -1;
+
+	    int r = super.read(b, off, (int) Math.min(len, left));
+
+	    if ( r != -1 ) left -= r;
+	    return r;
+	}
+
+	/**
+	 * Skip bytes.
+	 * @param n the number of bytes to skip
+	 * @return the number skipped
+	 * @throws IOException on errors
+	 */
+	public long skip(long n) throws IOException {
+	    long s = super.skip(Math.min(n, left));
+
+	    left -= s;
+	    return s;
+	}
+
+	/**
+	 * Return the number of bytes that can be read without blocking.
+	 * @return the number of bytes
+	 * @throws IOException on errors
+	 */
+	public int available() throws IOException {
+	    return (int) Math.min(super.available(), left);
+	}
+
+	/**
+	 * Marks are not supported.
+	 * @return false
+	 */
+	public boolean markSupported() { return false; }
+    }
+
+    /**
+     * Present a range of a file.  The range is clipped to the file's
+     * current size.
+     * @param f the file
+     * @param off offset of the first byte
+     * @param len number of bytes; if negative, the rest of the file
+     */
+    public FileRangeDataSource(File f, long off, long len) {
+	long size = f.length();
+
+	file = f;
+	offset = Math.max(0, Math.min(off, size));
+	length = (len < 0 || offset + len > size) ? size - offset : len;
+    }
+
+    /**
+     * Return the offset of the first byte.
+     * @return the offset of the first byte
+     */
+    public long getOffset() { return offset; }
+
+    /**
+     * Return the number of bytes in the range.
+     * @return the number of bytes in the range
+     */
+    public long getLength() { return length; }
+
+    /**
+     * Return the MIME type.
+     * @return the MIME type
+     */
+    public String getContentType() { return "application/octet-stream"; }
+
+    /**
+     * Return the name of the file.
+     * @return the name of the file
+     */
+    public String getName() { return file.getName(); }
+
+    /**
+     * Open the file and return a stream of the bytes in the range.
+     * @return the stream
+     * @throws IOException if the file cannot be read
+     */
+    public InputStream getInputStream() throws IOException {
+	FileInputStream in = new FileInputStream(file);
+
+	try {
+	    in.getChannel().position(offset);
+	}
+	catch (IOException e) {
+	    in.close();
+	    throw e;
+	}
+	return new RangeInputStream(in, length);
+    }
+
+    /**
+     * The source is read-only.
+     * @return nothing
+     * @throws IOException always
+     */
+    public OutputStream getOutputStream() throws IOException {
+	throw new IOException("Read-only data source");
+    }
+}
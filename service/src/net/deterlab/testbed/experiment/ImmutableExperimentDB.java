@@ -106,6 +106,16 @@ public class ImmutableExperimentDB extends ExperimentDB {
 	super(exp.getEid(), exp.getSharedConnection());
     }
 
+    /**
+     * Return an ImmutableExperimentDB for the same experiment with its own
+     * DB connection, for use on another thread.
+     * @return the copy
+     * @throws DeterFault if there is a DB setup error
+     */
+    public ImmutableExperimentDB copy() throws DeterFault {
+	return new ImmutableExperimentDB(getEid());
+    }
+
     /**
      * Remove and regenerate the credentials for all the circles in this
      * experiment's access control list.
@@ -7,23 +7,33 @@ import java.io.OutputStreamWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
+import javax.activation.DataHandler;
+
+import net.deterlab.testbed.api.ApiObject;
 import net.deterlab.testbed.api.DeterFault;
 import net.deterlab.testbed.api.ExperimentAspect;
+import net.deterlab.testbed.topology.BinaryTopdl;
 import net.deterlab.testbed.topology.Fragment;
 import net.deterlab.testbed.topology.IsomorphismException;
+import net.deterlab.testbed.topology.LayoutDelta;
 import net.deterlab.testbed.topology.NameMap;
 import net.deterlab.testbed.topology.TopologyDescription;
 import net.deterlab.testbed.topology.TopologyException;
 import net.deterlab.testbed.topology.TopologyObject;
 
 /**
- * Process a layout aspect of an experiment
+ * Process a layout aspect of an experiment.  Layouts may be given as topdl
+ * XML or in the binary format of BinaryTopdl.  The full layout is stored in
+ * both forms; realization reads the binary one when it is present.
+ * Changes to a layout are given as a LayoutDelta.  Deltas that leave regions
+ * and fragments alone are applied directly to the expanded layout, and only
+ * the layout, full, binary and minimal layout aspects are rewritten.
  * @author DETER team
  * @version 1.1
  */
@@ -32,6 +42,8 @@ public class LayoutAspect implements Aspect {
     static private String TYPE = "layout";
     /** Type of a full layout aspect */
     static private String FULL_LAYOUT = "full_layout";
+    /** Type of a full layout aspect in the binary topology format */
+    static private String BINARY_LAYOUT = "binary_layout";
     /** Template to generate name for an unnamed aspect */
     static private String NameTemplate = "layout%03d";
 
@@ -87,6 +99,12 @@ public class LayoutAspect implements Aspect {
 	 * @param n the name to remove
 	 */
 	public void removeName(String n) { aspectNames.remove(n); }
+
+	/**
+	 * Return the number of aspect names in this context.
+	 * @return the number of aspect names in this context.
+	 */
+	public int getNameCount() { return aspectNames.size(); }
     };
 
 
@@ -97,7 +115,7 @@ public class LayoutAspect implements Aspect {
      * Simple Constructor
      */
     public LayoutAspect() {
-	context = new HashMap<Long, ExperimentContext>();
+	context = new ConcurrentHashMap<Long, ExperimentContext>();
     }
 
     /**
@@ -136,6 +154,57 @@ public class LayoutAspect implements Aspect {
 	}
     }
 
+    /**
+     * Parse a layout from aspect data in either topdl XML or the binary
+     * topology format.
+     * @param dh the aspect data
+     * @return the layout
+     * @throws TopologyException if the layout is inconsistent
+     * @throws IOException if the data cannot be parsed
+     * @throws DeterFault if the data cannot be read
+     */
+    static private TopologyDescription parseLayout(DataHandler dh)
+	    throws TopologyException, IOException, DeterFault {
+	byte[] data = ApiObject.dataToBytes(dh);
+
+	if ( BinaryTopdl.isBinary(data))
+	    return TopologyDescription.binaryToTopology(
+		    new ByteArrayInputStream(data), data.length);
+	else
+	    return TopologyDescription.xmlToTopology(
+		    new ByteArrayInputStream(data), "experiment", false);
+    }
+
+    /**
+     * Create an ExperimentAspect containing the binary encoding of a
+     * TopologyDescription.
+     * @param type aspect type
+     * @param subType aspect sutype
+     * @param name aspect name
+     * @param td the layout
+     * @return the new ExperimentAspect
+     * @throws DeterFault on errors
+     */
+    private ExperimentAspect binaryExperimentAspect(String type,
+	    String subType, String name, TopologyDescription td)
+	throws DeterFault {
+	try {
+	    ByteArrayOutputStream bs = new ByteArrayOutputStream();
+	    ExperimentAspect aa = new ExperimentAspect();
+
+	    td.writeBinary(bs);
+	    aa.setType(type);
+	    aa.setSubType(subType);
+	    aa.setName(name);
+	    aa.setData(ApiObject.bytesToData(bs.toByteArray()));
+	    return aa;
+	}
+	catch (IOException e) {
+	    throw new DeterFault(DeterFault.internal,
+		    "Cannot output binary layout aspect");
+	}
+    }
+
     /**
      * Create an ExperimentAspect containing this TopologyDescription.
      * @param type aspect type
@@ -162,7 +231,7 @@ public class LayoutAspect implements Aspect {
 	    aa.setType(type);
 	    aa.setSubType(subType);
 	    aa.setName(name);
-	    aa.setData(bs.toByteArray());
+	    aa.setData(ApiObject.bytesToData(bs.toByteArray()));
 	    return aa;
 	}
 	catch (IOException e) {
@@ -198,6 +267,8 @@ public class LayoutAspect implements Aspect {
 	    rv.add(topologyToExperimentAspect(a.getType(), "full_layout",
 			a.getName()+"/full_layout", full, "experiment",
 			true));
+	    rv.add(binaryExperimentAspect(a.getType(), BINARY_LAYOUT,
+			a.getName()+"/" + BINARY_LAYOUT, full));
 
 	    // Copy the fragments from the full layout into separate
 	    // files and remove them from the mini layouts (if they're
@@ -284,10 +355,17 @@ public class LayoutAspect implements Aspect {
 	for (ExperimentAspect ea: exp.getAspects(Arrays.asList(req), true)) {
 	    if (ctxt.getLayout() == null ) {
 		try {
-		    TopologyDescription td = TopologyDescription.xmlToTopology(
-			    new ByteArrayInputStream(ea.getData()),
-			"experiment", false);
-		    td.validate(true);
+		    ExperimentAspect bin = findBinaryLayout(exp, ea.getName());
+		    TopologyDescription td = null;
+
+		    // The binary full layout is already expanded.
+		    if ( bin != null ) {
+			td = parseLayout(bin.getData());
+		    }
+		    else {
+			td = parseLayout(ea.getData());
+			td.validate(true);
+		    }
 		    ctxt.setLayout(td);
 		}
 		catch (IOException ie ) {
@@ -334,9 +412,7 @@ public class LayoutAspect implements Aspect {
 	    if (inputAspect.getData() == null)
 		throw new DeterFault(DeterFault.request,
 			"No layout data?");
-	    td = TopologyDescription.xmlToTopology(
-		    new ByteArrayInputStream(inputAspect.getData()),
-		    "experiment", false);
+	    td = parseLayout(inputAspect.getData());
 	    td.validate(false);
 	    if ( layout == null ) {
 		if (inputAspect.getName() == null ||
@@ -378,18 +454,159 @@ public class LayoutAspect implements Aspect {
 	}
     }
     /**
-     * Request a change to this aspect to the experiment.  Unimplemented.
+     * Return the minimal layout: td without the fragments and name maps used
+     * to expand it into full.
+     * @param td the layout
+     * @param full the expanded layout
+     * @return the minimal layout
+     */
+    private TopologyDescription minimalLayout(TopologyDescription td,
+	    TopologyDescription full) {
+	TopologyDescription mini = td.clone();
+
+	for (Fragment f : full.getFragments())
+	    mini.removeFragment(f);
+	for (NameMap nm: full.getNameMaps())
+	    mini.removeNameMap(nm);
+	return mini;
+    }
+
+    /**
+     * Return the fragment and name map subtypes stored for the named
+     * layout that are not among the rewritten aspects, i.e., those a
+     * change deleted or renamed.
+     * @param exp the experiment
+     * @param name the layout aspect name
+     * @param rewritten the aspects the change rewrites
+     * @return the aspects to remove
+     * @throws DeterFault on errors
+     */
+    private List<ExperimentAspect> staleSubtypes(ImmutableExperimentDB exp,
+	    String name, Collection<ExperimentAspect> rewritten)
+	throws DeterFault {
+	List<ExperimentAspect> rv = new ArrayList<ExperimentAspect>();
+	Set<String> keep = new HashSet<String>();
+	ExperimentAspect req = new ExperimentAspect();
+
+	for (ExperimentAspect a : rewritten)
+	    keep.add(a.getName());
+
+	req.setType(getType());
+	req.setSubType("*");
+	for (ExperimentAspect a : exp.getAspects(Arrays.asList(req), false)) {
+	    String st = a.getSubType();
+
+	    if ( !"fragment".equals(st) && !"namemap".equals(st)) continue;
+	    if ( a.getName() == null || !a.getName().startsWith(name + "/"))
+		continue;
+	    if ( keep.contains(a.getName())) continue;
+	    ExperimentAspect r = new ExperimentAspect();
+
+	    r.setType(a.getType());
+	    r.setSubType(st);
+	    r.setName(a.getName());
+	    rv.add(r);
+	}
+	return rv;
+    }
+
+    /**
+     * Apply a LayoutDelta to an existing layout.  The data of inputAspect is
+     * the delta in XML.  If the delta does not touch regions or fragments it
+     * is applied to the expanded layout cached for the transaction as well as
+     * the stored layout, and only the layout and its full, binary and minimal
+     * subtypes are rewritten.  Otherwise the changed layout is expanded again
+     * and all its subtypes are rewritten; fragments and name maps the change
+     * dropped are removed.  The cached layout is only replaced once the
+     * whole change succeeds.  Layouts can only be changed in
+     * experiments with a single layout aspect, as there is nothing to keep
+     * them isomorphic to.
      * @param exp the experiment being operated on
      * @param transactionID a unique identifier for this transaction
-     * @param inputAspect the requested aspect addition
+     * @param inputAspect the layout to change, with the delta as its data
+     * @param removals aspects to remove from the experiment are added here
      * @return a collection of aspects to be overwritten in the experiment
-     * @throws DeterFault if the aspect addition is unacceptable
+     * @throws DeterFault if the delta is malformed or does not apply
      */
     public Collection<ExperimentAspect> changeAspect(ImmutableExperimentDB exp,
-	    long transactionID, ExperimentAspect inputAspect)
-	    throws DeterFault {
-	throw new DeterFault(DeterFault.unimplemented, "Not implemented");
+	    long transactionID, ExperimentAspect inputAspect,
+	    Collection<ExperimentAspect> removals) throws DeterFault {
+	List<ExperimentAspect> rv = new ArrayList<ExperimentAspect>();
+	ExperimentContext ctxt = context.get(transactionID);
+	ExperimentAspect req = new ExperimentAspect();
+	String name = inputAspect.getName();
+	List<ExperimentAspect> stored = null;
+	List<ExperimentAspect> stale = new ArrayList<ExperimentAspect>();
+
+	if ( ctxt == null )
+	    throw new DeterFault(DeterFault.internal,
+		    "No context for transaction " + transactionID);
+	if ( inputAspect.getSubType() != null )
+	    throw new DeterFault(DeterFault.request,
+		    "Cannot change layout subtypes");
+	if ( name == null || !ctxt.containsName(name))
+	    throw new DeterFault(DeterFault.request, "No such layout " + name);
+	if ( ctxt.getNameCount() > 1 )
+	    throw new DeterFault(DeterFault.request,
+		    "Cannot change layouts in an experiment with more " +
+		    "than one layout");
+	if ( inputAspect.getData() == null )
+	    throw new DeterFault(DeterFault.request, "No layout delta?");
+
+	req.setType(getType());
+	req.setName(name);
+	stored = exp.getAspects(Arrays.asList(req), true);
+	if ( stored.size() != 1 || stored.get(0).getData() == null )
+	    throw new DeterFault(DeterFault.internal,
+		    "Cannot load layout " + name);
+
+	try {
+	    LayoutDelta delta = LayoutDelta.xmlToDelta(
+		    inputAspect.getData().getInputStream());
+	    TopologyDescription td = parseLayout(stored.get(0).getData());
+	    TopologyDescription full = ctxt.getLayout();
+
+	    if ( full != null && delta.isLocal(td) ) {
+		// Change a copy of the cached layout so a delta that fails
+		// partway leaves the cache as it was.
+		full = full.clone();
+		delta.apply(td);
+		delta.apply(full);
+		td.validate(false);
+		full.validate(true);
+		rv.add(topologyToExperimentAspect(getType(), null, name, td,
+			    "experiment", false));
+		rv.add(topologyToExperimentAspect(getType(), FULL_LAYOUT,
+			    name + "/" + FULL_LAYOUT, full, "experiment",
+			    true));
+		rv.add(binaryExperimentAspect(getType(), BINARY_LAYOUT,
+			    name + "/" + BINARY_LAYOUT, full));
+		rv.add(topologyToExperimentAspect(getType(),
+			    "minimal_layout", name + "/minimal_layout",
+			    minimalLayout(td, full), "experiment", true));
+	    }
+	    else {
+		delta.apply(td);
+		td.validate(false);
+		rv.addAll(topologyToExperimentAspects(inputAspect, td));
+		stale = staleSubtypes(exp, name, rv);
+		full = td.clone();
+		full.validate(true);
+	    }
+	    ctxt.setLayout(full);
+	    removals.addAll(stale);
+	    return rv;
+	}
+	catch (TopologyException e) {
+	    throw new DeterFault(DeterFault.request, "Bad layout change: " +
+		    e.getMessage());
+	}
+	catch (IOException e) {
+	    throw new DeterFault(DeterFault.request,
+		    "Cannot read layout delta: " + e.getMessage());
+	}
     }
+
     /**
      * Remove an instance of this aspect from the experiment.  The removeAspect
      * parameter includes the name and type of the aspect to remove - other
@@ -445,9 +662,30 @@ public class LayoutAspect implements Aspect {
 	return rv;
     }
 
+    /**
+     * Return the binary full layout stored for the named layout, or null if
+     * there is none (e.g., the layout was stored before binary layouts were).
+     * @param exp the experiment
+     * @param name the layout aspect name
+     * @return the binary layout aspect or null
+     * @throws DeterFault on errors
+     */
+    private ExperimentAspect findBinaryLayout(ImmutableExperimentDB exp,
+	    String name) throws DeterFault {
+	ExperimentAspect req = new ExperimentAspect();
+
+	req.setType(TYPE);
+	req.setSubType(BINARY_LAYOUT);
+	req.setName(name + "/" + BINARY_LAYOUT);
+	for (ExperimentAspect a : exp.getAspects(Arrays.asList(req), true))
+	    if ( a.getData() != null ) return a;
+	return null;
+    }
+
     /**
      * Realize this aspect.  The first full layout aspect returns its
      * associated topology description.  This is a convention, and may change.
+     * The binary copy of the full layout is read in preference to the XML.
      * @param exp the experiment being operated on
      * @param transactionID a unique identifier for this transaction
      * @param realizeAspect the requested aspect realization
@@ -472,9 +710,15 @@ public class LayoutAspect implements Aspect {
 		    throw new DeterFault(DeterFault.internal,
 			    "Multiple definitions of aspect");
 		try {
-		    rv = TopologyDescription.xmlToTopology(
-			    new ByteArrayInputStream(a.getData()),
-			    "experiment", false);
+		    String suffix = "/" + FULL_LAYOUT;
+		    String name = a.getName();
+		    ExperimentAspect bin = (name != null &&
+			    name.endsWith(suffix)) ?
+			findBinaryLayout(exp, name.substring(0,
+				    name.length() - suffix.length())) : null;
+
+		    rv = parseLayout((bin != null) ? bin.getData() :
+			    a.getData());
 		}
 		catch (IOException ie) {
 		    throw new DeterFault(DeterFault.internal,
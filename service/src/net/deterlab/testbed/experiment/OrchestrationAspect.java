@@ -2,19 +2,15 @@ package net.deterlab.testbed.experiment;
 
 import java.io.File;
 import java.io.IOException;
-import java.lang.ProcessBuilder.Redirect;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.Semaphore;
-import java.util.concurrent.TimeUnit;
 
 import org.apache.log4j.Logger;
 
+import net.deterlab.testbed.api.ApiObject;
 import net.deterlab.testbed.api.DeterFault;
 import net.deterlab.testbed.api.ExperimentAspect;
 import net.deterlab.testbed.topology.TopologyDescription;
@@ -72,7 +68,7 @@ public class OrchestrationAspect implements Aspect {
 	    throws DeterFault {
 
     try {
-    	byte[] inputData = inputAspect.getData();
+    	byte[] inputData = ApiObject.dataToBytes(inputAspect.getData());
 		File aalTempFile = File.createTempFile("tmp", ".aal");
 		Files.write(Paths.get(aalTempFile.getAbsolutePath()), inputData);
     
@@ -102,12 +98,13 @@ public class OrchestrationAspect implements Aspect {
      * @param exp the experiment being operated on
      * @param transactionID a unique identifier for this transaction
      * @param inputAspect the requested aspect addition
+     * @param removals aspects to remove from the experiment are added here
      * @return a collection of aspects to be overwritten in the experiment
      * @throws DeterFault if the aspect addition is unacceptable
      */
     public Collection<ExperimentAspect> changeAspect(ImmutableExperimentDB exp,
-	    long transactionID, ExperimentAspect inputAspect)
-	    throws DeterFault {
+	    long transactionID, ExperimentAspect inputAspect,
+	    Collection<ExperimentAspect> removals) throws DeterFault {
 	List<ExperimentAspect> rlist = new ArrayList<ExperimentAspect>();
 	List<ExperimentAspect> rv = new ArrayList<ExperimentAspect>();
 	List<ExperimentAspect> asps = null;
@@ -197,135 +194,47 @@ public class OrchestrationAspect implements Aspect {
     String eid = exp.getEid();
     log.debug("Realizing orchestration aspect for experiment: " + eid);
 
-    final Semaphore expOrchLock;
-    if (orchestrationLocks.containsKey(eid)){
-    	expOrchLock = orchestrationLocks.get(eid);
-    } else{
-    	expOrchLock = new Semaphore(1);
-    	orchestrationLocks.put(eid, expOrchLock);
-    }
-    
-    Boolean lockAcquireFlag = false;
-    try{
-    	lockAcquireFlag = 
-    			expOrchLock.tryAcquire(0, TimeUnit.NANOSECONDS);
-    }catch(InterruptedException interruptedException){
-    	lockAcquireFlag = false;
-    }
-    
-    if (lockAcquireFlag) {
-    	boolean isProcessRunning = false;
-    	try{
-        	List<ExperimentAspect> rlist = new ArrayList<ExperimentAspect>();
-        	List<ExperimentAspect> asps = null;
-        	
-        	ExperimentAspect req = new ExperimentAspect();
-        	req.setName(realizeAspect.getName());
-        	req.setType(getType());
-        	req.setSubType(realizeAspect.getSubType());
-        	rlist.add(req);
+    List<ExperimentAspect> rlist = new ArrayList<ExperimentAspect>();
+    List<ExperimentAspect> asps = null;
+
+    ExperimentAspect req = new ExperimentAspect();
+    req.setName(realizeAspect.getName());
+    req.setType(getType());
+    req.setSubType(realizeAspect.getSubType());
+    rlist.add(req);
+
+    asps = exp.getAspects(rlist, true);
 
-        	asps = exp.getAspects(rlist, true);
+    if (asps.size() == 0)
+        throw new DeterFault(DeterFault.request, "No such aspect");
 
-        	if (asps.size() == 0)
-        	    throw new DeterFault(DeterFault.request, "No such aspect");
-        	
-        	if (asps.size() > 1)
-        	    throw new DeterFault(DeterFault.request, 
-        	    		"Multiple aspects with same name");
-        	
-        	// Extracting project and experiment name from eid
-        	String project = exp.getEid().split(":")[0];
-    		String experiment = exp.getEid().replace(':', '-');
-    		
-        	// Copying orchestration procedure to Deter Ops
-        	byte[] inputData = asps.get(0).getData();
-    		File aalTempFile = File.createTempFile("tmp", ".aal");
-    		Files.write(Paths.get(aalTempFile.getAbsolutePath()), inputData);
-    		
-    		String command;
-    		ProcessBuilder pb;
-    		
-    		command = String.format(
-    				"/usr/local/bin/magi_orchestrator.py "
-    				+ "-p %s -e %s -f %s -o /tmp/%s_%s_orch.log", 
-    				project, experiment, aalTempFile, project, experiment);
-    		
-    		log.debug("Running orchestration cmd: " + command);
-    		
-    		pb = new ProcessBuilder(command.split(" "));
-    		File log = new File(String.format(
-    				"/tmp/%s_%s_orch.log", project, experiment));
-    		pb.redirectErrorStream(true);
-    		pb.redirectOutput(Redirect.appendTo(log));
-    		final Process pr = pb.start();
-    		
-    		// Wait for a second to check  for any exceptions
-    		if (waitFor(pr, 1, TimeUnit.SECONDS) && (pr.exitValue() != 0)){
-    			throw new DeterFault(DeterFault.internal, 
-    					"Could not orchestrate experiment");
-    		}
-    		
-    		isProcessRunning = true;
-    				
-    		Thread t1 = new Thread(new Runnable() {
-    		     public void run() {
-    		    	 try {
-						pr.waitFor();
-					} catch (InterruptedException e) {
-						// Can't do anything useful with the exception
-					} finally {
-			        	expOrchLock.release();
-			        }
-    		     } 
-    		});  
-    		t1.start();
-    		
-    		return null;
-    		
-        } catch (IOException ie) {
-    	    throw new DeterFault(DeterFault.internal,
-    		    "Could not orchestrate experiment. "
-    	    		+"IO error!?: " + ie.getMessage());
-    	} catch (InterruptedException ie) {
-    		throw new DeterFault(DeterFault.internal,
-    			"Command execution interuptted error!?: " + ie.getMessage());
-	    } finally {
-	    	if (!isProcessRunning)
-	    		expOrchLock.release();
-	    }
-    } else {
+    if (asps.size() > 1)
+        throw new DeterFault(DeterFault.request, 
+        		"Multiple aspects with same name");
+
+    // Queue the orchestration procedure for the orchestrator
+    OrchestrationJobs.Job job = OrchestrationJobs.getInstance().submit(eid,
+	    realizeAspect.getName(),
+	    ApiObject.dataToBytes(asps.get(0).getData()));
+
+    if (job == null) {
         // Already being orchestrated
-        log.debug("Another instanace of orchestrator "
+        log.debug("Another instance of orchestrator "
         		+ "already running for the experiment");
     	return null;
     }
-    }
-    
-    Map<String, Semaphore> orchestrationLocks = 
-    		new HashMap<String, Semaphore>();
-    
-    // This has been copied from Java 8 java.lang.Process.waitFor()
-    // to be able to have a similar function when working with 
-    // earlier version of Java.
-    public boolean waitFor(Process p, long timeout, TimeUnit unit)
-            throws InterruptedException
-    {
-        long startTime = System.nanoTime();
-        long rem = unit.toNanos(timeout);
 
-        do {
-            try {
-                p.exitValue();
-                return true;
-            } catch(IllegalThreadStateException ex) {
-                if (rem > 0)
-                    Thread.sleep(
-                        Math.min(TimeUnit.NANOSECONDS.toMillis(rem) + 1, 100));
-            }
-            rem = unit.toNanos(timeout) - (System.nanoTime() - startTime);
-        } while (rem > 0);
-        return false;
+    // Wait for a second to check for any exceptions
+    try {
+	if (job.await(1000) && job.getStatus().equals(
+		    OrchestrationJobs.Job.FAILED))
+	    throw new DeterFault(DeterFault.internal, 
+		    "Could not orchestrate experiment: " + job.getDetail());
+    } catch (InterruptedException ie) {
+	throw new DeterFault(DeterFault.internal,
+		"Command execution interuptted error!?: " + ie.getMessage());
+    }
+    return null;
     }
     
     /**
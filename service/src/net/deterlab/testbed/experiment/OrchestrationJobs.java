@@ -0,0 +1,546 @@
+package net.deterlab.testbed.experiment;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.ProcessBuilder.Redirect;
+import java.nio.file.Files;
+import java.util.Date;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.deterlab.testbed.api.Config;
+import net.deterlab.testbed.api.DeterFault;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Runs the MAGI orchestrator for experiments' orchestration aspects.  There
+ * is one manager per service process.  Each orchestration is a job run by a
+ * fixed pool of workers; a worker starts the orchestrator process and waits
+ * for it to exit.  Jobs beyond the pool's size wait in a bounded queue, and
+ * a job that does not fit is refused with a busy fault.
+ * <p>
+ * An experiment has at most one queued or running job.  The latest job for
+ * each experiment is kept after it finishes so its status and log can be
+ * read.  The orchestrator appends its output to a per-experiment log file;
+ * a job's log is the part written since the job started.
+ * <p>
+ * Configuration properties (all optional):
+ * <dl>
+ * <dt>orchestrationThreads</dt><dd>orchestrations run at once (default
+ *	4)</dd>
+ * <dt>orchestrationQueue</dt><dd>orchestrations allowed to wait for a
+ *	worker (default 16)</dd>
+ * <dt>orchestrationCommand</dt><dd>the orchestrator (default
+ *	/usr/local/bin/magi_orchestrator.py)</dd>
+ * <dt>orchestrationLogDir</dt><dd>directory holding the log files (default
+ *	/tmp)</dd>
+ * </dl>
+ * @author DETER team
+ * @version 1.0
+ */
+public class OrchestrationJobs {
+    /** The per-process manager */
+    static private OrchestrationJobs instance = null;
+    /** Source of job IDs */
+    static private AtomicLong nextId = new AtomicLong(1);
+    /** Most log bytes returned by one read */
+    static private final int MAX_LOG_READ = 1024 * 1024;
+
+    /** The workers */
+    private ThreadPoolExecutor executor;
+    /** The latest job for each experiment */
+    private ConcurrentMap<String, Job> jobs;
+    /** The orchestrator */
+    private String command;
+    /** Directory holding the log files */
+    private File logDir;
+    /** Logger */
+    private Logger log;
+
+    /**
+     * One run of the orchestrator for an experiment.  Its status moves from
+     * queued to running and then to succeeded, failed or cancelled; a job
+     * cancelled while queued never runs.
+     */
+    public class Job implements Runnable {
+	/** Status: waiting for a worker */
+	static public final String QUEUED = "queued";
+	/** Status: the orchestrator is running */
+	static public final String RUNNING = "running";
+	/** Status: the orchestrator exited with 0 */
+	static public final String SUCCEEDED = "succeeded";
+	/** Status: the orchestrator could not be run or exited with an error */
+	static public final String FAILED = "failed";
+	/** Status: the job was cancelled */
+	static public final String CANCELLED = "cancelled";
+
+	/** The job ID */
+	private long id;
+	/** The experiment */
+	private String eid;
+	/** The orchestration aspect's name */
+	private String aspect;
+	/** The orchestration procedure (AAL); dropped when the job ends */
+	private byte[] data;
+	/** The experiment's log file */
+	private File logFile;
+	/** Length of the log file when the job started */
+	private long logStart;
+	/** The status */
+	private String status;
+	/** The orchestrator's exit code, or -1 */
+	private int exitCode;
+	/** Why the job failed, if it did */
+	private String detail;
+	/** Times the job was submitted, started and finished */
+	private Date submitted, started, finished;
+	/** True once cancel has been called */
+	private boolean cancelled;
+	/** The orchestrator process, while running */
+	private Process process;
+
+	/**
+	 * Create a queued job.
+	 * @param e the experiment
+	 * @param a the aspect name
+	 * @param d the orchestration procedure
+	 */
+	public Job(String e, String a, byte[] d) {
+	    id = nextId.getAndIncrement();
+	    eid = e;
+	    aspect = a;
+	    data = d;
+	    logFile = new File(logDir, String.format("%s_%s_orch.log",
+			getProject(), getExperiment()));
+	    logStart = 0;
+	    status = QUEUED;
+	    exitCode = -1;
+	    detail = null;
+	    submitted = new Date();
+	    started = null;
+	    finished = null;
+	    cancelled = false;
+	    process = null;
+	}
+
+	/**
+	 * Return the project part of the experiment name.
+	 * @return the project part of the experiment name
+	 */
+	private String getProject() { return eid.split(":")[0]; }
+
+	/**
+	 * Return the experiment name as the orchestrator expects it.
+	 * @return the experiment name as the orchestrator expects it
+	 */
+	private String getExperiment() { return eid.replace(':', '-'); }
+
+	/**
+	 * Return the job ID
+	 * @return the job ID
+	 */
+	public long getId() { return id; }
+	/**
+	 * Return the experiment
+	 * @return the experiment
+	 */
+	public String getEid() { return eid; }
+	/**
+	 * Return the orchestration aspect's name
+	 * @return the orchestration aspect's name
+	 */
+	public String getAspect() { return aspect; }
+	/**
+	 * Return the status
+	 * @return the status
+	 */
+	public synchronized String getStatus() { return status; }
+	/**
+	 * Return the orchestrator's exit code, or -1 if it has not exited
+	 * @return the orchestrator's exit code
+	 */
+	public synchronized int getExitCode() { return exitCode; }
+	/**
+	 * Return why the job failed, or null
+	 * @return why the job failed
+	 */
+	public synchronized String getDetail() { return detail; }
+	/**
+	 * Return the time the job was submitted
+	 * @return the time the job was submitted
+	 */
+	public synchronized Date getSubmitted() { return submitted; }
+	/**
+	 * Return the time the job started, or null
+	 * @return the time the job started
+	 */
+	public synchronized Date getStarted() { return started; }
+	/**
+	 * Return the time the job finished, or null
+	 * @return the time the job finished
+	 */
+	public synchronized Date getFinished() { return finished; }
+
+	/**
+	 * Return true if the job is queued or running.
+	 * @return true if the job is queued or running
+	 */
+	public synchronized boolean isActive() { return finished == null; }
+
+	/**
+	 * Record the end of the job and wake anyone waiting for it.
+	 * @param s the final status
+	 * @param code the exit code, or -1
+	 * @param why why the job failed, or null
+	 */
+	private synchronized void finish(String s, int code, String why) {
+	    status = s;
+	    exitCode = code;
+	    detail = why;
+	    finished = new Date();
+	    data = null;
+	    process = null;
+	    notifyAll();
+	}
+
+	/**
+	 * Wait for the job to finish or for ms milliseconds to pass.
+	 * @param ms the longest time to wait
+	 * @return true if the job has finished
+	 * @throws InterruptedException if the wait is interrupted
+	 */
+	public synchronized boolean await(long ms) throws InterruptedException {
+	    long end = System.currentTimeMillis() + ms;
+
+	    for (long left = ms; finished == null && left > 0;
+		    left = end - System.currentTimeMillis())
+		wait(left);
+	    return finished != null;
+	}
+
+	/**
+	 * Cancel the job.  A queued job is dropped; a running job's
+	 * orchestrator is killed and the job finishes when it exits.
+	 * @return true if the job was queued or running
+	 */
+	public boolean cancel() {
+	    synchronized (this) {
+		if ( finished != null || cancelled ) return false;
+		cancelled = true;
+		if ( process != null ) {
+		    process.destroy();
+		    return true;
+		}
+		// A running job without a process checks for cancellation
+		// before starting one.
+		if ( status.equals(RUNNING)) return true;
+		finish(CANCELLED, -1, null);
+	    }
+	    executor.remove(this);
+	    return true;
+	}
+
+	/**
+	 * Run the orchestrator and wait for it to exit.
+	 */
+	public void run() {
+	    File aal = null;
+	    byte[] d = null;
+	    Process p = null;
+
+	    synchronized (this) {
+		if ( finished != null || cancelled ) return;
+		status = RUNNING;
+		started = new Date();
+		d = data;
+		logStart = logFile.length();
+	    }
+	    try {
+		aal = File.createTempFile("tmp", ".aal");
+		Files.write(aal.toPath(), d);
+
+		ProcessBuilder pb = new ProcessBuilder(command,
+			"-p", getProject(), "-e", getExperiment(),
+			"-f", aal.getAbsolutePath(),
+			"-o", logFile.getAbsolutePath());
+
+		pb.redirectErrorStream(true);
+		pb.redirectOutput(Redirect.appendTo(logFile));
+		log.debug("Running orchestration for " + eid + ": " +
+			pb.command());
+		synchronized (this) {
+		    if ( cancelled ) {
+			finish(CANCELLED, -1, null);
+			return;
+		    }
+		    p = process = pb.start();
+		}
+
+		int rv = p.waitFor();
+
+		synchronized (this) {
+		    if ( cancelled ) finish(CANCELLED, rv, null);
+		    else if ( rv == 0 ) finish(SUCCEEDED, rv, null);
+		    else finish(FAILED, rv,
+			    "Orchestrator exited with " + rv);
+		}
+	    }
+	    catch (IOException e) {
+		log.error("Cannot orchestrate " + eid + ": " + e);
+		finish(FAILED, -1, "IO error: " + e.getMessage());
+	    }
+	    catch (InterruptedException e) {
+		// The pool is shutting down
+		p.destroy();
+		finish(CANCELLED, -1, "Service shut down");
+	    }
+	    catch (RuntimeException e) {
+		// Never leave the job running, which would block further
+		// orchestrations of the experiment.
+		log.error("Cannot orchestrate " + eid + ": " + e);
+		if ( p != null ) p.destroy();
+		finish(FAILED, -1, "Internal error: " + e);
+	    }
+	    finally {
+		if ( aal != null ) aal.delete();
+	    }
+	}
+
+	/**
+	 * Return true if b continues a UTF-8 character rather than starting
+	 * one.
+	 * @param b the byte
+	 * @return true if b is a continuation byte
+	 */
+	private boolean continues(byte b) { return (b & 0xc0) == 0x80; }
+
+	/**
+	 * Return the length of the UTF-8 character that starts with b.
+	 * Malformed bytes count as one.
+	 * @param b the first byte
+	 * @return the length in bytes
+	 */
+	private int charLength(byte b) {
+	    if ( (b & 0xe0) == 0xc0 ) return 2;
+	    if ( (b & 0xf0) == 0xe0 ) return 3;
+	    if ( (b & 0xf8) == 0xf0 ) return 4;
+	    return 1;
+	}
+
+	/**
+	 * Return part of the log written since the job started.  The range
+	 * is clipped to the end of the log, and at most a megabyte is
+	 * returned.  The log is UTF-8 and characters are never split: an
+	 * offset inside a character starts at the next one, a range that
+	 * ends inside a character is extended to include all of it, and a
+	 * character not yet completely written is left for a later read.  So
+	 * a caller that adds the UTF-8 length of each result to its offset
+	 * reads every character exactly once.
+	 * @param offset offset from the job's start of the first byte
+	 * @param length the most bytes to return
+	 * @return the log text
+	 * @throws DeterFault if the log cannot be read
+	 */
+	public String readLog(long offset, int length) throws DeterFault {
+	    long start;
+
+	    synchronized (this) {
+		if ( started == null ) return "";
+		start = logStart;
+	    }
+	    if ( offset < 0 || length < 0 )
+		throw new DeterFault(DeterFault.request,
+			"Negative offset or length");
+
+	    try (RandomAccessFile f = new RandomAccessFile(logFile, "r")) {
+		long avail = f.length() - start - offset;
+
+		if ( avail <= 0 ) return "";
+
+		int want = Math.min(length, MAX_LOG_READ);
+		// Room to skip a partial character and finish a split one
+		byte[] buf = new byte[(int) Math.min(avail, want + 6L)];
+		int from = 0;
+		int end = 0;
+
+		f.seek(start + offset);
+		f.readFully(buf);
+
+		// Skip the rest of a character begun before offset
+		while ( from < buf.length && from < 3 && continues(buf[from]))
+		    from++;
+		end = Math.min(from + want, buf.length);
+		while ( end < buf.length && end - from - want < 3 &&
+			continues(buf[end]))
+		    end++;
+
+		// Leave a character that has not all been written
+		int last = end;
+
+		while ( last > from && end - last < 3 &&
+			continues(buf[last - 1]))
+		    last--;
+		if ( last > from && last - 1 + charLength(buf[last - 1]) > end )
+		    end = last - 1;
+		return new String(buf, from, end - from, "UTF-8");
+	    }
+	    catch (IOException e) {
+		throw new DeterFault(DeterFault.internal,
+			"Cannot read orchestration log: " + e.getMessage());
+	    }
+	}
+    }
+
+    /**
+     * Create a manager with the given parameters.
+     * @param threads orchestrations run at once
+     * @param queue orchestrations allowed to wait
+     * @param cmd the orchestrator
+     * @param dir directory holding the log files
+     */
+    public OrchestrationJobs(int threads, int queue, String cmd, File dir) {
+	final AtomicInteger count = new AtomicInteger(0);
+	int n = Math.max(threads, 1);
+
+	jobs = new ConcurrentHashMap<String, Job>();
+	command = cmd;
+	logDir = dir;
+	log = Logger.getLogger(getClass());
+	executor = new ThreadPoolExecutor(n, n, 0L, TimeUnit.MILLISECONDS,
+		new ArrayBlockingQueue<Runnable>(Math.max(queue, 1)),
+		new ThreadFactory() {
+		    public Thread newThread(Runnable r) {
+			Thread t = new Thread(r,
+				"orchestration-" + count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		    }
+		});
+    }
+
+    /**
+     * Return the integer value of a configuration property, or the default
+     * if it is missing or malformed.
+     * @param config the configuration
+     * @param name the property name
+     * @param def the default
+     * @return the value
+     */
+    static private int intProperty(Config config, String name, int def) {
+	String v = config.getProperty(name);
+
+	if ( v == null ) return def;
+	try {
+	    return Integer.parseInt(v);
+	}
+	catch (NumberFormatException e) {
+	    return def;
+	}
+    }
+
+    /**
+     * Return the per-process manager, creating it from the configuration
+     * the first time.
+     * @return the per-process manager
+     * @throws DeterFault if the configuration cannot be read
+     */
+    static public synchronized OrchestrationJobs getInstance()
+	    throws DeterFault {
+	if ( instance != null ) return instance;
+
+	Config config = new Config();
+	String cmd = config.getProperty("orchestrationCommand");
+	String dir = config.getProperty("orchestrationLogDir");
+
+	instance = new OrchestrationJobs(
+		intProperty(config, "orchestrationThreads", 4),
+		intProperty(config, "orchestrationQueue", 16),
+		(cmd != null) ? cmd : "/usr/local/bin/magi_orchestrator.py",
+		new File((dir != null) ? dir : "/tmp"));
+	return instance;
+    }
+
+    /**
+     * Queue an orchestration of an experiment, unless one is already queued
+     * or running.
+     * @param eid the experiment
+     * @param aspect the orchestration aspect's name
+     * @param data the orchestration procedure
+     * @return the new job, or null if the experiment already has one
+     * @throws DeterFault if too many orchestrations are waiting
+     */
+    public Job submit(String eid, String aspect, byte[] data)
+	    throws DeterFault {
+	Job job = new Job(eid, aspect, data);
+
+	// Make job the experiment's latest job unless an active one is
+	// there.  Another request may change the entry at any time, so
+	// retry until one of the atomic updates succeeds.
+	for (;;) {
+	    Job old = jobs.get(eid);
+
+	    if ( old != null && old.isActive()) return null;
+	    if ( old == null ) {
+		if ( jobs.putIfAbsent(eid, job) == null ) break;
+	    }
+	    else if ( jobs.replace(eid, old, job)) break;
+	}
+
+	try {
+	    executor.execute(job);
+	}
+	catch (RejectedExecutionException e) {
+	    jobs.remove(eid, job);
+	    throw new DeterFault(DeterFault.busy,
+		    "Too many orchestrations waiting; try again later");
+	}
+	return job;
+    }
+
+    /**
+     * Return the experiment's latest job.
+     * @param eid the experiment
+     * @return the latest job, or null if there is none
+     */
+    public Job getJob(String eid) {
+	return jobs.get(eid);
+    }
+
+    /**
+     * Cancel the experiment's queued or running job.
+     * @param eid the experiment
+     * @return true if there was one
+     */
+    public boolean cancel(String eid) {
+	Job job = jobs.get(eid);
+
+	return job != null && job.cancel();
+    }
+
+    /**
+     * Forget the experiment's latest job, cancelling it if it is active.
+     * @param eid the experiment
+     */
+    public void remove(String eid) {
+	Job job = jobs.remove(eid);
+
+	if ( job != null ) job.cancel();
+    }
+
+    /**
+     * Stop the workers.  Queued jobs are dropped and running orchestrators
+     * killed.
+     */
+    public void shutdown() {
+	executor.shutdownNow();
+    }
+}
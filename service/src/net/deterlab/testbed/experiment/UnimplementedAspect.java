@@ -59,13 +59,14 @@ public class UnimplementedAspect implements Aspect {
      * @param exp the experiment being operated on
      * @param transactionID a unique identifier for this transaction
      * @param inputAspect the requested aspect addition
+     * @param removals aspects to remove from the experiment are added here
      * @return a collection of aspects to be overwritten in the experiment
      * @throws DeterFault if the aspect change is unacceptable (which it always
      *	is)
      */
     public Collection<ExperimentAspect> changeAspect(ImmutableExperimentDB exp,
-	    long transactionID, ExperimentAspect inputAspect)
-	    throws DeterFault {
+	    long transactionID, ExperimentAspect inputAspect,
+	    Collection<ExperimentAspect> removals) throws DeterFault {
 	throw new DeterFault(DeterFault.unimplemented, "Aspect " + getType() +
 		" is unimplemented");
     }
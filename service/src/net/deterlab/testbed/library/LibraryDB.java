@@ -18,6 +18,7 @@ import net.deterlab.testbed.api.DeterFault;
 
 import net.deterlab.testbed.db.ACLObject;
 import net.deterlab.testbed.db.SharedConnection;
+import net.deterlab.testbed.db.VisibilityIndex;
 
 /**
  * Library information in the Database
@@ -395,6 +396,7 @@ public class LibraryDB extends ACLObject {
 		    "WHERE lidx=(SELECT idx FROM libraries WHERE libid=?)");
 	    p.setString(1, getLibid());
 	    p.executeUpdate();
+	    VisibilityIndex.removeObject(this, getPolicyType(), getLibid());
 	    p = getPreparedStatement( "DELETE FROM libraryperms " +
 		    "WHERE lidx=(SELECT idx FROM libraries WHERE libid=?)");
 	    p.setString(1, getLibid());
@@ -447,22 +449,10 @@ public class LibraryDB extends ACLObject {
 		    query.append("WHERE ");
 		    whereAdded = true;
 		}
-		// Pretty complex.  Get the library indices from
-		// libraryperms entries where the permission index matches
-		// LIBRARY_READ and the cidx is a circle that has uid as a
-		// member.
-		query.append(
-			"(idx IN "+
-			    "(SELECT DISTINCT lidx FROM libraryperms " +
-			    "WHERE permidx=(" +
-				"SELECT idx FROM permissions "+
-				"WHERE name='READ_LIBRARY' and " +
-				    "valid_for='library') " +
-			    "AND cidx IN (" +
-				"SELECT DISTINCT cidx FROM circleusers " +
-				"WHERE uidx=(SELECT idx FROM users " +
-				    "WHERE uid=?))"+
-			") OR owneridx=(SELECT idx FROM users WHERE uid=?)) ");
+		// Libraries uid can read through a circle, from the
+		// visibility index, or owns.
+		query.append("(" + VisibilityIndex.visibleTo("library") +
+			"OR owneridx=(SELECT idx FROM users WHERE uid=?)) ");
 	    }
 
 	    if ( regex != null ) {
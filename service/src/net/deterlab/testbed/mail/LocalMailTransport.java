@@ -0,0 +1,88 @@
+package net.deterlab.testbed.mail;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.deterlab.testbed.api.DeterFault;
+
+/**
+ * A stand-in transport that keeps messages in memory rather than sending
+ * them.  It is useful for tests and for development services with no mail
+ * relay.  Delivered messages are shared by all instances so that a test can
+ * inspect what the dispatcher's instance delivered.
+ * @author DETER team
+ * @version 1.0
+ */
+public class LocalMailTransport implements MailTransport {
+    /** Messages delivered by any LocalMailTransport */
+    static private List<MailMessage> delivered = new ArrayList<>();
+    /** Addresses that will be refused (to exercise retries) */
+    static private List<String> refused = new ArrayList<>();
+
+    /**
+     * Create a local transport.
+     */
+    public LocalMailTransport() { }
+
+    /**
+     * Nothing to prepare.
+     */
+    public void open() { }
+
+    /**
+     * Record the message as delivered, unless its address is refused.
+     * @param m the message to send
+     * @throws DeterFault if the address has been refused
+     */
+    public void send(MailMessage m) throws DeterFault {
+	synchronized (delivered) {
+	    if ( refused.contains(m.getAddress()))
+		throw new DeterFault(DeterFault.request,
+			"Refused address " + m.getAddress());
+	    delivered.add(m);
+	}
+    }
+
+    /**
+     * Always ready.
+     * @return true
+     */
+    public boolean isOpen() { return true; }
+
+    /**
+     * Nothing to release.
+     */
+    public void close() { }
+
+    /**
+     * Return a copy of the messages delivered so far.
+     * @return a copy of the messages delivered so far.
+     */
+    static public List<MailMessage> getDelivered() {
+	synchronized (delivered) {
+	    return new ArrayList<>(delivered);
+	}
+    }
+
+    /**
+     * Refuse or accept future messages to the given address.
+     * @param address the address
+     * @param refuse if true refuse messages to address
+     */
+    static public void setRefused(String address, boolean refuse) {
+	synchronized (delivered) {
+	    if ( refuse ) refused.add(address);
+	    else refused.remove(address);
+	}
+    }
+
+    /**
+     * Forget all delivered messages and refused addresses.
+     */
+    static public void clear() {
+	synchronized (delivered) {
+	    delivered.clear();
+	    refused.clear();
+	}
+    }
+}
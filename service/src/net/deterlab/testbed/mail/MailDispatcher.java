@@ -0,0 +1,339 @@
+package net.deterlab.testbed.mail;
+
+import java.lang.reflect.Constructor;
+
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import net.deterlab.testbed.api.Config;
+import net.deterlab.testbed.api.DeterFault;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Drains the mail outbox in the background.  There is one dispatcher per
+ * service process.  It wakes when a message is queued and periodically to
+ * pick up retries and messages left from a previous run, then sends pending
+ * messages in batches through the configured MailTransport.  Failed messages
+ * are retried with exponential backoff until the retry limit is reached,
+ * except those the transport rejects permanently, which fail at once.  If the
+ * transport's connection drops during a batch, the rest of the batch is left
+ * for the next scan without counting an attempt against it.
+ * <p>
+ * Configuration properties (all optional):
+ * <dl>
+ * <dt>mailTransport</dt><dd>MailTransport class name (default
+ *	MailerTransport, which runs the configured mailer as the service
+ *	always has; set to
+ *	net.deterlab.testbed.mail.SmtpMailTransport to use an SMTP
+ *	relay)</dd>
+ * <dt>mailBatchSize</dt><dd>messages per transport session (default 50)</dd>
+ * <dt>mailRetryLimit</dt><dd>attempts before giving up (default 8)</dd>
+ * <dt>mailRetryDelay</dt><dd>seconds before the first retry; doubles on
+ *	each failure (default 60)</dd>
+ * <dt>mailPollInterval</dt><dd>seconds between outbox scans (default
+ *	60)</dd>
+ * </dl>
+ * @author DETER team
+ * @version 1.0
+ */
+public class MailDispatcher {
+    /** Longest delay between retries: one day in milliseconds */
+    static private final long MAX_RETRY_DELAY = 24L * 60 * 60 * 1000;
+    /** The per-process dispatcher */
+    static private MailDispatcher instance = null;
+
+    /** The sending thread */
+    private ScheduledExecutorService executor;
+    /** True if a drain has been requested but not started */
+    private AtomicBoolean drainQueued;
+    /** Delivers the messages */
+    private MailTransport transport;
+    /** Messages per batch */
+    private int batchSize;
+    /** Attempts before giving up */
+    private int retryLimit;
+    /** Delay before the first retry in milliseconds */
+    private long retryDelay;
+    /** Milliseconds between outbox scans */
+    private long poll;
+    /** Logger */
+    private Logger log;
+
+    /**
+     * Create a dispatcher with the given parameters.  It does nothing until
+     * start is called.
+     * @param t the transport to send through
+     * @param batch messages per transport session
+     * @param retries attempts before giving up
+     * @param delay delay before the first retry in milliseconds
+     * @param poll milliseconds between outbox scans
+     */
+    public MailDispatcher(MailTransport t, int batch, int retries,
+	    long delay, long poll) {
+	transport = t;
+	batchSize = batch;
+	retryLimit = retries;
+	retryDelay = delay;
+	this.poll = poll;
+	drainQueued = new AtomicBoolean(false);
+	log = Logger.getLogger(getClass());
+	executor = Executors.newSingleThreadScheduledExecutor(
+		new ThreadFactory() {
+		    public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "mail-dispatcher");
+			t.setDaemon(true);
+			return t;
+		    }
+		});
+    }
+
+    /**
+     * Start the periodic outbox scan, beginning with one now.
+     */
+    public void start() {
+	executor.scheduleWithFixedDelay(new Runnable() {
+		public void run() { wakeup(); }
+	    }, 0, poll, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Return the dispatcher for this process, creating and starting it from
+     * the service configuration if necessary.
+     * @return the dispatcher
+     * @throws DeterFault if the configuration is bad
+     */
+    static public synchronized MailDispatcher getInstance()
+	    throws DeterFault {
+	if ( instance != null ) return instance;
+
+	Config config = new Config();
+	instance = new MailDispatcher(
+		makeTransport(config.getProperty("mailTransport"), config),
+		intProperty(config, "mailBatchSize", 50),
+		intProperty(config, "mailRetryLimit", 8),
+		intProperty(config, "mailRetryDelay", 60) * 1000L,
+		intProperty(config, "mailPollInterval", 60) * 1000L);
+	instance.start();
+	return instance;
+    }
+
+    /**
+     * Instantiate the named transport class.  Null selects the
+     * MailerTransport, which sends mail the way the service always has.
+     * @param name the class name
+     * @param config the service configuration
+     * @return the new transport
+     * @throws DeterFault if the class cannot be instantiated
+     */
+    static protected MailTransport makeTransport(String name, Config config)
+	    throws DeterFault {
+	if ( name == null ) return new MailerTransport();
+	try {
+	    Class<?> cl = Class.forName(name);
+	    Constructor<?> c = cl.getConstructor(new Class<?>[0]);
+
+	    return (MailTransport) c.newInstance(new Object[0]);
+	}
+	catch (ClassCastException|LinkageError e) {
+	    throw new DeterFault(DeterFault.internal,
+		    "Bad mail transport class " + name + ": " + e);
+	}
+	catch (ReflectiveOperationException e) {
+	    throw new DeterFault(DeterFault.internal,
+		    "Cannot create mail transport " + name + ": " + e);
+	}
+    }
+
+    /**
+     * Read an integer property, returning a default if it is missing or
+     * malformed.
+     * @param config the configuration
+     * @param name the property name
+     * @param def the default value
+     * @return the value
+     */
+    static private int intProperty(Config config, String name, int def) {
+	String v = config.getProperty(name);
+
+	if ( v == null ) return def;
+	try {
+	    return Integer.parseInt(v);
+	}
+	catch (NumberFormatException e) {
+	    return def;
+	}
+    }
+
+    /**
+     * Return the delay before the next attempt to send a message that has
+     * failed the given number of times.  The delay doubles after each failure
+     * up to a day.
+     * @param attempts the number of failed attempts (at least 1)
+     * @param base the delay after the first failure in milliseconds
+     * @return the delay in milliseconds
+     */
+    static public long backoff(int attempts, long base) {
+	long d = base;
+
+	for (int i = 1; i < attempts && d < MAX_RETRY_DELAY; i++)
+	    d *= 2;
+	return Math.min(d, MAX_RETRY_DELAY);
+    }
+
+    /**
+     * Put a message in the outbox and ask the dispatcher to send it.  The
+     * message is committed to the outbox before this returns, so it will be
+     * sent even if the service restarts first.
+     * @param m the message
+     * @throws DeterFault if the message cannot be queued
+     */
+    public void enqueue(MailMessage m) throws DeterFault {
+	MailOutboxDB outbox = null;
+
+	try {
+	    outbox = new MailOutboxDB();
+	    outbox.enqueue(m);
+	    outbox.close();
+	}
+	catch (DeterFault df) {
+	    if ( outbox != null ) outbox.forceClose();
+	    throw df;
+	}
+	wakeup();
+    }
+
+    /**
+     * Ask the dispatcher to drain the outbox soon.  Multiple requests made
+     * before the drain starts are merged.
+     */
+    public void wakeup() {
+	if ( !drainQueued.compareAndSet(false, true)) return;
+	executor.execute(new Runnable() {
+	    public void run() {
+		drainQueued.set(false);
+		drain();
+	    }
+	});
+    }
+
+    /**
+     * Send batches until the outbox has no more messages that are due.
+     */
+    protected void drain() {
+	try {
+	    while ( sendBatch() >= batchSize)
+		;
+	}
+	catch (Exception e) {
+	    // Keep the dispatcher thread alive; the next scan will retry.
+	    log.error("Error sending mail: " + e);
+	}
+    }
+
+    /**
+     * Send one batch of due messages through a single transport session.
+     * @return the number of messages in the batch
+     * @throws DeterFault on database errors
+     */
+    protected int sendBatch() throws DeterFault {
+	MailOutboxDB outbox = null;
+
+	try {
+	    outbox = openOutbox();
+	    List<MailMessage> batch = outbox.getPending(batchSize);
+
+	    if ( batch.isEmpty()) {
+		outbox.close();
+		return 0;
+	    }
+
+	    try {
+		transport.open();
+	    }
+	    catch (DeterFault df) {
+		log.warn("Mail transport unavailable: " + df);
+		for (MailMessage m : batch)
+		    failed(outbox, m, df, false);
+		outbox.close();
+		// Do not spin on an unreachable relay
+		return 0;
+	    }
+
+	    int sent = 0;
+	    int tried = 0;
+	    for (MailMessage m : batch) {
+		// The rest of the batch waits for the next scan
+		if ( !transport.isOpen()) {
+		    log.warn("Mail transport closed; " +
+			    (batch.size() - tried) + " messages deferred");
+		    break;
+		}
+		tried++;
+		try {
+		    transport.send(m);
+		    outbox.sent(m);
+		    sent++;
+		}
+		catch (DeterFault df) {
+		    failed(outbox, m, df,
+			    df.getErrorCode() == DeterFault.request);
+		}
+	    }
+	    transport.close();
+	    outbox.close();
+	    if ( log.isDebugEnabled())
+		log.debug("Sent " + sent + " of " + batch.size() + " messages");
+	    // Do not spin on a relay that dropped the connection
+	    return (tried < batch.size()) ? 0 : batch.size();
+	}
+	catch (DeterFault df) {
+	    transport.close();
+	    if ( outbox != null ) outbox.forceClose();
+	    throw df;
+	}
+    }
+
+    /**
+     * Return a connection to the outbox.
+     * @return a connection to the outbox
+     * @throws DeterFault on database errors
+     */
+    protected MailOutboxDB openOutbox() throws DeterFault {
+	return new MailOutboxDB();
+    }
+
+    /**
+     * Record a failure and schedule the next attempt, or give up if the
+     * failure is permanent or the retry limit has been reached.
+     * @param outbox the outbox
+     * @param m the failed message
+     * @param df the reason for the failure
+     * @param permanent true if the message can never be sent
+     * @throws DeterFault on database errors
+     */
+    private void failed(MailOutboxDB outbox, MailMessage m, DeterFault df,
+	    boolean permanent) throws DeterFault {
+	int attempts = m.getAttempts() + 1;
+	Date next = null;
+
+	if ( !permanent && attempts < retryLimit )
+	    next = new Date(System.currentTimeMillis() +
+		    backoff(attempts, retryDelay));
+	else
+	    log.error("Giving up on mail to " + m.getAddress() + ": " + df);
+	outbox.failed(m, df.getDetailMessage(), next);
+    }
+
+    /**
+     * Stop the dispatcher.  Queued messages remain in the outbox.
+     */
+    public void shutdown() {
+	executor.shutdownNow();
+    }
+}
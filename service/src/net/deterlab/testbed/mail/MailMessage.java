@@ -0,0 +1,104 @@
+package net.deterlab.testbed.mail;
+
+import java.util.regex.Pattern;
+
+import net.deterlab.testbed.api.DeterFault;
+
+/**
+ * A single e-mail message waiting in (or drawn from) the outbox.  Messages are
+ * plain text with a single recipient, which is all the service sends.
+ * @author DETER team
+ * @version 1.0
+ */
+public class MailMessage {
+    /** Longest address accepted (RFC 5321 path limit less the brackets) */
+    static private final int MAX_ADDRESS = 254;
+    /** Form of an acceptable address */
+    static private final Pattern ADDRESS = Pattern.compile(
+	    "[A-Za-z0-9!#$%&'*+/=?^_`{|}~][A-Za-z0-9!#$%&'*+/=?^_`{|}~.-]*" +
+	    "@[A-Za-z0-9](?:[A-Za-z0-9-]*[A-Za-z0-9])?" +
+	    "(?:\\.[A-Za-z0-9](?:[A-Za-z0-9-]*[A-Za-z0-9])?)*");
+
+    /** Outbox index of the message (-1 if not in the outbox) */
+    private long id;
+    /** Recipient address */
+    private String address;
+    /** Subject line */
+    private String subject;
+    /** Message body */
+    private String body;
+    /** Number of delivery attempts so far */
+    private int attempts;
+
+    /**
+     * Create a message that is not (yet) in the outbox.
+     * @param a the recipient address
+     * @param s the subject line
+     * @param b the message body
+     */
+    public MailMessage(String a, String s, String b) {
+	this(-1, a, s, b, 0);
+    }
+
+    /**
+     * Create a message with all fields set.
+     * @param i the outbox index
+     * @param a the recipient address
+     * @param s the subject line
+     * @param b the message body
+     * @param at the number of attempts already made
+     */
+    public MailMessage(long i, String a, String s, String b, int at) {
+	id = i;
+	address = a;
+	// A subject is one header line; line breaks would start new headers
+	subject = (s != null) ? s.replaceAll("[\\r\\n]+", " ") : null;
+	body = b;
+	attempts = at;
+    }
+
+    /**
+     * Confirm that an address is a plain local@domain address that is safe
+     * to put in an SMTP command, a header or a mailer's command line: no
+     * spaces, control characters, quoting or angle brackets, and no leading
+     * dash.
+     * @param a the address
+     * @throws DeterFault if the address is malformed
+     */
+    static public void checkAddress(String a) throws DeterFault {
+	if ( a == null || a.length() > MAX_ADDRESS ||
+		!ADDRESS.matcher(a).matches())
+	    throw new DeterFault(DeterFault.request,
+		    "Invalid mail address " + a);
+    }
+
+    /**
+     * Return the outbox index.
+     * @return the outbox index.
+     */
+    public long getId() { return id; }
+
+    /**
+     * Return the recipient address.
+     * @return the recipient address.
+     */
+    public String getAddress() { return address; }
+
+    /**
+     * Return the subject line.
+     * @return the subject line.
+     */
+    public String getSubject() { return subject; }
+
+    /**
+     * Return the message body.
+     * @return the message body.
+     */
+    public String getBody() { return body; }
+
+    /**
+     * Return the number of delivery attempts made so far.
+     * @return the number of delivery attempts made so far.
+     */
+    public int getAttempts() { return attempts; }
+}
@@ -0,0 +1,157 @@
+package net.deterlab.testbed.mail;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import net.deterlab.testbed.api.DeterFault;
+import net.deterlab.testbed.db.DBObject;
+import net.deterlab.testbed.db.SharedConnection;
+
+/**
+ * The persistent queue of outgoing e-mail.  API calls add messages here and
+ * the MailDispatcher drains it.  Sent messages are deleted; messages that
+ * have run out of retries are kept and marked failed so an administrator can
+ * see them.
+ * @author DETER team
+ * @version 1.0
+ */
+public class MailOutboxDB extends DBObject {
+    /**
+     * Create an outbox accessor.
+     * @throws DeterFault if there are problems setting up the database
+     */
+    public MailOutboxDB() throws DeterFault {
+	super();
+    }
+
+    /**
+     * Create an outbox accessor that shares a DB connection.
+     * @param sc the shared connection
+     * @throws DeterFault if there are problems setting up the database
+     */
+    public MailOutboxDB(SharedConnection sc) throws DeterFault {
+	super(sc);
+    }
+
+    /**
+     * Add a message to the outbox.
+     * @param m the message to send
+     * @return the outbox index of the message
+     * @throws DeterFault on database errors
+     */
+    public long enqueue(MailMessage m) throws DeterFault {
+	if ( m == null || m.getAddress() == null )
+	    throw new DeterFault(DeterFault.internal,
+		    "Cannot queue mail without an address");
+	try {
+	    PreparedStatement p = getPreparedStatement(
+		    "INSERT INTO mailoutbox " +
+		    "(address, subject, body, created, attempts, status) " +
+		    "VALUES (?, ?, ?, ?, 0, 'pending')",
+		    Statement.RETURN_GENERATED_KEYS);
+	    p.setString(1, m.getAddress());
+	    p.setString(2, m.getSubject());
+	    p.setString(3, m.getBody());
+	    p.setTimestamp(4, new Timestamp(new Date().getTime()));
+	    p.executeUpdate();
+	    ResultSet r = p.getGeneratedKeys();
+	    if ( !r.next())
+		throw new DeterFault(DeterFault.internal,
+			"Failed to get generated key??");
+	    long id = r.getLong(1);
+	    p.close();
+	    return id;
+	}
+	catch (SQLException e) {
+	    throw new DeterFault(DeterFault.internal,
+		    "Database error queueing mail: " + e.getMessage());
+	}
+    }
+
+    /**
+     * Return up to limit pending messages that are due to be (re)tried, oldest
+     * first.
+     * @param limit the maximum number of messages to return
+     * @return the messages
+     * @throws DeterFault on database errors
+     */
+    public List<MailMessage> getPending(int limit) throws DeterFault {
+	List<MailMessage> rv = new ArrayList<>();
+
+	try {
+	    PreparedStatement p = getPreparedStatement(
+		    "SELECT idx, address, subject, body, attempts " +
+		    "FROM mailoutbox WHERE status = 'pending' AND " +
+			"(nextattempt IS NULL OR nextattempt <= ?) " +
+		    "ORDER BY idx LIMIT ?");
+	    p.setTimestamp(1, new Timestamp(new Date().getTime()));
+	    p.setInt(2, limit);
+	    ResultSet r = p.executeQuery();
+	    while (r.next())
+		rv.add(new MailMessage(r.getLong("idx"),
+			    r.getString("address"), r.getString("subject"),
+			    r.getString("body"), r.getInt("attempts")));
+	    p.close();
+	    return rv;
+	}
+	catch (SQLException e) {
+	    throw new DeterFault(DeterFault.internal,
+		    "Database error reading mail outbox: " + e.getMessage());
+	}
+    }
+
+    /**
+     * Remove a sent message from the outbox.
+     * @param m the message
+     * @throws DeterFault on database errors
+     */
+    public void sent(MailMessage m) throws DeterFault {
+	try {
+	    PreparedStatement p = getPreparedStatement(
+		    "DELETE FROM mailoutbox WHERE idx = ?");
+	    p.setLong(1, m.getId());
+	    p.executeUpdate();
+	    p.close();
+	}
+	catch (SQLException e) {
+	    throw new DeterFault(DeterFault.internal,
+		    "Database error updating mail outbox: " + e.getMessage());
+	}
+    }
+
+    /**
+     * Record a failed attempt to send a message.  If next is null the message
+     * will not be retried.
+     * @param m the message
+     * @param error a description of the failure
+     * @param next when to try again (null to give up)
+     * @throws DeterFault on database errors
+     */
+    public void failed(MailMessage m, String error, Date next)
+	    throws DeterFault {
+	try {
+	    PreparedStatement p = getPreparedStatement(
+		    "UPDATE mailoutbox SET attempts = attempts + 1, " +
+			"lasterror = ?, nextattempt = ?, status = ? " +
+		    "WHERE idx = ?");
+	    p.setString(1, error);
+	    p.setTimestamp(2, (next != null ) ?
+		    new Timestamp(next.getTime()) : null);
+	    p.setString(3, (next != null ) ? "pending" : "failed");
+	    p.setLong(4, m.getId());
+	    p.executeUpdate();
+	    p.close();
+	}
+	catch (SQLException e) {
+	    throw new DeterFault(DeterFault.internal,
+		    "Database error updating mail outbox: " + e.getMessage());
+	}
+    }
+}
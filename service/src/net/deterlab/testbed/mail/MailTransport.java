@@ -0,0 +1,43 @@
+package net.deterlab.testbed.mail;
+
+import net.deterlab.testbed.api.DeterFault;
+
+/**
+ * The interface for classes that actually deliver mail from the outbox.  The
+ * dispatcher opens a transport once per batch, sends each message in the
+ * batch and closes it, so implementations can hold a connection open across
+ * the batch.  A message that fails with a DeterFault.request fault can never
+ * be delivered and is not retried; other faults are retried later.
+ * Implementations need a public no-argument constructor; the
+ * class is chosen by the mailTransport configuration property.
+ * @author DETER team
+ * @version 1.0
+ */
+public interface MailTransport {
+    /**
+     * Prepare to send a batch of messages.
+     * @throws DeterFault if the transport cannot be reached.  No messages in
+     * the batch will be attempted.
+     */
+    public void open() throws DeterFault;
+
+    /**
+     * Send a single message.  Failure to send this message does not close
+     * the transport unless the connection itself fails.
+     * @param m the message to send
+     * @throws DeterFault if the message is not accepted.  The fault is a
+     * DeterFault.request if the message can never be delivered.
+     */
+    public void send(MailMessage m) throws DeterFault;
+
+    /**
+     * Return true if the transport can send more messages in this batch.
+     * @return true if the transport can send more messages in this batch
+     */
+    public boolean isOpen();
+
+    /**
+     * Finish a batch and release any resources.  Errors are ignored.
+     */
+    public void close();
+}
@@ -0,0 +1,74 @@
+package net.deterlab.testbed.mail;
+
+import java.io.OutputStreamWriter;
+
+import net.deterlab.testbed.api.Config;
+import net.deterlab.testbed.api.DeterFault;
+
+/**
+ * Deliver mail by running the configured mailer program (by default
+ * /usr/bin/mail) once per message.  This is how the service always sent mail,
+ * and remains available for hosts without a local SMTP relay.  Because it runs
+ * in the dispatcher, it no longer holds up API calls.
+ * @author DETER team
+ * @version 1.0
+ */
+public class MailerTransport implements MailTransport {
+    /** The mailer program */
+    private String mailer;
+
+    /**
+     * Create a transport that runs the configured mailer.
+     * @throws DeterFault if the configuration is unreadable
+     */
+    public MailerTransport() throws DeterFault {
+	mailer = new Config().getMailer();
+    }
+
+    /**
+     * Nothing to prepare.
+     */
+    public void open() { }
+
+    /**
+     * Run the mailer on this message.
+     * @param m the message to send
+     * @throws DeterFault if the address is malformed or the mailer cannot
+     * be run or fails
+     */
+    public void send(MailMessage m) throws DeterFault {
+	MailMessage.checkAddress(m.getAddress());
+
+	// /usr/bin/mail expects the destination last
+	ProcessBuilder pb = new ProcessBuilder(
+		mailer, "-s", m.getSubject(), m.getAddress());
+	OutputStreamWriter stdin = null;
+	int r = 0;
+
+	try {
+	    Process p = pb.start();
+	    stdin = new OutputStreamWriter(p.getOutputStream());
+	    if ( m.getBody() != null ) stdin.write(m.getBody());
+	    stdin.close();
+	    r = p.waitFor();
+	}
+	catch (Exception e ) {
+	    throw new DeterFault(DeterFault.internal,
+		    "Cannot send mail: " + e.getMessage());
+	}
+	if ( r != 0 )
+	    throw new DeterFault(DeterFault.internal,
+		"Cannot send mail: mailer returned " + r);
+    }
+
+    /**
+     * Always ready.
+     * @return true
+     */
+    public boolean isOpen() { return true; }
+
+    /**
+     * Nothing to release.
+     */
+    public void close() { }
+}
@@ -0,0 +1,350 @@
+package net.deterlab.testbed.mail;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+import java.nio.charset.StandardCharsets;
+
+import java.text.SimpleDateFormat;
+
+import java.util.Base64;
+import java.util.Date;
+import java.util.Locale;
+
+import net.deterlab.testbed.api.Config;
+import net.deterlab.testbed.api.DeterFault;
+
+/**
+ * Deliver mail to an SMTP relay (usually the MTA on the service host).  One
+ * SMTP session is held open for a whole batch, and a failed message is reset
+ * (RSET) so the rest of the batch can go out on the same connection.
+ * Permanent (5xx) rejections are reported as DeterFault.request faults so
+ * the dispatcher does not retry them.  The
+ * relay is configured by the smtpHost and smtpPort properties and the
+ * envelope sender by mailFrom (defaulting to supportEmail).
+ * @author DETER team
+ * @version 1.0
+ */
+public class SmtpMailTransport implements MailTransport {
+    /** Default SMTP port */
+    static public final int DEFAULT_PORT = 25;
+    /** Socket connect and read timeout in milliseconds */
+    static private final int TIMEOUT = 30 * 1000;
+
+    /** The relay host */
+    private String host;
+    /** The relay port */
+    private int port;
+    /** Envelope and header sender */
+    private String from;
+    /** Name given in EHLO/HELO */
+    private String heloName;
+    /** Connection to the relay */
+    private Socket sock;
+    /** Replies from the relay */
+    private BufferedReader in;
+    /** Commands to the relay */
+    private OutputStream out;
+
+    /**
+     * Create a transport configured from the service configuration.
+     * @throws DeterFault if the configuration is unreadable or malformed
+     */
+    public SmtpMailTransport() throws DeterFault {
+	Config config = new Config();
+	String p = config.getProperty("smtpPort");
+	String f = config.getProperty("mailFrom");
+
+	if ( f == null ) f = config.getSupportEmail();
+	if ( f == null ) f = "deter@localhost";
+	try {
+	    init(config.getProperty("smtpHost"),
+		    (p != null ) ? Integer.parseInt(p) : DEFAULT_PORT, f);
+	}
+	catch (NumberFormatException e) {
+	    throw new DeterFault(DeterFault.internal, "Bad smtpPort " + p);
+	}
+    }
+
+    /**
+     * Create a transport to the given relay.
+     * @param h the relay host (null means localhost)
+     * @param p the relay port
+     * @param f the sender address
+     */
+    public SmtpMailTransport(String h, int p, String f) {
+	init(h, p, f);
+    }
+
+    /**
+     * Common initialization.
+     * @param h the relay host (null means localhost)
+     * @param p the relay port
+     * @param f the sender address
+     */
+    private void init(String h, int p, String f) {
+	host = (h != null ) ? h : "localhost";
+	port = p;
+	from = f;
+	try {
+	    heloName = InetAddress.getLocalHost().getCanonicalHostName();
+	}
+	catch (IOException e) {
+	    heloName = "localhost";
+	}
+	sock = null;
+	in = null;
+	out = null;
+    }
+
+    /**
+     * Connect to the relay and introduce ourselves.
+     * @throws DeterFault if the relay cannot be reached or refuses us
+     */
+    public void open() throws DeterFault {
+	try {
+	    sock = new Socket();
+	    sock.connect(new InetSocketAddress(host, port), TIMEOUT);
+	    sock.setSoTimeout(TIMEOUT);
+	    in = new BufferedReader(new InputStreamReader(
+			sock.getInputStream(), StandardCharsets.US_ASCII));
+	    out = sock.getOutputStream();
+
+	    expect(220);
+	    command("EHLO " + heloName);
+	    if ( reply() != 250 ) {
+		command("HELO " + heloName);
+		expect(250);
+	    }
+	}
+	catch (IOException e) {
+	    close();
+	    throw new DeterFault(DeterFault.internal,
+		    "Cannot contact SMTP relay " + host + ":" + port +
+		    ": " + e);
+	}
+	catch (DeterFault df) {
+	    close();
+	    throw df;
+	}
+    }
+
+    /**
+     * Send one message in the open session.  If the relay rejects it, the
+     * session is reset so that the next message can be sent.
+     * @param m the message to send
+     * @throws DeterFault if the address is malformed, the relay rejects the
+     * message or the connection fails
+     */
+    public void send(MailMessage m) throws DeterFault {
+	if ( sock == null )
+	    throw new DeterFault(DeterFault.internal,
+		    "SMTP transport is not open");
+	MailMessage.checkAddress(m.getAddress());
+	try {
+	    command("MAIL FROM:<" + from + ">");
+	    expect(250);
+	    command("RCPT TO:<" + m.getAddress() + ">");
+	    int r = reply();
+	    if ( r != 250 && r != 251 )
+		throw new DeterFault(
+			(r >= 500) ? DeterFault.request : DeterFault.internal,
+			"SMTP relay rejected recipient " + m.getAddress() +
+			": " + r);
+	    command("DATA");
+	    expect(354);
+	    write(formatMessage(m));
+	    expect(250);
+	}
+	catch (IOException e) {
+	    close();
+	    throw new DeterFault(DeterFault.internal,
+		    "Error talking to SMTP relay: " + e);
+	}
+	catch (DeterFault df) {
+	    // Clear the transaction so the rest of the batch can proceed.
+	    try {
+		if ( sock != null ) {
+		    command("RSET");
+		    reply();
+		}
+	    }
+	    catch (IOException|DeterFault e) {
+		close();
+	    }
+	    throw df;
+	}
+    }
+
+    /**
+     * Return true if the connection to the relay is up.
+     * @return true if the connection to the relay is up
+     */
+    public boolean isOpen() {
+	return sock != null;
+    }
+
+    /**
+     * Say goodbye and drop the connection.  Errors are ignored.
+     */
+    public void close() {
+	try {
+	    if ( sock != null && !sock.isClosed()) {
+		command("QUIT");
+		reply();
+	    }
+	}
+	catch (IOException|DeterFault ignored) { }
+	try {
+	    if ( sock != null ) sock.close();
+	}
+	catch (IOException ignored) { }
+	sock = null;
+	in = null;
+	out = null;
+    }
+
+    /**
+     * Return header text as it goes on the wire.  Plain ASCII text is
+     * returned as is; other text is sent as RFC 2047 encoded words, each
+     * short enough for its own folded line and holding whole characters.
+     * @param text the header text (one line)
+     * @return the encoded text
+     */
+    static protected String encodeHeader(String text) {
+	boolean plain = true;
+
+	for (int i = 0; i < text.length() && plain; i++) {
+	    char c = text.charAt(i);
+
+	    plain = ( c >= 0x20 && c <= 0x7e );
+	}
+	if ( plain ) return text;
+
+	StringBuilder sb = new StringBuilder();
+	int start = 0;
+
+	while ( start < text.length()) {
+	    int end = start;
+	    int len = 0;
+
+	    // 45 bytes encode to 60 characters, leaving room for the markers
+	    while ( end < text.length()) {
+		int cp = text.codePointAt(end);
+		int n = new String(Character.toChars(cp)).getBytes(
+			StandardCharsets.UTF_8).length;
+
+		if ( len + n > 45 && end > start ) break;
+		len += n;
+		end += Character.charCount(cp);
+	    }
+	    if ( sb.length() > 0 ) sb.append("\r\n ");
+	    sb.append("=?UTF-8?B?");
+	    sb.append(Base64.getEncoder().encodeToString(
+			text.substring(start, end).getBytes(
+			    StandardCharsets.UTF_8)));
+	    sb.append("?=");
+	    start = end;
+	}
+	return sb.toString();
+    }
+
+    /**
+     * Build the DATA section for a message: headers, body with line endings
+     * normalized to CRLF and leading dots doubled, and the terminating dot.
+     * @param m the message to format
+     * @return the DATA section
+     */
+    protected String formatMessage(MailMessage m) {
+	SimpleDateFormat df = new SimpleDateFormat(
+		"EEE, dd MMM yyyy HH:mm:ss Z", Locale.US);
+	StringBuilder sb = new StringBuilder();
+	String body = (m.getBody() != null ) ? m.getBody() : "";
+
+	sb.append("From: " + from + "\r\n");
+	sb.append("To: " + m.getAddress() + "\r\n");
+	if ( m.getSubject() != null )
+	    sb.append("Subject: " + encodeHeader(m.getSubject()) + "\r\n");
+	sb.append("Date: " + df.format(new Date()) + "\r\n");
+	sb.append("MIME-Version: 1.0\r\n");
+	sb.append("Content-Type: text/plain; charset=UTF-8\r\n");
+	sb.append("Content-Transfer-Encoding: 8bit\r\n");
+	sb.append("\r\n");
+
+	for (String line : body.split("\r?\n", -1)) {
+	    if ( line.startsWith(".")) sb.append(".");
+	    sb.append(line);
+	    sb.append("\r\n");
+	}
+	sb.append(".\r\n");
+	return sb.toString();
+    }
+
+    /**
+     * Send an SMTP command.
+     * @param c the command (without line terminator)
+     * @throws IOException on connection errors
+     */
+    private void command(String c) throws IOException {
+	write(c + "\r\n");
+    }
+
+    /**
+     * Write raw text to the relay.
+     * @param s the text to write
+     * @throws IOException on connection errors
+     */
+    private void write(String s) throws IOException {
+	out.write(s.getBytes(StandardCharsets.UTF_8));
+	out.flush();
+    }
+
+    /**
+     * Read a (possibly multi-line) reply and return its code.
+     * @return the reply code
+     * @throws IOException on connection errors
+     * @throws DeterFault if the reply is malformed
+     */
+    private int reply() throws IOException, DeterFault {
+	String line = null;
+
+	do {
+	    line = in.readLine();
+	    if ( line == null )
+		throw new IOException("SMTP relay closed the connection");
+	    if ( line.length() < 3 )
+		throw new DeterFault(DeterFault.internal,
+			"Malformed SMTP reply: " + line);
+	} while ( line.length() > 3 && line.charAt(3) == '-');
+
+	try {
+	    return Integer.parseInt(line.substring(0, 3));
+	}
+	catch (NumberFormatException e) {
+	    throw new DeterFault(DeterFault.internal,
+		    "Malformed SMTP reply: " + line);
+	}
+    }
+
+    /**
+     * Read a reply and confirm it has the given code.
+     * @param code the expected code
+     * @throws IOException on connection errors
+     * @throws DeterFault if the code is different.  The fault is a
+     * DeterFault.request for a permanent (5xx) reply.
+     */
+    private void expect(int code) throws IOException, DeterFault {
+	int r = reply();
+
+	if ( r != code )
+	    throw new DeterFault(
+		    (r >= 500) ? DeterFault.request : DeterFault.internal,
+		    "Unexpected SMTP reply " + r + " (wanted " + code + ")");
+    }
+}
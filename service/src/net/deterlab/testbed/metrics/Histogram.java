@@ -0,0 +1,130 @@
+package net.deterlab.testbed.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A distribution of non-negative values in a fixed set of buckets, so it uses
+ * the same small amount of memory however many values are added, and adding
+ * one is a few atomic operations.  Each power of two is split into four
+ * buckets, so percentiles are within 25% of the true value.  The count, total
+ * and maximum are exact.
+ * @author DETER team
+ * @version 1.0
+ */
+public class Histogram {
+    /** Buckets per power of two */
+    static private final int SUB = 4;
+    /** Bits needed to pick one of SUB buckets */
+    static private final int SUB_BITS = 2;
+
+    /** The units of the values, for reports */
+    private String units;
+    /** Number of values in each bucket */
+    private AtomicLongArray buckets;
+    /** Number of values */
+    private AtomicLong count;
+    /** Sum of the values */
+    private AtomicLong total;
+    /** Largest value */
+    private AtomicLong max;
+
+    /**
+     * Create an empty histogram.
+     * @param u the units of the values, for reports
+     */
+    public Histogram(String u) {
+	units = u;
+	buckets = new AtomicLongArray(64 * SUB);
+	count = new AtomicLong();
+	total = new AtomicLong();
+	max = new AtomicLong();
+    }
+
+    /**
+     * Return the bucket a value falls into.
+     * @param v the value
+     * @return the bucket index
+     */
+    static protected int bucket(long v) {
+	if ( v <= 0 ) return 0;
+
+	int log = 63 - Long.numberOfLeadingZeros(v);
+	int sub = (log >= SUB_BITS) ?
+	    (int) ((v >>> (log - SUB_BITS)) & (SUB - 1)) :
+	    (int) ((v - (1L << log)) << (SUB_BITS - log));
+
+	return log * SUB + sub;
+    }
+
+    /**
+     * Return the largest value that falls into a bucket.
+     * @param b the bucket index
+     * @return the largest value
+     */
+    static protected long upperBound(int b) {
+	int log = b / SUB;
+	long sub = b % SUB;
+
+	if ( log < SUB_BITS ) return (1L << log) + (sub >> (SUB_BITS - log));
+	if ( log == 63 && sub == SUB - 1 ) return Long.MAX_VALUE;
+	return (1L << log) + ((sub + 1) << (log - SUB_BITS)) - 1;
+    }
+
+    /**
+     * Add a value.
+     * @param v the value
+     */
+    public void add(long v) {
+	long m = max.get();
+
+	buckets.incrementAndGet(bucket(v));
+	count.incrementAndGet();
+	total.addAndGet(v);
+	while ( v > m && !max.compareAndSet(m, v) )
+	    m = max.get();
+    }
+
+    /**
+     * Return the units of the values.
+     * @return the units
+     */
+    public String getUnits() { return units; }
+
+    /**
+     * Return the number of values.
+     * @return the number of values
+     */
+    public long getCount() { return count.get(); }
+
+    /**
+     * Return the sum of the values.
+     * @return the sum of the values
+     */
+    public long getTotal() { return total.get(); }
+
+    /**
+     * Return the largest value.
+     * @return the largest value
+     */
+    public long getMax() { return max.get(); }
+
+    /**
+     * Return an upper bound on the given percentile of the values.
+     * @param pct the percentile (0-100)
+     * @return the bound, 0 if there are no values
+     */
+    public long percentile(double pct) {
+	long n = count.get();
+	long want = (long) Math.ceil(pct / 100.0 * n);
+	long seen = 0;
+
+	if ( n == 0 ) return 0;
+	if ( want < 1 ) want = 1;
+	for (int i = 0; i < buckets.length(); i++) {
+	    seen += buckets.get(i);
+	    if ( seen >= want ) return Math.min(upperBound(i), max.get());
+	}
+	return max.get();
+    }
+}
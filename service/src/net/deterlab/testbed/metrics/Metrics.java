@@ -0,0 +1,296 @@
+package net.deterlab.testbed.metrics;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Service-wide timers and counters.  Timers are histograms of elapsed times in
+ * microseconds; other histograms hold sizes; counters are running totals.
+ * All are created when first used and named by dotted strings:
+ * <dl>
+ * <dt>api.<i>Service.operation</i></dt><dd>latency of each API call, with
+ *	.db (time in SQL), .sql (statements executed) and .authz (time in
+ *	checkAccess) histograms of the same calls, and a .faults counter</dd>
+ * <dt>db.statement</dt><dd>latency of each SQL statement</dd>
+ * <dt>abac.load, abac.query, abac.contextSize</dt><dd>time to load the
+ *	credentials for an access check, time to query them, and how many
+ *	there were</dd>
+ * <dt>cache.<i>name</i>.hit, cache.<i>name</i>.miss</dt><dd>cache
+ *	lookups</dd>
+ * </dl>
+ * Statistics for the API call a thread is serving are kept per thread between
+ * startRequest and endRequest, so SQL and authorization time can be charged to
+ * the operation that caused them.
+ * @author DETER team
+ * @version 1.0
+ */
+public class Metrics {
+    /**
+     * What the current API call has done so far.
+     */
+    static private class Request {
+	/** The operation */
+	public String name;
+	/** When it started, in ns */
+	public long start;
+	/** SQL statements executed */
+	public long statements;
+	/** Time in SQL, in ns */
+	public long dbTime;
+	/** Time checking access, in ns */
+	public long authzTime;
+
+	/**
+	 * Start a request.
+	 * @param n the operation
+	 */
+	public Request(String n) {
+	    name = n;
+	    start = System.nanoTime();
+	    statements = 0;
+	    dbTime = 0;
+	    authzTime = 0;
+	}
+    }
+
+    /** Histograms by name */
+    static private Map<String, Histogram> histograms =
+	new ConcurrentHashMap<>();
+    /** Counters by name */
+    static private Map<String, AtomicLong> counters =
+	new ConcurrentHashMap<>();
+    /** The API call each thread is serving */
+    static private ThreadLocal<Request> current = new ThreadLocal<>();
+    /** Writes the periodic dumps; null until started */
+    static private ScheduledExecutorService dumper = null;
+
+    /**
+     * Return the named histogram, creating it if need be.
+     * @param name the name
+     * @param units the units of its values, used if it is created
+     * @return the histogram
+     */
+    static public Histogram histogram(String name, String units) {
+	Histogram h = histograms.get(name);
+
+	if ( h != null ) return h;
+	h = new Histogram(units);
+
+	Histogram old = histograms.putIfAbsent(name, h);
+
+	return (old != null) ? old : h;
+    }
+
+    /**
+     * Record an elapsed time.
+     * @param name the timer name
+     * @param nanos the time in ns
+     */
+    static public void time(String name, long nanos) {
+	histogram(name, "us").add(nanos / 1000);
+    }
+
+    /**
+     * Record a size or other value.
+     * @param name the histogram name
+     * @param v the value
+     */
+    static public void value(String name, long v) {
+	histogram(name, "").add(v);
+    }
+
+    /**
+     * Add to a counter.
+     * @param name the counter name
+     * @param n the amount to add
+     */
+    static public void count(String name, long n) {
+	AtomicLong c = counters.get(name);
+
+	if ( c == null ) {
+	    AtomicLong old = counters.putIfAbsent(name, c = new AtomicLong());
+
+	    if ( old != null ) c = old;
+	}
+	c.addAndGet(n);
+    }
+
+    /**
+     * Count cache lookups.
+     * @param cache the cache name
+     * @param hits lookups that found an entry
+     * @param misses lookups that did not
+     */
+    static public void cacheAccess(String cache, long hits, long misses) {
+	if ( hits > 0 ) count("cache." + cache + ".hit", hits);
+	if ( misses > 0 ) count("cache." + cache + ".miss", misses);
+    }
+
+    /**
+     * Count a cache lookup.
+     * @param cache the cache name
+     * @param hit true if the lookup found an entry
+     */
+    static public void cacheAccess(String cache, boolean hit) {
+	cacheAccess(cache, hit ? 1 : 0, hit ? 0 : 1);
+    }
+
+    /**
+     * Note that the calling thread has started serving an API call.
+     * @param name the operation, e.g. Users.login
+     */
+    static public void startRequest(String name) {
+	current.set(new Request(name));
+    }
+
+    /**
+     * Note that the calling thread has finished its API call and record the
+     * call's statistics.
+     * @param failed true if the call failed
+     */
+    static public void endRequest(boolean failed) {
+	Request r = current.get();
+
+	if ( r == null ) return;
+	current.remove();
+
+	String prefix = "api." + r.name;
+
+	time(prefix, System.nanoTime() - r.start);
+	time(prefix + ".db", r.dbTime);
+	time(prefix + ".authz", r.authzTime);
+	value(prefix + ".sql", r.statements);
+	if ( failed ) count(prefix + ".faults", 1);
+    }
+
+    /**
+     * Record a SQL statement, charging it to the current API call.
+     * @param nanos how long it took
+     */
+    static public void statement(long nanos) {
+	Request r = current.get();
+
+	time("db.statement", nanos);
+	if ( r == null ) return;
+	r.statements++;
+	r.dbTime += nanos;
+    }
+
+    /**
+     * Record time spent checking access, charging it to the current API call.
+     * @param nanos how long it took
+     */
+    static public void authorization(long nanos) {
+	Request r = current.get();
+
+	if ( r != null ) r.authzTime += nanos;
+    }
+
+    /**
+     * Return the names of all histograms and counters.
+     * @return the names, sorted
+     */
+    static public List<String> getNames() {
+	TreeMap<String, Object> all = new TreeMap<>(histograms);
+
+	all.putAll(counters);
+	return new ArrayList<String>(all.keySet());
+    }
+
+    /**
+     * Return the named histogram, or null if there is none.
+     * @param name the name
+     * @return the histogram
+     */
+    static public Histogram getHistogram(String name) {
+	return histograms.get(name);
+    }
+
+    /**
+     * Return the named counter's value, or null if there is none.
+     * @param name the name
+     * @return the value
+     */
+    static public Long getCounter(String name) {
+	AtomicLong c = counters.get(name);
+
+	return (c != null) ? c.get() : null;
+    }
+
+    /**
+     * Discard histograms and counters so they start again from zero.
+     * @param names the names to discard; all of them if empty or null
+     */
+    static public void reset(Collection<String> names) {
+	if ( names == null || names.isEmpty() ) {
+	    histograms.clear();
+	    counters.clear();
+	    return;
+	}
+	for (String n : names) {
+	    histograms.remove(n);
+	    counters.remove(n);
+	}
+    }
+
+    /**
+     * Describe every histogram and counter, one per line.
+     * @return the description
+     */
+    static public String report() {
+	StringBuilder sb = new StringBuilder();
+
+	for (String n : getNames()) {
+	    Histogram h = histograms.get(n);
+	    Long c = getCounter(n);
+
+	    if ( h != null ) {
+		String u = h.getUnits();
+
+		sb.append(String.format(
+			    "%s n=%d total=%d%s p50=%d%s p90=%d%s p99=%d%s " +
+			    "max=%d%s%n", n, h.getCount(), h.getTotal(), u,
+			    h.percentile(50), u, h.percentile(90), u,
+			    h.percentile(99), u, h.getMax(), u));
+	    }
+	    else if ( c != null ) {
+		sb.append(n + " " + c + "\n");
+	    }
+	}
+	return sb.toString();
+    }
+
+    /**
+     * Log a report periodically.  Only the first call has any effect.
+     * @param seconds the time between reports; if not positive, no reports
+     * are made
+     */
+    static public synchronized void startDump(long seconds) {
+	if ( dumper != null || seconds <= 0 ) return;
+
+	final Logger log = Logger.getLogger(Metrics.class);
+
+	dumper = Executors.newSingleThreadScheduledExecutor(
+		new ThreadFactory() {
+		    public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "metrics-dump");
+			t.setDaemon(true);
+			return t;
+		    }
+		});
+	dumper.scheduleAtFixedRate(new Runnable() {
+		public void run() { log.info("Metrics\n" + report()); }
+	    }, seconds, seconds, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,39 @@
+package net.deterlab.testbed.metrics;
+
+import org.apache.axis2.AxisFault;
+
+import org.apache.axis2.context.MessageContext;
+
+import net.deterlab.testbed.rpc.GeneratedMessageReceiver;
+
+/**
+ * The Axis2 message receiver for request/response API calls.  It dispatches
+ * through GeneratedMessageReceiver, and brackets each call with
+ * Metrics.startRequest and endRequest so the call's latency, SQL and
+ * authorization time are recorded under api.Service.operation.  The services
+ * select it in services.xml.
+ * @author DETER team
+ * @version 1.0
+ */
+public class MetricsMessageReceiver extends GeneratedMessageReceiver {
+    /**
+     * Call the operation, recording its statistics.
+     * @param inMessage the request
+     * @param outMessage the response
+     * @throws AxisFault if the operation fails
+     */
+    public void invokeBusinessLogic(MessageContext inMessage,
+	    MessageContext outMessage) throws AxisFault {
+	boolean failed = true;
+
+	Metrics.startRequest(inMessage.getAxisService().getName() + "." +
+		inMessage.getAxisOperation().getName().getLocalPart());
+	try {
+	    super.invokeBusinessLogic(inMessage, outMessage);
+	    failed = false;
+	}
+	finally {
+	    Metrics.endRequest(failed);
+	}
+    }
+}
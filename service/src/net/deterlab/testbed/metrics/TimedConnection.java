@@ -0,0 +1,197 @@
+package net.deterlab.testbed.metrics;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+
+/**
+ * Wraps a JDBC Connection so that every statement it makes reports how long
+ * each execution takes to Metrics.  Only the execute calls are timed; reading
+ * a result set afterward is not.  A caller may also ask to be told when a
+ * statement changes data; SharedConnection uses this to route reads.
+ * @author DETER team
+ * @version 1.0
+ */
+public class TimedConnection {
+    /**
+     * Passes calls through to the wrapped object.
+     */
+    static private class Forward implements InvocationHandler {
+	/** The wrapped object */
+	protected Object target;
+
+	/**
+	 * Wrap an object.
+	 * @param t the object
+	 */
+	public Forward(Object t) { target = t; }
+
+	/**
+	 * Call the method on the wrapped object.
+	 * @param m the method
+	 * @param args the arguments
+	 * @return the result
+	 * @throws Throwable whatever the method throws
+	 */
+	protected Object forward(Method m, Object[] args) throws Throwable {
+	    try {
+		return m.invoke(target, args);
+	    }
+	    catch (InvocationTargetException e) {
+		throw e.getCause();
+	    }
+	}
+
+	/**
+	 * Handle a call on the proxy.
+	 * @param proxy the proxy
+	 * @param m the method
+	 * @param args the arguments
+	 * @return the result
+	 * @throws Throwable whatever the method throws
+	 */
+	public Object invoke(Object proxy, Method m, Object[] args)
+		throws Throwable {
+	    return forward(m, args);
+	}
+    }
+
+    /**
+     * Times the execute methods of a statement.
+     */
+    static private class StatementHandler extends Forward {
+	/** Called after an update; may be null */
+	private Runnable onUpdate;
+
+	/**
+	 * Wrap a statement.
+	 * @param s the statement
+	 * @param u called after an update (may be null)
+	 */
+	public StatementHandler(Statement s, Runnable u) {
+	    super(s);
+	    onUpdate = u;
+	}
+
+	/**
+	 * Return true if a call to the named execute method that returned rv
+	 * changed data.  Plain execute returns false for an update.
+	 * @param name the method name
+	 * @param rv the value returned
+	 * @return true if the call was an update
+	 */
+	private boolean isUpdate(String name, Object rv) {
+	    if ( name.equals("execute") ) return Boolean.FALSE.equals(rv);
+	    return name.startsWith("executeUpdate") ||
+		name.startsWith("executeLarge") || name.equals("executeBatch");
+	}
+
+	/**
+	 * Handle a call on the proxy, timing executions.
+	 * @param proxy the proxy
+	 * @param m the method
+	 * @param args the arguments
+	 * @return the result
+	 * @throws Throwable whatever the method throws
+	 */
+	public Object invoke(Object proxy, Method m, Object[] args)
+		throws Throwable {
+	    if ( !m.getName().startsWith("execute") ) return forward(m, args);
+
+	    long start = System.nanoTime();
+	    Object rv = null;
+
+	    try {
+		rv = forward(m, args);
+	    }
+	    finally {
+		Metrics.statement(System.nanoTime() - start);
+	    }
+	    if ( onUpdate != null && isUpdate(m.getName(), rv) )
+		onUpdate.run();
+	    return rv;
+	}
+    }
+
+    /**
+     * Wraps the statements a connection makes.
+     */
+    static private class ConnectionHandler extends Forward {
+	/** Called after an update by one of the statements; may be null */
+	private Runnable onUpdate;
+
+	/**
+	 * Wrap a connection.
+	 * @param c the connection
+	 * @param u called after an update (may be null)
+	 */
+	public ConnectionHandler(Connection c, Runnable u) {
+	    super(c);
+	    onUpdate = u;
+	}
+
+	/**
+	 * Handle a call on the proxy, wrapping statements.
+	 * @param proxy the proxy
+	 * @param m the method
+	 * @param args the arguments
+	 * @return the result
+	 * @throws Throwable whatever the method throws
+	 */
+	public Object invoke(Object proxy, Method m, Object[] args)
+		throws Throwable {
+	    Object rv = forward(m, args);
+
+	    if ( rv instanceof CallableStatement )
+		return wrap((Statement) rv, CallableStatement.class, onUpdate);
+	    else if ( rv instanceof PreparedStatement )
+		return wrap((Statement) rv, PreparedStatement.class, onUpdate);
+	    else if ( rv instanceof Statement )
+		return wrap((Statement) rv, Statement.class, onUpdate);
+	    else
+		return rv;
+	}
+    }
+
+    /**
+     * Wrap a statement.
+     * @param s the statement
+     * @param type the statement interface to expose
+     * @param u called after an update (may be null)
+     * @return the wrapped statement
+     */
+    static private Object wrap(Statement s, Class<?> type, Runnable u) {
+	return Proxy.newProxyInstance(TimedConnection.class.getClassLoader(),
+		new Class<?>[] { type }, new StatementHandler(s, u));
+    }
+
+    /**
+     * Wrap a connection so its statements are timed.
+     * @param c the connection
+     * @return the wrapped connection
+     */
+    static public Connection wrap(Connection c) {
+	return wrap(c, null);
+    }
+
+    /**
+     * Wrap a connection so its statements are timed and onUpdate is called
+     * after each statement that changes data.
+     * @param c the connection
+     * @param onUpdate called after an update (may be null)
+     * @return the wrapped connection
+     */
+    static public Connection wrap(Connection c, Runnable onUpdate) {
+	if ( c == null ) return null;
+	return (Connection) Proxy.newProxyInstance(
+		TimedConnection.class.getClassLoader(),
+		new Class<?>[] { Connection.class },
+		new ConnectionHandler(c, onUpdate));
+    }
+}
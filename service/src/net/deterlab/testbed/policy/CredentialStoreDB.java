@@ -9,8 +9,10 @@ import java.util.Calendar;
 import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -22,6 +24,7 @@ import net.deterlab.abac.Role;
 import net.deterlab.testbed.api.DeterFault;
 import net.deterlab.testbed.db.DBObject;
 import net.deterlab.testbed.db.SharedConnection;
+import net.deterlab.testbed.metrics.Metrics;
 
 public class CredentialStoreDB extends DBObject {
 
@@ -83,6 +86,22 @@ public class CredentialStoreDB extends DBObject {
     static private Map<String, Credential[]> credCache =
 	new HashMap<String, Credential[]>();
 
+    /**
+     * What a thread has already read from the store during a batch of API
+     * calls (see startBatch), so the calls in the batch do not each
+     * repeat it.
+     */
+    static private class Batch {
+	/** The credentials in each set, by type and name */
+	public Map<String, List<String>> sets =
+	    new HashMap<String, List<String>>();
+	/** True once expired credentials have been removed */
+	public boolean expired = false;
+    }
+
+    /** The calling thread's batch; null outside a batch */
+    static private ThreadLocal<Batch> batch = new ThreadLocal<>();
+
     /*
      * Build the typeToCredSet table that defines knows sets.  A new set has to
      * be added here and to the DB.
@@ -209,6 +228,14 @@ public class CredentialStoreDB extends DBObject {
      */
     protected void expireCredentials() throws DeterFault {
 	PreparedStatement p = null;
+	SharedConnection sc = getSharedConnection();
+	Batch b = batch.get();
+
+	// A replica cannot be changed.  The queries below skip expired
+	// entries, and the next call on the primary removes them.
+	if ( sc != null && sc.isReadOnly() ) return;
+	// Once per batch is enough
+	if ( b != null && b.expired ) return;
 	try {
 	    // Remove all expired entries from the cache.  If nothing's
 	    // expired, return.
@@ -220,6 +247,7 @@ public class CredentialStoreDB extends DBObject {
 		credCache.remove(r.getString(1));
 		count ++;
 	    }
+	    if ( b != null ) b.expired = true;
 	    if ( count == 0 ) return;
 
 	    // Remove expired credentials from sets
@@ -238,6 +266,7 @@ public class CredentialStoreDB extends DBObject {
 	    p = getPreparedStatement(
 		    "DELETE FROM keytouser WHERE expiration < NOW()");
 	    p.executeUpdate();
+	    invalidateBatch();
 	}
 	catch (SQLException e) {
 	    throw new DeterFault(DeterFault.internal, e.getMessage());
@@ -351,6 +380,7 @@ public class CredentialStoreDB extends DBObject {
 	    qs.append(" WHERE s.lidx=(");
 	    qs.append(s.select());
 	    qs.append(")");
+	    qs.append(" AND (c.expiration IS NULL OR c.expiration >= NOW())");
 	}
 
 	// Run the query and collect results.
@@ -370,6 +400,124 @@ public class CredentialStoreDB extends DBObject {
 	    throw new DeterFault(DeterFault.internal, e.getMessage());
 	}
     }
+
+    /**
+     * Return the credentials in each of the given sets, in the order of the
+     * sets.  Expired credentials are skipped.
+     * @param sets the sets
+     * @return the credentials in each set
+     * @throws DeterFault on errors
+     */
+    protected List<List<String>> findCredentialsBySet(
+	    List<CredentialSet> sets) throws DeterFault {
+	List<ResolvedCredSet> csets = new ArrayList<ResolvedCredSet>();
+	List<List<String>> rv = new ArrayList<List<String>>();
+
+	for (CredentialSet ts : sets) {
+	    csets.add(new ResolvedCredSet(ts));
+	    rv.add(new ArrayList<String>());
+	}
+
+	// As findCredentialsUnion, but each SELECT also returns which set
+	// the credential came from.
+	StringBuilder qs = new StringBuilder();
+	int i = 0;
+	for (ResolvedCredSet s: csets ) {
+	    if ( qs.length() != 0 ) qs.append(" UNION ");
+	    qs.append("SELECT c.cred, ");
+	    qs.append(i++);
+	    qs.append(" FROM credentials AS c ");
+	    qs.append(" INNER JOIN ");
+	    qs.append(s.getTable());
+	    qs.append(" AS s ON c.idx=s.cidx");
+	    qs.append(" WHERE s.lidx=(");
+	    qs.append(s.select());
+	    qs.append(")");
+	    qs.append(" AND (c.expiration IS NULL OR c.expiration >= NOW())");
+	}
+
+	try {
+	    PreparedStatement p = getPreparedStatement(qs.toString());
+	    i = 1;
+	    for (ResolvedCredSet s: csets ) {
+		if (s.getName() != null )
+		    p.setString(i++, s.getName());
+	    }
+	    ResultSet r = p.executeQuery();
+	    while (r.next())
+		rv.get(r.getInt(2)).add(r.getString(1));
+	    return rv;
+	}
+	catch (SQLException e) {
+	    throw new DeterFault(DeterFault.internal, e.getMessage());
+	}
+    }
+
+    /**
+     * Return the credentials in the union of the given sets, reusing the
+     * sets already read in the calling thread's batch.
+     * @param sets the sets to combine
+     * @return the credentials
+     * @throws DeterFault on errors
+     */
+    protected Collection<String> batchCredentials(
+	    Collection<CredentialSet> sets) throws DeterFault {
+	Batch b = batch.get();
+
+	if ( b == null ) return findCredentialsUnion(sets, "cred");
+
+	Set<String> rv = new LinkedHashSet<String>();
+	List<CredentialSet> missing = new ArrayList<CredentialSet>();
+	int hits = 0;
+
+	for (CredentialSet s : sets) {
+	    List<String> creds = b.sets.get(s.toString());
+
+	    if ( creds != null ) {
+		rv.addAll(creds);
+		hits++;
+	    }
+	    else missing.add(s);
+	}
+	if ( !missing.isEmpty()) {
+	    List<List<String>> found = findCredentialsBySet(missing);
+
+	    for (int i = 0; i < missing.size(); i++) {
+		b.sets.put(missing.get(i).toString(), found.get(i));
+		rv.addAll(found.get(i));
+	    }
+	}
+	Metrics.cacheAccess("credentialSet", hits, missing.size());
+	return rv;
+    }
+
+    /**
+     * Start a batch of API calls on the calling thread.  Until endBatch,
+     * the credentials read for each set are kept and reused by later
+     * loadContext calls, and expired credentials are removed only once.
+     * Any change to the store made through this class drops the kept sets.
+     */
+    static public void startBatch() {
+	batch.set(new Batch());
+    }
+
+    /**
+     * End the calling thread's batch, dropping what it kept.
+     */
+    static public void endBatch() {
+	batch.remove();
+    }
+
+    /**
+     * Drop the sets kept by the calling thread's batch, if any, because the
+     * store has changed.
+     */
+    static protected void invalidateBatch() {
+	Batch b = batch.get();
+
+	if ( b != null ) b.sets.clear();
+    }
+
     /** 
      * Remove the credentials in the intersection of the paramteterized sets.
      * @param sets the sets to intersect
@@ -406,6 +554,7 @@ public class CredentialStoreDB extends DBObject {
 	    p = getPreparedStatement(
 		    "DELETE FROM credentials WHERE idx IN (" + delSet + ")" );
 	    p.executeUpdate();
+	    invalidateBatch();
 
 	    // Remove credentials from the cache
 	    for ( String k : keys)
@@ -461,6 +610,7 @@ public class CredentialStoreDB extends DBObject {
 		i++;
 	    }
 	    p.executeUpdate();
+	    invalidateBatch();
 
 	    // Now, for each credential added, add its index to the relevant
 	    // credential set tables.
@@ -498,10 +648,12 @@ public class CredentialStoreDB extends DBObject {
     //CredentialFactory cf = c.getCredentialFactory();
     Pattern rule = Pattern.compile("^\\w+\\.([\\w:-]+\\.)*[\\w:-]+\\s*<-+\\s*.+");
     
-    Collection <String> cstr = findCredentialsUnion(sets, "cred");
+    Collection <String> cstr = batchCredentials(sets);
+    int misses = 0;
     for (String cs: cstr ) {
         Credential[] creds = credCache.get(cs);
         if ( creds == null ) {
+            misses++;
             /*try {
                 creds = cf.parseCredential(cs, c.identities());
             }
@@ -523,6 +675,7 @@ public class CredentialStoreDB extends DBObject {
         for (Credential cr: creds)
     	c.load_attribute_chunk(cr);
     }
+    Metrics.cacheAccess("credential", cstr.size() - misses, misses);
     }
 
     /**
@@ -553,6 +706,8 @@ public class CredentialStoreDB extends DBObject {
 	    p.setString(2, uid);
 	    p.setInt(3, duration);
 	    p.executeUpdate();
+	    SessionTable.bind(k.getKeyID(), uid,
+		    System.currentTimeMillis() + duration * 1000L);
 	}
 	catch (SQLException e) {
 	    throw new DeterFault(DeterFault.internal, e.getMessage());
@@ -575,6 +730,8 @@ public class CredentialStoreDB extends DBObject {
 		    "DELETE FROM  keytouser WHERE ukey=?");
 	    p.setString(1, k.getKeyID());
 	    p.executeUpdate();
+	    // After the delete, so a concurrent keyToUid cannot rebind it
+	    SessionTable.unbind(k.getKeyID());
 	}
 	catch (SQLException e) {
 	    throw new DeterFault(DeterFault.internal, e.getMessage());
@@ -599,38 +756,53 @@ public class CredentialStoreDB extends DBObject {
 			"(SELECT idx FROM users WHERE uid=?)");
 	    p.setString(1, uid);
 	    p.executeUpdate();
+	    // After the delete, so a concurrent keyToUid cannot rebind them
+	    SessionTable.unbindUid(uid);
 	}
 	catch (SQLException e) {
 	    throw new DeterFault(DeterFault.internal, e.getMessage());
 	}
     }
     /**
-     * Return the uid to which keyid k is bound, if any.
+     * Return the uid to which keyid k is bound, if any.  Live bindings are
+     * answered from the SessionTable without touching the database.
      * @param k the string key identifier
      * @return the uid to which keyid k is bound, null if none
      * @throws DeterFault on internal errors
      */
     public String keyToUid(String k) throws DeterFault {
 	String rv = null;
+	Timestamp expires = null;
+	long gen = 0;
 	int i =0;
-	expireCredentials();
 
 	if (k == null) 
 	    throw new DeterFault(DeterFault.internal, "No key to look up?");
 
+	if ( (rv = SessionTable.lookup(k)) != null ) return rv;
+	expireCredentials();
+	gen = SessionTable.generation();
+
 	try {
 	    PreparedStatement p = getPreparedStatement(
-		    "SELECT uid FROM keytouser LEFT JOIN users ON uidx=idx " +
-			"WHERE ukey=?");
+		    "SELECT uid, expiration FROM keytouser " +
+			"LEFT JOIN users ON uidx=idx WHERE ukey=? " +
+			"AND (expiration IS NULL OR expiration >= NOW())");
 	    p.setString(1, k);
 	    ResultSet r = p.executeQuery();
 	    while (r.next()) {
 		rv = r.getString(1);
+		expires = r.getTimestamp(2);
 		i++;
 	    }
 	    if (i > 1 ) 
 		throw new DeterFault(DeterFault.internal, 
 			"Key mapped to multiple uids!?");
+	    // A replica may not have seen an unbind yet, so its answer is
+	    // not remembered.  Nor is one read across an unbind.
+	    if ( rv != null && expires != null &&
+		    !getSharedConnection().onReplica() )
+		SessionTable.bind(k, rv, expires.getTime(), gen);
 	    return rv;
 	}
 	catch (SQLException e) {
@@ -649,9 +821,10 @@ public class CredentialStoreDB extends DBObject {
     }
 
     /**
-     * Clear the global credential cache.
+     * Clear the global credential cache and the session table.
      */
     public void clearCache() {
 	credCache.clear();
+	SessionTable.clear();
     }
 }
@@ -3,6 +3,7 @@ package net.deterlab.testbed.policy;
 import java.io.ByteArrayOutputStream;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.math.BigInteger;
 import java.security.GeneralSecurityException;
 import java.security.KeyPair;
 import java.security.KeyStore;
@@ -11,6 +12,9 @@ import java.security.PublicKey;
 import java.security.cert.X509Certificate;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Date;
+
+import javax.security.auth.x500.X500Principal;
 
 import net.deterlab.abac.ABACException;
 import net.deterlab.abac.Context;
@@ -21,6 +25,8 @@ import net.deterlab.abac.Role;
 import net.deterlab.testbed.api.Config;
 import net.deterlab.testbed.api.DeterFault;
 
+import org.bouncycastle.x509.X509V1CertificateGenerator;
+
 public class Credentials {
     /** My identity */
     static Identity myId = null;
@@ -89,16 +95,62 @@ public class Credentials {
     /**
      * Create a new ABAC Identity (X.509 identity certificate), 
      * signed by the service provider. The Identity is valid for 10 years.
+     * The key pair comes from the KeyPairPool if one is ready, otherwise one
+     * is generated here.
      * @param uid the uid to use as the identity's common name.
      * @return the Identity
      * @throws DeterFault if anything goes wrong.
      */
     public Identity generateIdentity(String uid) 
 	    throws DeterFault {
+	final long validity = 10 * 365 * 24 * 3600;
 
 	try {
 	    getMyId();
-	    return new Identity(uid, 10 * 365 * 24 * 3600, myCert, myKey);
+	    KeyPairPool pool = KeyPairPool.getInstance();
+	    KeyPair kp = (pool != null) ? pool.take() : null;
+
+	    if ( kp == null )
+		return new Identity(uid, validity, myCert, myKey);
+	    return signIdentity(uid, validity, kp);
+	}
+	catch (ABACException e) {
+	    throw new DeterFault(DeterFault.internal, 
+		    "Could not generate Identity: " + e.getMessage());
+	}
+    }
+
+    /**
+     * Create an ABAC Identity for the given key pair, signed by the service
+     * provider.  The certificate is built the same way ABAC builds one for a
+     * key pair it generates itself.
+     * @param cn the common name
+     * @param validity the validity period in seconds
+     * @param kp the key pair to certify
+     * @return the Identity
+     * @throws DeterFault if the certificate cannot be created
+     */
+    protected Identity signIdentity(String cn, long validity, KeyPair kp)
+	    throws DeterFault {
+	X509V1CertificateGenerator gen = new X509V1CertificateGenerator();
+	long now = System.currentTimeMillis();
+
+	try {
+	    gen.setIssuerDN(myCert.getSubjectX500Principal());
+	    gen.setSubjectDN(new X500Principal("CN=" + cn));
+	    gen.setNotAfter(new Date(now + validity * 1000L));
+	    gen.setNotBefore(new Date(now));
+	    gen.setSerialNumber(BigInteger.valueOf(now));
+	    gen.setPublicKey(kp.getPublic());
+	    gen.setSignatureAlgorithm("SHA256WithRSAEncryption");
+
+	    Identity id = new Identity(gen.generate(myKey, "BC"));
+	    id.setKeyPair(kp);
+	    return id;
+	}
+	catch (GeneralSecurityException e) {
+	    throw new DeterFault(DeterFault.internal, 
+		    "Could not sign Identity: " + e.getMessage());
 	}
 	catch (ABACException e) {
 	    throw new DeterFault(DeterFault.internal, 
@@ -0,0 +1,360 @@
+package net.deterlab.testbed.policy;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.SecureRandom;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.security.spec.X509EncodedKeySpec;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import net.deterlab.testbed.api.Config;
+import net.deterlab.testbed.api.DeterFault;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A bounded pool of RSA key pairs generated ahead of time by a low priority
+ * background thread.  Issuing a login identity needs a fresh key pair, and
+ * generating one is by far the most expensive part of a login, so
+ * Credentials.generateIdentity draws from this pool and only generates a key
+ * inline when the pool is empty.
+ * <p>
+ * If a pool file is configured, unused key pairs are written to it
+ * (encrypted with a key derived from a password) when the service shuts down
+ * and read back when it starts.  The file is deleted as soon as it is read so
+ * that no key pair can be handed out twice.
+ * <p>
+ * Configuration properties (all optional):
+ * <dl>
+ * <dt>keyPoolSize</dt><dd>number of key pairs to keep ready (default 16, 0
+ *	disables the pool)</dd>
+ * <dt>keyPoolFile</dt><dd>file in which to keep unused keys across
+ *	restarts</dd>
+ * <dt>keyPoolPassword</dt><dd>password protecting that file (default the
+ *	keystore password)</dd>
+ * </dl>
+ * @author DETER team
+ * @version 1.0
+ */
+public class KeyPairPool {
+    /** Key pair algorithm - the same as ABAC uses for new identities */
+    static public final String ALGORITHM = "RSA";
+    /** Default number of key pairs to keep */
+    static public final int DEFAULT_SIZE = 16;
+    /** Marks a pool file (and its format version) */
+    static private final int MAGIC = 0x444b5031;
+    /** PBKDF2 iterations used to derive the pool file key */
+    static private final int ITERATIONS = 65536;
+    /** The per-process pool */
+    static private KeyPairPool instance = null;
+
+    /** The ready key pairs */
+    private BlockingQueue<KeyPair> pool;
+    /** The thread filling the pool */
+    private Thread worker;
+    /** The persistent pool file, if any */
+    private File file;
+    /** Password protecting the file */
+    private char[] password;
+    /** Logger */
+    private Logger log;
+
+    /**
+     * Create a pool of the given size, restore any keys saved in file and
+     * start filling it.
+     * @param size the number of key pairs to keep ready
+     * @param f the file to keep unused keys in across restarts (may be null)
+     * @param pw the password protecting f
+     */
+    public KeyPairPool(int size, File f, char[] pw) {
+	pool = new ArrayBlockingQueue<>(Math.max(size, 1));
+	file = f;
+	password = pw;
+	log = Logger.getLogger(getClass());
+
+	if ( file != null ) {
+	    try {
+		for (KeyPair kp : load(file, password))
+		    if ( !pool.offer(kp)) break;
+	    }
+	    catch (DeterFault df) {
+		log.warn("Cannot restore key pool: " + df);
+	    }
+	    if ( file.exists() && !file.delete())
+		log.error("Cannot remove key pool file " + file);
+	}
+
+	worker = new Thread(new Runnable() {
+	    public void run() { fill(); }
+	}, "key-pair-pool");
+	worker.setDaemon(true);
+	worker.setPriority(Thread.MIN_PRIORITY);
+	worker.start();
+    }
+
+    /**
+     * Create a pool that is not saved across restarts.
+     * @param size the number of key pairs to keep ready
+     */
+    public KeyPairPool(int size) {
+	this(size, null, null);
+    }
+
+    /**
+     * Return the pool for this process, creating it from the configuration if
+     * necessary.  Returns null if the pool is disabled.
+     * @return the pool or null
+     * @throws DeterFault if the configuration cannot be read
+     */
+    static public synchronized KeyPairPool getInstance() throws DeterFault {
+	if ( instance != null ) return instance;
+
+	Config config = new Config();
+	String s = config.getProperty("keyPoolSize");
+	String fn = config.getProperty("keyPoolFile");
+	String pw = config.getProperty("keyPoolPassword");
+	int size = DEFAULT_SIZE;
+
+	try {
+	    if ( s != null ) size = Integer.parseInt(s);
+	}
+	catch (NumberFormatException e) {
+	    throw new DeterFault(DeterFault.internal, "Bad keyPoolSize " + s);
+	}
+	if ( size <= 0 ) return null;
+
+	final KeyPairPool p = new KeyPairPool(size,
+		(fn != null) ? new File(fn) : null,
+		(pw != null) ? pw.toCharArray() : config.getKeystorePassword());
+	if ( fn != null ) {
+	    Runtime.getRuntime().addShutdownHook(new Thread() {
+		public void run() { p.shutdown(); }
+	    });
+	}
+	instance = p;
+	return instance;
+    }
+
+    /**
+     * Generate a key pair.
+     * @return the new key pair
+     * @throws DeterFault if the algorithm is unavailable
+     */
+    static public KeyPair generate() throws DeterFault {
+	try {
+	    return KeyPairGenerator.getInstance(ALGORITHM).genKeyPair();
+	}
+	catch (GeneralSecurityException e) {
+	    throw new DeterFault(DeterFault.internal,
+		    "Cannot generate key pair: " + e.getMessage());
+	}
+    }
+
+    /**
+     * Keep the pool full.  Blocks while the pool is full and exits when
+     * interrupted.
+     */
+    private void fill() {
+	try {
+	    while ( !Thread.currentThread().isInterrupted())
+		pool.put(generate());
+	}
+	catch (InterruptedException ignored) { }
+	catch (DeterFault df) {
+	    log.error("Key pool stopped: " + df);
+	}
+    }
+
+    /**
+     * Take a key pair from the pool without waiting.
+     * @return a key pair never handed out before, or null if the pool is
+     * empty
+     */
+    public KeyPair take() {
+	return pool.poll();
+    }
+
+    /**
+     * Return the number of key pairs ready.
+     * @return the number of key pairs ready.
+     */
+    public int size() {
+	return pool.size();
+    }
+
+    /**
+     * Stop filling the pool and, if there is a pool file, save the unused
+     * keys in it.
+     */
+    public void shutdown() {
+	List<KeyPair> left = new ArrayList<>();
+
+	worker.interrupt();
+	pool.drainTo(left);
+	if ( file == null || left.isEmpty()) return;
+	try {
+	    save(file, password, left);
+	}
+	catch (DeterFault df) {
+	    log.error("Cannot save key pool: " + df);
+	}
+    }
+
+    /**
+     * Derive the file encryption key from the password.
+     * @param pw the password
+     * @param salt the salt stored in the file
+     * @return the AES key
+     * @throws GeneralSecurityException if the algorithms are unavailable
+     */
+    static private SecretKeySpec fileKey(char[] pw, byte[] salt)
+	    throws GeneralSecurityException {
+	SecretKeyFactory f =
+	    SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256");
+	byte[] k = f.generateSecret(
+		new PBEKeySpec(pw, salt, ITERATIONS, 128)).getEncoded();
+
+	return new SecretKeySpec(k, "AES");
+    }
+
+    /**
+     * Write key pairs to a file, encrypted under the password.  The file is
+     * only readable by its owner where the platform allows.
+     * @param f the file
+     * @param pw the password
+     * @param keys the key pairs
+     * @throws DeterFault on IO or encryption errors
+     */
+    static public void save(File f, char[] pw, List<KeyPair> keys)
+	    throws DeterFault {
+	if ( pw == null )
+	    throw new DeterFault(DeterFault.internal,
+		    "No password for key pool file");
+	try {
+	    ByteArrayOutputStream plain = new ByteArrayOutputStream();
+	    DataOutputStream d = new DataOutputStream(plain);
+	    SecureRandom rng = new SecureRandom();
+	    byte[] salt = new byte[16];
+	    byte[] iv = new byte[12];
+
+	    d.writeInt(keys.size());
+	    for (KeyPair kp : keys) {
+		byte[] pub = kp.getPublic().getEncoded();
+		byte[] priv = kp.getPrivate().getEncoded();
+
+		d.writeInt(pub.length);
+		d.write(pub);
+		d.writeInt(priv.length);
+		d.write(priv);
+	    }
+	    d.close();
+
+	    rng.nextBytes(salt);
+	    rng.nextBytes(iv);
+	    Cipher c = Cipher.getInstance("AES/GCM/NoPadding");
+	    c.init(Cipher.ENCRYPT_MODE, fileKey(pw, salt),
+		    new GCMParameterSpec(128, iv));
+	    byte[] enc = c.doFinal(plain.toByteArray());
+
+	    f.createNewFile();
+	    f.setReadable(false, false);
+	    f.setReadable(true, true);
+	    f.setWritable(false, false);
+	    f.setWritable(true, true);
+	    try (DataOutputStream out = new DataOutputStream(
+			new FileOutputStream(f))) {
+		out.writeInt(MAGIC);
+		out.write(salt);
+		out.write(iv);
+		out.writeInt(enc.length);
+		out.write(enc);
+	    }
+	}
+	catch (IOException e) {
+	    throw new DeterFault(DeterFault.internal,
+		    "Cannot write key pool file: " + e.getMessage());
+	}
+	catch (GeneralSecurityException e) {
+	    throw new DeterFault(DeterFault.internal,
+		    "Cannot encrypt key pool: " + e.getMessage());
+	}
+    }
+
+    /**
+     * Read key pairs saved by save.  A missing file yields no keys.
+     * @param f the file
+     * @param pw the password
+     * @return the key pairs
+     * @throws DeterFault if the file is unreadable, corrupt or the password
+     * is wrong
+     */
+    static public List<KeyPair> load(File f, char[] pw) throws DeterFault {
+	List<KeyPair> rv = new ArrayList<>();
+
+	if ( !f.exists()) return rv;
+	if ( pw == null )
+	    throw new DeterFault(DeterFault.internal,
+		    "No password for key pool file");
+	try (DataInputStream in = new DataInputStream(
+		    new FileInputStream(f))) {
+	    byte[] salt = new byte[16];
+	    byte[] iv = new byte[12];
+
+	    if ( in.readInt() != MAGIC )
+		throw new DeterFault(DeterFault.internal,
+			"Not a key pool file: " + f);
+	    in.readFully(salt);
+	    in.readFully(iv);
+	    byte[] enc = new byte[in.readInt()];
+	    in.readFully(enc);
+
+	    Cipher c = Cipher.getInstance("AES/GCM/NoPadding");
+	    c.init(Cipher.DECRYPT_MODE, fileKey(pw, salt),
+		    new GCMParameterSpec(128, iv));
+	    DataInputStream d = new DataInputStream(
+		    new ByteArrayInputStream(c.doFinal(enc)));
+	    KeyFactory kf = KeyFactory.getInstance(ALGORITHM);
+	    int n = d.readInt();
+
+	    for (int i = 0; i < n; i++) {
+		byte[] pub = new byte[d.readInt()];
+		d.readFully(pub);
+		byte[] priv = new byte[d.readInt()];
+		d.readFully(priv);
+		rv.add(new KeyPair(
+			    kf.generatePublic(new X509EncodedKeySpec(pub)),
+			    kf.generatePrivate(new PKCS8EncodedKeySpec(priv))));
+	    }
+	    return rv;
+	}
+	catch (IOException e) {
+	    throw new DeterFault(DeterFault.internal,
+		    "Cannot read key pool file: " + e.getMessage());
+	}
+	catch (GeneralSecurityException e) {
+	    throw new DeterFault(DeterFault.internal,
+		    "Cannot decrypt key pool: " + e.getMessage());
+	}
+    }
+}
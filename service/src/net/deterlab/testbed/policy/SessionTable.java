@@ -0,0 +1,224 @@
+package net.deterlab.testbed.policy;
+
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.cert.X509Certificate;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import net.deterlab.abac.ABACException;
+import net.deterlab.abac.Identity;
+
+import net.deterlab.testbed.metrics.Metrics;
+
+/**
+ * An in-memory table of login sessions.  It remembers the ABAC Identity
+ * parsed from each client certificate seen recently (keyed by certificate
+ * fingerprint) and the uid and expiration of each key binding (keyed by key
+ * ID), so that resolving the caller of an API call is usually two map
+ * lookups rather than certificate parsing and database queries.
+ * <p>
+ * Bindings are entered by CredentialStoreDB.bindKey and when
+ * CredentialStoreDB.keyToUid reads them from the database.  They are removed
+ * by unbindKey, unbindUid and clearCache, and ignored once they expire.  Only
+ * positive lookups are remembered, so a binding made elsewhere is still found
+ * in the database.  Each removal advances a generation, and a binding read
+ * from the database is only remembered if no removal happened while it was
+ * being read, so a lookup racing an unbind cannot restore the binding.  Both
+ * maps are bounded and evict the least recently used entries.
+ * @author DETER team
+ * @version 1.0
+ */
+public class SessionTable {
+    /**
+     * A key bound to a uid.
+     */
+    static private class Binding {
+	/** The bound uid */
+	public String uid;
+	/** When the binding expires (ms since the epoch) */
+	public long expires;
+
+	/**
+	 * Create a binding.
+	 * @param u the uid
+	 * @param e the expiration in ms since the epoch
+	 */
+	public Binding(String u, long e) { uid = u; expires = e; }
+    }
+
+    /**
+     * A LinkedHashMap in access order that drops its eldest entry beyond a
+     * fixed size.
+     */
+    static private class LRUMap<K, V> extends LinkedHashMap<K, V> {
+	/** Serialization version */
+	static private final long serialVersionUID = 1L;
+	/** Maximum number of entries */
+	private int limit;
+
+	/**
+	 * Create a map with the given size limit.
+	 * @param l the limit
+	 */
+	public LRUMap(int l) {
+	    super(16, 0.75f, true);
+	    limit = l;
+	}
+
+	/**
+	 * Evict once over the limit.
+	 * @param eldest the least recently used entry
+	 * @return true if it should be evicted
+	 */
+	protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+	    return size() > limit;
+	}
+    }
+
+    /** Maximum number of cached identities and bindings */
+    static private final int LIMIT = 10000;
+    /** Certificate fingerprint to parsed identity */
+    static private Map<String, Identity> identities = new LRUMap<>(LIMIT);
+    /** Key ID to binding */
+    static private Map<String, Binding> bindings = new LRUMap<>(LIMIT);
+    /** Incremented by every removal of bindings */
+    static private long generation = 0;
+
+    /**
+     * Return a hex SHA-256 fingerprint of the certificate.
+     * @param cert the certificate
+     * @return the fingerprint
+     * @throws ABACException if the certificate cannot be encoded
+     */
+    static protected String fingerprint(X509Certificate cert)
+	    throws ABACException {
+	try {
+	    byte[] d = MessageDigest.getInstance("SHA-256").digest(
+		    cert.getEncoded());
+	    StringBuilder sb = new StringBuilder();
+
+	    for (byte b : d)
+		sb.append(String.format("%02x", b));
+	    return sb.toString();
+	}
+	catch (GeneralSecurityException e) {
+	    throw new ABACException("Cannot fingerprint certificate: " +
+		    e.getMessage(), e);
+	}
+    }
+
+    /**
+     * Return the ABAC Identity for the certificate, parsing it only if it has
+     * not been seen recently.
+     * @param cert the certificate
+     * @return the identity
+     * @throws ABACException if the certificate cannot be converted
+     */
+    static public Identity getIdentity(X509Certificate cert)
+	    throws ABACException {
+	String fp = fingerprint(cert);
+	Identity id = null;
+
+	synchronized (identities) {
+	    id = identities.get(fp);
+	}
+	Metrics.cacheAccess("identity", id != null);
+	if ( id != null ) return id;
+
+	id = new Identity(cert);
+	synchronized (identities) {
+	    identities.put(fp, id);
+	}
+	return id;
+    }
+
+    /**
+     * Remember that key is bound to uid until expires.
+     * @param key the key ID
+     * @param uid the uid
+     * @param expires the expiration (ms since the epoch)
+     */
+    static public synchronized void bind(String key, String uid,
+	    long expires) {
+	bindings.put(key, new Binding(uid, expires));
+    }
+
+    /**
+     * Return the current generation.  Read it before looking a binding up in
+     * the database and pass it to the bind call that remembers the result.
+     * @return the generation
+     */
+    static public synchronized long generation() {
+	return generation;
+    }
+
+    /**
+     * Remember that key is bound to uid until expires, unless a binding has
+     * been removed since gen was read.
+     * @param key the key ID
+     * @param uid the uid
+     * @param expires the expiration (ms since the epoch)
+     * @param gen the generation read before the binding was
+     * @return true if the binding was remembered
+     */
+    static public synchronized boolean bind(String key, String uid,
+	    long expires, long gen) {
+	if ( gen != generation ) return false;
+	bindings.put(key, new Binding(uid, expires));
+	return true;
+    }
+
+    /**
+     * Return the uid bound to key, or null if the binding is unknown or has
+     * expired.
+     * @param key the key ID
+     * @return the uid or null
+     */
+    static public synchronized String lookup(String key) {
+	Binding b = bindings.get(key);
+
+	if ( b == null ) return null;
+	if ( b.expires <= System.currentTimeMillis()) {
+	    bindings.remove(key);
+	    return null;
+	}
+	return b.uid;
+    }
+
+    /**
+     * Forget any binding of key.
+     * @param key the key ID
+     */
+    static public synchronized void unbind(String key) {
+	generation++;
+	bindings.remove(key);
+    }
+
+    /**
+     * Forget all bindings to uid.
+     * @param uid the uid
+     */
+    static public synchronized void unbindUid(String uid) {
+	Iterator<Binding> i = bindings.values().iterator();
+
+	generation++;
+	while (i.hasNext())
+	    if ( i.next().uid.equals(uid)) i.remove();
+    }
+
+    /**
+     * Forget all bindings and identities.
+     */
+    static public void clear() {
+	synchronized (SessionTable.class) {
+	    generation++;
+	    bindings.clear();
+	}
+	synchronized (identities) {
+	    identities.clear();
+	}
+    }
+}
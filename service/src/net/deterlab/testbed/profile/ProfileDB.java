@@ -3,8 +3,13 @@ package net.deterlab.testbed.profile;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
@@ -219,72 +224,6 @@ abstract public class ProfileDB extends DBObject {
 	    }
 	}
 
-	/**
-	 * Save this value to the database for the given id.  The connection
-	 * should point to the correct database.  Note the package scope.
-	 * @param id the identifier
-	 * @throws DeterFault primarily on database problems
-	 */
-	void save(String id) throws DeterFault {
-
-	    PreparedStatement detect = null;
-	    PreparedStatement assign = null;
-	    try {
-		detect = getPreparedStatement(
-			"SELECT " + getValueColumn() +" FROM " +
-			    getValuesTable() +
-			" WHERE " + getIdJoinColumn() + "=(SELECT idx FROM " +
-			    getIdJoinTable() + " WHERE " +
-				getIdJoinKey() + "=?) "+
-			    "AND aidx=(SELECT idx FROM " + getSchemaTable() +
-			    " WHERE "+ getNameColumn()+ "=?)");
-
-		/* Both of these strings take the same parameters in the same
-		 * order - value, user, name */
-		/* Use this string to update an existing assignment */
-		String update =
-			"UPDATE " +getValuesTable() +" SET " +
-			    getValueColumn() +" = ? " +
-			"WHERE " + getIdJoinColumn() + "=(SELECT idx FROM " +
-			    getIdJoinTable() + " WHERE " +
-				getIdJoinKey() +"=?) " +
-			    "AND aidx=(SELECT idx FROM " + getSchemaTable() +
-			    " WHERE " + getNameColumn() + "=?)";
-		/* Use this string to insert a new assignment */
-		String insert =
-			"INSERT " + getValuesTable() +" (" + getValueColumn()+
-			    ", " + getIdJoinColumn() + ", aidx) " +
-			"VALUES (?, (SELECT idx FROM "+ getIdJoinTable() +
-			    " WHERE " + getIdJoinKey() + "= ?), " +
-			" (SELECT idx from " + getSchemaTable() + " WHERE " +
-			    getNameColumn() + "=?))";
-		ResultSet r = null;
-
-		detect.setString(1, id);
-		detect.setString(2, getName());
-		r = detect.executeQuery();
-
-		/* If r.next() returns true, there was a previous assignment
-		 * and the prepared statement will update; otherwise it will
-		 * insert. Same parameters either way, so the code is straight
-		 * line from here. */
-		assign = getPreparedStatement((r.next()) ? update : insert);
-		detect.close();
-		detect = null;
-
-		assign.setString(1, getValue());
-		assign.setString(2, id);
-		assign.setString(3, getName());
-		assign.executeUpdate();
-
-		assign.close();
-		assign = null;
-	    }
-	    catch (SQLException e) {
-		throw new DeterFault(DeterFault.internal, e.toString());
-	    }
-	}
-
 	/**
 	 * Create this attribute if it does not exist.
 	 * @param def if the attribute is not optional, set that vaule for all
@@ -377,6 +316,9 @@ abstract public class ProfileDB extends DBObject {
 	    catch (SQLException e) {
 		throw new DeterFault(DeterFault.internal, e.toString());
 	    }
+	    finally {
+		ProfileSchema.changed(getSchemaTable());
+	    }
 	}
 
 	/**
@@ -426,6 +368,9 @@ abstract public class ProfileDB extends DBObject {
 	    catch (SQLException e) {
 		throw new DeterFault(DeterFault.internal, e.toString());
 	    }
+	    finally {
+		ProfileSchema.changed(getSchemaTable());
+	    }
 	}
 	/**
 	 * Remove this attribute from all users and the attribute schema.  Be
@@ -467,6 +412,9 @@ abstract public class ProfileDB extends DBObject {
 	    catch (SQLException e) {
 		throw new DeterFault(DeterFault.internal, e.toString());
 	    }
+	    finally {
+		ProfileSchema.changed(getSchemaTable());
+	    }
 	}
 
 	/**
@@ -500,6 +448,10 @@ abstract public class ProfileDB extends DBObject {
     private String id;
     /** The attributes attached to this profile */
     protected Map<String, AttributeDB> dattrs;
+    /** The id whose values were last read or written */
+    private String loadedId;
+    /** Attribute values as last read or written for loadedId */
+    private Map<String, String> loaded;
 
     /**
      * Create a ProfileDB with no id and empty attributes.
@@ -519,6 +471,8 @@ abstract public class ProfileDB extends DBObject {
 	super(sc);
 	id = i;
 	dattrs = new TreeMap<String, AttributeDB>();
+	loadedId = null;
+	loaded = new HashMap<String, String>();
     }
 
     /**
@@ -529,8 +483,6 @@ abstract public class ProfileDB extends DBObject {
      */
     public ProfileDB(String i) throws DeterFault {
 	this(i, null);
-	id = i;
-	dattrs = new TreeMap<String, AttributeDB>();
     }
 
     /**
@@ -578,92 +530,78 @@ abstract public class ProfileDB extends DBObject {
     public void loadAll() throws DeterFault { load(null); }
 
     /**
-     * Load the named attributes from the database.
+     * Load the named attributes from the database.  Only the values are read
+     * from the database; the rest of each attribute comes from the cached
+     * schema.
      * @param names the collection of names to read
      * @throws DeterFault on errors
      */
     public void load(Collection<String> names) throws DeterFault {
-	PreparedStatement p = null;
-	ResultSet r = null;
 	Vector<AttributeDB> v = new Vector<AttributeDB>();
 	Set<String> toLoad = 
 	    (names != null ) ? new TreeSet<String>(names) : null;
-	int nAttrs = 0;
 	AttributeDB contents = getAttribute();
+	ProfileSchema schema = ProfileSchema.get(this, contents);
 
-	try {
-	    // If there is no id set, gather up all the attribute specs without
-	    // any data.  If the id is set, pull in just the set value for
-	    // this user (some optional fields may not appear at all.  Both
-	    // queries return the same columns.
-	    if ( getId() != null ) { 
-		p = getPreparedStatement(
-			"SELECT " +  
-			    contents.getNameColumn() + ", " +
-			    contents.getValueColumn() + ", " +
-			    contents.getDataTypeColumn() + ", " +
-			    contents.getOptionalColumn() + ", " +
-			    contents.getAccessColumn() + ", " +
-			    contents.getDescriptionColumn() + ", " +
-			    contents.getFormatColumn() + ", " +
-			    contents.getFormatDescriptionColumn() + ", " +
-			    contents.getOrderingHintColumn() + ", " +
-			    contents.getLengthHintColumn() + 
-			" FROM " + contents.getValuesTable() + " as av " + 
-			    "INNER JOIN " + contents.getSchemaTable() + 
-				" as v ON v.idx = av.aidx " + 
-			"WHERE av." + contents.getIdJoinColumn() + 
-			    "=(select idx from " + 
-			    contents.getIdJoinTable() +
-			    " where " + contents.getIdJoinKey() +" = ?)");
-		p.setString(1, getId());
-	    }
-	    else {
-		p = getPreparedStatement(
-			"SELECT " + 
-			    contents.getNameColumn() + ", NULL as value, " +
-			    contents.getDataTypeColumn() + ", " +
-			    contents.getOptionalColumn() + ", " +
-			    contents.getAccessColumn() + ", " +
-			    contents.getDescriptionColumn() + ", " +
-			    contents.getFormatColumn() + ", " +
-			    contents.getFormatDescriptionColumn() + ", " +
-			    contents.getOrderingHintColumn() + ", " +
-			    contents.getLengthHintColumn() + 
-			" FROM " + contents.getSchemaTable());
+	// If there is no id set, gather up all the attribute specs without
+	// any data.
+	if ( getId() == null ) {
+	    for (Attribute t : schema.getAttributes()) {
+		if ( toLoad != null && !toLoad.contains(t.getName()))
+		    continue;
+		v.add(getAttribute(t));
 	    }
-	    r = p.executeQuery();
+	    for (AttributeDB a: v ) 
+		addAttribute(a);
+	    return;
+	}
+
+	// If the id is set, pull in just the set values for this object (some
+	// optional fields may not appear at all).
+	Map<String, String> values = new HashMap<String, String>();
+	int nAttrs = 0;
+
+	try {
+	    PreparedStatement p = getPreparedStatement(
+		    "SELECT aidx, " + contents.getValueColumn() +
+		    " FROM " + contents.getValuesTable() +
+		    " WHERE " + contents.getIdJoinColumn() +
+			"=(select idx from " + contents.getIdJoinTable() +
+			" where " + contents.getIdJoinKey() +" = ?)");
+	    p.setString(1, getId());
+	    ResultSet r = p.executeQuery();
+	    boolean reloaded = false;
+
 	    // Convert each row to a AttributeDB
 	    while (r.next()) {
-		String name = r.getString(contents.getNameColumn());
+		int aidx = r.getInt(1);
+		Attribute t = schema.getAttribute(aidx);
+
+		// An attribute we have not seen was added by someone else.
+		if ( t == null && !reloaded ) {
+		    schema = ProfileSchema.reload(this, contents);
+		    reloaded = true;
+		    t = schema.getAttribute(aidx);
+		}
+		if ( t == null ) continue;
 
 		nAttrs++;
 		// If only certain named attributes are to be loaded, and this
 		// isn't one of them, skip it. (NB: we count it as found
 		// whether we export it.
-		if ( toLoad != null && !toLoad.contains(name))
+		if ( toLoad != null && !toLoad.contains(t.getName()))
 		    continue;
 
-		AttributeDB toAdd = getAttribute();
-
-		toAdd.setName(r.getString(toAdd.getNameColumn()));
-		toAdd.setValue(r.getString(toAdd.getValueColumn()));
-		toAdd.setDataType(
-			r.getString(toAdd.getDataTypeColumn()).toLowerCase());
-		toAdd.setOptional(r.getInt(toAdd.getOptionalColumn())> 0);
-		toAdd.setAccess(r.getString(toAdd.getAccessColumn()));
-		toAdd.setDescription(r.getString(toAdd.getDescriptionColumn()));
-		toAdd.setFormat(r.getString(toAdd.getFormatColumn()));
-		toAdd.setFormatDescription(
-			r.getString(toAdd.getFormatDescriptionColumn()));
-		toAdd.setOrderingHint(r.getInt(toAdd.getOrderingHintColumn()));
-		toAdd.setLengthHint(r.getInt(toAdd.getLengthHintColumn()));
+		AttributeDB toAdd = getAttribute(t);
+
+		toAdd.setValue(r.getString(2));
+		values.put(toAdd.getName(), toAdd.getValue());
 		v.add(toAdd);
 	    }
 	    // All valid users must have at least one attribute - e.g. an
 	    // e-mail address.  If we asked for a user and found no attributes,
 	    // throw this out.
-	    if ( nAttrs == 0 && getId() != null ) 
+	    if ( nAttrs == 0 ) 
 		throw new DeterFault(DeterFault.request, 
 			"No profile for id " + getId());
 	}
@@ -673,11 +611,18 @@ abstract public class ProfileDB extends DBObject {
 	// Put the new attributes into the map
 	for (AttributeDB a: v ) 
 	    addAttribute(a);
+	if ( !getId().equals(loadedId)) {
+	    loaded.clear();
+	    loadedId = getId();
+	}
+	loaded.putAll(values);
     }
 
 
     /**
-     * Save the named attributes to the database.
+     * Save the named attributes to the database.  Attributes whose values
+     * have not changed since they were loaded are skipped and the rest are
+     * written in one batch.
      * @param names the collection of names to Save.  If names is null, this
      * becomes saveAll.
      * @throws DeterFault on errors
@@ -685,10 +630,15 @@ abstract public class ProfileDB extends DBObject {
     public void save(Collection<String> names) throws DeterFault {
 	Set<String> toSave = 
 	    (names != null ) ? new TreeSet<String>(names) : null;
+	List<AttributeDB> changed = new ArrayList<AttributeDB>();
 
 	if ( getId() == null ) 
 	    throw new DeterFault(DeterFault.internal, 
 		    "Cannot save unbound profile (no id)");
+	if ( !getId().equals(loadedId)) {
+	    loaded.clear();
+	    loadedId = getId();
+	}
 	for (Attribute a: dattrs.values() ) {
 	    // If this attribute cannot write itself, ignore it
 	    if ( !(a instanceof AttributeDB ))
@@ -699,9 +649,79 @@ abstract public class ProfileDB extends DBObject {
 	    if ( toSave != null && !toSave.contains(a.getName()))
 		continue;
 
-	    AttributeDB dba = (AttributeDB) a;
-	    dba.save(getId());
+	    // Unchanged since it was read, ignore it.
+	    if ( loaded.containsKey(a.getName()) &&
+		    Objects.equals(loaded.get(a.getName()), a.getValue()))
+		continue;
+
+	    changed.add((AttributeDB) a);
+	}
+	if ( changed.isEmpty()) return;
+
+	AttributeDB contents = getAttribute();
+	ProfileSchema schema = ProfileSchema.get(this, contents);
+
+	try {
+	    PreparedStatement p = getPreparedStatement(
+		    "SELECT idx FROM " + contents.getIdJoinTable() +
+		    " WHERE " + contents.getIdJoinKey() + "=?");
+	    p.setString(1, getId());
+	    ResultSet r = p.executeQuery();
+
+	    if ( !r.next())
+		throw new DeterFault(DeterFault.internal,
+			"Cannot save profile: no " + getId());
+	    int oidx = r.getInt(1);
+
+	    // The attributes that already have values are updated, the rest
+	    // inserted.
+	    Set<Integer> present = new HashSet<Integer>();
+	    p = getPreparedStatement(
+		    "SELECT aidx FROM " + contents.getValuesTable() +
+		    " WHERE " + contents.getIdJoinColumn() + "=?");
+	    p.setInt(1, oidx);
+	    r = p.executeQuery();
+	    while (r.next())
+		present.add(r.getInt(1));
+
+	    PreparedStatement update = getPreparedStatement(
+		    "UPDATE " + contents.getValuesTable() +
+		    " SET " + contents.getValueColumn() + "=? " +
+		    "WHERE " + contents.getIdJoinColumn() + "=? AND aidx=?");
+	    PreparedStatement insert = getPreparedStatement(
+		    "INSERT INTO " + contents.getValuesTable() + " (" +
+			contents.getValueColumn() + ", " +
+			contents.getIdJoinColumn() + ", aidx) " +
+		    "VALUES (?, ?, ?)");
+	    boolean reloaded = false;
+
+	    for (AttributeDB a : changed) {
+		Integer aidx = schema.getIndex(a.getName());
+
+		if ( aidx == null && !reloaded ) {
+		    schema = ProfileSchema.reload(this, contents);
+		    reloaded = true;
+		    aidx = schema.getIndex(a.getName());
+		}
+		if ( aidx == null )
+		    throw new DeterFault(DeterFault.request,
+			    "No such attribute " + a.getName());
+
+		PreparedStatement assign =
+		    present.contains(aidx) ? update : insert;
+		assign.setString(1, a.getValue());
+		assign.setInt(2, oidx);
+		assign.setInt(3, aidx);
+		assign.addBatch();
+	    }
+	    update.executeBatch();
+	    insert.executeBatch();
+	}
+	catch (SQLException e) {
+	    throw new DeterFault(DeterFault.internal, e.toString());
 	}
+	for (AttributeDB a : changed)
+	    loaded.put(a.getName(), a.getValue());
     }
     /**
      * Save all attributes from the database.
@@ -735,6 +755,7 @@ abstract public class ProfileDB extends DBObject {
 
 	    AttributeDB dba = (AttributeDB) a;
 	    dba.remove(getId());
+	    if ( getId().equals(loadedId)) loaded.remove(a.getName());
 	}
     }
 
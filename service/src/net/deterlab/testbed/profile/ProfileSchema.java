@@ -0,0 +1,199 @@
+package net.deterlab.testbed.profile;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import net.deterlab.testbed.api.Attribute;
+import net.deterlab.testbed.api.DeterFault;
+import net.deterlab.testbed.db.DBObject;
+import net.deterlab.testbed.metrics.Metrics;
+
+/**
+ * The attribute schema of one profile type (user, project, circle,
+ * experiment or library), cached in memory.  Profile reads fetch only the
+ * (attribute index, value) pairs of the object and take everything else
+ * from here.
+ * <p>
+ * Each schema table has a version number that AttributeDB.create,
+ * modifySchema and removeFromSchema increment.  A cached schema whose
+ * version is out of date is reread.  So that changes made by other
+ * processes are seen, a schema is also reread when a value refers to an
+ * attribute it does not contain and when it is more than MAX_AGE old.
+ * @author the DETER Team
+ * @version 1.0
+ */
+public class ProfileSchema {
+    /** Longest time a schema is used before rereading it (ms) */
+    static public final long MAX_AGE = 10 * 60 * 1000;
+    /** Cached schemas by schema table */
+    static private Map<String, ProfileSchema> schemas =
+	new HashMap<String, ProfileSchema>();
+    /** Current version of each schema table */
+    static private Map<String, Long> versions = new HashMap<String, Long>();
+
+    /** The version of the schema table this was read from */
+    private long version;
+    /** When this was read (ms since the epoch) */
+    private long loaded;
+    /** Attribute templates (no value) by schema index */
+    private Map<Integer, Attribute> attributes;
+    /** Schema index by attribute name */
+    private Map<String, Integer> indices;
+
+    /**
+     * Create an empty schema.
+     * @param v the version of the schema table being read
+     */
+    private ProfileSchema(long v) {
+	version = v;
+	loaded = System.currentTimeMillis();
+	attributes = new HashMap<Integer, Attribute>();
+	indices = new HashMap<String, Integer>();
+    }
+
+    /**
+     * Return the current version of a schema table.
+     * @param table the schema table
+     * @return the version
+     */
+    static private synchronized long version(String table) {
+	Long v = versions.get(table);
+
+	return (v != null) ? v : 0L;
+    }
+
+    /**
+     * Note that the schema in table has changed.  Cached copies are discarded.
+     * @param table the schema table
+     */
+    static public synchronized void changed(String table) {
+	versions.put(table, version(table) + 1);
+	schemas.remove(table);
+    }
+
+    /**
+     * Return the schema for the attribute's profile type, reading it from the
+     * database if it is not cached or is out of date.
+     * @param db database access, generally the calling ProfileDB
+     * @param contents an attribute of the profile type
+     * @return the schema
+     * @throws DeterFault on database errors
+     */
+    static public ProfileSchema get(DBObject db,
+	    ProfileDB.AttributeDB contents) throws DeterFault {
+	String table = contents.getSchemaTable();
+	long v = 0;
+
+	synchronized (ProfileSchema.class) {
+	    ProfileSchema s = schemas.get(table);
+
+	    v = version(table);
+	    if ( s != null && s.version == v &&
+		    System.currentTimeMillis() - s.loaded < MAX_AGE ) {
+		Metrics.cacheAccess("profileSchema", true);
+		return s;
+	    }
+	}
+	Metrics.cacheAccess("profileSchema", false);
+
+	ProfileSchema s = read(db, contents, v);
+
+	// Only cache it if the schema did not change while it was being read.
+	synchronized (ProfileSchema.class) {
+	    if ( version(table) == v ) schemas.put(table, s);
+	}
+	return s;
+    }
+
+    /**
+     * Discard the cached schema and read it again.
+     * @param db database access, generally the calling ProfileDB
+     * @param contents an attribute of the profile type
+     * @return the schema
+     * @throws DeterFault on database errors
+     */
+    static public ProfileSchema reload(DBObject db,
+	    ProfileDB.AttributeDB contents) throws DeterFault {
+	changed(contents.getSchemaTable());
+	return get(db, contents);
+    }
+
+    /**
+     * Read the whole schema table.
+     * @param db database access, generally the calling ProfileDB
+     * @param contents an attribute of the profile type
+     * @param v the version being read
+     * @return the schema
+     * @throws DeterFault on database errors
+     */
+    static private ProfileSchema read(DBObject db,
+	    ProfileDB.AttributeDB contents, long v) throws DeterFault {
+	ProfileSchema rv = new ProfileSchema(v);
+
+	try {
+	    PreparedStatement p = db.getPreparedStatement(
+		    "SELECT idx, " +
+			contents.getNameColumn() + ", " +
+			contents.getDataTypeColumn() + ", " +
+			contents.getOptionalColumn() + ", " +
+			contents.getAccessColumn() + ", " +
+			contents.getDescriptionColumn() + ", " +
+			contents.getFormatColumn() + ", " +
+			contents.getFormatDescriptionColumn() + ", " +
+			contents.getOrderingHintColumn() + ", " +
+			contents.getLengthHintColumn() +
+		    " FROM " + contents.getSchemaTable());
+	    ResultSet r = p.executeQuery();
+
+	    while (r.next()) {
+		int idx = r.getInt("idx");
+		String name = r.getString(contents.getNameColumn());
+		String type = r.getString(contents.getDataTypeColumn());
+		Attribute a = new Attribute(name,
+			(type != null) ? type.toLowerCase() : null,
+			r.getInt(contents.getOptionalColumn()) > 0,
+			r.getString(contents.getAccessColumn()),
+			r.getString(contents.getDescriptionColumn()),
+			r.getString(contents.getFormatColumn()),
+			r.getString(contents.getFormatDescriptionColumn()),
+			r.getInt(contents.getOrderingHintColumn()),
+			r.getInt(contents.getLengthHintColumn()));
+
+		rv.attributes.put(idx, a);
+		rv.indices.put(name, idx);
+	    }
+	    return rv;
+	}
+	catch (SQLException e) {
+	    throw new DeterFault(DeterFault.internal, e.getMessage());
+	}
+    }
+
+    /**
+     * Return the template for the attribute with the given schema index.
+     * The template must not be modified.
+     * @param idx the schema index
+     * @return the template or null if there is no such attribute
+     */
+    public Attribute getAttribute(int idx) { return attributes.get(idx); }
+
+    /**
+     * Return the schema index of the named attribute.
+     * @param name the attribute name
+     * @return the index or null if there is no such attribute
+     */
+    public Integer getIndex(String name) { return indices.get(name); }
+
+    /**
+     * Return templates for all the attributes.  The templates must not be
+     * modified.
+     * @return templates for all the attributes
+     */
+    public Collection<Attribute> getAttributes() {
+	return attributes.values();
+    }
+}
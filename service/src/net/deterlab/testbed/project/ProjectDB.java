@@ -8,7 +8,7 @@ import java.sql.SQLException;
 import java.sql.SQLIntegrityConstraintViolationException;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -21,6 +21,7 @@ import net.deterlab.testbed.api.Member;
 import net.deterlab.testbed.circle.CircleChallengeDB;
 import net.deterlab.testbed.circle.CircleDB;
 import net.deterlab.testbed.circle.CircleProfileDB;
+import net.deterlab.testbed.db.MembershipCache;
 import net.deterlab.testbed.db.PolicyObject;
 import net.deterlab.testbed.db.SharedConnection;
 import net.deterlab.testbed.policy.CredentialStoreDB;
@@ -35,6 +36,8 @@ public class ProjectDB extends PolicyObject {
     static private final int APPROVED = 1<<0;
     /** The name of the project */
     private String name;
+    /** Failed attempts to reclaim this project's tombstone */
+    private int reclaimAttempts;
 
     /** valid project names have no spaces or colons */
     static private Pattern validName = Pattern.compile("^[^\\s:]+$");
@@ -42,6 +45,23 @@ public class ProjectDB extends PolicyObject {
     /** String for the token indicating all valid permissions */
     static public String ALL_PERMS = "ALL_PERMS";
 
+    /** Project memberships and permissions, shared by all ProjectDBs */
+    static private MembershipCache members = new MembershipCache(
+	    "SELECT pr.projectid, u.uid, perm.name FROM projectusers AS pu " +
+		"JOIN projects AS pr ON pu.pidx = pr.idx " +
+		"JOIN users AS u ON pu.uidx = u.idx " +
+		"LEFT JOIN projectperms AS pp " +
+		    "ON pp.pidx = pu.pidx AND pp.uidx = pu.uidx " +
+		"LEFT JOIN permissions AS perm ON pp.permidx = perm.idx " +
+	    "WHERE pr.projectid IN",
+	    "SELECT perm.name FROM projectusers AS pu " +
+		"LEFT JOIN projectperms AS pp " +
+		    "ON pp.pidx = pu.pidx AND pp.uidx = pu.uidx " +
+		"LEFT JOIN permissions AS perm ON pp.permidx = perm.idx " +
+	    "WHERE pu.pidx=(SELECT idx FROM projects WHERE projectid=?) " +
+		"AND pu.uidx=(SELECT idx FROM users WHERE uid=?)",
+	    1024);
+
     /**
      * Confirm that this name is valid or null.
      * @param n the candidate
@@ -409,28 +429,7 @@ public class ProjectDB extends PolicyObject {
     public boolean isMember(String uid) throws DeterFault {
 	if ( getName() == null || uid == null ) return false;
 
-	try {
-	    PreparedStatement p = getPreparedStatement(
-		    "SELECT COUNT(*) FROM projectusers " +
-			"WHERE uidx=(SELECT idx FROM users WHERE uid=?) "+ 
-			"AND pidx=(SELECT idx FROM projects " +
-			    "WHERE projectid=?)");
-	    p.setString(1, uid);
-	    p.setString(2, getName());
-	    ResultSet r = p.executeQuery();
-	    int rows = 0;
-	    boolean rv = false;
-	    while (r.next()) {
-		if (rows++ > 0)
-		    throw new DeterFault(DeterFault.internal,
-			    "More than one count in isMember??");
-		if ( r.getInt(1) > 0) rv = true;
-	    }
-	    return rv;
-	}
-	catch (SQLException e) {
-	    throw new DeterFault(DeterFault.internal, e.getMessage());
-	}
+	return members.getPerms(this, getName(), uid) != null;
     }
 
 
@@ -478,41 +477,33 @@ public class ProjectDB extends PolicyObject {
 	    throw new DeterFault(DeterFault.internal, 
 		    "getMembers failed. Project does not have a name");
 
-	try {
-	    Map<String, Set<String>> users = new HashMap<String, Set<String>>();
-	    PreparedStatement p = getPreparedStatement(
-		    "SELECT uid FROM projectusers LEFT JOIN users AS u " +
-			"ON uidx = u.idx " +
-		    "WHERE pidx=(SELECT idx FROM projects WHERE projectid=?)");
-	    p.setString(1, getName());
-	    ResultSet r = p.executeQuery();
-	    while (r.next())
-		users.put(r.getString(1), new HashSet<String>());
-
-	    p = getPreparedStatement(
-		    "SELECT uid, name FROM projectperms LEFT JOIN users AS u "+
-			"ON  uidx = u.idx " +
-		    "LEFT JOIN permissions AS p " +
-			"ON permidx = p.idx " +
-		    "WHERE pidx=(SELECT idx FROM projects WHERE projectid=?)");
-	    p.setString(1, getName());
-	    r = p.executeQuery();
+	return members.getMembers(this,
+		Collections.singleton(getName())).get(getName());
+    }
 
-	    while (r.next()) {
-		String uid = r.getString(1);
+    /**
+     * Return the members of each of the named projects.  All the
+     * memberships are read in one query (or from the membership cache).
+     * Projects that do not exist have no members.
+     * @param projectids the projects to look up
+     * @param sc the shared connection to use (may be null)
+     * @return a map from project name to its members
+     * @throws DeterFault if something is wrong internally
+     */
+    static public Map<String, List<Member>> getMembers(
+	    Collection<String> projectids, SharedConnection sc)
+	throws DeterFault {
+	ProjectDB pdb = null;
 
-		if ( !users.containsKey(uid))
-		    throw new DeterFault(DeterFault.internal,
-			    "projectperms and projectusers are out of sync");
-		users.get(uid).add(r.getString(2));
-	    }
-	    List<Member> m = new ArrayList<Member>();
-	    for (String uid: users.keySet())
-		m.add(new Member(uid, users.get(uid).toArray(new String[0])));
-	    return m;
+	try {
+	    pdb = new ProjectDB(null, sc);
+	    Map<String, List<Member>> rv = members.getMembers(pdb, projectids);
+	    pdb.close();
+	    return rv;
 	}
-	catch (SQLException e) {
-	    throw new DeterFault(DeterFault.internal, e.getMessage());
+	catch (DeterFault df) {
+	    if ( pdb != null ) pdb.forceClose();
+	    throw df;
 	}
     }
 
@@ -534,30 +525,12 @@ public class ProjectDB extends PolicyObject {
 	    throw new DeterFault(DeterFault.request,
 		    "getPerms failed. no uid");
 
-	if (!isMember(uid))
+	Set<String> rv = members.getPerms(this, getName(), uid);
+
+	if ( rv == null )
 	    throw new DeterFault(DeterFault.request,
 		    "getPerms failed. Cannot find uid " + uid);
-	try {
-	    Set<String> rv = new HashSet<String>();
-	    PreparedStatement p = getPreparedStatement(
-		    "SELECT name FROM projectperms LEFT JOIN users AS u " +
-			"ON  uidx = u.idx " +
-		    "LEFT JOIN permissions AS p "+
-			"ON permidx = p.idx " +
-		    "WHERE pidx=" +
-			"(SELECT idx FROM projects WHERE projectid=?) "+
-		    "AND uidx=" +
-			"(SELECT idx FROM users WHERE uid=?)");
-	    p.setString(1, getName());
-	    p.setString(2, uid);
-	    ResultSet r = p.executeQuery();
-	    while (r.next())
-		rv.add(r.getString(1));
-	    return rv;
-	}
-	catch (SQLException e) {
-	    throw new DeterFault(DeterFault.internal, e.getMessage());
-	}
+	return rv;
     }
 
     /**
@@ -693,6 +666,7 @@ public class ProjectDB extends PolicyObject {
 		    p.executeUpdate();
 		}
 	    }
+	    members.invalidate(getName(), uid);
 
 	    // Now add to linked circle
 	    linked = getLinkedCircle();
@@ -718,6 +692,10 @@ public class ProjectDB extends PolicyObject {
 	    if (linked != null ) linked.forceClose();
 	    throw df;
 	}
+	finally {
+	    // A partial change leaves the cached membership unknown
+	    members.invalidate(getName(), uid);
+	}
     }
     /**
      * Change the given user's permissions.
@@ -764,6 +742,7 @@ public class ProjectDB extends PolicyObject {
 		    p.executeUpdate();
 		}
 	    }
+	    members.invalidate(getName(), uid);
 
 	    // Now modify in linked circle
 	    linked = getLinkedCircle();
@@ -783,6 +762,10 @@ public class ProjectDB extends PolicyObject {
 	    if (linked != null ) linked.forceClose();
 	    throw df;
 	}
+	finally {
+	    // A partial change leaves the cached membership unknown
+	    members.invalidate(getName(), uid);
+	}
     }
 
     /**
@@ -822,6 +805,7 @@ public class ProjectDB extends PolicyObject {
 	    p.setString(1, getName());
 	    p.setString(2, uid);
 	    p.executeUpdate();
+	    members.invalidate(getName(), uid);
 
 	    // Now remove from linked circle
 	    linked = getLinkedCircle();
@@ -841,6 +825,9 @@ public class ProjectDB extends PolicyObject {
 	    if (linked != null) linked.forceClose();
 	    throw df;
 	}
+	finally {
+	    members.invalidate(getName(), uid);
+	}
     }
 
     /**
@@ -958,6 +945,7 @@ public class ProjectDB extends PolicyObject {
 	    p.setString(1, getName());
 	    p.setString(2, owner);
 	    p.executeUpdate();
+	    members.invalidate(getName());
 
 	    // addLinkedCircle(circleid, owner);
 
@@ -1021,6 +1009,7 @@ public class ProjectDB extends PolicyObject {
 		    "WHERE pidx=(SELECT idx FROM projects WHERE projectid=?)");
 	    p.setString(1, getName());
 	    p.executeUpdate();
+	    members.invalidate(getName());
 	    // Credentials
 	    removeUserCredentials(null);
 	    // and then the project
@@ -1050,6 +1039,148 @@ public class ProjectDB extends PolicyObject {
 	}
     }
 
+    /**
+     * Take the project out of use without removing it.  The members and
+     * their permissions are removed from the project and its linked circle
+     * along with their credentials, so nothing shared with the circle stays
+     * visible through it, and the project is renamed
+     * projectid:idx, which is not a valid project name, so it can no longer
+     * be found, listed or authorized.  After this call the ProjectDB refers
+     * to the tombstone, and remove() reclaims the rest.  TombstoneCollector
+     * does that later.  The linked circle keeps its name until then, so the
+     * project name cannot be reused until the project is reclaimed.
+     * @throws DeterFault if something goes wrong
+     */
+    public void tombstone() throws DeterFault {
+	CircleDB circle = null;
+
+	if ( getName() == null)
+	    throw new DeterFault(DeterFault.internal,
+		    "remove failed. Project does not have a name");
+	try {
+	    PreparedStatement p = getPreparedStatement(
+		    "SELECT idx FROM projects WHERE projectid=?");
+	    p.setString(1, getName());
+	    ResultSet r = p.executeQuery();
+
+	    if ( !r.next() )
+		throw new DeterFault(DeterFault.request, "No such project");
+	    int idx = r.getInt(1);
+
+	    circle = getLinkedCircle();
+	    circle.removeMembers();
+	    circle.close();
+	    circle = null;
+
+	    p = getPreparedStatement("DELETE FROM projectusers WHERE pidx=?");
+	    p.setInt(1, idx);
+	    p.executeUpdate();
+	    p = getPreparedStatement("DELETE FROM projectperms WHERE pidx=?");
+	    p.setInt(1, idx);
+	    p.executeUpdate();
+	    members.invalidate(getName());
+	    removeUserCredentials(null);
+
+	    String tomb = getName() + ":" + idx;
+
+	    p = getPreparedStatement("UPDATE scopenames SET name=? " +
+		    "WHERE idx=(SELECT nameidx FROM rawprojects WHERE idx=?)");
+	    p.setString(1, tomb);
+	    p.setInt(2, idx);
+	    p.executeUpdate();
+	    p = getPreparedStatement(
+		    "UPDATE rawprojects SET removed=NOW() WHERE idx=?");
+	    p.setInt(1, idx);
+	    p.executeUpdate();
+	    // Not a valid project name, so do not use setName.
+	    name = tomb;
+	}
+	catch (SQLException e) {
+	    if ( circle != null ) circle.forceClose();
+	    throw new DeterFault(DeterFault.internal, e.getMessage());
+	}
+	catch (DeterFault df) {
+	    if ( circle != null ) circle.forceClose();
+	    throw df;
+	}
+    }
+
+    /**
+     * Return the number of failed attempts to reclaim this tombstone, as of
+     * when getTombstones returned it.
+     * @return the number of failed attempts
+     */
+    public int getReclaimAttempts() { return reclaimAttempts; }
+
+    /**
+     * Record a failed attempt to reclaim this tombstone.  getTombstones
+     * skips it until the delay has passed.
+     * @param delay seconds before the next attempt
+     * @throws DeterFault on error
+     */
+    public void reclaimFailed(long delay) throws DeterFault {
+	try {
+	    PreparedStatement p = getPreparedStatement(
+		    "UPDATE rawprojects AS p " +
+			"JOIN scopenames AS s ON p.nameidx = s.idx " +
+		    "SET p.reclaimattempts = p.reclaimattempts + 1, " +
+			"p.nextreclaim = NOW() + INTERVAL ? SECOND " +
+		    "WHERE s.name=? AND p.removed IS NOT NULL");
+	    p.setLong(1, delay);
+	    p.setString(2, getName());
+	    p.executeUpdate();
+	}
+	catch (SQLException e) {
+	    throw new DeterFault(DeterFault.internal, e.getMessage());
+	}
+    }
+
+    /**
+     * Return up to count projects that have been tombstoned but not yet
+     * removed, oldest first.  Tombstones whose last reclaim failed are
+     * skipped until their next attempt is due.  The shared connection is
+     * used if present.
+     * @param count the number to return
+     * @param sc the shared connection to use
+     * @return a list of ProjectDBs
+     * @throws DeterFault on errors
+     */
+    static public List<ProjectDB> getTombstones(int count,
+	    SharedConnection sc) throws DeterFault {
+	List<ProjectDB> projects = new ArrayList<ProjectDB>();
+	if ( sc == null ) sc = new SharedConnection();
+
+	try {
+	    sc.open();
+	    PreparedStatement p = sc.getConnection().prepareStatement(
+		    "SELECT name, reclaimattempts FROM rawprojects AS p " +
+			"JOIN scopenames AS s ON p.nameidx = s.idx " +
+		    "WHERE removed IS NOT NULL AND " +
+			"(nextreclaim IS NULL OR nextreclaim <= NOW()) " +
+		    "ORDER BY removed LIMIT ?");
+	    p.setInt(1, count);
+	    ResultSet r = p.executeQuery();
+
+	    while (r.next()) {
+		ProjectDB proj = new ProjectDB(null, sc);
+
+		proj.name = r.getString(1);
+		proj.reclaimAttempts = r.getInt(2);
+		projects.add(proj);
+	    }
+	    sc.close();
+	    return projects;
+	}
+	catch (SQLException e) {
+	    try {
+		sc.close();
+	    } catch (DeterFault ignored) {}
+	    for (ProjectDB proj: projects)
+		proj.forceClose();
+	    throw new DeterFault(DeterFault.internal, e.getMessage());
+	}
+    }
+
     /**
      * Get a list of all Projects that the uid is a member of.  Regex and uid
      * both constrain the search. The shared connection is used if present.
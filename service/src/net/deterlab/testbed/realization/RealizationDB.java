@@ -19,10 +19,13 @@ import java.util.Map;
 import java.util.Set;
 
 import net.deterlab.testbed.api.AccessMember;
+import net.deterlab.testbed.api.ApiObject;
 import net.deterlab.testbed.api.Config;
 import net.deterlab.testbed.api.DeterFault;
+import net.deterlab.testbed.api.RealizationEvent;
 import net.deterlab.testbed.db.ACLObject;
 import net.deterlab.testbed.db.SharedConnection;
+import net.deterlab.testbed.db.VisibilityIndex;
 import net.deterlab.testbed.topology.TopologyDescription;
 import net.deterlab.testbed.topology.TopologyException;
 
@@ -43,6 +46,8 @@ public class RealizationDB extends ACLObject {
     private String eid;
     /** The current realization status */
     private String status;
+    /** The status last recorded in the event log */
+    private String savedStatus;
     /** The creator uid */
     private String creator;
     /** The topologyDescription stored in topofile. */
@@ -68,6 +73,7 @@ public class RealizationDB extends ACLObject {
 	eid = null;
 	creator = null;
 	status = null;
+	savedStatus = null;
 	topo = null;
 	embedder = null;
 	contains = new HashMap<>();
@@ -344,6 +350,14 @@ public class RealizationDB extends ACLObject {
 			"Realization create initally failed: " +
 			"multiple inserts!?");
 
+	    // Start the event log, dropping any left by an earlier
+	    // realization with this name.
+	    p = getPreparedStatement(
+		    "DELETE FROM realizationevents WHERE name=?");
+	    p.setString(1, getName());
+	    p.executeUpdate();
+	    addEvent();
+
 	    // Assign permissions
 	    for (AccessMember m : inAcl )
 		assignPermissions(m);
@@ -395,6 +409,24 @@ public class RealizationDB extends ACLObject {
 	}
     }
 
+    /**
+     * Append the current status to the realization's event log and wake
+     * callers waiting for events.
+     * @throws SQLException on database errors
+     * @throws DeterFault if the database connection fails
+     */
+    protected void addEvent() throws SQLException, DeterFault {
+	PreparedStatement p = getPreparedStatement(
+		"INSERT INTO realizationevents (name, status, ts) " +
+		"VALUES (?, ?, NOW())");
+
+	p.setString(1, getName());
+	p.setString(2, status);
+	p.executeUpdate();
+	savedStatus = status;
+	RealizationEvents.changed();
+    }
+
     /**
      * Load the realization's content from the DB
      * @throws DeterFault on errors
@@ -419,7 +451,7 @@ public class RealizationDB extends ACLObject {
 			"More than one definition for realization");
 		cid = r.getString(1);
 		eid = r.getString(2);
-		status = r.getString(3);
+		status = savedStatus = r.getString(3);
 		topoFile = (r.getString(4) != null) ?
 		    new File(r.getString(4)) : null;
 		setCreator(r.getString(5));
@@ -505,6 +537,7 @@ public class RealizationDB extends ACLObject {
 	    p.setString(5, getEmbedderName());
 	    p.setString(6, getName());
 	    p.executeUpdate();
+	    if ( status != null && !status.equals(savedStatus) ) addEvent();
 	}
 	catch (SQLException e) {
 	    throw new DeterFault(DeterFault.internal,
@@ -593,6 +626,7 @@ public class RealizationDB extends ACLObject {
 		f.delete();
 	    }
 
+	    VisibilityIndex.removeObject(this, getPolicyType(), getName());
 	    p = getPreparedStatement("DELETE FROM realizationperms " +
 		    "WHERE ridx=(SELECT idx FROM realizations WHERE name=?)");
 	    p.setString(1, getName());
@@ -608,6 +642,11 @@ public class RealizationDB extends ACLObject {
 	    p.setString(1, getName());
 	    p.executeUpdate();
 
+	    p = getPreparedStatement(
+		    "DELETE FROM realizationevents WHERE name=?");
+	    p.setString(1, getName());
+	    p.executeUpdate();
+
 	    p = getPreparedStatement("DELETE FROM realizations WHERE name=?");
 	    p.setString(1, getName());
 	    int ndel = p.executeUpdate();
@@ -652,7 +691,14 @@ public class RealizationDB extends ACLObject {
 	try {
 	    sc.open();
 	    c = sc.getConnection();
-	    // XXX: uid?
+	    if ( uid != null ) {
+		query.append("WHERE ");
+		whereAdded = true;
+		// Realizations uid can read through a circle, from the
+		// visibility index, or created.
+		query.append("(" + VisibilityIndex.visibleTo("realization") +
+			"OR creator=?) ");
+	    }
 	    if ( regex != null ) {
 		if (whereAdded) query.append("AND ");
 		else {
@@ -669,6 +715,10 @@ public class RealizationDB extends ACLObject {
 	    }
 	    PreparedStatement p = c.prepareStatement(query.toString());
 
+	    if ( uid != null) {
+		p.setString(sqlIdx++, uid);
+		p.setString(sqlIdx++, uid);
+	    }
 	    if ( regex != null) p.setString(sqlIdx++, regex);
 	    if ( count  != -1 ) {
 		p.setInt(sqlIdx++, count);
@@ -696,4 +746,58 @@ public class RealizationDB extends ACLObject {
 	    throw new DeterFault(DeterFault.internal, "SQL Exception: " +e);
 	}
     }
+
+    /**
+     * Return the events in a realization's log after the given sequence
+     * number, oldest first.  The connection is closed unless it is still
+     * shared.
+     * @param name the realization
+     * @param after the sequence number of the last event seen (0 for all)
+     * @param count the most events to return
+     * @param sc the shared connection to use
+     * @return the events
+     * @throws DeterFault if the realization does not exist or on errors
+     */
+    static public List<RealizationEvent> getEvents(String name, long after,
+	    int count, SharedConnection sc) throws DeterFault {
+	List<RealizationEvent> rv = new ArrayList<>();
+
+	if ( sc == null) sc = new SharedConnection();
+	try {
+	    sc.open();
+	    // The outer join returns a row with no event if the realization
+	    // exists but has nothing new, and no rows if it does not exist.
+	    PreparedStatement p = sc.getConnection().prepareStatement(
+		    "SELECT e.seq, e.status, e.ts FROM realizations AS r " +
+		    "LEFT JOIN realizationevents AS e " +
+			"ON e.name=r.name AND e.seq > ? " +
+		    "WHERE r.name=? ORDER BY e.seq LIMIT ?");
+	    boolean found = false;
+
+	    p.setLong(1, after);
+	    p.setString(2, name);
+	    p.setInt(3, count);
+	    ResultSet r = p.executeQuery();
+	    while (r.next()) {
+		found = true;
+		if ( r.getObject(1) == null ) continue;
+
+		RealizationEvent e = new RealizationEvent();
+
+		e.setSequence(r.getLong(1));
+		e.setStatus(r.getString(2));
+		e.setTime(ApiObject.dateToString(r.getTimestamp(3)));
+		rv.add(e);
+	    }
+	    sc.close();
+	    if ( !found )
+		throw new DeterFault(DeterFault.request,
+			"No such realization " + name);
+	    return rv;
+	}
+	catch (SQLException e) {
+	    sc.forceClose();
+	    throw new DeterFault(DeterFault.internal, "SQL Exception: " +e);
+	}
+    }
 }
@@ -0,0 +1,55 @@
+package net.deterlab.testbed.realization;
+
+/**
+ * Lets API calls waiting for realization events in this process wake as
+ * soon as a status change is recorded here, rather than at their next poll
+ * of the event log.  Changes recorded by other processes, such as an
+ * embedder's realizer, are only seen by polling.
+ * @author DETER team
+ * @version 1.0
+ */
+public class RealizationEvents {
+    /** Guards changes */
+    static private final Object lock = new Object();
+    /** Status changes recorded by this process */
+    static private long changes = 0;
+
+    /**
+     * Note that a status change has been recorded and wake the waiters.
+     */
+    static public void changed() {
+	synchronized (lock) {
+	    changes++;
+	    lock.notifyAll();
+	}
+    }
+
+    /**
+     * Return the number of status changes recorded by this process.  Read
+     * it before reading the log and pass it to await, so a change made in
+     * between is not missed.
+     * @return the number of status changes recorded
+     */
+    static public long changes() {
+	synchronized (lock) {
+	    return changes;
+	}
+    }
+
+    /**
+     * Wait until a status change is recorded after seen changes, or until
+     * ms milliseconds pass.
+     * @param seen the changes already seen
+     * @param ms the longest time to wait
+     * @throws InterruptedException if the wait is interrupted
+     */
+    static public void await(long seen, long ms) throws InterruptedException {
+	long end = System.currentTimeMillis() + ms;
+
+	synchronized (lock) {
+	    for (long left = ms; changes == seen && left > 0;
+		    left = end - System.currentTimeMillis())
+		lock.wait(left);
+	}
+    }
+}
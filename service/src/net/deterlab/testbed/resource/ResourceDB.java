@@ -18,6 +18,7 @@ import net.deterlab.testbed.api.ResourceFacet;
 import net.deterlab.testbed.api.ResourceTag;
 import net.deterlab.testbed.db.ACLObject;
 import net.deterlab.testbed.db.SharedConnection;
+import net.deterlab.testbed.db.VisibilityIndex;
 
 /**
  * Resource information in the Database
@@ -903,6 +904,7 @@ public class ResourceDB extends ACLObject {
 		    "WHERE ridx=(SELECT idx FROM resources WHERE name=?)");
 	    p.setString(1, getName());
 	    p.executeUpdate();
+	    VisibilityIndex.removeObject(this, getPolicyType(), getName());
 	    p = getPreparedStatement("DELETE FROM resourceperms " +
 		    "WHERE ridx=(SELECT idx FROM resources WHERE name=?)");
 	    p.setString(1, getName());
@@ -959,7 +961,16 @@ public class ResourceDB extends ACLObject {
 	try {
 	    sc.open();
 	    c = sc.getConnection();
-	    // XXX: uid?
+	    if ( uid != null ) {
+		query.append("WHERE ");
+		whereAdded = true;
+		// Resources uid can access through a circle, from the
+		// visibility index, and resources without an ACL, which
+		// everyone can see.
+		query.append("(" + VisibilityIndex.visibleTo("resource") +
+			"OR idx NOT IN (SELECT ridx FROM resourceperms " +
+			    "WHERE ridx IS NOT NULL)) ");
+	    }
 	    if ( type != null ) {
 		if ( whereAdded ) query.append("AND ");
 		else {
@@ -1042,6 +1053,7 @@ public class ResourceDB extends ACLObject {
 	    }
 	    PreparedStatement p = c.prepareStatement(query.toString());
 
+	    if ( uid != null) p.setString(sqlIdx++, uid);
 	    if ( type != null) p.setString(sqlIdx++, type);
 	    if ( regex != null) p.setString(sqlIdx++, regex);
 	    if ( needRealizationName ) {
@@ -0,0 +1,310 @@
+package net.deterlab.testbed.rpc;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.deterlab.testbed.api.Config;
+import net.deterlab.testbed.api.DeterFault;
+
+import net.deterlab.testbed.metrics.Metrics;
+
+/**
+ * Limits how many API calls of each kind run at once so that slow
+ * operations cannot take every request thread and stall fast ones.  Each
+ * operation belongs to a class, or bulkhead, that admits a bounded number of
+ * concurrent calls and a bounded number from any one caller.  A call that
+ * cannot start at once waits in its class's queue for a while; if the queue
+ * is full, the wait runs out or the caller already has its share, the call
+ * is rejected with a DeterFault.busy, which clients may retry.  Exempt
+ * operations are never held.
+ * <p>
+ * Operations are named Service.operation; Service.* names every operation
+ * of a service.  Operations not in a configured class are in the default
+ * class.  Callers are identified by client certificate, or by address if
+ * they present none.
+ * <p>
+ * Configuration properties (all optional):
+ * <dl>
+ * <dt>admissionClasses</dt><dd>comma separated names of the classes
+ *	other than default (default slow,watch)</dd>
+ * <dt>admission.<i>class</i>.operations</dt><dd>comma separated
+ *	operations in the class.  The slow class defaults to
+ *	Experiments.realizeExperiment, Experiments.viewExperiments,
+ *	Realizations.releaseRealization and Admin.resetAccessControl.  The
+ *	watch class, for calls that wait for events, defaults to
+ *	Realizations.getRealizationEvents</dd>
+ * <dt>admission.<i>class</i>.limit</dt><dd>calls that may run at once
+ *	(slow 8, watch 32, others 64)</dd>
+ * <dt>admission.<i>class</i>.perCaller</dt><dd>calls one caller may
+ *	have running or waiting (slow 2, watch 4, others 8)</dd>
+ * <dt>admission.<i>class</i>.queue</dt><dd>calls that may wait to run
+ *	(slow 16, watch 0, others 64)</dd>
+ * <dt>admission.<i>class</i>.wait</dt><dd>seconds a call may wait
+ *	(slow 30, watch 0, others 10)</dd>
+ * <dt>admissionExempt</dt><dd>comma separated operations that are never
+ *	held (default ApiInfo.*)</dd>
+ * </dl>
+ * @author DETER team
+ * @version 1.0
+ */
+public class AdmissionControl {
+    /** Name of the class holding unlisted operations */
+    static public final String DEFAULT = "default";
+    /** The per-process admission control */
+    static private AdmissionControl instance = null;
+
+    /**
+     * One class of operations.
+     */
+    static public class Bulkhead {
+	/** The class name */
+	private String name;
+	/** Permits for running calls */
+	private Semaphore slots;
+	/** Calls one caller may have running or waiting */
+	private int perCaller;
+	/** Calls that may wait */
+	private int queue;
+	/** Milliseconds a call may wait */
+	private long wait;
+	/** Calls waiting now */
+	private AtomicInteger waiting;
+	/** Calls running or waiting per caller */
+	private Map<String, Integer> callers;
+
+	/**
+	 * Create a bulkhead.
+	 * @param n the class name
+	 * @param limit calls that may run at once
+	 * @param perCaller calls one caller may have running or waiting
+	 * @param queue calls that may wait
+	 * @param wait milliseconds a call may wait
+	 */
+	public Bulkhead(String n, int limit, int perCaller, int queue,
+		long wait) {
+	    name = n;
+	    slots = new Semaphore(limit, true);
+	    this.perCaller = perCaller;
+	    this.queue = queue;
+	    this.wait = wait;
+	    waiting = new AtomicInteger(0);
+	    callers = new HashMap<String, Integer>();
+	}
+
+	/**
+	 * Return the class name.
+	 * @return the class name
+	 */
+	public String getName() { return name; }
+
+	/**
+	 * Count a call for caller, unless the caller has its share.
+	 * @param caller the caller
+	 * @return true if the call was counted
+	 */
+	private synchronized boolean addCaller(String caller) {
+	    Integer n = callers.get(caller);
+
+	    if ( n != null && n >= perCaller ) return false;
+	    callers.put(caller, (n != null) ? n + 1 : 1);
+	    return true;
+	}
+
+	/**
+	 * Stop counting a call for caller.
+	 * @param caller the caller
+	 */
+	private synchronized void removeCaller(String caller) {
+	    Integer n = callers.get(caller);
+
+	    if ( n == null ) return;
+	    if ( n <= 1 ) callers.remove(caller);
+	    else callers.put(caller, n - 1);
+	}
+
+	/**
+	 * Return the fault for a rejected call.
+	 * @param why the reason
+	 * @return the fault
+	 */
+	private DeterFault busy(String why) {
+	    Metrics.count("admission." + name + ".rejected", 1);
+	    return new DeterFault(DeterFault.busy, why + "; retry later");
+	}
+
+	/**
+	 * Wait for the call to be admitted.  Every successful call must be
+	 * followed by a call to exit with the same caller.
+	 * @param caller the caller
+	 * @throws DeterFault if the call is rejected
+	 */
+	public void enter(String caller) throws DeterFault {
+	    if ( !addCaller(caller) )
+		throw busy("Too many " + name + " operations in progress " +
+			"for this caller");
+	    if ( slots.tryAcquire() ) return;
+
+	    long start = System.nanoTime();
+	    boolean admitted = false;
+
+	    try {
+		if ( waiting.incrementAndGet() > queue )
+		    throw busy("Too many " + name + " operations waiting");
+		if ( !slots.tryAcquire(wait, TimeUnit.MILLISECONDS) )
+		    throw busy("Timed out waiting to start " + name +
+			    " operation");
+		admitted = true;
+		Metrics.time("admission." + name + ".wait",
+			System.nanoTime() - start);
+	    }
+	    catch (InterruptedException e) {
+		Thread.currentThread().interrupt();
+		throw busy("Interrupted waiting to start " + name +
+			" operation");
+	    }
+	    finally {
+		waiting.decrementAndGet();
+		if ( !admitted ) removeCaller(caller);
+	    }
+	}
+
+	/**
+	 * Note that an admitted call has finished.
+	 * @param caller the caller
+	 */
+	public void exit(String caller) {
+	    slots.release();
+	    removeCaller(caller);
+	}
+    }
+
+    /** Bulkheads by operation */
+    private Map<String, Bulkhead> operations;
+    /** Bulkheads by service, for Service.* */
+    private Map<String, Bulkhead> services;
+    /** Exempt operations and services (as Service.*) */
+    private Set<String> exempt;
+    /** The default bulkhead */
+    private Bulkhead defaultBulkhead;
+
+    /**
+     * Create admission control from the configuration.
+     * @param config the configuration
+     */
+    public AdmissionControl(Config config) {
+	String classes = config.getProperty("admissionClasses");
+
+	operations = new HashMap<String, Bulkhead>();
+	services = new HashMap<String, Bulkhead>();
+	exempt = new HashSet<String>();
+	for (String op : list(config.getProperty("admissionExempt"),
+		    "ApiInfo.*"))
+	    exempt.add(op);
+	defaultBulkhead = makeBulkhead(config, DEFAULT);
+	for (String c : list(classes, "slow,watch")) {
+	    Bulkhead b = makeBulkhead(config, c);
+	    String ops = config.getProperty("admission." + c + ".operations");
+
+	    if ( ops == null && c.equals("slow") )
+		ops = "Experiments.realizeExperiment," +
+		    "Experiments.viewExperiments," +
+		    "Realizations.releaseRealization," +
+		    "Admin.resetAccessControl";
+	    if ( ops == null && c.equals("watch") )
+		ops = "Realizations.getRealizationEvents";
+	    for (String op : list(ops, null)) {
+		if ( op.endsWith(".*") )
+		    services.put(op.substring(0, op.length() - 2), b);
+		else
+		    operations.put(op, b);
+	    }
+	}
+    }
+
+    /**
+     * Return the admission control for this process, creating it from the
+     * service configuration if necessary.
+     * @return the admission control
+     * @throws DeterFault if the configuration cannot be read
+     */
+    static public synchronized AdmissionControl getInstance()
+	    throws DeterFault {
+	if ( instance == null ) instance = new AdmissionControl(new Config());
+	return instance;
+    }
+
+    /**
+     * Split a comma separated list.
+     * @param v the list (may be null)
+     * @param def the list to use if v is null (may be null)
+     * @return the elements
+     */
+    static private String[] list(String v, String def) {
+	if ( v == null ) v = def;
+	if ( v == null || v.trim().isEmpty() ) return new String[0];
+	return v.trim().split("\\s*,\\s*");
+    }
+
+    /**
+     * Read an integer property, returning a default if it is missing or
+     * malformed.
+     * @param config the configuration
+     * @param name the property name
+     * @param def the default value
+     * @return the value
+     */
+    static private int intProperty(Config config, String name, int def) {
+	String v = config.getProperty(name);
+
+	if ( v == null ) return def;
+	try {
+	    return Integer.parseInt(v);
+	}
+	catch (NumberFormatException e) {
+	    return def;
+	}
+    }
+
+    /**
+     * Make the bulkhead for a class from the configuration.
+     * @param config the configuration
+     * @param c the class name
+     * @return the bulkhead
+     */
+    static private Bulkhead makeBulkhead(Config config, String c) {
+	String p = "admission." + c + ".";
+	boolean slow = c.equals("slow");
+	boolean watch = c.equals("watch");
+
+	// Waiting calls already hold their thread a long time, so the watch
+	// class rejects rather than queues.
+	return new Bulkhead(c,
+		intProperty(config, p + "limit", slow ? 8 : watch ? 32 : 64),
+		intProperty(config, p + "perCaller", slow ? 2 : watch ? 4 : 8),
+		intProperty(config, p + "queue", slow ? 16 : watch ? 0 : 64),
+		intProperty(config, p + "wait", slow ? 30 : watch ? 0 : 10) *
+		    1000L);
+    }
+
+    /**
+     * Return the bulkhead for an operation.
+     * @param service the service name
+     * @param op the operation name
+     * @return the bulkhead, or null if the operation is exempt
+     */
+    public Bulkhead classify(String service, String op) {
+	String name = service + "." + op;
+	Bulkhead b = null;
+
+	if ( exempt.contains(name) || exempt.contains(service + ".*") )
+	    return null;
+	if ( (b = operations.get(name)) != null ) return b;
+	if ( (b = services.get(service)) != null ) return b;
+	return defaultBulkhead;
+    }
+}
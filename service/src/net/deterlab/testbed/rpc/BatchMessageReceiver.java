@@ -0,0 +1,404 @@
+package net.deterlab.testbed.rpc;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.xml.namespace.QName;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+import net.deterlab.testbed.api.Config;
+import net.deterlab.testbed.api.DeterFault;
+
+import net.deterlab.testbed.db.ReplicaRouter;
+import net.deterlab.testbed.db.SharedConnection;
+
+import net.deterlab.testbed.metrics.Metrics;
+
+import net.deterlab.testbed.policy.CredentialStoreDB;
+
+import org.apache.axiom.om.OMElement;
+import org.apache.axiom.om.OMNamespace;
+
+import org.apache.axiom.om.ds.AbstractPushOMDataSource;
+
+import org.apache.axiom.soap.SOAPEnvelope;
+import org.apache.axiom.soap.SOAPFactory;
+
+import org.apache.axis2.AxisFault;
+
+import org.apache.axis2.context.MessageContext;
+
+import org.apache.axis2.description.AxisService;
+
+import org.apache.log4j.Logger;
+
+/**
+ * The Axis2 message receiver for the Batch service, which makes a list of
+ * API calls in one request.  Each call is the request element the
+ * operation takes on its own, wrapped in a call element naming the service:
+ * <pre>
+ * &lt;batch&gt;
+ *   &lt;call service="Users"&gt;
+ *     &lt;getUserProfile&gt;&lt;uid&gt;alice&lt;/uid&gt;&lt;/getUserProfile&gt;
+ *   &lt;/call&gt;
+ *   ...
+ * &lt;/batch&gt;
+ * </pre>
+ * The batchResponse holds an element for each call, in order: a result
+ * wrapping the operation's usual response element, or a fault holding the
+ * errorCode, errorMessage and detailMessage of the DeterFault the call
+ * raised.  Both carry the service and operation attributes.  A failed call
+ * does not stop the ones after it.
+ * <p>
+ * The calls run in order on the request thread and act for the caller's
+ * certificate.  They share one database connection (see
+ * SharedConnection.pin), the credentials read for access checks (see
+ * CredentialStoreDB.startBatch) and one ReplicaRouter request, so reads
+ * see the batch's earlier writes.  Each call is admitted by
+ * AdmissionControl and its statistics recorded as if it were made alone;
+ * the batch itself is not held.  Only operations with a generated
+ * dispatcher can be batched.
+ * <p>
+ * Configuration properties (all optional):
+ * <dl>
+ * <dt>batchMaxCalls</dt><dd>calls allowed in one batch (default 50)</dd>
+ * </dl>
+ * @author DETER team
+ * @version 1.0
+ */
+public class BatchMessageReceiver extends GeneratedMessageReceiver {
+    /** The call attribute naming the service */
+    static private final QName SERVICE = new QName("service");
+    /** Service implementations by service name */
+    static private Map<String, Object> implementations =
+	new ConcurrentHashMap<>();
+    /** Log for errors */
+    static private Logger log = Logger.getLogger(BatchMessageReceiver.class);
+
+    /** Calls allowed in one batch; read from the configuration when needed */
+    private int maxCalls = -1;
+
+    /**
+     * The outcome of one call.  Note the package scope.
+     */
+    static class Outcome {
+	/** The service name */
+	public String service;
+	/** The operation name */
+	public String operation;
+	/** The result, if the call succeeded */
+	public Response response;
+	/** The fault, if the call failed */
+	public DeterFault fault;
+	/** The namespace of the result */
+	public OMNamespace ns;
+
+	/**
+	 * Start an outcome.
+	 * @param s the service name
+	 * @param op the operation name
+	 */
+	public Outcome(String s, String op) {
+	    service = s;
+	    operation = op;
+	    response = null;
+	    fault = null;
+	    ns = null;
+	}
+    }
+
+    /**
+     * Writes the batch response when it is sent.
+     */
+    static private class BatchSource extends AbstractPushOMDataSource {
+	/** The outcomes */
+	private List<Outcome> outcomes;
+	/** The namespace */
+	private OMNamespace ns;
+
+	/**
+	 * Create a batch response source.
+	 * @param o the outcomes
+	 * @param ns the namespace
+	 */
+	public BatchSource(List<Outcome> o, OMNamespace ns) {
+	    outcomes = o;
+	    this.ns = ns;
+	}
+
+	/**
+	 * Return false; the response can be written more than once.
+	 * @return false
+	 */
+	public boolean isDestructiveWrite() { return false; }
+
+	/**
+	 * Write a result or fault element's start and attributes.
+	 * @param w the stream
+	 * @param name the element name
+	 * @param o the outcome
+	 * @throws XMLStreamException on errors
+	 */
+	private void startOutcome(XMLStreamWriter w, String name, Outcome o)
+		throws XMLStreamException {
+	    w.writeStartElement(ns.getPrefix(), name, ns.getNamespaceURI());
+	    if ( o.service != null ) w.writeAttribute("service", o.service);
+	    if ( o.operation != null )
+		w.writeAttribute("operation", o.operation);
+	}
+
+	/**
+	 * Write the batchResponse element.
+	 * @param w the stream
+	 * @throws XMLStreamException on errors
+	 */
+	public void serialize(XMLStreamWriter w) throws XMLStreamException {
+	    String uri = ns.getNamespaceURI();
+
+	    w.writeStartElement(ns.getPrefix(), "batchResponse", uri);
+	    w.writeNamespace(ns.getPrefix(), uri);
+	    w.writeNamespace("xsi", Serializers.XSI);
+	    for (Outcome o : outcomes) {
+		if ( o.fault == null ) {
+		    String rUri = o.ns.getNamespaceURI();
+
+		    startOutcome(w, "result", o);
+		    w.writeStartElement(o.ns.getPrefix(),
+			    o.operation + "Response", rUri);
+		    w.writeNamespace(o.ns.getPrefix(), rUri);
+		    o.response.write(w, rUri);
+		    w.writeEndElement();
+		}
+		else {
+		    startOutcome(w, "fault", o);
+		    Serializers.writeValue(w, uri, "errorCode",
+			    o.fault.getErrorCode());
+		    Serializers.writeString(w, uri, "errorMessage",
+			    o.fault.getErrorMessage());
+		    Serializers.writeString(w, uri, "detailMessage",
+			    o.fault.getDetailMessage());
+		}
+		w.writeEndElement();
+	    }
+	    w.writeEndElement();
+	}
+    }
+
+    /**
+     * Return the number of calls allowed in one batch.
+     * @return the number of calls allowed in one batch
+     * @throws DeterFault if the configuration cannot be read
+     */
+    private synchronized int getMaxCalls() throws DeterFault {
+	if ( maxCalls >= 0 ) return maxCalls;
+
+	String v = new Config().getProperty("batchMaxCalls");
+
+	maxCalls = 50;
+	if ( v == null ) return maxCalls;
+	try {
+	    maxCalls = Integer.parseInt(v);
+	}
+	catch (NumberFormatException ignored) { }
+	return maxCalls;
+    }
+
+    /**
+     * Return the implementation of a service, creating it the first time.
+     * @param service the service
+     * @return the implementation
+     * @throws DeterFault if the service cannot be batched or its class
+     * cannot be instantiated
+     */
+    static private Object getImplementation(AxisService service)
+	    throws DeterFault {
+	Object obj = implementations.get(service.getName());
+
+	if ( obj != null ) return obj;
+
+	Object cn = service.getParameterValue("ServiceClass");
+
+	if ( cn == null )
+	    throw new DeterFault(DeterFault.request,
+		    "Service " + service.getName() + " cannot be batched");
+	try {
+	    obj = Class.forName(cn.toString().trim(), true,
+		    service.getClassLoader()).newInstance();
+	}
+	catch (ReflectiveOperationException e) {
+	    throw new DeterFault(DeterFault.internal,
+		    "Cannot create " + service.getName() + ": " + e);
+	}
+	implementations.put(service.getName(), obj);
+	return obj;
+    }
+
+    /**
+     * Find the service a call names and call the operation through its
+     * generated dispatcher once AdmissionControl admits it.  The namespace
+     * of the result is set in the outcome.  Note the package scope.
+     * @param inMessage the batch request
+     * @param req the operation's request element
+     * @param o the outcome, naming the service and operation
+     * @param caller the caller's name for admission control
+     * @return the result
+     * @throws DeterFault if the call cannot be made or fails
+     * @throws XMLStreamException if the request cannot be parsed
+     * @throws AxisFault if the service cannot be found
+     */
+    Response invokeCall(MessageContext inMessage, OMElement req, Outcome o,
+	    String caller) throws DeterFault, XMLStreamException, AxisFault {
+	AxisService as = inMessage.getConfigurationContext()
+	    .getAxisConfiguration().getService(o.service);
+
+	if ( as == null )
+	    throw new DeterFault(DeterFault.request,
+		    "No such service " + o.service);
+
+	Object obj = getImplementation(as);
+	Dispatcher d = getDispatcher(obj.getClass());
+
+	if ( !d.handles(o.operation) )
+	    throw new DeterFault(DeterFault.request,
+		    o.service + "." + o.operation + " cannot be batched");
+
+	AdmissionControl.Bulkhead b =
+	    AdmissionControl.getInstance().classify(o.service, o.operation);
+
+	if ( b != null ) b.enter(caller);
+	try {
+	    XMLStreamReader r = req.getXMLStreamReader();
+	    Response rv = null;
+
+	    Serializers.enter(r);
+	    rv = d.invoke(obj, o.operation, r);
+	    o.ns = getSOAPFactory(inMessage).createOMNamespace(
+		    as.getSchemaTargetNamespace(),
+		    as.getSchemaTargetNamespacePrefix());
+	    return rv;
+	}
+	finally {
+	    if ( b != null ) b.exit(caller);
+	}
+    }
+
+    /**
+     * Make one call, recording its statistics.  Any failure is returned in
+     * the outcome.
+     * @param inMessage the batch request
+     * @param call the call element
+     * @param caller the caller's name for admission control
+     * @return the outcome
+     */
+    private Outcome call(MessageContext inMessage, OMElement call,
+	    String caller) {
+	OMElement req = call.getFirstElement();
+	String service = call.getAttributeValue(SERVICE);
+	String op = (req != null) ? req.getLocalName() : null;
+	Outcome o = new Outcome(service, op);
+	boolean failed = true;
+
+	Metrics.startRequest(service + "." + op);
+	try {
+	    if ( service == null || op == null )
+		throw new DeterFault(DeterFault.request,
+			"Call without a service or operation");
+	    o.response = invokeCall(inMessage, req, o, caller);
+	    failed = false;
+	}
+	catch (DeterFault df) {
+	    o.fault = df;
+	}
+	catch (XMLStreamException e) {
+	    o.fault = new DeterFault(DeterFault.request,
+		    "Cannot parse " + op + " request: " + e.getMessage());
+	}
+	catch (AxisFault e) {
+	    o.fault = new DeterFault(DeterFault.internal, e.getMessage());
+	}
+	catch (RuntimeException e) {
+	    log.error("Error in batched " + service + "." + op + ": " + e);
+	    o.fault = new DeterFault(DeterFault.internal, e.toString());
+	}
+	finally {
+	    Metrics.endRequest(failed);
+	}
+	return o;
+    }
+
+    /**
+     * Make the calls in order, sharing a database connection, the
+     * credentials read and one ReplicaRouter request among them.  Note the
+     * package scope.
+     * @param inMessage the batch request
+     * @param calls the call elements
+     * @param session the caller's session for the ReplicaRouter
+     * @param caller the caller's name for admission control
+     * @return the outcomes, in order
+     */
+    List<Outcome> callAll(MessageContext inMessage, List<OMElement> calls,
+	    String session, String caller) {
+	List<Outcome> outcomes = new ArrayList<Outcome>();
+
+	ReplicaRouter.startRequest(session);
+	SharedConnection.pin();
+	CredentialStoreDB.startBatch();
+	try {
+	    for (OMElement call : calls)
+		outcomes.add(call(inMessage, call, caller));
+	}
+	finally {
+	    CredentialStoreDB.endBatch();
+	    SharedConnection.unpin();
+	    ReplicaRouter.endRequest();
+	}
+	return outcomes;
+    }
+
+    /**
+     * Make the calls in the batch and build the response.
+     * @param inMessage the request
+     * @param outMessage the response
+     * @throws AxisFault if the batch is malformed or too long
+     */
+    public void invokeBusinessLogic(MessageContext inMessage,
+	    MessageContext outMessage) throws AxisFault {
+	AxisService service = inMessage.getAxisService();
+	SOAPFactory fac = getSOAPFactory(inMessage);
+	OMElement batch = inMessage.getEnvelope().getBody().getFirstElement();
+	List<OMElement> calls = new ArrayList<OMElement>();
+	List<Outcome> outcomes = null;
+	String session = getSession(inMessage);
+	String caller = getCaller(inMessage, session);
+
+	if ( batch == null ) throw new AxisFault("No batch element");
+	for (Iterator<?> i = batch.getChildElements(); i.hasNext(); )
+	    calls.add((OMElement) i.next());
+	try {
+	    if ( calls.size() > getMaxCalls() )
+		throw new DeterFault(DeterFault.request,
+			"Too many calls in batch (limit " + maxCalls + ")");
+	}
+	catch (DeterFault df) {
+	    throw toAxisFault(df, service, fac);
+	}
+
+	outcomes = callAll(inMessage, calls, session, caller);
+	Metrics.value("batch.calls", calls.size());
+
+	OMNamespace ns = fac.createOMNamespace(
+		service.getSchemaTargetNamespace(),
+		service.getSchemaTargetNamespacePrefix());
+	SOAPEnvelope env = fac.getDefaultEnvelope();
+
+	env.getBody().addChild(fac.createOMElement(
+		    new BatchSource(outcomes, ns), "batchResponse", ns));
+	outMessage.setEnvelope(env);
+    }
+}
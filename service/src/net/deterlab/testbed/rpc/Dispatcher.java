@@ -0,0 +1,34 @@
+package net.deterlab.testbed.rpc;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import net.deterlab.testbed.api.DeterFault;
+
+/**
+ * Calls the operations of one service directly, parsing the request and
+ * writing the response with code generated for the operation's types.
+ * Implementations are generated by DispatcherGenerator.
+ * @author DETER team
+ * @version 1.0
+ */
+public interface Dispatcher {
+    /**
+     * Return true if the dispatcher can call the operation.
+     * @param operation the operation name
+     * @return true if the dispatcher can call the operation
+     */
+    public boolean handles(String operation);
+
+    /**
+     * Parse a request and call the operation.
+     * @param service the service object
+     * @param operation the operation name
+     * @param r the request, on the operation's wrapper element
+     * @return the result
+     * @throws DeterFault if the operation fails
+     * @throws XMLStreamException if the request cannot be parsed
+     */
+    public Response invoke(Object service, String operation,
+	    XMLStreamReader r) throws DeterFault, XMLStreamException;
+}
@@ -0,0 +1,748 @@
+package net.deterlab.testbed.rpc;
+
+import java.beans.BeanInfo;
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Parameter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import javax.activation.DataHandler;
+
+/**
+ * Generates the Dispatcher for each service and the serializers for the API
+ * classes they use.  This runs at build time against the compiled service
+ * classes, which must be compiled with -parameters so the request element
+ * names (the parameter names) are available.  The generated code reads and
+ * writes the same XML as the Axis2 bean serializer: elements named after the
+ * parameters and bean properties, properties in the order the schema lists
+ * them (superclass properties first, each class's sorted by name), arrays as
+ * repeated elements and null as xsi:nil.
+ * <p>
+ * Operations that use a type the generator does not handle, are overloaded,
+ * return nothing or declare exceptions other than DeterFault are left out of
+ * the dispatcher and stay on the reflective path.  They are listed when the
+ * generator runs.
+ * <p>
+ * Usage: DispatcherGenerator output_directory service_class ...
+ * @author DETER team
+ * @version 1.0
+ */
+public class DispatcherGenerator {
+    /** Serializers methods for simple types, by type */
+    static private Map<Class<?>, String> simple = new HashMap<>();
+    /** Boxed names of primitive types */
+    static private Map<Class<?>, String> boxed = new HashMap<>();
+
+    static {
+	simple.put(String.class, "String");
+	simple.put(boolean.class, "Boolean");
+	simple.put(Boolean.class, "BooleanObject");
+	simple.put(int.class, "Int");
+	simple.put(Integer.class, "IntObject");
+	simple.put(long.class, "Long");
+	simple.put(Long.class, "LongObject");
+	simple.put(double.class, "Double");
+	simple.put(Double.class, "DoubleObject");
+	simple.put(byte[].class, "Bytes");
+	simple.put(DataHandler.class, "Data");
+	boxed.put(boolean.class, "Boolean");
+	boxed.put(int.class, "Integer");
+	boxed.put(long.class, "Long");
+	boxed.put(double.class, "Double");
+    }
+
+    /** Where the source goes */
+    private File dir;
+    /** Beans that can be serialized, by simple name */
+    private Map<String, Class<?>> beans;
+    /** Bean classes being checked, to stop recursion */
+    private Set<Class<?>> checking;
+    /** Classes to import into the generated source */
+    private Set<String> imports;
+    /** The source being generated */
+    private StringBuilder out;
+
+    /**
+     * Create a generator.
+     * @param d the root directory of the generated source
+     */
+    public DispatcherGenerator(File d) {
+	dir = d;
+	beans = new TreeMap<>();
+	checking = new HashSet<>();
+	imports = new TreeSet<>();
+	out = null;
+    }
+
+    /**
+     * Append a line of source, indented to the given level with the usual
+     * tabs and spaces.
+     * @param level the indentation level, in 4-column steps
+     * @param s the line
+     */
+    private void line(int level, String s) {
+	for (int i = 0; i < level / 2; i++)
+	    out.append('\t');
+	if ( level % 2 == 1 ) out.append("    ");
+	out.append(s);
+	out.append('\n');
+    }
+
+    /**
+     * Return the properties of a bean in schema order: superclass
+     * properties first, and each class's sorted by name.
+     * @param c the class
+     * @return the properties
+     * @throws IntrospectionException if the class cannot be inspected
+     */
+    static protected List<PropertyDescriptor> properties(Class<?> c)
+	    throws IntrospectionException {
+	List<PropertyDescriptor> rv = new ArrayList<>();
+
+	if ( c == null || c == Object.class ) return rv;
+	rv.addAll(properties(c.getSuperclass()));
+
+	BeanInfo info = Introspector.getBeanInfo(c, c.getSuperclass());
+	List<PropertyDescriptor> mine = new ArrayList<>();
+
+	for (PropertyDescriptor pd : info.getPropertyDescriptors())
+	    if ( pd.getReadMethod() != null && pd.getPropertyType() != null )
+		mine.add(pd);
+	mine.sort(new Comparator<PropertyDescriptor>() {
+	    public int compare(PropertyDescriptor a, PropertyDescriptor b) {
+		return a.getName().compareTo(b.getName());
+	    }
+	});
+	rv.addAll(mine);
+	return rv;
+    }
+
+    /**
+     * Return true if values of the type can be serialized, recording any
+     * beans that need serializers.
+     * @param t the type
+     * @return true if values of the type can be serialized
+     */
+    private boolean supported(Class<?> t) {
+	if ( t.isArray() && t != byte[].class )
+	    return !t.getComponentType().isArray() &&
+		supported(t.getComponentType());
+	return simple.containsKey(t) || addBean(t);
+    }
+
+    /**
+     * Add a bean class to those that get serializers, if all its properties
+     * can be serialized.
+     * @param c the class
+     * @return true if the class is a bean that can be serialized
+     */
+    private boolean addBean(Class<?> c) {
+	if ( beans.containsValue(c) || checking.contains(c) ) return true;
+	if ( c.isPrimitive() || c.isInterface() || c.isArray() ||
+		c.getName().startsWith("java") ||
+		Throwable.class.isAssignableFrom(c) ||
+		!Modifier.isPublic(c.getModifiers()) ||
+		beans.containsKey(c.getSimpleName()) )
+	    return false;
+	try {
+	    c.getConstructor();
+	    checking.add(c);
+	    for (PropertyDescriptor pd : properties(c))
+		if ( !supported(pd.getPropertyType()) ) return false;
+	    beans.put(c.getSimpleName(), c);
+	    return true;
+	}
+	catch (NoSuchMethodException e) {
+	    return false;
+	}
+	catch (IntrospectionException e) {
+	    return false;
+	}
+	finally {
+	    checking.remove(c);
+	}
+    }
+
+    /**
+     * Return the name to use for a class in generated source, importing it
+     * if need be.
+     * @param c the class
+     * @return the name
+     */
+    private String name(Class<?> c) {
+	if ( c.isArray() ) return name(c.getComponentType()) + "[]";
+	if ( c.isPrimitive() || c.getPackage().getName().equals("java.lang") )
+	    return c.getSimpleName();
+	imports.add(c.getName());
+	return c.getSimpleName();
+    }
+
+    /**
+     * Return an expression that reads one value of the type from r.
+     * @param t the type
+     * @param prefix how to refer to the bean readers
+     * @return the expression
+     */
+    private String read(Class<?> t, String prefix) {
+	String s = simple.get(t);
+
+	if ( s != null ) return "Serializers.read" + s + "(r)";
+	name(t);
+	return prefix + "read" + t.getSimpleName() + "(r)";
+    }
+
+    /**
+     * Return a statement that writes one value of the type.
+     * @param t the type
+     * @param v the value
+     * @param element the element name
+     * @param prefix how to refer to the bean writers
+     * @return the statement
+     */
+    private String write(Class<?> t, String v, String element,
+	    String prefix) {
+	String s = simple.get(t);
+	String args = "(w, ns, \"" + element + "\", " + v + ");";
+
+	if ( s == null ) return prefix + "write" + t.getSimpleName() + args;
+	else if ( s.equals("String") ) return "Serializers.writeString" + args;
+	else if ( s.equals("Bytes") ) return "Serializers.writeBytes" + args;
+	else if ( s.equals("Data") ) return "Serializers.writeData" + args;
+	else if ( s.startsWith("Double") )
+	    return "Serializers.writeDouble" + args;
+	else return "Serializers.writeValue" + args;
+    }
+
+    /**
+     * Write a value, which may be an array.
+     * @param level the indentation level
+     * @param t the type
+     * @param v the value, a variable
+     * @param element the element name
+     * @param prefix how to refer to the bean writers
+     */
+    private void writeValue(int level, Class<?> t, String v, String element,
+	    String prefix) {
+	if ( !t.isArray() || t == byte[].class ) {
+	    line(level, write(t, v, element, prefix));
+	    return;
+	}
+
+	Class<?> c = t.getComponentType();
+
+	line(level, "if ( " + v + " == null )");
+	line(level + 1, "Serializers.writeNil(w, ns, \"" + element + "\");");
+	line(level, "else");
+	line(level + 1, "for (" + name(c) + " x : " + v + ")");
+	line(level + 2, write(c, "x", element, prefix));
+    }
+
+    /**
+     * Return the local variable that holds a value being read.
+     * @param n the element name
+     * @return the variable name
+     */
+    static private String local(String n) {
+	return "p" + n.substring(0, 1).toUpperCase() + n.substring(1);
+    }
+
+    /**
+     * Return the type of the list that collects an array's elements.
+     * @param t the array type
+     * @return the list type
+     */
+    private String listType(Class<?> t) {
+	Class<?> c = t.getComponentType();
+
+	return "List<" + (c.isPrimitive() ? boxed.get(c) : name(c)) + ">";
+    }
+
+    /**
+     * Declare the variables that hold values being read.  Arrays are
+     * collected in lists.
+     * @param level the indentation level
+     * @param names the element names
+     * @param types the types
+     */
+    private void declare(int level, List<String> names,
+	    List<Class<?>> types) {
+	for (int i = 0; i < names.size(); i++) {
+	    Class<?> t = types.get(i);
+	    String v = local(names.get(i));
+
+	    if ( t.isArray() && t != byte[].class )
+		line(level, listType(t) + " " + v + " = null;");
+	    else if ( t == boolean.class )
+		line(level, "boolean " + v + " = false;");
+	    else if ( t.isPrimitive() )
+		line(level, name(t) + " " + v + " = 0;");
+	    else
+		line(level, name(t) + " " + v + " = null;");
+	}
+    }
+
+    /**
+     * Read the child elements of the current element into variables
+     * declared by declare, or into a bean's setters.
+     * @param level the indentation level
+     * @param names the element names
+     * @param types the types
+     * @param setters the setters, or null to read into variables.  Null
+     * entries are read-only properties, which are skipped.
+     * @param prefix how to refer to the bean readers
+     */
+    private void readChildren(int level, List<String> names,
+	    List<Class<?>> types, List<String> setters, String prefix) {
+	line(level, "while ( r.nextTag() == " +
+		"XMLStreamConstants.START_ELEMENT ) {");
+	line(level + 1, "switch (r.getLocalName()) {");
+	for (int i = 0; i < names.size(); i++) {
+	    String n = names.get(i);
+	    Class<?> t = types.get(i);
+	    String v = local(n);
+
+	    if ( setters != null && setters.get(i) == null ) continue;
+	    line(level + 1, "case \"" + n + "\":");
+	    if ( t.isArray() && t != byte[].class ) {
+		line(level + 2, "if ( Serializers.isNil(r) ) {");
+		line(level + 3, "Serializers.skip(r);");
+		line(level + 3, "break;");
+		line(level + 2, "}");
+		line(level + 2, "if ( " + v + " == null ) " + v +
+			" = new ArrayList<>();");
+		line(level + 2, v + ".add(" +
+			read(t.getComponentType(), prefix) + ");");
+	    }
+	    else if ( setters != null ) {
+		line(level + 2, "rv." + setters.get(i) + "(" +
+			read(t, prefix) + ");");
+	    }
+	    else {
+		line(level + 2, v + " = " + read(t, prefix) + ";");
+	    }
+	    line(level + 2, "break;");
+	}
+	line(level + 1, "default:");
+	line(level + 2, "Serializers.skip(r);");
+	line(level + 1, "}");
+	line(level, "}");
+    }
+
+    /**
+     * Return an expression converting a list collected by readChildren to
+     * an array (null if the list is null).
+     * @param t the array type
+     * @param v the list variable
+     * @return the expression
+     */
+    private String toArray(Class<?> t, String v) {
+	Class<?> c = t.getComponentType();
+
+	if ( c.isPrimitive() )
+	    return "Serializers.to" + boxed.get(c) + "Array(" + v + ")";
+	return "Serializers.toArray(" + v + ", new " + name(c) + "[0])";
+    }
+
+    /**
+     * Write the generated source of a class to its file.
+     * @param cls the simple class name
+     * @param body the class body
+     * @param doc the class comment
+     * @throws IOException if the file cannot be written
+     */
+    private void writeClass(String cls, String body, String doc)
+	    throws IOException {
+	String pkg = Serializers.GENERATED;
+	File d = new File(dir, pkg.replace('.', File.separatorChar));
+	StringBuilder src = new StringBuilder();
+
+	if ( !d.isDirectory() && !d.mkdirs() )
+	    throw new IOException("Cannot create " + d);
+	src.append("package " + pkg + ";\n\n");
+	for (String i : imports)
+	    src.append("import " + i + ";\n");
+	src.append("\n/**\n * " + doc + "\n * Generated by " +
+		"DispatcherGenerator; do not edit.\n */\n");
+	src.append(body);
+
+	FileWriter f = new FileWriter(new File(d, cls + ".java"));
+
+	try {
+	    f.write(src.toString());
+	}
+	finally {
+	    f.close();
+	}
+    }
+
+    /**
+     * Start a new class, clearing the imports.
+     * @param common the imports every generated class uses
+     */
+    private void startClass(String... common) {
+	out = new StringBuilder();
+	imports.clear();
+	imports.addAll(Arrays.asList(common));
+	imports.add("java.util.ArrayList");
+	imports.add("java.util.List");
+	imports.add("javax.xml.stream.XMLStreamConstants");
+	imports.add("javax.xml.stream.XMLStreamException");
+	imports.add("javax.xml.stream.XMLStreamReader");
+	imports.add("javax.xml.stream.XMLStreamWriter");
+	imports.add(Serializers.class.getName());
+    }
+
+    /**
+     * Generate the serializers for all the beans recorded so far, as the
+     * class ApiSerializers.
+     * @throws IOException if the file cannot be written
+     * @throws IntrospectionException if a bean cannot be inspected
+     */
+    public void generateSerializers()
+	    throws IOException, IntrospectionException {
+	startClass("java.util.HashMap", "java.util.Map",
+		Serializer.class.getName());
+	line(0, "public class ApiSerializers {");
+	line(1, "/**");
+	line(1, " * Return a serializer for each class.");
+	line(1, " * @return the serializers");
+	line(1, " */");
+	line(1, "static public Map<Class<?>, Serializer<?>> " +
+		"getSerializers() {");
+	line(2, "Map<Class<?>, Serializer<?>> rv = new HashMap<>();");
+	line(0, "");
+	for (Class<?> c : beans.values()) {
+	    String n = name(c);
+
+	    line(2, "rv.put(" + n + ".class, new Serializer<" + n + ">() {");
+	    line(3, "public " + n + " read(XMLStreamReader r)");
+	    line(5, "throws XMLStreamException {");
+	    line(4, "return read" + n + "(r);");
+	    line(3, "}");
+	    line(3, "public void write(XMLStreamWriter w, String ns, " +
+		    "String name,");
+	    line(5, n + " v) throws XMLStreamException {");
+	    line(4, "write" + n + "(w, ns, name, v);");
+	    line(3, "}");
+	    line(2, "});");
+	}
+	line(2, "return rv;");
+	line(1, "}");
+
+	for (Class<?> c : beans.values()) {
+	    String n = name(c);
+	    List<String> names = new ArrayList<>();
+	    List<Class<?>> types = new ArrayList<>();
+	    List<String> setters = new ArrayList<>();
+	    List<String> getters = new ArrayList<>();
+
+	    for (PropertyDescriptor pd : properties(c)) {
+		Method set = pd.getWriteMethod();
+
+		names.add(pd.getName());
+		types.add(pd.getPropertyType());
+		getters.add(pd.getReadMethod().getName());
+		setters.add((set != null) ? set.getName() : null);
+	    }
+
+	    line(0, "");
+	    line(1, "/**");
+	    line(1, " * Read a " + n + ".");
+	    line(1, " * @param r the stream, on the start element");
+	    line(1, " * @return the object (null if nil)");
+	    line(1, " * @throws XMLStreamException on parse errors");
+	    line(1, " */");
+	    line(1, "static public " + n + " read" + n + "(");
+	    line(3, "XMLStreamReader r) throws XMLStreamException {");
+	    line(2, "if ( Serializers.isNil(r) ) {");
+	    line(3, "Serializers.skip(r);");
+	    line(3, "return null;");
+	    line(2, "}");
+	    line(0, "");
+	    line(2, n + " rv = new " + n + "();");
+	    for (int i = 0; i < names.size(); i++) {
+		Class<?> t = types.get(i);
+
+		if ( setters.get(i) != null && t.isArray() &&
+			t != byte[].class )
+		    line(2, listType(t) + " " + local(names.get(i)) +
+			    " = null;");
+	    }
+	    line(0, "");
+	    readChildren(2, names, types, setters, "");
+	    for (int i = 0; i < names.size(); i++) {
+		Class<?> t = types.get(i);
+		String v = local(names.get(i));
+
+		if ( setters.get(i) == null || !t.isArray() ||
+			t == byte[].class ) continue;
+		line(2, "if ( " + v + " != null )");
+		line(3, "rv." + setters.get(i) + "(" + toArray(t, v) + ");");
+	    }
+	    line(2, "return rv;");
+	    line(1, "}");
+
+	    line(0, "");
+	    line(1, "/**");
+	    line(1, " * Write a " + n + ".");
+	    line(1, " * @param w the stream");
+	    line(1, " * @param ns the namespace");
+	    line(1, " * @param name the element name");
+	    line(1, " * @param v the object (may be null)");
+	    line(1, " * @throws XMLStreamException on errors");
+	    line(1, " */");
+	    line(1, "static public void write" + n + "(XMLStreamWriter w, " +
+		    "String ns,");
+	    line(3, "String name, " + n + " v) throws XMLStreamException {");
+	    line(2, "if ( v == null ) {");
+	    line(3, "Serializers.writeNil(w, ns, name);");
+	    line(3, "return;");
+	    line(2, "}");
+	    line(2, "w.writeStartElement(ns, name);");
+	    for (int i = 0; i < names.size(); i++) {
+		Class<?> t = types.get(i);
+		String v = local(names.get(i));
+
+		if ( t.isArray() && t != byte[].class ) {
+		    line(2, "{");
+		    line(3, name(t) + " " + v + " = v." + getters.get(i) +
+			    "();");
+		    line(0, "");
+		    writeValue(3, t, v, names.get(i), "");
+		    line(2, "}");
+		}
+		else {
+		    writeValue(2, t, "v." + getters.get(i) + "()",
+			    names.get(i), "");
+		}
+	    }
+	    line(2, "w.writeEndElement();");
+	    line(1, "}");
+	}
+	line(0, "}");
+	writeClass("ApiSerializers", out.toString(),
+		"Readers and writers for the API classes.");
+    }
+
+    /**
+     * Return the reason an operation cannot be generated, or null if it can.
+     * @param m the method
+     * @param overloaded names of overloaded methods
+     * @return the reason or null
+     */
+    private String check(Method m, Set<String> overloaded) {
+	if ( overloaded.contains(m.getName()) ) return "overloaded";
+	if ( m.getReturnType() == void.class ) return "no return value";
+	for (Class<?> e : m.getExceptionTypes())
+	    if ( !e.getName().equals("net.deterlab.testbed.api.DeterFault") &&
+		    !RuntimeException.class.isAssignableFrom(e) &&
+		    !Error.class.isAssignableFrom(e) )
+		return "throws " + e.getSimpleName();
+	for (Parameter p : m.getParameters())
+	    if ( !supported(p.getType()) )
+		return "parameter " + p.getName() + " is a " +
+		    p.getType().getSimpleName();
+	if ( !supported(m.getReturnType()) )
+	    return "returns " + m.getReturnType().getSimpleName();
+	return null;
+    }
+
+    /**
+     * Generate the dispatcher for a service.
+     * @param svc the service class
+     * @return descriptions of the operations left out
+     * @throws IOException if the file cannot be written
+     */
+    public List<String> generateDispatcher(Class<?> svc) throws IOException {
+	List<String> skipped = new ArrayList<>();
+	List<Method> ops = new ArrayList<>();
+	Set<String> seen = new HashSet<>();
+	Set<String> overloaded = new HashSet<>();
+	String s = svc.getSimpleName();
+	String cls = s + "Dispatcher";
+	Method[] methods = svc.getDeclaredMethods();
+
+	Arrays.sort(methods, new Comparator<Method>() {
+	    public int compare(Method a, Method b) {
+		return a.getName().compareTo(b.getName());
+	    }
+	});
+	for (Method m : methods) {
+	    int mod = m.getModifiers();
+
+	    if ( !Modifier.isPublic(mod) || Modifier.isStatic(mod) ||
+		    m.isSynthetic() )
+		continue;
+	    if ( !seen.add(m.getName()) ) overloaded.add(m.getName());
+	}
+	for (Method m : methods) {
+	    int mod = m.getModifiers();
+
+	    if ( !Modifier.isPublic(mod) || Modifier.isStatic(mod) ||
+		    m.isSynthetic() )
+		continue;
+	    for (Parameter p : m.getParameters())
+		if ( !p.isNamePresent() )
+		    throw new IllegalStateException(svc.getName() +
+			    " was not compiled with -parameters");
+
+	    String why = check(m, overloaded);
+
+	    if ( why != null ) skipped.add(s + "." + m.getName() + ": " + why);
+	    else ops.add(m);
+	}
+
+	startClass("java.util.Arrays", "java.util.HashSet", "java.util.Set",
+		Dispatcher.class.getName(), Response.class.getName(),
+		"net.deterlab.testbed.api.DeterFault");
+	String sn = name(svc);
+
+	line(0, "public class " + cls + " implements Dispatcher {");
+	line(1, "/** The operations this dispatcher calls */");
+	line(1, "static private final Set<String> operations =");
+	line(2, "new HashSet<String>(Arrays.asList(new String[] {");
+	for (Method m : ops)
+	    line(4, "\"" + m.getName() + "\",");
+	line(2, "}));");
+	line(0, "");
+	line(1, "/**");
+	line(1, " * Return true if the dispatcher can call the operation.");
+	line(1, " * @param operation the operation name");
+	line(1, " * @return true if the dispatcher can call the operation");
+	line(1, " */");
+	line(1, "public boolean handles(String operation) {");
+	line(2, "return operations.contains(operation);");
+	line(1, "}");
+	line(0, "");
+	line(1, "/**");
+	line(1, " * Parse a request and call the operation.");
+	line(1, " * @param service the service object");
+	line(1, " * @param operation the operation name");
+	line(1, " * @param r the request, on the wrapper element");
+	line(1, " * @return the result");
+	line(1, " * @throws DeterFault if the operation fails");
+	line(1, " * @throws XMLStreamException if the request cannot be " +
+		"parsed");
+	line(1, " */");
+	line(1, "public Response invoke(Object service, String operation,");
+	line(3, "XMLStreamReader r) throws DeterFault, XMLStreamException {");
+	line(2, sn + " s = (" + sn + ") service;");
+	line(0, "");
+	line(2, "switch (operation) {");
+	for (Method m : ops) {
+	    line(2, "case \"" + m.getName() + "\":");
+	    line(3, "return " + m.getName() + "(s, r);");
+	}
+	line(2, "default:");
+	line(3, "return null;");
+	line(2, "}");
+	line(1, "}");
+
+	for (Method m : ops) {
+	    List<String> names = new ArrayList<>();
+	    List<Class<?>> types = new ArrayList<>();
+	    List<String> args = new ArrayList<>();
+	    Class<?> rt = m.getReturnType();
+
+	    for (Parameter p : m.getParameters()) {
+		Class<?> t = p.getType();
+		String v = local(p.getName());
+
+		names.add(p.getName());
+		types.add(t);
+		args.add((t.isArray() && t != byte[].class) ?
+			toArray(t, v) : v);
+	    }
+
+	    line(0, "");
+	    line(1, "/**");
+	    line(1, " * Call " + m.getName() + ".");
+	    line(1, " * @param s the service");
+	    line(1, " * @param r the request, on the wrapper element");
+	    line(1, " * @return the result");
+	    line(1, " * @throws DeterFault if the operation fails");
+	    line(1, " * @throws XMLStreamException if the request cannot be " +
+		    "parsed");
+	    line(1, " */");
+	    line(1, "private Response " + m.getName() + "(" + sn + " s, " +
+		    "XMLStreamReader r)");
+	    line(3, "throws DeterFault, XMLStreamException {");
+	    declare(2, names, types);
+	    line(0, "");
+	    readChildren(2, names, types, null, "ApiSerializers.");
+	    line(0, "");
+	    line(2, "final " + name(rt) + " rv = s." + m.getName() + "(" +
+		    (args.isEmpty() ? ");" : ""));
+	    for (int i = 0; i < args.size(); i++)
+		line(4, args.get(i) + ((i < args.size() - 1) ? "," : ");"));
+	    line(0, "");
+	    line(2, "return new Response() {");
+	    line(3, "public void write(XMLStreamWriter w, String ns)");
+	    line(5, "throws XMLStreamException {");
+	    writeValue(4, rt, "rv", "return", "ApiSerializers.");
+	    line(3, "}");
+	    line(2, "};");
+	    line(1, "}");
+	}
+	line(0, "}");
+	writeClass(cls, out.toString(), "Calls the " + s +
+		" operations without reflection.");
+	return skipped;
+    }
+
+    /**
+     * Generate the dispatchers for the given services and the serializers
+     * they need.
+     * @param args the output directory, then the service class names
+     */
+    static public void main(String[] args) {
+	if ( args.length < 2 ) {
+	    System.err.println("Usage: DispatcherGenerator output_directory " +
+		    "service_class ...");
+	    System.exit(20);
+	}
+
+	DispatcherGenerator g = new DispatcherGenerator(new File(args[0]));
+
+	try {
+	    for (int i = 1; i < args.length; i++)
+		for (String s : g.generateDispatcher(Class.forName(args[i])))
+		    System.out.println("Reflective: " + s);
+	    g.generateSerializers();
+	}
+	catch (ClassNotFoundException e) {
+	    System.err.println("No such service class: " + e.getMessage());
+	    System.exit(20);
+	}
+	catch (IOException e) {
+	    System.err.println("Cannot write source: " + e.getMessage());
+	    System.exit(20);
+	}
+	catch (IntrospectionException e) {
+	    System.err.println("Cannot inspect class: " + e.getMessage());
+	    System.exit(20);
+	}
+	catch (IllegalStateException e) {
+	    System.err.println(e.getMessage());
+	    System.exit(20);
+	}
+    }
+}
@@ -0,0 +1,298 @@
+package net.deterlab.testbed.rpc;
+
+import java.security.cert.X509Certificate;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.servlet.ServletRequest;
+
+import javax.xml.namespace.QName;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+import net.deterlab.testbed.api.DeterFault;
+
+import net.deterlab.testbed.db.ReplicaRouter;
+
+import org.apache.axiom.om.OMElement;
+import org.apache.axiom.om.OMNamespace;
+
+import org.apache.axiom.om.ds.AbstractPushOMDataSource;
+
+import org.apache.axiom.om.impl.builder.StAXOMBuilder;
+
+import org.apache.axiom.soap.SOAPEnvelope;
+import org.apache.axiom.soap.SOAPFactory;
+
+import org.apache.axis2.AxisFault;
+
+import org.apache.axis2.context.MessageContext;
+
+import org.apache.axis2.databinding.utils.BeanUtil;
+
+import org.apache.axis2.description.AxisService;
+
+import org.apache.axis2.description.java2wsdl.TypeTable;
+
+import org.apache.axis2.rpc.receivers.RPCMessageReceiver;
+
+import org.apache.axis2.util.StreamWrapper;
+
+import org.apache.log4j.Logger;
+
+/**
+ * An Axis2 message receiver that calls operations through the Dispatcher
+ * generated for the service, parsing the request straight from the stream
+ * and writing the response as it is sent, rather than building the request
+ * tree and finding the method and bean properties by reflection.  Operations
+ * the generator left out, and services without a generated dispatcher, are
+ * passed to RPCMessageReceiver.  The XML is the same either way.  Each call
+ * must first be admitted by AdmissionControl, and is bracketed with
+ * ReplicaRouter.startRequest and endRequest so that reads made after the
+ * caller's writes see them.
+ * @author DETER team
+ * @version 1.0
+ */
+public class GeneratedMessageReceiver extends RPCMessageReceiver {
+    /** Marks a service that has no generated dispatcher */
+    static private final Dispatcher NONE = new Dispatcher() {
+	public boolean handles(String operation) { return false; }
+	public Response invoke(Object service, String operation,
+		XMLStreamReader r) {
+	    return null;
+	}
+    };
+    /** Dispatchers by service class */
+    static private Map<Class<?>, Dispatcher> dispatchers =
+	new ConcurrentHashMap<>();
+    /** Log for errors */
+    static private Logger log = Logger.getLogger(
+	    GeneratedMessageReceiver.class);
+
+    /**
+     * Return the generated dispatcher for a service class, loading it the
+     * first time.
+     * @param c the service class
+     * @return the dispatcher (NONE if there is none)
+     */
+    static protected Dispatcher getDispatcher(Class<?> c) {
+	Dispatcher d = dispatchers.get(c);
+
+	if ( d != null ) return d;
+	try {
+	    d = (Dispatcher) Class.forName(Serializers.GENERATED + "." +
+		    c.getSimpleName() + "Dispatcher").newInstance();
+	}
+	catch (ReflectiveOperationException e) {
+	    log.warn("No generated dispatcher for " + c.getName() +
+		    ", using reflection");
+	    d = NONE;
+	}
+	dispatchers.put(c, d);
+	return d;
+    }
+
+    /**
+     * Writes the response wrapper and the result when the response is sent.
+     */
+    static private class ResponseSource extends AbstractPushOMDataSource {
+	/** The result */
+	private Response response;
+	/** The wrapper element name */
+	private String name;
+	/** The namespace */
+	private OMNamespace ns;
+
+	/**
+	 * Create a response source.
+	 * @param r the result
+	 * @param n the wrapper element name
+	 * @param ns the namespace
+	 */
+	public ResponseSource(Response r, String n, OMNamespace ns) {
+	    response = r;
+	    name = n;
+	    this.ns = ns;
+	}
+
+	/**
+	 * Return false; the response can be written more than once.
+	 * @return false
+	 */
+	public boolean isDestructiveWrite() { return false; }
+
+	/**
+	 * Write the wrapper element and result.
+	 * @param w the stream
+	 * @throws XMLStreamException on errors
+	 */
+	public void serialize(XMLStreamWriter w) throws XMLStreamException {
+	    String uri = ns.getNamespaceURI();
+
+	    w.writeStartElement(ns.getPrefix(), name, uri);
+	    w.writeNamespace(ns.getPrefix(), uri);
+	    w.writeNamespace("xsi", Serializers.XSI);
+	    response.write(w, uri);
+	    w.writeEndElement();
+	}
+    }
+
+    /**
+     * Convert a DeterFault into an AxisFault with the fault as its detail,
+     * as RPCMessageReceiver does, so clients see the same fault either way.
+     * @param df the fault
+     * @param service the service
+     * @param fac the factory for the detail element
+     * @return the AxisFault
+     */
+    protected AxisFault toAxisFault(DeterFault df, AxisService service,
+	    SOAPFactory fac) {
+	TypeTable types = service.getTypeTable();
+	QName name = (types != null) ?
+	    types.getQNamefortheType(service.getName() + "DeterFault") : null;
+	String msg = df.getMessage();
+	AxisFault af = new AxisFault((msg != null) ? msg : df.toString());
+
+	if ( name == null ) return af;
+
+	XMLStreamReader r = BeanUtil.getPullParser(df,
+		new QName(name.getNamespaceURI(), "DeterFault"), types,
+		true, false);
+	StAXOMBuilder b = new StAXOMBuilder(new StreamWrapper(r));
+	OMElement detail = fac.createOMElement(name);
+
+	detail.addChild(b.getDocumentElement());
+	af.setDetail(detail);
+	return af;
+    }
+
+    /**
+     * Return a name for the caller's session for read-your-writes routing:
+     * the subject and serial number of the client certificate.
+     * @param m the request
+     * @return the session name, or null if there is no certificate
+     */
+    static protected String getSession(MessageContext m) {
+	Object req = m.getProperty("transport.http.servletRequest");
+
+	if ( !(req instanceof ServletRequest) ) return null;
+
+	Object certs = ((ServletRequest) req).getAttribute(
+		"javax.servlet.request.X509Certificate");
+
+	if ( !(certs instanceof X509Certificate[]) ||
+		((X509Certificate[]) certs).length == 0 )
+	    return null;
+
+	X509Certificate c = ((X509Certificate[]) certs)[0];
+
+	return c.getSubjectX500Principal().getName() + "/" +
+	    c.getSerialNumber();
+    }
+
+    /**
+     * Return a name for the caller for admission control: the session if
+     * there is one, otherwise the remote address.
+     * @param m the request
+     * @param session the session (may be null)
+     * @return the caller's name
+     */
+    static protected String getCaller(MessageContext m, String session) {
+	if ( session != null ) return session;
+
+	Object req = m.getProperty("transport.http.servletRequest");
+
+	if ( !(req instanceof ServletRequest) ) return "unknown";
+	return "addr:" + ((ServletRequest) req).getRemoteAddr();
+    }
+
+    /**
+     * Call the operation once AdmissionControl admits it, telling the
+     * ReplicaRouter which session it is for.
+     * @param inMessage the request
+     * @param outMessage the response
+     * @throws AxisFault if the operation fails or is not admitted
+     */
+    public void invokeBusinessLogic(MessageContext inMessage,
+	    MessageContext outMessage) throws AxisFault {
+	AxisService service = inMessage.getAxisService();
+	String session = getSession(inMessage);
+	String caller = getCaller(inMessage, session);
+	AdmissionControl.Bulkhead b = null;
+
+	try {
+	    b = AdmissionControl.getInstance().classify(service.getName(),
+		    inMessage.getAxisOperation().getName().getLocalPart());
+	    if ( b != null ) b.enter(caller);
+	}
+	catch (DeterFault df) {
+	    throw toAxisFault(df, service, getSOAPFactory(inMessage));
+	}
+
+	ReplicaRouter.startRequest(session);
+	try {
+	    dispatch(inMessage, outMessage);
+	}
+	finally {
+	    ReplicaRouter.endRequest();
+	    if ( b != null ) b.exit(caller);
+	}
+    }
+
+    /**
+     * Call the operation through the generated dispatcher if there is one
+     * for it, otherwise through RPCMessageReceiver.
+     * @param inMessage the request
+     * @param outMessage the response
+     * @throws AxisFault if the operation fails
+     */
+    protected void dispatch(MessageContext inMessage,
+	    MessageContext outMessage) throws AxisFault {
+	String op = inMessage.getAxisOperation().getName().getLocalPart();
+	Object obj = getTheImplementationObject(inMessage);
+	Dispatcher d = getDispatcher(obj.getClass());
+	AxisService service = inMessage.getAxisService();
+	SOAPFactory fac = getSOAPFactory(inMessage);
+
+	if ( !d.handles(op) ) {
+	    super.invokeBusinessLogic(inMessage, outMessage);
+	    return;
+	}
+
+	try {
+	    OMElement req = inMessage.getEnvelope().getBody()
+		.getFirstElement();
+
+	    if ( req == null )
+		throw new AxisFault("No request element for " + op);
+
+	    XMLStreamReader r = req.getXMLStreamReaderWithoutCaching();
+
+	    Serializers.enter(r);
+
+	    Response resp = d.invoke(obj, op, r);
+	    OMNamespace ns = fac.createOMNamespace(
+		    service.getSchemaTargetNamespace(),
+		    service.getSchemaTargetNamespacePrefix());
+	    String n = op + "Response";
+	    SOAPEnvelope env = fac.getDefaultEnvelope();
+
+	    env.getBody().addChild(fac.createOMElement(
+			new ResponseSource(resp, n, ns), n, ns));
+	    outMessage.setEnvelope(env);
+	}
+	catch (DeterFault df) {
+	    throw toAxisFault(df, service, fac);
+	}
+	catch (XMLStreamException e) {
+	    throw new AxisFault("Cannot parse " + op + " request: " +
+		    e.getMessage(), e);
+	}
+	catch (RuntimeException e) {
+	    throw new AxisFault(e.getMessage(), e);
+	}
+    }
+}
@@ -0,0 +1,19 @@
+package net.deterlab.testbed.rpc;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * The result of an API call, written when the response is sent.
+ * @author DETER team
+ * @version 1.0
+ */
+public interface Response {
+    /**
+     * Write the result as the children of the response wrapper element.
+     * @param w the stream
+     * @param ns the namespace of the elements
+     * @throws XMLStreamException on errors
+     */
+    public void write(XMLStreamWriter w, String ns) throws XMLStreamException;
+}
@@ -0,0 +1,33 @@
+package net.deterlab.testbed.rpc;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * Reads and writes one API class as XML.  Implementations are generated by
+ * DispatcherGenerator from the class's bean properties.
+ * @author DETER team
+ * @version 1.0
+ */
+public interface Serializer<T> {
+    /**
+     * Read an object.
+     * @param r the stream, on the object's start element.  It is left on
+     * the matching end element.
+     * @return the object (null if the element is nil)
+     * @throws XMLStreamException on parse errors
+     */
+    public T read(XMLStreamReader r) throws XMLStreamException;
+
+    /**
+     * Write an object as an element.
+     * @param w the stream
+     * @param ns the namespace of the element and its children
+     * @param name the element name
+     * @param v the object (may be null)
+     * @throws XMLStreamException on errors
+     */
+    public void write(XMLStreamWriter w, String ns, String name, T v)
+	throws XMLStreamException;
+}
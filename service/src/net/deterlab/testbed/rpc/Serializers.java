@@ -0,0 +1,440 @@
+package net.deterlab.testbed.rpc;
+
+import java.io.IOException;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import javax.activation.DataHandler;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.apache.axiom.util.stax.XMLStreamReaderUtils;
+import org.apache.axiom.util.stax.XMLStreamWriterUtils;
+
+/**
+ * Reading and writing the simple types that make up API calls, in the same
+ * encoding the Axis2 bean serializer uses.  The generated dispatchers and
+ * serializers call these.  Readers are called with the stream on the start
+ * of an element and leave it on the matching end; writers write a whole
+ * element.  A null value is an element with xsi:nil="true".
+ * @author DETER team
+ * @version 1.0
+ */
+public class Serializers {
+    /** The XML Schema instance namespace */
+    static public final String XSI =
+	"http://www.w3.org/2001/XMLSchema-instance";
+    /** The package holding the generated classes */
+    static public final String GENERATED =
+	"net.deterlab.testbed.rpc.generated";
+
+    /** Generated bean serializers by class, loaded when first needed */
+    static private Map<Class<?>, Serializer<?>> serializers = null;
+
+    /**
+     * Move the stream to the first start element, the operation's wrapper
+     * element in a request.
+     * @param r the stream
+     * @throws XMLStreamException if there is no element
+     */
+    static public void enter(XMLStreamReader r) throws XMLStreamException {
+	while ( r.getEventType() != XMLStreamConstants.START_ELEMENT )
+	    r.next();
+    }
+
+    /**
+     * Return true if the current element is nil.
+     * @param r the stream, on a start element
+     * @return true if the current element is nil
+     */
+    static public boolean isNil(XMLStreamReader r) {
+	String v = r.getAttributeValue(XSI, "nil");
+
+	return "true".equals(v) || "1".equals(v);
+    }
+
+    /**
+     * Skip the current element and its contents.
+     * @param r the stream, on a start element
+     * @throws XMLStreamException on parse errors
+     */
+    static public void skip(XMLStreamReader r) throws XMLStreamException {
+	int depth = 1;
+
+	while ( depth > 0 ) {
+	    int e = r.next();
+
+	    if ( e == XMLStreamConstants.START_ELEMENT ) depth++;
+	    else if ( e == XMLStreamConstants.END_ELEMENT ) depth--;
+	}
+    }
+
+    /**
+     * Read a string.
+     * @param r the stream
+     * @return the string (null if nil)
+     * @throws XMLStreamException on parse errors
+     */
+    static public String readString(XMLStreamReader r)
+	    throws XMLStreamException {
+	if ( isNil(r) ) {
+	    skip(r);
+	    return null;
+	}
+	return r.getElementText();
+    }
+
+    /**
+     * Read a boolean.
+     * @param r the stream
+     * @return the value (null if nil)
+     * @throws XMLStreamException on parse errors
+     */
+    static public Boolean readBooleanObject(XMLStreamReader r)
+	    throws XMLStreamException {
+	String s = readString(r);
+
+	if ( s == null ) return null;
+	s = s.trim();
+	return "true".equals(s) || "1".equals(s);
+    }
+
+    /**
+     * Read a boolean; nil is false.
+     * @param r the stream
+     * @return the value
+     * @throws XMLStreamException on parse errors
+     */
+    static public boolean readBoolean(XMLStreamReader r)
+	    throws XMLStreamException {
+	Boolean v = readBooleanObject(r);
+
+	return (v != null) ? v : false;
+    }
+
+    /**
+     * Read an int.
+     * @param r the stream
+     * @return the value (null if nil)
+     * @throws XMLStreamException on parse errors or a bad number
+     */
+    static public Integer readIntObject(XMLStreamReader r)
+	    throws XMLStreamException {
+	String s = readString(r);
+
+	try {
+	    return (s != null) ? Integer.valueOf(s.trim()) : null;
+	}
+	catch (NumberFormatException e) {
+	    throw new XMLStreamException("Bad int " + s, r.getLocation());
+	}
+    }
+
+    /**
+     * Read an int; nil is 0.
+     * @param r the stream
+     * @return the value
+     * @throws XMLStreamException on parse errors or a bad number
+     */
+    static public int readInt(XMLStreamReader r) throws XMLStreamException {
+	Integer v = readIntObject(r);
+
+	return (v != null) ? v : 0;
+    }
+
+    /**
+     * Read a long.
+     * @param r the stream
+     * @return the value (null if nil)
+     * @throws XMLStreamException on parse errors or a bad number
+     */
+    static public Long readLongObject(XMLStreamReader r)
+	    throws XMLStreamException {
+	String s = readString(r);
+
+	try {
+	    return (s != null) ? Long.valueOf(s.trim()) : null;
+	}
+	catch (NumberFormatException e) {
+	    throw new XMLStreamException("Bad long " + s, r.getLocation());
+	}
+    }
+
+    /**
+     * Read a long; nil is 0.
+     * @param r the stream
+     * @return the value
+     * @throws XMLStreamException on parse errors or a bad number
+     */
+    static public long readLong(XMLStreamReader r) throws XMLStreamException {
+	Long v = readLongObject(r);
+
+	return (v != null) ? v : 0L;
+    }
+
+    /**
+     * Read a double, including the schema's INF, -INF and NaN.
+     * @param r the stream
+     * @return the value (null if nil)
+     * @throws XMLStreamException on parse errors or a bad number
+     */
+    static public Double readDoubleObject(XMLStreamReader r)
+	    throws XMLStreamException {
+	String s = readString(r);
+
+	if ( s == null ) return null;
+	s = s.trim();
+	if ( s.equals("INF") ) return Double.POSITIVE_INFINITY;
+	if ( s.equals("-INF") ) return Double.NEGATIVE_INFINITY;
+	try {
+	    return Double.valueOf(s);
+	}
+	catch (NumberFormatException e) {
+	    throw new XMLStreamException("Bad double " + s, r.getLocation());
+	}
+    }
+
+    /**
+     * Read a double; nil is 0.
+     * @param r the stream
+     * @return the value
+     * @throws XMLStreamException on parse errors or a bad number
+     */
+    static public double readDouble(XMLStreamReader r)
+	    throws XMLStreamException {
+	Double v = readDoubleObject(r);
+
+	return (v != null) ? v : 0.0;
+    }
+
+    /**
+     * Read base64 encoded bytes.
+     * @param r the stream
+     * @return the bytes (null if nil)
+     * @throws XMLStreamException on parse errors or bad base64
+     */
+    static public byte[] readBytes(XMLStreamReader r)
+	    throws XMLStreamException {
+	String s = readString(r);
+
+	try {
+	    return (s != null) ? Base64.getMimeDecoder().decode(s) : null;
+	}
+	catch (IllegalArgumentException e) {
+	    throw new XMLStreamException("Bad base64 data", r.getLocation());
+	}
+    }
+
+    /**
+     * Read binary data, either inline base64 or an MTOM attachment.
+     * @param r the stream
+     * @return the data (null if nil)
+     * @throws XMLStreamException on parse errors
+     */
+    static public DataHandler readData(XMLStreamReader r)
+	    throws XMLStreamException {
+	if ( isNil(r) ) {
+	    skip(r);
+	    return null;
+	}
+	return XMLStreamReaderUtils.getDataHandlerFromElement(r);
+    }
+
+    /**
+     * Write a nil element.
+     * @param w the stream
+     * @param ns the element namespace
+     * @param name the element name
+     * @throws XMLStreamException on errors
+     */
+    static public void writeNil(XMLStreamWriter w, String ns, String name)
+	    throws XMLStreamException {
+	w.writeStartElement(ns, name);
+	w.writeAttribute("xsi", XSI, "nil", "true");
+	w.writeEndElement();
+    }
+
+    /**
+     * Write a string.
+     * @param w the stream
+     * @param ns the element namespace
+     * @param name the element name
+     * @param v the value
+     * @throws XMLStreamException on errors
+     */
+    static public void writeString(XMLStreamWriter w, String ns, String name,
+	    String v) throws XMLStreamException {
+	if ( v == null ) {
+	    writeNil(w, ns, name);
+	    return;
+	}
+	w.writeStartElement(ns, name);
+	w.writeCharacters(v);
+	w.writeEndElement();
+    }
+
+    /**
+     * Write a boolean, int or long.
+     * @param w the stream
+     * @param ns the element namespace
+     * @param name the element name
+     * @param v the value
+     * @throws XMLStreamException on errors
+     */
+    static public void writeValue(XMLStreamWriter w, String ns, String name,
+	    Object v) throws XMLStreamException {
+	writeString(w, ns, name, (v != null) ? v.toString() : null);
+    }
+
+    /**
+     * Write a double, using the schema's INF and -INF.
+     * @param w the stream
+     * @param ns the element namespace
+     * @param name the element name
+     * @param v the value
+     * @throws XMLStreamException on errors
+     */
+    static public void writeDouble(XMLStreamWriter w, String ns, String name,
+	    Double v) throws XMLStreamException {
+	String s = (v != null) ? v.toString() : null;
+
+	if ( v != null && v.isInfinite() ) s = (v > 0) ? "INF" : "-INF";
+	writeString(w, ns, name, s);
+    }
+
+    /**
+     * Write bytes as base64.
+     * @param w the stream
+     * @param ns the element namespace
+     * @param name the element name
+     * @param v the value
+     * @throws XMLStreamException on errors
+     */
+    static public void writeBytes(XMLStreamWriter w, String ns, String name,
+	    byte[] v) throws XMLStreamException {
+	writeString(w, ns, name,
+		(v != null) ? Base64.getEncoder().encodeToString(v) : null);
+    }
+
+    /**
+     * Write binary data.  If the response is being sent with MTOM it
+     * becomes an attachment, otherwise it is written as base64.
+     * @param w the stream
+     * @param ns the element namespace
+     * @param name the element name
+     * @param v the value
+     * @throws XMLStreamException on errors
+     */
+    static public void writeData(XMLStreamWriter w, String ns, String name,
+	    DataHandler v) throws XMLStreamException {
+	if ( v == null ) {
+	    writeNil(w, ns, name);
+	    return;
+	}
+	w.writeStartElement(ns, name);
+	try {
+	    XMLStreamWriterUtils.writeDataHandler(w, v, null, true);
+	}
+	catch (IOException e) {
+	    throw new XMLStreamException("Cannot read data: " +
+		    e.getMessage(), e);
+	}
+	w.writeEndElement();
+    }
+
+    /**
+     * Convert a list of values read for an array parameter or property to
+     * an array.
+     * @param l the list
+     * @param a an empty array of the element type
+     * @return the array (null if l is null)
+     */
+    static public <T> T[] toArray(List<T> l, T[] a) {
+	return (l != null) ? l.toArray(a) : null;
+    }
+
+    /**
+     * Convert a list to a boolean array.
+     * @param l the list
+     * @return the array (null if l is null)
+     */
+    static public boolean[] toBooleanArray(List<Boolean> l) {
+	if ( l == null ) return null;
+
+	boolean[] rv = new boolean[l.size()];
+
+	for (int i = 0; i < rv.length; i++)
+	    rv[i] = l.get(i);
+	return rv;
+    }
+
+    /**
+     * Convert a list to a int array.
+     * @param l the list
+     * @return the array (null if l is null)
+     */
+    static public int[] toIntegerArray(List<Integer> l) {
+	if ( l == null ) return null;
+
+	int[] rv = new int[l.size()];
+
+	for (int i = 0; i < rv.length; i++)
+	    rv[i] = l.get(i);
+	return rv;
+    }
+
+    /**
+     * Convert a list to a long array.
+     * @param l the list
+     * @return the array (null if l is null)
+     */
+    static public long[] toLongArray(List<Long> l) {
+	if ( l == null ) return null;
+
+	long[] rv = new long[l.size()];
+
+	for (int i = 0; i < rv.length; i++)
+	    rv[i] = l.get(i);
+	return rv;
+    }
+
+    /**
+     * Convert a list to a double array.
+     * @param l the list
+     * @return the array (null if l is null)
+     */
+    static public double[] toDoubleArray(List<Double> l) {
+	if ( l == null ) return null;
+
+	double[] rv = new double[l.size()];
+
+	for (int i = 0; i < rv.length; i++)
+	    rv[i] = l.get(i);
+	return rv;
+    }
+
+    /**
+     * Return the generated serializer for an API class.
+     * @param c the class
+     * @return the serializer, or null if none was generated
+     */
+    @SuppressWarnings("unchecked")
+    static public synchronized <T> Serializer<T> forClass(Class<T> c) {
+	if ( serializers == null ) {
+	    try {
+		serializers = (Map<Class<?>, Serializer<?>>)
+		    Class.forName(GENERATED + ".ApiSerializers").getMethod(
+			    "getSerializers").invoke(null);
+	    }
+	    catch (ReflectiveOperationException e) {
+		serializers = Collections.emptyMap();
+	    }
+	}
+	return (Serializer<T>) serializers.get(c);
+    }
+}
@@ -0,0 +1,274 @@
+package net.deterlab.testbed.system;
+
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import net.deterlab.testbed.api.Config;
+import net.deterlab.testbed.api.DeterFault;
+
+import net.deterlab.testbed.db.SharedConnection;
+
+import net.deterlab.testbed.experiment.ExperimentDB;
+
+import net.deterlab.testbed.project.ProjectDB;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Reclaims tombstoned experiments and projects in the background.  Removing
+ * an experiment or project only tombstones it (see ExperimentDB.tombstone
+ * and ProjectDB.tombstone), which takes it out of use at once; the files,
+ * ACLs, aspects, circles and rows are reclaimed here.  There is one
+ * collector per service process.  It wakes when something is tombstoned and
+ * periodically to pick up tombstones left from a previous run or a failed
+ * collection, then removes them in batches, pausing between objects so that
+ * a large removal does not monopolize the database or file system.  A
+ * tombstone that cannot be reclaimed is skipped for a while, the wait
+ * doubling with each failure, so it does not hold up the others.
+ * <p>
+ * Configuration properties (all optional):
+ * <dl>
+ * <dt>tombstoneBatchSize</dt><dd>objects of each kind reclaimed per
+ *	database connection (default 20)</dd>
+ * <dt>tombstonePause</dt><dd>milliseconds to wait after reclaiming each
+ *	object (default 100)</dd>
+ * <dt>tombstonePollInterval</dt><dd>seconds between scans for tombstones
+ *	(default 300)</dd>
+ * <dt>tombstoneRetryDelay</dt><dd>seconds before retrying a tombstone that
+ *	could not be reclaimed; doubles on each failure up to a day
+ *	(default 300)</dd>
+ * </dl>
+ * @author DETER team
+ * @version 1.0
+ */
+public class TombstoneCollector {
+    /** The per-process collector */
+    static private TombstoneCollector instance = null;
+    /** Longest wait before retrying a tombstone (a day) in milliseconds */
+    static private final long MAX_RETRY_DELAY = 24 * 3600 * 1000L;
+
+    /** The collecting thread */
+    private ScheduledExecutorService executor;
+    /** True if a collection has been requested but not started */
+    private AtomicBoolean collectQueued;
+    /** Objects of each kind per batch */
+    private int batchSize;
+    /** Milliseconds to wait after each object */
+    private long pause;
+    /** Milliseconds between scans */
+    private long poll;
+    /** Milliseconds before the first retry of a tombstone */
+    private long retryDelay;
+    /** Logger */
+    private Logger log;
+
+    /**
+     * Create a collector with the given parameters.  It does nothing until
+     * start is called.
+     * @param batch objects of each kind per batch
+     * @param pause milliseconds to wait after each object
+     * @param poll milliseconds between scans
+     * @param retry milliseconds before the first retry of a tombstone
+     */
+    public TombstoneCollector(int batch, long pause, long poll, long retry) {
+	batchSize = batch;
+	this.pause = pause;
+	this.poll = poll;
+	retryDelay = retry;
+	collectQueued = new AtomicBoolean(false);
+	log = Logger.getLogger(getClass());
+	executor = Executors.newSingleThreadScheduledExecutor(
+		new ThreadFactory() {
+		    public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "tombstone-collector");
+			t.setDaemon(true);
+			return t;
+		    }
+		});
+    }
+
+    /**
+     * Start the periodic scan, beginning with one now.
+     */
+    public void start() {
+	executor.scheduleWithFixedDelay(new Runnable() {
+		public void run() { wakeup(); }
+	    }, 0, poll, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Return the collector for this process, creating and starting it from
+     * the service configuration if necessary.
+     * @return the collector
+     * @throws DeterFault if the configuration cannot be read
+     */
+    static public synchronized TombstoneCollector getInstance()
+	    throws DeterFault {
+	if ( instance != null ) return instance;
+
+	Config config = new Config();
+	instance = new TombstoneCollector(
+		intProperty(config, "tombstoneBatchSize", 20),
+		intProperty(config, "tombstonePause", 100),
+		intProperty(config, "tombstonePollInterval", 300) * 1000L,
+		intProperty(config, "tombstoneRetryDelay", 300) * 1000L);
+	instance.start();
+	return instance;
+    }
+
+    /**
+     * Read an integer property, returning a default if it is missing or
+     * malformed.
+     * @param config the configuration
+     * @param name the property name
+     * @param def the default value
+     * @return the value
+     */
+    static private int intProperty(Config config, String name, int def) {
+	String v = config.getProperty(name);
+
+	if ( v == null ) return def;
+	try {
+	    return Integer.parseInt(v);
+	}
+	catch (NumberFormatException e) {
+	    return def;
+	}
+    }
+
+    /**
+     * Ask the collector to reclaim tombstones soon.  Multiple requests made
+     * before the collection starts are merged.
+     */
+    public void wakeup() {
+	if ( !collectQueued.compareAndSet(false, true)) return;
+	executor.execute(new Runnable() {
+	    public void run() {
+		collectQueued.set(false);
+		collect();
+	    }
+	});
+    }
+
+    /**
+     * Reclaim batches until a batch comes up short.  Tombstones that cannot
+     * be reclaimed stay until their retry is due.
+     */
+    protected void collect() {
+	try {
+	    while ( collectBatch() >= batchSize)
+		;
+	}
+	catch (InterruptedException e) {
+	    Thread.currentThread().interrupt();
+	}
+	catch (Exception e) {
+	    // Keep the collector thread alive; the next scan will retry.
+	    log.error("Error reclaiming tombstones: " + e);
+	}
+    }
+
+    /**
+     * Return the delay before retrying a tombstone that has failed to be
+     * reclaimed the given number of times.  The delay doubles after each
+     * failure up to a day.  Note the package scope.
+     * @param failures the number of failed attempts (at least 1)
+     * @param base the delay after the first failure in milliseconds
+     * @return the delay in milliseconds
+     */
+    static long backoff(int failures, long base) {
+	long d = base;
+
+	for (int i = 1; i < failures && d < MAX_RETRY_DELAY; i++)
+	    d *= 2;
+	return Math.min(d, MAX_RETRY_DELAY);
+    }
+
+    /**
+     * Wait the configured time between objects.
+     * @throws InterruptedException if the collector is shut down
+     */
+    private void throttle() throws InterruptedException {
+	if ( pause > 0 ) Thread.sleep(pause);
+    }
+
+    /**
+     * Reclaim one batch of experiments and one of projects.  Experiments go
+     * first because a project's experiments are removed before the project.
+     * @return the larger number of experiments or projects reclaimed
+     * @throws DeterFault on database errors
+     * @throws InterruptedException if the collector is shut down
+     */
+    protected int collectBatch() throws DeterFault, InterruptedException {
+	SharedConnection sc = null;
+	int experiments = 0;
+	int projects = 0;
+
+	try {
+	    sc = new SharedConnection();
+	    sc.open();
+	    for (ExperimentDB e : ExperimentDB.getTombstones(batchSize, sc)) {
+		try {
+		    e.remove();
+		    e.close();
+		    experiments++;
+		}
+		catch (DeterFault df) {
+		    log.error("Cannot reclaim experiment " + e.getEid() +
+			    ": " + df);
+		    try {
+			e.reclaimFailed(backoff(e.getReclaimAttempts() + 1,
+				    retryDelay) / 1000);
+		    }
+		    catch (DeterFault rf) {
+			log.error("Cannot defer experiment " + e.getEid() +
+				": " + rf);
+		    }
+		    e.forceClose();
+		}
+		throttle();
+	    }
+	    for (ProjectDB p : ProjectDB.getTombstones(batchSize, sc)) {
+		try {
+		    p.remove();
+		    p.close();
+		    projects++;
+		}
+		catch (DeterFault df) {
+		    log.error("Cannot reclaim project " + p.getName() +
+			    ": " + df);
+		    try {
+			p.reclaimFailed(backoff(p.getReclaimAttempts() + 1,
+				    retryDelay) / 1000);
+		    }
+		    catch (DeterFault rf) {
+			log.error("Cannot defer project " + p.getName() +
+				": " + rf);
+		    }
+		    p.forceClose();
+		}
+		throttle();
+	    }
+	    sc.close();
+	    if ( log.isDebugEnabled())
+		log.debug("Reclaimed " + experiments + " experiments and " +
+			projects + " projects");
+	    return Math.max(experiments, projects);
+	}
+	catch (DeterFault|InterruptedException e) {
+	    if ( sc != null ) sc.forceClose();
+	    throw e;
+	}
+    }
+
+    /**
+     * Stop the collector.  Tombstones remain until the next start.
+     */
+    public void shutdown() {
+	executor.shutdownNow();
+    }
+}
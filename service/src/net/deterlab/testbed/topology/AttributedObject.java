@@ -72,6 +72,7 @@ public class AttributedObject extends TopologyObject {
      */
     public void setAttribute(String name, String value) {
 	attrs.put(name, value);
+	attributeChanged(name);
     }
 
     /**
@@ -80,8 +81,17 @@ public class AttributedObject extends TopologyObject {
      */
     public void removeAttribute(String name) {
 	attrs.remove(name);
+	attributeChanged(name);
     }
 
+    /**
+     * Called after the named attribute is set or removed, so that subclasses
+     * can keep indices of their attributes current.  This does nothing.  Note
+     * the package scope.
+     * @param name the attribute name
+     */
+    void attributeChanged(String name) { }
+
     /**
      * Return the attribute map: Note the package scope.
      * @return the attribute map
@@ -0,0 +1,915 @@
+package net.deterlab.testbed.topology;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compact binary encoding of a TopologyDescription, equivalent to the
+ * topdl XML written by writeXML and read by TopdlParser but several times
+ * smaller and much faster to read.
+ * <p>
+ * The stream starts with the 4 byte MAGIC and a format version.  Integers
+ * are unsigned LEB128 varints (signed values are zigzag encoded first) and
+ * doubles are 8 byte IEEE values.  Strings are interned: the first
+ * occurrence of a string is written in full and assigned the next number in
+ * the string table, later occurrences are written as that number, so
+ * repeated names, attribute keys and values cost a byte or two each.
+ * Substrates are written before elements and numbered in order; each
+ * interface refers to its substrate by that number.  Fragments are
+ * encoded like the top level topology, and name maps as string pairs.
+ * @author DeterTeam
+ * @version 1.0
+ */
+public class BinaryTopdl {
+    /** First bytes of every encoding */
+    static public final byte[] MAGIC = new byte[] { 'T', 'P', 'D', 'B' };
+    /** Current format version */
+    static public final int VERSION = 1;
+
+    /** Element type tags */
+    static private final int ELEMENT = 0;
+    static private final int COMPUTER = 1;
+    static private final int OTHER = 2;
+    static private final int TESTBED = 3;
+    static private final int SEGMENT = 4;
+    static private final int REGION = 5;
+
+    /** String references: null, a new string, then table index + 2 */
+    static private final int NULL_STRING = 0;
+    static private final int NEW_STRING = 1;
+
+    /** Largest count or length accepted when decoding */
+    static private final int MAX_COUNT = 1 << 24;
+    /** Byte arrays longer than this are read in pieces of this size */
+    static private final int CHUNK = 64 * 1024;
+
+    /**
+     * Return true if data starts with the binary encoding's magic number.
+     * @param data the data to check
+     * @return true if data is binary encoded
+     */
+    static public boolean isBinary(byte[] data) {
+	if ( data == null || data.length < MAGIC.length ) return false;
+	for (int i = 0; i < MAGIC.length; i++)
+	    if ( data[i] != MAGIC[i] ) return false;
+	return true;
+    }
+
+    /**
+     * Encodes one TopologyDescription.
+     */
+    static private class Encoder {
+	/** The output */
+	private DataOutputStream out;
+	/** Strings written so far and their table indices */
+	private Map<String, Integer> strings;
+	/** Substrate numbers in the topology being written */
+	private Map<Substrate, Integer> subs;
+
+	/**
+	 * Create an encoder.
+	 * @param o the output
+	 */
+	public Encoder(OutputStream o) {
+	    out = new DataOutputStream(o);
+	    strings = new HashMap<String, Integer>();
+	    subs = null;
+	}
+
+	/**
+	 * Write an unsigned varint.
+	 * @param v the value (treated as unsigned)
+	 * @throws IOException on a writing error
+	 */
+	public void writeInt(int v) throws IOException {
+	    while ( (v & ~0x7f) != 0 ) {
+		out.writeByte((v & 0x7f) | 0x80);
+		v >>>= 7;
+	    }
+	    out.writeByte(v);
+	}
+
+	/**
+	 * Write a possibly negative int.
+	 * @param v the value
+	 * @throws IOException on a writing error
+	 */
+	public void writeSigned(int v) throws IOException {
+	    writeInt((v << 1) ^ (v >> 31));
+	}
+
+	/**
+	 * Write a string reference, adding new strings to the table.
+	 * @param s the string (may be null)
+	 * @throws IOException on a writing error
+	 */
+	public void writeString(String s) throws IOException {
+	    if ( s == null ) {
+		writeInt(NULL_STRING);
+		return;
+	    }
+	    Integer idx = strings.get(s);
+
+	    if ( idx != null ) {
+		writeInt(idx + 2);
+		return;
+	    }
+	    byte[] b = s.getBytes(StandardCharsets.UTF_8);
+
+	    strings.put(s, strings.size());
+	    writeInt(NEW_STRING);
+	    writeInt(b.length);
+	    out.write(b);
+	}
+
+	/**
+	 * Write a possibly null byte array.
+	 * @param b the bytes
+	 * @throws IOException on a writing error
+	 */
+	public void writeBytes(byte[] b) throws IOException {
+	    if ( b == null ) {
+		writeInt(0);
+		return;
+	    }
+	    writeInt(b.length + 1);
+	    out.write(b);
+	}
+
+	/**
+	 * Write a list of strings.
+	 * @param l the strings
+	 * @throws IOException on a writing error
+	 */
+	public void writeStrings(Collection<String> l) throws IOException {
+	    writeInt(l.size());
+	    for (String s : l)
+		writeString(s);
+	}
+
+	/**
+	 * Write a string to string map.
+	 * @param m the map
+	 * @throws IOException on a writing error
+	 */
+	public void writeMap(Map<String, String> m) throws IOException {
+	    writeInt(m.size());
+	    for (Map.Entry<String, String> e : m.entrySet()) {
+		writeString(e.getKey());
+		writeString(e.getValue());
+	    }
+	}
+
+	/**
+	 * Write an optional capacity.
+	 * @param c the capacity (may be null)
+	 * @throws IOException on a writing error
+	 */
+	public void writeCapacity(Capacity c) throws IOException {
+	    out.writeBoolean(c != null);
+	    if ( c == null ) return;
+	    out.writeDouble(c.getRate());
+	    writeString(c.getKind());
+	}
+
+	/**
+	 * Write an optional latency.
+	 * @param l the latency (may be null)
+	 * @throws IOException on a writing error
+	 */
+	public void writeLatency(Latency l) throws IOException {
+	    out.writeBoolean(l != null);
+	    if ( l == null ) return;
+	    out.writeDouble(l.getTime());
+	    writeString(l.getKind());
+	}
+
+	/**
+	 * Write operational data.
+	 * @param oo the data
+	 * @throws IOException on a writing error
+	 */
+	public void writeOperational(OperationalObject oo) throws IOException {
+	    writeStrings(oo.getLocalnames());
+	    writeString(oo.getStatus());
+	    writeInt(oo.getServices().size());
+	    for (Service s : oo.getServices()) {
+		writeString(s.getName());
+		writeStrings(s.getImporters());
+		writeInt(s.getParams().size());
+		for (Service.Param p : s.getParams()) {
+		    writeString(p.getName());
+		    writeString(p.getType());
+		}
+		writeString(s.getDescription());
+		writeString(s.getStatus());
+	    }
+	    writeStrings(oo.getOperations());
+	}
+
+	/**
+	 * Write a computer's fields beyond those of an Element.
+	 * @param c the computer
+	 * @throws IOException on a writing error
+	 */
+	public void writeComputer(Computer c) throws IOException {
+	    writeInt(c.getCPU().size());
+	    for (CPU cpu : c.getCPU()) {
+		writeString(cpu.getType());
+		writeSigned(cpu.getCount());
+		writeMap(cpu.getAttributes());
+	    }
+	    writeInt(c.getOS().size());
+	    for (OperatingSystem os : c.getOS()) {
+		writeString(os.getName());
+		writeString(os.getVersion());
+		writeString(os.getDistribution());
+		writeString(os.getDistributionVersion());
+		writeMap(os.getAttributes());
+	    }
+	    writeInt(c.getSoftware().size());
+	    for (Software s : c.getSoftware()) {
+		writeString(s.getLocation());
+		writeString(s.getInstall());
+		writeMap(s.getAttributes());
+	    }
+	    writeInt(c.getStorage().size());
+	    for (Storage s : c.getStorage()) {
+		out.writeDouble(s.getAmount());
+		writeString(s.getPersistence());
+		writeMap(s.getAttributes());
+	    }
+	    writeOperational(c.getOperationalData());
+	}
+
+	/**
+	 * Write a segment ID.
+	 * @param id the ID (may be null)
+	 * @throws IOException on a writing error
+	 */
+	public void writeID(Segment.ID id) throws IOException {
+	    out.writeBoolean(id != null);
+	    if ( id == null ) return;
+	    writeBytes(id.getUUID());
+	    writeBytes(id.getFedid());
+	    writeString(id.getURI());
+	    writeString(id.getLocalname());
+	    writeString(id.getKerberosName());
+	}
+
+	/**
+	 * Write an element and its interfaces.
+	 * @param e the element
+	 * @throws IOException on a writing error
+	 */
+	public void writeElement(Element e) throws IOException {
+	    if ( e instanceof Computer ) writeInt(COMPUTER);
+	    else if ( e instanceof OtherElement ) writeInt(OTHER);
+	    else if ( e instanceof Segment ) writeInt(SEGMENT);
+	    else if ( e instanceof Testbed ) writeInt(TESTBED);
+	    else if ( e instanceof Region ) writeInt(REGION);
+	    else writeInt(ELEMENT);
+
+	    writeString(e.getName());
+	    writeMap(e.getAttributes());
+	    if ( e instanceof Computer ) {
+		writeComputer((Computer) e);
+	    }
+	    else if ( e instanceof Testbed ) {
+		Testbed t = (Testbed) e;
+
+		writeString(t.getURI());
+		writeString(t.getType());
+		writeOperational(t.getOperationalData());
+		if ( t instanceof Segment ) writeID(((Segment) t).getID());
+	    }
+	    else if ( e instanceof Region ) {
+		Region r = (Region) e;
+
+		writeSigned(r.getLevel());
+		writeString(r.getFragmentName());
+	    }
+
+	    writeInt(e.getInterfaces().size());
+	    for (Interface i : e.getInterfaces()) {
+		Integer s = subs.get(i.getSubstrate());
+
+		writeString(i.getName());
+		// 0 is no substrate (or one outside the topology)
+		writeInt((s != null) ? s + 1 : 0);
+		writeCapacity(i.getCapacity());
+		writeLatency(i.getLatency());
+		writeMap(i.getAttributes());
+	    }
+	}
+
+	/**
+	 * Write a topology: its attributes, substrates and elements.
+	 * @param t the topology
+	 * @throws IOException on a writing error
+	 */
+	public void writeTopology(Topology t) throws IOException {
+	    Map<Substrate, Integer> outer = subs;
+
+	    subs = new HashMap<Substrate, Integer>();
+	    writeMap(t.getAttributes());
+	    writeInt(t.getSubstrates().size());
+	    for (Substrate s : t.getSubstrates()) {
+		subs.put(s, subs.size());
+		writeString(s.getName());
+		writeCapacity(s.getCapacity());
+		writeLatency(s.getLatency());
+		writeOperational(s.getOperationalData());
+		writeMap(s.getAttributes());
+	    }
+	    writeInt(t.getElements().size());
+	    for (Element e : t.getElements())
+		writeElement(e);
+	    subs = outer;
+	}
+
+	/**
+	 * Write a whole description.
+	 * @param td the description
+	 * @throws IOException on a writing error
+	 */
+	public void write(TopologyDescription td) throws IOException {
+	    out.write(MAGIC);
+	    writeInt(VERSION);
+	    writeString(td.getVersion());
+	    writeTopology(td);
+
+	    List<Fragment> frags = td.getFragments();
+	    writeInt(frags.size());
+	    for (Fragment f : frags) {
+		writeString(f.getName());
+		writeMap(f.getInterfaceMap());
+		writeTopology(f);
+	    }
+
+	    List<NameMap> maps = td.getNameMaps();
+	    writeInt(maps.size());
+	    for (NameMap m : maps) {
+		writeString(m.getPathName());
+		writeMap(m.getMap());
+		writeMap(m.getAttributes());
+	    }
+	    out.flush();
+	}
+    }
+
+    /**
+     * Counts the bytes read through it.
+     */
+    static private class CountingInputStream extends FilterInputStream {
+	/** Bytes read so far */
+	private long count;
+
+	/**
+	 * Count the bytes read from in.
+	 * @param in the input
+	 */
+	public CountingInputStream(InputStream in) {
+	    super(in);
+	    count = 0;
+	}
+
+	/**
+	 * Return the number of bytes read so far.
+	 * @return the number of bytes read so far
+	 */
+	public long getCount() { return count; }
+
+	/**
+	 * Read a byte.
+	 * @return the byte or -1 at the end of the input
+	 * @throws IOException on a read error
+	 */
+	public int read() throws IOException {
+	    int b = super.read();
+
+	    if ( b >= 0 ) count++;
+	    return b;
+	}
+
+	/**
+	 * Read bytes into part of an array.
+	 * @param b the array
+	 * @param off the offset of the first byte to fill
+	 * @param len the most bytes to read
+	 * @return the number of bytes read or -1 at the end of the input
+	 * @throws IOException on a read error
+	 */
+	public int read(byte[] b, int off, int len) throws IOException {
+	    int n = super.read(b, off, len);
+
+	    if ( n > 0 ) count += n;
+	    return n;
+	}
+
+	/**
+	 * Skip bytes.
+	 * @param n the most bytes to skip
+	 * @return the number skipped
+	 * @throws IOException on a read error
+	 */
+	public long skip(long n) throws IOException {
+	    long rv = super.skip(n);
+
+	    count += rv;
+	    return rv;
+	}
+    }
+
+    /**
+     * Decodes one TopologyDescription.
+     */
+    static private class Decoder {
+	/** The input */
+	private DataInputStream in;
+	/** Counts the bytes read from the input */
+	private CountingInputStream counter;
+	/** Length of the input, or -1 if unknown */
+	private long length;
+	/** The string table */
+	private List<String> strings;
+
+	/**
+	 * Create a decoder.
+	 * @param i the input
+	 * @param len the length of the input, or -1 if unknown
+	 */
+	public Decoder(InputStream i, long len) {
+	    counter = new CountingInputStream(i);
+	    in = new DataInputStream(counter);
+	    length = len;
+	    strings = new ArrayList<String>();
+	}
+
+	/**
+	 * Return the number of bytes left in the input, or Long.MAX_VALUE if
+	 * the length is unknown.
+	 * @return the number of bytes left in the input
+	 */
+	private long remaining() {
+	    return (length < 0) ? Long.MAX_VALUE :
+		length - counter.getCount();
+	}
+
+	/**
+	 * Read an unsigned varint.
+	 * @return the value
+	 * @throws IOException on a read error or a malformed value
+	 */
+	public int readInt() throws IOException {
+	    int rv = 0;
+
+	    for (int shift = 0; shift < 35; shift += 7) {
+		int b = in.readUnsignedByte();
+
+		rv |= (b & 0x7f) << shift;
+		if ( (b & 0x80) == 0 ) return rv;
+	    }
+	    throw new IOException("Bad integer in binary topology");
+	}
+
+	/**
+	 * Read a non-negative count of bytes or items, rejecting absurd
+	 * values.  Every item takes at least a byte, so a count larger than
+	 * the rest of the input is absurd, as is one over MAX_COUNT.
+	 * @return the count
+	 * @throws IOException on a read error or a malformed value
+	 */
+	public int readCount() throws IOException {
+	    int n = readInt();
+
+	    if ( n < 0 || n > MAX_COUNT || n > remaining())
+		throw new IOException("Bad count in binary topology");
+	    return n;
+	}
+
+	/**
+	 * Read n bytes.  Long arrays are read in pieces so that a length
+	 * claimed by a truncated input is not allocated all at once.
+	 * @param n the number of bytes
+	 * @return the bytes
+	 * @throws IOException on a read error
+	 */
+	private byte[] readRaw(int n) throws IOException {
+	    if ( n <= CHUNK ) {
+		byte[] b = new byte[n];
+
+		in.readFully(b);
+		return b;
+	    }
+
+	    ByteArrayOutputStream out = new ByteArrayOutputStream(CHUNK);
+	    byte[] buf = new byte[CHUNK];
+
+	    for (int left = n; left > 0; left -= CHUNK) {
+		int len = Math.min(left, CHUNK);
+
+		in.readFully(buf, 0, len);
+		out.write(buf, 0, len);
+	    }
+	    return out.toByteArray();
+	}
+
+	/**
+	 * Read a zigzag encoded int.
+	 * @return the value
+	 * @throws IOException on a read error
+	 */
+	public int readSigned() throws IOException {
+	    int v = readInt();
+
+	    return (v >>> 1) ^ -(v & 1);
+	}
+
+	/**
+	 * Read a string reference.
+	 * @return the string (may be null)
+	 * @throws IOException on a read error or bad reference
+	 */
+	public String readString() throws IOException {
+	    int ref = readInt();
+
+	    if ( ref == NULL_STRING ) return null;
+	    if ( ref == NEW_STRING ) {
+		byte[] b = readRaw(readCount());
+		String s = new String(b, StandardCharsets.UTF_8);
+
+		strings.add(s);
+		return s;
+	    }
+	    ref -= 2;
+	    if ( ref < 0 || ref >= strings.size())
+		throw new IOException("Bad string reference in binary " +
+			"topology");
+	    return strings.get(ref);
+	}
+
+	/**
+	 * Read a possibly null byte array.
+	 * @return the bytes
+	 * @throws IOException on a read error
+	 */
+	public byte[] readBytes() throws IOException {
+	    int n = readInt();
+
+	    // n is the length plus one, so that 0 can mean null
+	    if ( n < 0 || n - 1 > MAX_COUNT || n - 1 > remaining())
+		throw new IOException("Bad count in binary topology");
+	    if ( n == 0 ) return null;
+	    return readRaw(n - 1);
+	}
+
+	/**
+	 * Read a list of strings.
+	 * @return the strings
+	 * @throws IOException on a read error
+	 */
+	public List<String> readStrings() throws IOException {
+	    int n = readCount();
+	    List<String> rv = new ArrayList<String>(Math.min(n, 1024));
+
+	    for (int i = 0; i < n; i++)
+		rv.add(readString());
+	    return rv;
+	}
+
+	/**
+	 * Read a string to string map.
+	 * @return the map
+	 * @throws IOException on a read error
+	 */
+	public Map<String, String> readMap() throws IOException {
+	    int n = readCount();
+	    Map<String, String> rv = new HashMap<String, String>();
+
+	    for (int i = 0; i < n; i++) {
+		String k = readString();
+
+		rv.put(k, readString());
+	    }
+	    return rv;
+	}
+
+	/**
+	 * Read an optional capacity.
+	 * @return the capacity or null
+	 * @throws IOException on a read error
+	 */
+	public Capacity readCapacity() throws IOException {
+	    if ( !in.readBoolean()) return null;
+	    double r = in.readDouble();
+	    return new Capacity(r, readString());
+	}
+
+	/**
+	 * Read an optional latency.
+	 * @return the latency or null
+	 * @throws IOException on a read error
+	 */
+	public Latency readLatency() throws IOException {
+	    if ( !in.readBoolean()) return null;
+	    double t = in.readDouble();
+	    return new Latency(t, readString());
+	}
+
+	/**
+	 * Read operational data.
+	 * @return the data
+	 * @throws IOException on a read error
+	 */
+	public OperationalObject readOperational() throws IOException {
+	    List<String> ln = readStrings();
+	    String status = readString();
+	    int n = readCount();
+	    List<Service> services = new ArrayList<Service>();
+
+	    for (int i = 0; i < n; i++) {
+		String name = readString();
+		List<String> importers = readStrings();
+		int np = readCount();
+		List<Service.Param> params = new ArrayList<Service.Param>();
+
+		for (int j = 0; j < np; j++) {
+		    String pn = readString();
+
+		    params.add(new Service.Param(pn, readString()));
+		}
+		String desc = readString();
+		services.add(new Service(name, importers, params, desc,
+			    readString()));
+	    }
+	    return new OperationalObject(ln, status, services, readStrings());
+	}
+
+	/**
+	 * Read a computer's fields beyond those of an Element.
+	 * @param name the element name
+	 * @param attrs the element attributes
+	 * @return the computer
+	 * @throws IOException on a read error
+	 */
+	public Computer readComputer(String name, Map<String, String> attrs)
+		throws IOException {
+	    List<CPU> cpus = new ArrayList<CPU>();
+	    List<OperatingSystem> oss = new ArrayList<OperatingSystem>();
+	    List<Software> sws = new ArrayList<Software>();
+	    List<Storage> sts = new ArrayList<Storage>();
+	    int n = 0;
+
+	    n = readCount();
+	    for (int i = 0; i < n; i++) {
+		String type = readString();
+		int count = readSigned();
+
+		cpus.add(new CPU(type, count, readMap()));
+	    }
+	    n = readCount();
+	    for (int i = 0; i < n; i++) {
+		String on = readString();
+		String v = readString();
+		String d = readString();
+		String dv = readString();
+
+		oss.add(new OperatingSystem(on, v, d, dv, readMap()));
+	    }
+	    n = readCount();
+	    for (int i = 0; i < n; i++) {
+		String loc = readString();
+		String inst = readString();
+
+		sws.add(new Software(loc, inst, readMap()));
+	    }
+	    n = readCount();
+	    for (int i = 0; i < n; i++) {
+		double amt = in.readDouble();
+		String p = readString();
+
+		sts.add(new Storage(amt, p, readMap()));
+	    }
+	    OperationalObject oo = readOperational();
+	    return new Computer(name, null, cpus, oss, sws, sts,
+		    oo.getLocalnames(), oo.getStatus(), oo.getServices(),
+		    oo.getOperations(), attrs);
+	}
+
+	/**
+	 * Read a segment ID.
+	 * @return the ID or null
+	 * @throws IOException on a read error
+	 */
+	public Segment.ID readID() throws IOException {
+	    if ( !in.readBoolean()) return null;
+	    byte[] uuid = readBytes();
+	    byte[] fedid = readBytes();
+	    String uri = readString();
+	    String ln = readString();
+
+	    return new Segment.ID(uuid, fedid, uri, ln, readString());
+	}
+
+	/**
+	 * Read an element and connect its interfaces to the substrates.
+	 * @param subs the substrates of the topology, in encoded order
+	 * @return the element
+	 * @throws IOException on a read error or bad data
+	 */
+	public Element readElement(List<Substrate> subs) throws IOException {
+	    int tag = readInt();
+	    String name = readString();
+	    Map<String, String> attrs = readMap();
+	    Element e = null;
+
+	    switch (tag) {
+		case ELEMENT:
+		    e = new Element(name, null, attrs);
+		    break;
+		case COMPUTER:
+		    e = readComputer(name, attrs);
+		    break;
+		case OTHER:
+		    e = new OtherElement(name, null, attrs);
+		    break;
+		case TESTBED:
+		case SEGMENT: {
+		    String uri = readString();
+		    String type = readString();
+		    OperationalObject oo = readOperational();
+
+		    if ( tag == TESTBED )
+			e = new Testbed(name, uri, type, null,
+				oo.getLocalnames(), oo.getStatus(),
+				oo.getServices(), oo.getOperations(), attrs);
+		    else
+			e = new Segment(readID(), name, uri, type, null,
+				oo.getLocalnames(), oo.getStatus(),
+				oo.getServices(), oo.getOperations(), attrs);
+		    break;
+		}
+		case REGION: {
+		    int level = readSigned();
+
+		    e = new Region(name, level, readString(), null, attrs);
+		    break;
+		}
+		default:
+		    throw new IOException("Bad element type in binary " +
+			    "topology: " + tag);
+	    }
+
+	    int n = readCount();
+	    for (int i = 0; i < n; i++) {
+		String iname = readString();
+		int s = readCount();
+		Capacity c = readCapacity();
+		Latency l = readLatency();
+		Map<String, String> ia = readMap();
+
+		if ( s > subs.size())
+		    throw new IOException("Bad substrate reference in " +
+			    "binary topology");
+		new Interface((s > 0) ? subs.get(s - 1) : null, iname, c, l,
+			ia).connect(e, null);
+	    }
+	    return e;
+	}
+
+	/**
+	 * Read the substrates and elements of a topology into t.
+	 * @param t the topology to fill (its attributes are already read)
+	 * @throws IOException on a read error or bad data
+	 * @throws TopologyException if the topology is inconsistent
+	 */
+	public void readTopology(Topology t)
+		throws IOException, TopologyException {
+	    int n = readCount();
+	    List<Substrate> subs = new ArrayList<Substrate>();
+
+	    for (int i = 0; i < n; i++) {
+		String name = readString();
+		Capacity c = readCapacity();
+		Latency l = readLatency();
+		OperationalObject oo = readOperational();
+		Substrate s = new Substrate(name, c, l, oo.getLocalnames(),
+			oo.getStatus(), oo.getServices(), oo.getOperations(),
+			readMap());
+
+		subs.add(s);
+		t.addSubstrate(s);
+	    }
+	    n = readCount();
+	    for (int i = 0; i < n; i++)
+		t.addElement(readElement(subs));
+	}
+
+	/**
+	 * Read a whole description.
+	 * @return the description
+	 * @throws IOException on a read error or bad data
+	 * @throws TopologyException if the topology is inconsistent
+	 */
+	public TopologyDescription read()
+		throws IOException, TopologyException {
+	    byte[] magic = new byte[MAGIC.length];
+
+	    in.readFully(magic);
+	    if ( !isBinary(magic))
+		throw new IOException("Not a binary topology");
+	    int v = readInt();
+	    if ( v != VERSION )
+		throw new IOException("Unsupported binary topology version " +
+			v);
+
+	    String version = readString();
+	    TopologyDescription td = new TopologyDescription(version, null,
+		    null, null, null, readMap());
+
+	    readTopology(td);
+
+	    int n = readCount();
+	    for (int i = 0; i < n; i++) {
+		String name = readString();
+		Map<String, String> ifMap = readMap();
+		Fragment f = new Fragment(name, null, null, ifMap, readMap());
+
+		readTopology(f);
+		td.addFragment(f);
+	    }
+	    n = readCount();
+	    for (int i = 0; i < n; i++) {
+		String pn = readString();
+		Map<String, String> names = readMap();
+
+		td.addNameMap(new NameMap(pn, names, readMap()));
+	    }
+	    return td;
+	}
+    }
+
+    /**
+     * Write the binary encoding of td to out.  The stream is flushed but not
+     * closed.
+     * @param td the description to encode
+     * @param out the output
+     * @throws IOException on a writing error
+     */
+    static public void write(TopologyDescription td, OutputStream out)
+	    throws IOException {
+	BufferedOutputStream b = new BufferedOutputStream(out);
+
+	new Encoder(b).write(td);
+	b.flush();
+    }
+
+    /**
+     * Read a binary encoded TopologyDescription from in.
+     * @param in the input
+     * @return the description
+     * @throws IOException if the data cannot be read or is not a valid
+     * encoding
+     * @throws TopologyException if the topology is inconsistent
+     */
+    static public TopologyDescription read(InputStream in)
+	    throws IOException, TopologyException {
+	return read(in, -1);
+    }
+
+    /**
+     * Read a binary encoded TopologyDescription of known length from in.
+     * Counts in the encoding larger than the rest of the input are rejected
+     * before anything is allocated for them.
+     * @param in the input
+     * @param length the length of the encoding in bytes, or -1 if unknown
+     * @return the description
+     * @throws IOException if the data cannot be read or is not a valid
+     * encoding
+     * @throws TopologyException if the topology is inconsistent
+     */
+    static public TopologyDescription read(InputStream in, long length)
+	    throws IOException, TopologyException {
+	try {
+	    return new Decoder(new BufferedInputStream(in), length).read();
+	}
+	catch (EOFException e) {
+	    throw new IOException("Truncated binary topology");
+	}
+    }
+}
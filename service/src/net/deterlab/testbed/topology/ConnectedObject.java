@@ -25,6 +25,8 @@ public class ConnectedObject extends AttributedObject {
      * interfaces into a Map - that will fail on objects with multiple
      * interfaces with the same name - Substrates. */
     private Set<String> names;
+    /** The Topologies holding this object (null if none) */
+    private List<Topology> owners;
 
     /** if true, this object requires all infterace names to be unique, and the
      * object will enforce it. */
@@ -199,6 +201,10 @@ public class ConnectedObject extends AttributedObject {
 	}
 	interfaces.add(inf);
 	names.add(inf.getName());
+	linkChanged();
+	if ( owners != null )
+	    for (Topology t : owners)
+		t.getPathIndex().interfaceAdded(this, inf);
     }
 
     /**
@@ -209,6 +215,10 @@ public class ConnectedObject extends AttributedObject {
     public boolean removeInterface(Interface i) {
 
 	if ( !interfaces.remove(i) ) return false;
+	linkChanged();
+	if ( owners != null )
+	    for (Topology t : owners)
+		t.getPathIndex().interfaceRemoved(this, i);
 	// An interface was removed.  If the removed interface's name was
 	// unique on this object, remove the name from names.  We look in case
 	// the uniqueInterfaces flag might change.
@@ -222,6 +232,61 @@ public class ConnectedObject extends AttributedObject {
 	return true;
     }
 
+    /**
+     * Note that t holds this object.  Note the package scope.
+     * @param t the topology
+     */
+    void addOwner(Topology t) {
+	if ( owners == null ) owners = new ArrayList<Topology>(1);
+	for (Topology o : owners)
+	    if ( o == t ) return;
+	owners.add(t);
+    }
+
+    /**
+     * Note that t no longer holds this object.  Note the package scope.
+     * @param t the topology
+     */
+    void removeOwner(Topology t) {
+	if ( owners == null ) return;
+	for (int i = 0; i < owners.size(); i++)
+	    if ( owners.get(i) == t ) owners.remove(i--);
+	if ( owners.isEmpty()) owners = null;
+    }
+
+    /**
+     * Re-index this object in the topologies holding it if its path changed.
+     * Note the package scope.
+     * @param name the attribute name
+     */
+    void attributeChanged(String name) {
+	if ( owners == null || !"path".equals(name)) return;
+	for (Topology t : owners)
+	    t.getPathIndex().add(this);
+    }
+
+    /**
+     * Re-index an interface of this object in the topologies holding it
+     * after its interface_path changed.  Note the package scope.
+     * @param i the interface
+     */
+    void interfacePathChanged(Interface i) {
+	if ( owners == null ) return;
+	for (Topology t : owners)
+	    t.getPathIndex().interfaceAdded(this, i);
+    }
+
+    /**
+     * Note a change to the connections, latency or capacity of this object,
+     * so that the topologies holding it rebuild their TopologyGraphs.  Note
+     * the package scope.
+     */
+    void linkChanged() {
+	if ( owners == null ) return;
+	for (Topology t : owners)
+	    t.linkChanged();
+    }
+
     /**
      * The name of the inner XML element for the usual representation of this
      * element.
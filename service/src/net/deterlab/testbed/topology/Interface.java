@@ -154,14 +154,19 @@ public class Interface extends AttributedObject implements Cloneable {
      * Set the capacity
      * @param c a new capacity
      */
-    public void setCapacity(Capacity c) { cap = c; }
+    public void setCapacity(Capacity c) {
+	cap = c;
+	linkChanged();
+    }
 
     /**
      * Set the capacity
      * @param r the new rate
      * @param k the new kind
      */
-    public void setCapacity(double r, String k) { cap = new Capacity(r, k); }
+    public void setCapacity(double r, String k) {
+	setCapacity(new Capacity(r, k));
+    }
 
     /**
      * Get the latency
@@ -173,14 +178,19 @@ public class Interface extends AttributedObject implements Cloneable {
      * Set the latency
      * @param c a new latency
      */
-    public void setLatency(Latency c) { lat = c; }
+    public void setLatency(Latency c) {
+	lat = c;
+	linkChanged();
+    }
 
     /**
      * Set the latency
      * @param t the new time
      * @param k the new kind
      */
-    public void setLatency(double t, String k) { lat = new Latency(t, k); }
+    public void setLatency(double t, String k) {
+	setLatency(new Latency(t, k));
+    }
 
     /**
      * Return the element to which this is attached.  Use connect to change it.
@@ -229,6 +239,25 @@ public class Interface extends AttributedObject implements Cloneable {
 	substrate = null;
     }
 
+    /**
+     * Tell the element and substrate this is connected to that a latency or
+     * capacity changed.
+     */
+    private void linkChanged() {
+	if ( elem != null ) elem.linkChanged();
+	if ( substrate != null ) substrate.linkChanged();
+    }
+
+    /**
+     * Re-index this interface in the topologies holding its element if its
+     * interface_path changed.  Note the package scope.
+     * @param name the attribute name
+     */
+    void attributeChanged(String name) {
+	if ( elem != null && "interface_path".equals(name))
+	    elem.interfacePathChanged(this);
+    }
+
     /**
      * Disconnect from the current element.
      */
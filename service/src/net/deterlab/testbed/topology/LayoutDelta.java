@@ -0,0 +1,761 @@
+package net.deterlab.testbed.topology;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * An ordered list of changes to a layout that can be applied in place,
+ * rather than replacing the whole layout.  The XML form is
+ * <pre>
+ * &lt;layoutdelta&gt;
+ *   &lt;add&gt; substrates, elements and fragments in topdl &lt;/add&gt;
+ *   &lt;removeelement name="n"/&gt;
+ *   &lt;removesubstrate name="s"/&gt;
+ *   &lt;connect element="n" interface="i" substrate="s"/&gt;
+ *   &lt;disconnect element="n" interface="i"/&gt;
+ *   &lt;setattribute element="n" interface="i" attribute="a" value="v"/&gt;
+ *   &lt;removeattribute substrate="s" attribute="a"/&gt;
+ *   &lt;removefragment name="f"/&gt;
+ * &lt;/layoutdelta&gt;
+ * </pre>
+ * Interfaces of added elements may only refer to substrates added in the
+ * same add; use connect to attach them to existing substrates.  Connect
+ * creates the interface if the element does not have it, disconnect removes
+ * it.  Attribute changes apply to the named element or substrate (or an
+ * interface of the element) or to the topology itself if neither is named.
+ * <p>
+ * A delta that touches no regions and no fragments is local: applying it to
+ * an expanded layout gives the same result as applying it to the original
+ * and expanding again.  Callers use isLocal to skip re-expansion.
+ * @author DeterTeam
+ * @version 1.0
+ */
+public class LayoutDelta {
+    /**
+     * One change.
+     */
+    static public abstract class Change {
+	/**
+	 * Apply the change to t.
+	 * @param t the topology
+	 * @throws TopologyException if the change does not fit t
+	 */
+	public abstract void apply(Topology t) throws TopologyException;
+
+	/**
+	 * Return true if the change could alter how t is expanded: it adds,
+	 * removes or changes a region or a fragment.
+	 * @param t the topology the change will be applied to
+	 * @return true if the change affects expansion
+	 */
+	public abstract boolean affectsExpansion(Topology t);
+
+	/**
+	 * Output the change as XML.
+	 * @param p the writer
+	 * @throws IOException on a writing error
+	 */
+	public abstract void writeXML(PrintWriter p) throws IOException;
+    }
+
+    /**
+     * Return the named element, throwing if it is not present.
+     * @param t the topology
+     * @param n the name
+     * @return the element
+     * @throws TopologyException if there is no such element
+     */
+    static private Element element(Topology t, String n)
+	    throws TopologyException {
+	Element e = t.getElement(n);
+
+	if ( e == null ) throw new TopologyException("No such element " + n);
+	return e;
+    }
+
+    /**
+     * Return the named substrate, throwing if it is not present.
+     * @param t the topology
+     * @param n the name
+     * @return the substrate
+     * @throws TopologyException if there is no such substrate
+     */
+    static private Substrate substrate(Topology t, String n)
+	    throws TopologyException {
+	Substrate s = t.getSubstrate(n);
+
+	if ( s == null ) throw new TopologyException("No such substrate " + n);
+	return s;
+    }
+
+    /**
+     * Return the named interface of e, or null.
+     * @param e the element
+     * @param n the interface name
+     * @return the interface or null
+     */
+    static private Interface findInterface(Element e, String n) {
+	for (Interface i : e.getInterfaces())
+	    if ( n.equals(i.getName())) return i;
+	return null;
+    }
+
+    /**
+     * Return true if t has a region with the given name.
+     * @param t the topology
+     * @param n the element name (may be null)
+     * @return true if n names a region
+     */
+    static private boolean isRegion(Topology t, String n) {
+	return n != null && t.getElement(n) instanceof Region;
+    }
+
+    /**
+     * Escape a string for an XML attribute value.
+     * @param s the string
+     * @return the escaped string
+     */
+    static private String quote(String s) {
+	return "\"" + s.replace("&", "&amp;").replace("<", "&lt;").
+	    replace("\"", "&quot;") + "\"";
+    }
+
+    /**
+     * Add substrates, elements and fragments.
+     */
+    static public class Add extends Change {
+	/** The objects to add */
+	private TopologyDescription add;
+
+	/**
+	 * Create an add.
+	 * @param a the objects to add, as a description
+	 */
+	public Add(TopologyDescription a) { add = a; }
+
+	/**
+	 * Copy the objects into t.  Fragments are only added to
+	 * TopologyDescriptions.
+	 * @param t the topology
+	 * @throws TopologyException if names collide or an interface has no
+	 * substrate
+	 */
+	public void apply(Topology t) throws TopologyException {
+	    for (Substrate s : add.getSubstrates())
+		t.addSubstrate(s.clone());
+	    for (Element e : add.getElements()) {
+		Element ne = e.clone();
+
+		if ( ne == null )
+		    throw new TopologyException("Cannot copy element " +
+			    e.getName());
+		for (Interface i : e.getInterfaces()) {
+		    Substrate s = i.getSubstrate();
+
+		    if ( s == null )
+			throw new TopologyException("Interface " +
+				i.getName() + " of " + e.getName() +
+				" has no substrate");
+		    i.clone().connect(ne, substrate(t, s.getName()));
+		}
+		t.addElement(ne);
+	    }
+	    if ( t instanceof TopologyDescription ) {
+		TopologyDescription td = (TopologyDescription) t;
+
+		for (Fragment f : add.getFragments())
+		    td.addFragment(f.clone());
+	    }
+	}
+
+	/**
+	 * Adding a region or fragment affects expansion.
+	 * @param t the topology
+	 * @return true if regions or fragments are added
+	 */
+	public boolean affectsExpansion(Topology t) {
+	    if ( !add.getFragments().isEmpty()) return true;
+	    for (Element e : add.getElements())
+		if ( e instanceof Region ) return true;
+	    return false;
+	}
+
+	/**
+	 * Output the change as XML.
+	 * @param p the writer
+	 * @throws IOException on a writing error
+	 */
+	public void writeXML(PrintWriter p) throws IOException {
+	    add.writeXML(p, "add");
+	}
+    }
+
+    /**
+     * Remove an element and its interfaces.
+     */
+    static public class RemoveElement extends Change {
+	/** The element name */
+	private String name;
+
+	/**
+	 * Create a removal.
+	 * @param n the element name
+	 */
+	public RemoveElement(String n) { name = n; }
+
+	/**
+	 * Remove the element.
+	 * @param t the topology
+	 * @throws TopologyException if there is no such element
+	 */
+	public void apply(Topology t) throws TopologyException {
+	    Element e = element(t, name);
+
+	    for (Interface i : new ArrayList<Interface>(e.getInterfaces()))
+		i.disconnectAll();
+	    t.removeElement(e);
+	}
+
+	/**
+	 * Removing a region affects expansion.
+	 * @param t the topology
+	 * @return true if the element is a region
+	 */
+	public boolean affectsExpansion(Topology t) {
+	    return isRegion(t, name);
+	}
+
+	/**
+	 * Output the change as XML.
+	 * @param p the writer
+	 * @throws IOException on a writing error
+	 */
+	public void writeXML(PrintWriter p) throws IOException {
+	    p.println("<removeelement name=" + quote(name) + "/>");
+	}
+    }
+
+    /**
+     * Remove a substrate and the interfaces attached to it.
+     */
+    static public class RemoveSubstrate extends Change {
+	/** The substrate name */
+	private String name;
+
+	/**
+	 * Create a removal.
+	 * @param n the substrate name
+	 */
+	public RemoveSubstrate(String n) { name = n; }
+
+	/**
+	 * Remove the substrate.
+	 * @param t the topology
+	 * @throws TopologyException if there is no such substrate
+	 */
+	public void apply(Topology t) throws TopologyException {
+	    Substrate s = substrate(t, name);
+
+	    for (Interface i : new ArrayList<Interface>(s.getInterfaces()))
+		i.disconnectAll();
+	    t.removeSubstrate(s);
+	}
+
+	/**
+	 * Removing a substrate attached to a region affects expansion.
+	 * @param t the topology
+	 * @return true if a region is attached
+	 */
+	public boolean affectsExpansion(Topology t) {
+	    Substrate s = t.getSubstrate(name);
+
+	    if ( s == null ) return false;
+	    for (Interface i : s.getInterfaces())
+		if ( i.getElement() instanceof Region ) return true;
+	    return false;
+	}
+
+	/**
+	 * Output the change as XML.
+	 * @param p the writer
+	 * @throws IOException on a writing error
+	 */
+	public void writeXML(PrintWriter p) throws IOException {
+	    p.println("<removesubstrate name=" + quote(name) + "/>");
+	}
+    }
+
+    /**
+     * Connect an element's interface to a substrate.
+     */
+    static public class Connect extends Change {
+	/** The element name */
+	private String element;
+	/** The interface name */
+	private String iface;
+	/** The substrate name */
+	private String substrate;
+
+	/**
+	 * Create a connection.
+	 * @param e the element name
+	 * @param i the interface name
+	 * @param s the substrate name
+	 */
+	public Connect(String e, String i, String s) {
+	    element = e;
+	    iface = i;
+	    substrate = s;
+	}
+
+	/**
+	 * Connect the interface, creating it if necessary and moving it if it
+	 * is connected elsewhere.
+	 * @param t the topology
+	 * @throws TopologyException if the element or substrate is missing
+	 */
+	public void apply(Topology t) throws TopologyException {
+	    Element e = element(t, element);
+	    Substrate s = substrate(t, substrate);
+	    Interface i = findInterface(e, iface);
+
+	    if ( i == null ) {
+		new Interface(s, iface, null, null, null).connect(e, null);
+		return;
+	    }
+	    i.disconnect(i.getSubstrate());
+	    i.connect(null, s);
+	}
+
+	/**
+	 * Connecting a region affects expansion.
+	 * @param t the topology
+	 * @return true if the element is a region
+	 */
+	public boolean affectsExpansion(Topology t) {
+	    return isRegion(t, element);
+	}
+
+	/**
+	 * Output the change as XML.
+	 * @param p the writer
+	 * @throws IOException on a writing error
+	 */
+	public void writeXML(PrintWriter p) throws IOException {
+	    p.println("<connect element=" + quote(element) +
+		    " interface=" + quote(iface) +
+		    " substrate=" + quote(substrate) + "/>");
+	}
+    }
+
+    /**
+     * Disconnect and remove an element's interface.
+     */
+    static public class Disconnect extends Change {
+	/** The element name */
+	private String element;
+	/** The interface name */
+	private String iface;
+
+	/**
+	 * Create a disconnection.
+	 * @param e the element name
+	 * @param i the interface name
+	 */
+	public Disconnect(String e, String i) {
+	    element = e;
+	    iface = i;
+	}
+
+	/**
+	 * Remove the interface.
+	 * @param t the topology
+	 * @throws TopologyException if the element or interface is missing
+	 */
+	public void apply(Topology t) throws TopologyException {
+	    Interface i = findInterface(element(t, element), iface);
+
+	    if ( i == null )
+		throw new TopologyException("No interface " + iface +
+			" on " + element);
+	    i.disconnectAll();
+	}
+
+	/**
+	 * Disconnecting a region affects expansion.
+	 * @param t the topology
+	 * @return true if the element is a region
+	 */
+	public boolean affectsExpansion(Topology t) {
+	    return isRegion(t, element);
+	}
+
+	/**
+	 * Output the change as XML.
+	 * @param p the writer
+	 * @throws IOException on a writing error
+	 */
+	public void writeXML(PrintWriter p) throws IOException {
+	    p.println("<disconnect element=" + quote(element) +
+		    " interface=" + quote(iface) + "/>");
+	}
+    }
+
+    /**
+     * Set or remove an attribute.
+     */
+    static public class SetAttribute extends Change {
+	/** The element name (may be null) */
+	private String element;
+	/** The interface name (may be null) */
+	private String iface;
+	/** The substrate name (may be null) */
+	private String substrate;
+	/** The attribute */
+	private String attribute;
+	/** The new value, null to remove the attribute */
+	private String value;
+
+	/**
+	 * Create an attribute change.  At most one of e and s should be
+	 * given; i is only meaningful with e.
+	 * @param e the element name (may be null)
+	 * @param i the interface name (may be null)
+	 * @param s the substrate name (may be null)
+	 * @param a the attribute
+	 * @param v the value, null to remove the attribute
+	 */
+	public SetAttribute(String e, String i, String s, String a,
+		String v) {
+	    element = e;
+	    iface = i;
+	    substrate = s;
+	    attribute = a;
+	    value = v;
+	}
+
+	/**
+	 * Set or remove the attribute.
+	 * @param t the topology
+	 * @throws TopologyException if the target is missing
+	 */
+	public void apply(Topology t) throws TopologyException {
+	    AttributedObject o = t;
+
+	    if ( element != null ) {
+		Element e = element(t, element);
+
+		o = e;
+		if ( iface != null ) {
+		    o = findInterface(e, iface);
+		    if ( o == null )
+			throw new TopologyException("No interface " + iface +
+				" on " + element);
+		}
+	    }
+	    else if ( substrate != null ) {
+		o = substrate(t, substrate);
+	    }
+	    if ( value != null ) o.setAttribute(attribute, value);
+	    else o.removeAttribute(attribute);
+	}
+
+	/**
+	 * Changing a region's attributes affects expansion.
+	 * @param t the topology
+	 * @return true if the target is a region
+	 */
+	public boolean affectsExpansion(Topology t) {
+	    return isRegion(t, element);
+	}
+
+	/**
+	 * Output the change as XML.
+	 * @param p the writer
+	 * @throws IOException on a writing error
+	 */
+	public void writeXML(PrintWriter p) throws IOException {
+	    p.print((value != null) ? "<setattribute" : "<removeattribute");
+	    if ( element != null ) p.print(" element=" + quote(element));
+	    if ( iface != null ) p.print(" interface=" + quote(iface));
+	    if ( substrate != null ) p.print(" substrate=" + quote(substrate));
+	    p.print(" attribute=" + quote(attribute));
+	    if ( value != null ) p.print(" value=" + quote(value));
+	    p.println("/>");
+	}
+    }
+
+    /**
+     * Remove a fragment.
+     */
+    static public class RemoveFragment extends Change {
+	/** The fragment name */
+	private String name;
+
+	/**
+	 * Create a removal.
+	 * @param n the fragment name
+	 */
+	public RemoveFragment(String n) { name = n; }
+
+	/**
+	 * Remove the fragment.  Only TopologyDescriptions have fragments.
+	 * @param t the topology
+	 * @throws TopologyException if there is no such fragment
+	 */
+	public void apply(Topology t) throws TopologyException {
+	    if ( !(t instanceof TopologyDescription)) return;
+	    TopologyDescription td = (TopologyDescription) t;
+	    Fragment f = td.getFragment(name);
+
+	    if ( f == null )
+		throw new TopologyException("No such fragment " + name);
+	    td.removeFragment(f);
+	}
+
+	/**
+	 * Fragment changes always affect expansion.
+	 * @param t the topology
+	 * @return true
+	 */
+	public boolean affectsExpansion(Topology t) { return true; }
+
+	/**
+	 * Output the change as XML.
+	 * @param p the writer
+	 * @throws IOException on a writing error
+	 */
+	public void writeXML(PrintWriter p) throws IOException {
+	    p.println("<removefragment name=" + quote(name) + "/>");
+	}
+    }
+
+    /** The changes in order */
+    private List<Change> changes;
+
+    /**
+     * Create an empty delta.
+     */
+    public LayoutDelta() {
+	changes = new ArrayList<Change>();
+    }
+
+    /**
+     * Append a change.
+     * @param c the change
+     */
+    public void addChange(Change c) { changes.add(c); }
+
+    /**
+     * Return the changes in order.
+     * @return the changes
+     */
+    public List<Change> getChanges() {
+	return Collections.unmodifiableList(changes);
+    }
+
+    /**
+     * Return true if the delta can be applied to the expansion of t rather
+     * than to t and then expanded: no change affects regions or fragments.
+     * Changes are checked against t before any are applied; a delta that
+     * adds a region is never local, so later changes to it are covered.
+     * @param t the unexpanded topology the delta applies to
+     * @return true if the delta is local
+     */
+    public boolean isLocal(Topology t) {
+	for (Change c : changes)
+	    if ( c.affectsExpansion(t)) return false;
+	return true;
+    }
+
+    /**
+     * Apply the changes in order to t.  If a change fails, the earlier ones
+     * remain applied, so apply to a copy when that matters.
+     * @param t the topology
+     * @throws TopologyException if a change does not fit t
+     */
+    public void apply(Topology t) throws TopologyException {
+	for (Change c : changes)
+	    c.apply(t);
+    }
+
+    /**
+     * Output this delta's XML representation.
+     * @param w the writer for output
+     * @param ename the name of the enclosing element
+     * @throws IOException on a writing error.
+     */
+    public void writeXML(Writer w, String ename) throws IOException {
+	PrintWriter p = (w instanceof PrintWriter) ?
+	    (PrintWriter) w : new PrintWriter(w);
+
+	p.println("<" + ename + ">");
+	for (Change c : changes)
+	    c.writeXML(p);
+	p.println("</" + ename + ">");
+	p.flush();
+    }
+
+    /**
+     * SAX handler for the XML form.  The contents of each add element are
+     * handed to a TopdlParser.
+     */
+    static private class DeltaParser extends DefaultHandler {
+	/** The delta being built */
+	private LayoutDelta delta;
+	/** Parser for the add element in progress, if any */
+	private TopdlParser add;
+
+	/**
+	 * Create a parser.
+	 */
+	public DeltaParser() {
+	    delta = new LayoutDelta();
+	    add = null;
+	}
+
+	/**
+	 * Return a required XML attribute.
+	 * @param a the attributes
+	 * @param n the attribute name
+	 * @param qn the element name (for errors)
+	 * @return the value
+	 * @throws SAXException if the attribute is missing
+	 */
+	private String required(Attributes a, String n, String qn)
+		throws SAXException {
+	    String v = a.getValue(n);
+
+	    if ( v == null )
+		throw new SAXException(new TopologyException(qn +
+			    " without " + n));
+	    return v;
+	}
+
+	/**
+	 * Start an element: begin an add or record a simple change.
+	 * @param u the namespace URI
+	 * @param l the local name
+	 * @param qn the qualified name
+	 * @param a the attributes
+	 * @throws SAXException on a bad change
+	 */
+	public void startElement(String u, String l, String qn, Attributes a)
+		throws SAXException {
+	    if ( add != null ) {
+		add.startElement(u, l, qn, a);
+		return;
+	    }
+	    if (qn.equals("add")) {
+		add = new TopdlParser("add", false);
+		add.startElement(u, l, qn, a);
+	    }
+	    else if (qn.equals("removeelement")) {
+		delta.addChange(new RemoveElement(required(a, "name", qn)));
+	    }
+	    else if (qn.equals("removesubstrate")) {
+		delta.addChange(new RemoveSubstrate(required(a, "name", qn)));
+	    }
+	    else if (qn.equals("connect")) {
+		delta.addChange(new Connect(required(a, "element", qn),
+			    required(a, "interface", qn),
+			    required(a, "substrate", qn)));
+	    }
+	    else if (qn.equals("disconnect")) {
+		delta.addChange(new Disconnect(required(a, "element", qn),
+			    required(a, "interface", qn)));
+	    }
+	    else if (qn.equals("setattribute")) {
+		delta.addChange(new SetAttribute(a.getValue("element"),
+			    a.getValue("interface"), a.getValue("substrate"),
+			    required(a, "attribute", qn),
+			    required(a, "value", qn)));
+	    }
+	    else if (qn.equals("removeattribute")) {
+		delta.addChange(new SetAttribute(a.getValue("element"),
+			    a.getValue("interface"), a.getValue("substrate"),
+			    required(a, "attribute", qn), null));
+	    }
+	    else if (qn.equals("removefragment")) {
+		delta.addChange(new RemoveFragment(required(a, "name", qn)));
+	    }
+	}
+
+	/**
+	 * End an element, completing an add if this ends one.
+	 * @param u the namespace URI
+	 * @param l the local name
+	 * @param qn the qualified name
+	 * @throws SAXException on a bad add
+	 */
+	public void endElement(String u, String l, String qn)
+		throws SAXException {
+	    if ( add == null ) return;
+	    add.endElement(u, l, qn);
+	    if ( add.getTopology() != null ) {
+		delta.addChange(new Add(add.getTopology()));
+		add = null;
+	    }
+	}
+
+	/**
+	 * Pass text to an add in progress.
+	 * @param ch the characters
+	 * @param s the start
+	 * @param l the length
+	 */
+	public void characters(char[] ch, int s, int l) {
+	    if ( add != null ) add.characters(ch, s, l);
+	}
+
+	/**
+	 * Return the parsed delta.
+	 * @return the parsed delta
+	 */
+	public LayoutDelta getDelta() { return delta; }
+    }
+
+    /**
+     * Create a LayoutDelta from its XML form.
+     * @param s the input stream
+     * @return the delta
+     * @throws TopologyException if the delta is malformed
+     * @throws IOException if the XML cannot be loaded or parsed
+     */
+    static public LayoutDelta xmlToDelta(InputStream s)
+	    throws TopologyException, IOException {
+	DeltaParser h = new DeltaParser();
+
+	try {
+	    XMLReader xr =
+		SAXParserFactory.newInstance().newSAXParser().getXMLReader();
+	    xr.setContentHandler(h);
+	    xr.parse(new InputSource(s));
+	}
+	catch (SAXException e) {
+	    Throwable cause = e.getCause();
+	    if ( cause != null && cause instanceof TopologyException)
+		throw (TopologyException) cause;
+	    else
+		throw new IOException(e.getMessage());
+	}
+	catch (ParserConfigurationException e) {
+	    throw new IOException(e.getMessage());
+	}
+	return h.getDelta();
+    }
+}
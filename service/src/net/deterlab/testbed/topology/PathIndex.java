@@ -0,0 +1,303 @@
+package net.deterlab.testbed.topology;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An index of the elements and substrates of a Topology by their path
+ * attributes.  Paths are stored as a trie of path components (the path
+ * split on "/") so the members of a region - everything with the region's
+ * name somewhere in its path - are the objects in the subtrees under the
+ * nodes with that name.  A Topology keeps its index current as objects are
+ * added and removed.  An object's path can also change while it is in the
+ * topology; the object then asks the index of each topology holding it to
+ * re-index just that object.
+ * <p>
+ * The interfaces of indexed elements are kept with their interface_path
+ * attributes already split into components.  Nothing looks interfaces up by
+ * region, so they are not in the trie; they are kept current the same way
+ * as they are connected, disconnected and have their paths changed.
+ * @author DeterTeam
+ * @version 1.0
+ */
+public class PathIndex {
+    /**
+     * A node in the trie: one path component.
+     */
+    static private class Node {
+	/** The component */
+	public String name;
+	/** The node above this one (null for the root) */
+	public Node parent;
+	/** Index of the component in the path (-1 for the root) */
+	public int depth;
+	/** Nodes below this, by component */
+	public Map<String, Node> children;
+	/** Objects whose paths end here */
+	public Set<ConnectedObject> objects;
+
+	/**
+	 * Create a node.
+	 * @param n the component
+	 * @param p the parent node
+	 */
+	public Node(String n, Node p) {
+	    name = n;
+	    parent = p;
+	    depth = (p != null) ? p.depth + 1 : -1;
+	    children = new HashMap<String, Node>();
+	    objects = new LinkedHashSet<ConnectedObject>();
+	}
+    }
+
+    /**
+     * Where an object is in the trie.
+     */
+    static private class Entry {
+	/** The path it was indexed under (may be null) */
+	public String path;
+	/** The node it is in (null if it has no path) */
+	public Node node;
+    }
+
+    /** The root: the empty path */
+    private Node root;
+    /** Nodes by component */
+    private Map<String, Set<Node>> byName;
+    /** Indexed objects */
+    private Map<ConnectedObject, Entry> entries;
+    /** Split interface_paths of the interfaces of indexed elements */
+    private Map<Interface, String[]> interfacePaths;
+
+    /**
+     * Create an empty index.
+     */
+    public PathIndex() {
+	root = new Node(null, null);
+	byName = new HashMap<String, Set<Node>>();
+	entries = new IdentityHashMap<ConnectedObject, Entry>();
+	interfacePaths = new IdentityHashMap<Interface, String[]>();
+    }
+
+    /**
+     * Add an object (an element or substrate) under its current path, or
+     * move it there if it is already indexed.
+     * @param o the object
+     */
+    public void add(ConnectedObject o) {
+	Entry en = entries.get(o);
+	String path = o.getAttribute("path");
+
+	if ( en == null ) {
+	    en = new Entry();
+	    entries.put(o, en);
+	    if ( o instanceof Element )
+		for (Interface i : o.getInterfaces())
+		    interfacePaths.put(i, split(i));
+	}
+	else if ( (path != null) ? path.equals(en.path) : en.path == null )
+	    return;
+	else if ( en.node != null ) {
+	    en.node.objects.remove(o);
+	    prune(en.node);
+	}
+	en.path = path;
+	en.node = (path != null) ? insert(path.split("/"), o) : null;
+    }
+
+    /**
+     * Remove an object from the index.
+     * @param o the object
+     */
+    public void remove(ConnectedObject o) {
+	Entry en = entries.remove(o);
+
+	if ( en == null ) return;
+	if ( o instanceof Element )
+	    for (Interface i : o.getInterfaces())
+		interfacePaths.remove(i);
+	if ( en.node == null ) return;
+	en.node.objects.remove(o);
+	prune(en.node);
+    }
+
+    /**
+     * Index (or re-index) an interface of o if o is an indexed element.
+     * Note the package scope.
+     * @param o the object
+     * @param i the interface
+     */
+    void interfaceAdded(ConnectedObject o, Interface i) {
+	if ( !(o instanceof Element) || !entries.containsKey(o)) return;
+	if ( !o.getInterfaces().contains(i)) return;
+	interfacePaths.put(i, split(i));
+    }
+
+    /**
+     * Forget an interface removed from o.  Note the package scope.
+     * @param o the object
+     * @param i the interface
+     */
+    void interfaceRemoved(ConnectedObject o, Interface i) {
+	if ( o instanceof Element && entries.containsKey(o))
+	    interfacePaths.remove(i);
+    }
+
+    /**
+     * Return the interface's interface_path split into components.
+     * @param i the interface
+     * @return the components or null if it has no interface_path
+     */
+    static private String[] split(Interface i) {
+	String p = i.getAttribute("interface_path");
+
+	return (p != null) ? p.split("/") : null;
+    }
+
+    /**
+     * Return the components of the interface's interface_path, or null if it
+     * has none.  Interfaces of indexed elements are not split again.  The
+     * array must not be changed.
+     * @param i the interface
+     * @return the components or null
+     */
+    public String[] getInterfacePath(Interface i) {
+	String[] rv = interfacePaths.get(i);
+
+	return (rv != null || interfacePaths.containsKey(i)) ? rv : split(i);
+    }
+
+    /**
+     * Put o in the node for the path components, making nodes as needed.
+     * @param path the components
+     * @param o the object
+     * @return the node
+     */
+    private Node insert(String[] path, ConnectedObject o) {
+	Node n = root;
+
+	for (String c : path) {
+	    Node child = n.children.get(c);
+
+	    if ( child == null ) {
+		child = new Node(c, n);
+		n.children.put(c, child);
+		Set<Node> named = byName.get(c);
+		if ( named == null ) {
+		    named = new HashSet<Node>();
+		    byName.put(c, named);
+		}
+		named.add(child);
+	    }
+	    n = child;
+	}
+	n.objects.add(o);
+	return n;
+    }
+
+    /**
+     * Remove n and any ancestors that no longer hold anything.
+     * @param n the node to start at
+     */
+    private void prune(Node n) {
+	while (n != root && n.objects.isEmpty() && n.children.isEmpty()) {
+	    Set<Node> named = byName.get(n.name);
+
+	    n.parent.children.remove(n.name);
+	    if ( named != null ) {
+		named.remove(n);
+		if ( named.isEmpty()) byName.remove(n.name);
+	    }
+	    n = n.parent;
+	}
+    }
+
+    /**
+     * Return the objects with rname in their paths.
+     * @param rname the region name
+     * @return the objects
+     */
+    private Set<ConnectedObject> members(String rname) {
+	Set<ConnectedObject> rv = new LinkedHashSet<ConnectedObject>();
+	Set<Node> named = byName.get(rname);
+
+	if ( named == null ) return rv;
+
+	Deque<Node> todo = new ArrayDeque<Node>(named);
+	Set<Node> seen = new HashSet<Node>();
+	while ( !todo.isEmpty()) {
+	    Node n = todo.pop();
+
+	    // A node named rname can be under another one.
+	    if ( !seen.add(n)) continue;
+	    rv.addAll(n.objects);
+	    todo.addAll(n.children.values());
+	}
+	return rv;
+    }
+
+    /**
+     * Return the elements in the named region (with rname in their paths).
+     * @param rname the region name
+     * @return the elements
+     */
+    public List<Element> getElements(String rname) {
+	List<Element> rv = new ArrayList<Element>();
+
+	for (ConnectedObject o : members(rname))
+	    if ( o instanceof Element ) rv.add((Element) o);
+	return rv;
+    }
+
+    /**
+     * Return the substrates in the named region (with rname in their paths).
+     * @param rname the region name
+     * @return the substrates
+     */
+    public List<Substrate> getSubstrates(String rname) {
+	List<Substrate> rv = new ArrayList<Substrate>();
+
+	for (ConnectedObject o : members(rname))
+	    if ( o instanceof Substrate ) rv.add((Substrate) o);
+	return rv;
+    }
+
+    /**
+     * Return the index of the first occurrence of rname in the object's path,
+     * counting the components of the path split on "/" from 0.  Return -1 if
+     * the name is not in the path, the object has no path or is not in the
+     * index.
+     * @param rname the region name
+     * @param o the object
+     * @return the index or -1
+     */
+    public int regionIndex(String rname, ConnectedObject o) {
+	int rv = -1;
+	Entry en = entries.get(o);
+
+	if ( rname == null || en == null || en.node == null ) return -1;
+	for (Node n = en.node; n != root; n = n.parent)
+	    if ( rname.equals(n.name)) rv = n.depth;
+	return rv;
+    }
+
+    /**
+     * Return the number of components in the object's path, or -1 if it has
+     * no path or is not in the index.
+     * @param o the object
+     * @return the number of components or -1
+     */
+    public int pathLength(ConnectedObject o) {
+	Entry en = entries.get(o);
+
+	return (en != null && en.node != null) ? en.node.depth + 1 : -1;
+    }
+}
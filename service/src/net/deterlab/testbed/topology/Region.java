@@ -184,13 +184,15 @@ public class Region extends Element {
 	// inconsistent.  If no names are given (or this name is not in the
 	// map) let the topology pick a unique name.  In either case, if an
 	// output name map is requested, fill it in.  In addition, add a
-	// pathname attribute.
-	for (Substrate s: t.getSubstrates()) {
+	// pathname attribute.  Each object leaves the fragment copy first, so
+	// that copy stops tracking it.
+	for (Substrate s: new ArrayList<Substrate>(t.getSubstrates())) {
 	    // Don't add any substrates to the world that were only connected
 	    // to a deleted Region.
 	    if (s.getInterfaces().size() < 2) continue;
 	    String oldName = s.getName();
 
+	    t.removeSubstrate(s);
 	    s.setAttribute("path", newPath);
 	    if (names.containsKey(s.getName())) {
 		s.setName(names.get(s.getName()));
@@ -205,9 +207,10 @@ public class Region extends Element {
 	}
 
 	// Names and paths are treated the same way as the substrate loop.
-	for (Element e: t.getElements())  {
+	for (Element e: new ArrayList<Element>(t.getElements()))  {
 	    String oldName = e.getName();
 
+	    t.removeElement(e);
 	    e.setAttribute("path", newPath);
 	    if (names.containsKey(e.getName())) {
 		e.setName(names.get(e.getName()));
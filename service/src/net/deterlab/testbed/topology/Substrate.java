@@ -142,14 +142,19 @@ public class Substrate extends ConnectedObject {
      * Set the capacity
      * @param c a new capacity
      */
-    public void setCapacity(Capacity c) { cap = c; }
+    public void setCapacity(Capacity c) {
+	cap = c;
+	linkChanged();
+    }
 
     /**
      * Set the capacity
      * @param r the new rate
      * @param k the new kind
      */
-    public void setCapacity(double r, String k) { cap = new Capacity(r, k); }
+    public void setCapacity(double r, String k) {
+	setCapacity(new Capacity(r, k));
+    }
 
     /**
      * Get the latency
@@ -161,14 +166,19 @@ public class Substrate extends ConnectedObject {
      * Set the latency
      * @param c a new latency
      */
-    public void setLatency(Latency c) { lat = c; }
+    public void setLatency(Latency c) {
+	lat = c;
+	linkChanged();
+    }
 
     /**
      * Set the latency
      * @param t the new time
      * @param k the new kind
      */
-    public void setLatency(double t, String k) { lat = new Latency(t, k); }
+    public void setLatency(double t, String k) {
+	setLatency(new Latency(t, k));
+    }
 
     /**
      * Get the operational data
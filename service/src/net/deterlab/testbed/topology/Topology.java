@@ -18,6 +18,15 @@ public class Topology extends AttributedObject implements Cloneable {
     private Map<String, Element> elements;
     /** Substrates, indexed by name*/
     private Map<String, Substrate> substrates;
+    /** Elements and substrates, indexed by path */
+    private PathIndex paths;
+    /**
+     * Incremented when elements or substrates are added or removed, or their
+     * connections, latencies or capacities change
+     */
+    private long version;
+    /** Adjacency structure, built on demand */
+    private TopologyGraph graph;
 
     /**
      * Basic initializer
@@ -26,6 +35,7 @@ public class Topology extends AttributedObject implements Cloneable {
 	super();
 	substrates = new HashMap<String, Substrate>();
 	elements = new HashMap<String, Element>();
+	paths = new PathIndex();
     }
 
     /**
@@ -40,6 +50,7 @@ public class Topology extends AttributedObject implements Cloneable {
 	super(a);
 	substrates = new HashMap<String, Substrate>();
 	elements = new HashMap<String, Element>();
+	paths = new PathIndex();
 
 	if ( subs != null) 
 	    for (Substrate s : subs) 
@@ -141,6 +152,9 @@ public class Topology extends AttributedObject implements Cloneable {
 	    s.setName(String.format(prefix, i++));
 	}
 	substrates.put(s.getName(), s);
+	s.addOwner(this);
+	paths.add(s);
+	version++;
     }
 
 
@@ -151,7 +165,13 @@ public class Topology extends AttributedObject implements Cloneable {
      * @return true if the substrate was present
      */
     public boolean removeSubstrate(Substrate s) {
-	return substrates.remove(s.getName()) != null;
+	Substrate old = substrates.remove(s.getName());
+
+	if ( old == null ) return false;
+	old.removeOwner(this);
+	paths.remove(old);
+	version++;
+	return true;
     }
 
     /**
@@ -195,6 +215,9 @@ public class Topology extends AttributedObject implements Cloneable {
 	    e.setName(String.format(prefix, i++));
 	}
 	elements.put(e.getName(), e);
+	e.addOwner(this);
+	paths.add(e);
+	version++;
     }
 
     /**
@@ -205,7 +228,13 @@ public class Topology extends AttributedObject implements Cloneable {
      * @return true if the element was present
      */
     public boolean removeElement(Element e) {
-	return elements.remove(e.getName()) != null;
+	Element old = elements.remove(e.getName());
+
+	if ( old == null ) return false;
+	old.removeOwner(this);
+	paths.remove(old);
+	version++;
+	return true;
     }
 
     /**
@@ -237,6 +266,29 @@ public class Topology extends AttributedObject implements Cloneable {
      */
     public Collection<Substrate> getSubstrates() { return substrates.values(); }
 
+    /**
+     * Return the index of the elements and substrates by path.
+     * @return the path index
+     */
+    public PathIndex getPathIndex() { return paths; }
+
+    /**
+     * Note a change to the connections, latency or capacity of one of this
+     * topology's elements or substrates.  Note the package scope.
+     */
+    void linkChanged() { version++; }
+
+    /**
+     * Return an adjacency structure for the topology, building it if the
+     * topology's membership or links have changed since it was last built.
+     * @return the graph
+     */
+    public synchronized TopologyGraph getGraph() {
+	if ( graph == null || graph.getVersion() != version )
+	    graph = new TopologyGraph(this, version);
+	return graph;
+    }
+
     /**
      * Return the substrate with the given name, if present.
      * @param name the name to look for
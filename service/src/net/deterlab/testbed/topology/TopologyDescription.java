@@ -2,6 +2,7 @@ package net.deterlab.testbed.topology;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.io.Reader;
 import java.io.Writer;
@@ -301,6 +302,44 @@ public class TopologyDescription extends Topology {
 	p.flush();
     }
 
+    /**
+     * Output this description in the compact binary format read by
+     * binaryToTopology.  The stream is not closed.
+     * @param out the output
+     * @throws IOException on a writing error.
+     */
+    public void writeBinary(OutputStream out) throws IOException {
+	BinaryTopdl.write(this, out);
+    }
+
+    /**
+     * Create a TopologyDescription from the compact binary format written by
+     * writeBinary.
+     * @param s the input stream
+     * @return the TopologyDescription encoded in the stream
+     * @throws TopologyException if the topology is inconsistent or incorrect
+     * @throws IOException if the data cannot be read or decoded
+     */
+    static public TopologyDescription binaryToTopology(InputStream s)
+	throws TopologyException, IOException {
+	return BinaryTopdl.read(s);
+    }
+
+    /**
+     * Create a TopologyDescription from the compact binary format written by
+     * writeBinary, given the length of the encoding.  Knowing the length
+     * lets the decoder reject counts that the data cannot hold.
+     * @param s the input stream
+     * @param length the length of the encoding in bytes
+     * @return the TopologyDescription encoded in the stream
+     * @throws TopologyException if the topology is inconsistent or incorrect
+     * @throws IOException if the data cannot be read or decoded
+     */
+    static public TopologyDescription binaryToTopology(InputStream s,
+	    long length) throws TopologyException, IOException {
+	return BinaryTopdl.read(s, length);
+    }
+
     /**
      * Create a TopologyDescription from an XML InputSource.
      * @param s the input stream
@@ -0,0 +1,614 @@
+package net.deterlab.testbed.topology;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compact, read-only adjacency structure over the elements and substrates
+ * of a Topology, for questions about connectivity that would otherwise walk
+ * the object graph interface by interface.
+ * <p>
+ * Every element and substrate gets an integer ID: elements first, then
+ * substrates.  The graph is bipartite - each interface joins an element to a
+ * substrate - and is stored in compressed sparse row form: the neighbors of
+ * node n are targets[offsets[n]] through targets[offsets[n+1]-1].  Each
+ * interface appears as two directed edges, one in each direction, that
+ * carry a latency and a capacity taken from the interface and substrate.
+ * Crossing a substrate from one element to another costs the latency of the
+ * first interface, the substrate and the second interface; missing
+ * latencies are 0 and missing capacities unlimited.
+ * <p>
+ * Use Topology.getGraph to get one.  The graph is a snapshot; the Topology
+ * builds a new one after elements or substrates are added or removed,
+ * interfaces are connected or disconnected, or latencies or capacities are
+ * set.  Changes to the Latency and Capacity objects themselves (setTime,
+ * setRate) are not noticed.
+ * @author DeterTeam
+ * @version 1.0
+ */
+public class TopologyGraph {
+    /** Nodes by ID */
+    private ConnectedObject[] nodes;
+    /** IDs of the nodes */
+    private Map<ConnectedObject, Integer> ids;
+    /** Number of elements (the first nodes) */
+    private int nelements;
+    /** Start of each node's edges in targets (one extra entry at the end) */
+    private int[] offsets;
+    /** Edge destinations */
+    private int[] targets;
+    /** Edge latencies */
+    private double[] latency;
+    /** Edge capacities */
+    private double[] capacity;
+    /** Component ID of each node, computed on demand */
+    private int[] components;
+    /** Number of components, valid once components is set */
+    private int ncomponents;
+    /** Topology version this was built from */
+    private long version;
+
+    /**
+     * Build the graph for a topology.
+     * @param t the topology
+     * @param v the topology's version
+     */
+    TopologyGraph(Topology t, long v) {
+	Collection<Element> elems = t.getElements();
+	Collection<Substrate> subs = t.getSubstrates();
+	int n = 0;
+	int[] degree = null;
+	int[] fill = null;
+
+	version = v;
+	nelements = elems.size();
+	nodes = new ConnectedObject[nelements + subs.size()];
+	ids = new IdentityHashMap<ConnectedObject, Integer>();
+	for (Element e : elems) {
+	    ids.put(e, n);
+	    nodes[n++] = e;
+	}
+	for (Substrate s : subs) {
+	    ids.put(s, n);
+	    nodes[n++] = s;
+	}
+
+	// Count edges, then lay them out.  Only interfaces between an element
+	// and a substrate that are both in the topology count.
+	degree = new int[nodes.length];
+	for (int e = 0; e < nelements; e++) {
+	    for (Interface i : nodes[e].getInterfaces()) {
+		Integer s = ids.get(i.getSubstrate());
+
+		if ( s == null ) continue;
+		degree[e]++;
+		degree[s]++;
+	    }
+	}
+	offsets = new int[nodes.length + 1];
+	for (int i = 0; i < nodes.length; i++)
+	    offsets[i+1] = offsets[i] + degree[i];
+
+	targets = new int[offsets[nodes.length]];
+	latency = new double[targets.length];
+	capacity = new double[targets.length];
+	fill = Arrays.copyOf(offsets, nodes.length);
+	for (int e = 0; e < nelements; e++) {
+	    for (Interface i : nodes[e].getInterfaces()) {
+		Substrate sub = i.getSubstrate();
+		Integer s = ids.get(sub);
+
+		if ( s == null ) continue;
+		double il = time(i.getLatency());
+		double sl = time(sub.getLatency());
+		double cap = Math.min(rate(i.getCapacity()),
+			rate(sub.getCapacity()));
+		int out = fill[e]++;
+		int in = fill[s]++;
+
+		targets[out] = s;
+		latency[out] = il + sl;
+		capacity[out] = cap;
+		targets[in] = e;
+		latency[in] = il;
+		capacity[in] = cap;
+	    }
+	}
+    }
+
+    /**
+     * Return the time of a latency, 0 if there is none.
+     * @param l the latency (may be null)
+     * @return the time
+     */
+    static private double time(Latency l) {
+	return (l != null) ? l.getTime() : 0.0;
+    }
+
+    /**
+     * Return the rate of a capacity, infinite if there is none.
+     * @param c the capacity (may be null)
+     * @return the rate
+     */
+    static private double rate(Capacity c) {
+	return (c != null) ? c.getRate() : Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * Return the version of the topology this was built from.  Note the
+     * package scope.
+     * @return the version
+     */
+    long getVersion() { return version; }
+
+    /**
+     * Return the number of nodes (elements and substrates).
+     * @return the number of nodes
+     */
+    public int size() { return nodes.length; }
+
+    /**
+     * Return the number of elements.  Elements have IDs 0 through this value
+     * minus one.
+     * @return the number of elements
+     */
+    public int getElementCount() { return nelements; }
+
+    /**
+     * Return the number of directed edges (twice the number of interfaces
+     * joining an element to a substrate).
+     * @return the number of edges
+     */
+    public int getEdgeCount() { return targets.length; }
+
+    /**
+     * Return the ID of an element or substrate.
+     * @param o the object
+     * @return the ID, or -1 if o is not in the graph
+     */
+    public int getId(ConnectedObject o) {
+	Integer id = ids.get(o);
+
+	return (id != null) ? id : -1;
+    }
+
+    /**
+     * Return the object with the given ID.
+     * @param id the ID
+     * @return the element or substrate
+     */
+    public ConnectedObject getNode(int id) { return nodes[id]; }
+
+    /**
+     * Return true if the node is an element.
+     * @param id the ID
+     * @return true if the node is an element
+     */
+    public boolean isElement(int id) { return id < nelements; }
+
+    /**
+     * Return the number of edges leaving the node.
+     * @param id the ID
+     * @return the degree
+     */
+    public int getDegree(int id) { return offsets[id+1] - offsets[id]; }
+
+    /**
+     * Return the index of the node's first edge.  Its edges are this through
+     * getFirstEdge(id+1)-1.  Together with getTarget, getLatency and
+     * getCapacity this allows iterating neighbors without allocation.
+     * @param id the ID
+     * @return the edge index
+     */
+    public int getFirstEdge(int id) { return offsets[id]; }
+
+    /**
+     * Return the node an edge leads to.
+     * @param edge the edge index
+     * @return the target ID
+     */
+    public int getTarget(int edge) { return targets[edge]; }
+
+    /**
+     * Return the latency of an edge.
+     * @param edge the edge index
+     * @return the latency
+     */
+    public double getLatency(int edge) { return latency[edge]; }
+
+    /**
+     * Return the capacity of an edge.
+     * @param edge the edge index
+     * @return the capacity (infinite if unconstrained)
+     */
+    public double getCapacity(int edge) { return capacity[edge]; }
+
+    /**
+     * Return the IDs of the node's neighbors.  A neighbor joined by several
+     * interfaces appears several times.
+     * @param id the ID
+     * @return the neighbor IDs
+     */
+    public int[] getNeighbors(int id) {
+	return Arrays.copyOfRange(targets, offsets[id], offsets[id+1]);
+    }
+
+    /**
+     * Return the elements that share a substrate with e.
+     * @param e the element
+     * @return the neighboring elements (empty if e is not in the graph)
+     */
+    public List<Element> getNeighbors(Element e) {
+	List<Element> rv = new ArrayList<Element>();
+	int src = getId(e);
+
+	if ( src == -1 ) return rv;
+	boolean[] seen = new boolean[nodes.length];
+	seen[src] = true;
+	for (int i = offsets[src]; i < offsets[src+1]; i++) {
+	    int s = targets[i];
+
+	    for (int j = offsets[s]; j < offsets[s+1]; j++) {
+		int n = targets[j];
+
+		if ( seen[n] ) continue;
+		seen[n] = true;
+		rv.add((Element) nodes[n]);
+	    }
+	}
+	return rv;
+    }
+
+    /**
+     * Return the number of edges on the shortest path from src to each node,
+     * or -1 for nodes that cannot be reached.  Elements are an even number of
+     * edges apart; two elements on a common substrate are 2 apart.
+     * @param src the starting ID
+     * @return the distances, indexed by ID
+     */
+    public int[] hops(int src) {
+	int[] dist = new int[nodes.length];
+	int[] queue = new int[nodes.length];
+	int head = 0;
+	int tail = 0;
+
+	Arrays.fill(dist, -1);
+	dist[src] = 0;
+	queue[tail++] = src;
+	while (head < tail) {
+	    int n = queue[head++];
+
+	    for (int i = offsets[n]; i < offsets[n+1]; i++) {
+		int t = targets[i];
+
+		if ( dist[t] != -1 ) continue;
+		dist[t] = dist[n] + 1;
+		queue[tail++] = t;
+	    }
+	}
+	return dist;
+    }
+
+    /**
+     * Return the number of substrates crossed on the shortest path between
+     * two elements.
+     * @param a the first element
+     * @param b the second element
+     * @return the number of substrates, or -1 if b cannot be reached from a
+     */
+    public int hops(Element a, Element b) {
+	int src = getId(a);
+	int dst = getId(b);
+
+	if ( src == -1 || dst == -1 ) return -1;
+	int d = hops(src)[dst];
+	return (d != -1) ? d / 2 : -1;
+    }
+
+    /**
+     * Return the lowest total latency from src to each node (Dijkstra), and
+     * optionally the previous node on each lowest latency path.  Unreachable
+     * nodes have infinite latency and a previous node of -1.
+     * @param src the starting ID
+     * @param prev if not null, filled with the previous node on each path
+     * @return the latencies, indexed by ID
+     */
+    public double[] latencies(int src, int[] prev) {
+	double[] dist = new double[nodes.length];
+	boolean[] done = new boolean[nodes.length];
+	Heap h = new Heap(nodes.length);
+
+	Arrays.fill(dist, Double.POSITIVE_INFINITY);
+	if ( prev != null ) Arrays.fill(prev, -1);
+	dist[src] = 0.0;
+	h.push(0.0, src);
+	while (!h.isEmpty()) {
+	    int n = h.pop();
+
+	    if ( done[n] ) continue;
+	    done[n] = true;
+	    for (int i = offsets[n]; i < offsets[n+1]; i++) {
+		int t = targets[i];
+		double d = dist[n] + latency[i];
+
+		if ( done[t] || d >= dist[t] ) continue;
+		dist[t] = d;
+		if ( prev != null ) prev[t] = n;
+		h.push(d, t);
+	    }
+	}
+	return dist;
+    }
+
+    /**
+     * Return the lowest total latency between two elements.
+     * @param a the first element
+     * @param b the second element
+     * @return the latency, infinite if b cannot be reached from a
+     */
+    public double latency(Element a, Element b) {
+	int src = getId(a);
+	int dst = getId(b);
+
+	if ( src == -1 || dst == -1 ) return Double.POSITIVE_INFINITY;
+	return latencies(src, null)[dst];
+    }
+
+    /**
+     * Return the lowest latency path between two elements: the elements and
+     * substrates crossed, starting with a and ending with b.
+     * @param a the first element
+     * @param b the second element
+     * @return the path, empty if b cannot be reached from a
+     */
+    public List<ConnectedObject> shortestPath(Element a, Element b) {
+	List<ConnectedObject> rv = new ArrayList<ConnectedObject>();
+	int src = getId(a);
+	int dst = getId(b);
+
+	if ( src == -1 || dst == -1 ) return rv;
+	int[] prev = new int[nodes.length];
+	latencies(src, prev);
+	if ( src != dst && prev[dst] == -1 ) return rv;
+	for (int n = dst; n != -1; n = prev[n])
+	    rv.add(nodes[n]);
+	Collections.reverse(rv);
+	return rv;
+    }
+
+    /**
+     * Return the largest capacity that can be carried from a to b along any
+     * single path: the best over all paths of the smallest capacity on the
+     * path.
+     * @param a the first element
+     * @param b the second element
+     * @return the capacity, 0 if b cannot be reached from a and infinite if
+     * nothing on the best path is constrained
+     */
+    public double bottleneck(Element a, Element b) {
+	int src = getId(a);
+	int dst = getId(b);
+
+	if ( src == -1 || dst == -1 ) return 0.0;
+
+	double[] best = new double[nodes.length];
+	boolean[] done = new boolean[nodes.length];
+	Heap h = new Heap(nodes.length);
+
+	best[src] = Double.POSITIVE_INFINITY;
+	// The heap pops the smallest key, so push negated capacities.
+	h.push(Double.NEGATIVE_INFINITY, src);
+	while (!h.isEmpty()) {
+	    int n = h.pop();
+
+	    if ( done[n] ) continue;
+	    if ( n == dst ) break;
+	    done[n] = true;
+	    for (int i = offsets[n]; i < offsets[n+1]; i++) {
+		int t = targets[i];
+		double c = Math.min(best[n], capacity[i]);
+
+		if ( done[t] || c <= best[t] ) continue;
+		best[t] = c;
+		h.push(-c, t);
+	    }
+	}
+	return best[dst];
+    }
+
+    /**
+     * Return the connected component of each node.  Components are numbered
+     * from 0 in order of their lowest ID.
+     * @return component IDs, indexed by node ID
+     */
+    public synchronized int[] getComponentIds() {
+	if ( components != null ) return components.clone();
+
+	int[] comp = new int[nodes.length];
+	int[] stack = new int[nodes.length];
+	int nc = 0;
+
+	Arrays.fill(comp, -1);
+	for (int root = 0; root < nodes.length; root++) {
+	    int top = 0;
+
+	    if ( comp[root] != -1 ) continue;
+	    comp[root] = nc;
+	    stack[top++] = root;
+	    while (top > 0) {
+		int n = stack[--top];
+
+		for (int i = offsets[n]; i < offsets[n+1]; i++) {
+		    int t = targets[i];
+
+		    if ( comp[t] != -1 ) continue;
+		    comp[t] = nc;
+		    stack[top++] = t;
+		}
+	    }
+	    nc++;
+	}
+	components = comp;
+	ncomponents = nc;
+	return components.clone();
+    }
+
+    /**
+     * Return the connected components, each as the list of its elements and
+     * substrates.
+     * @return the components
+     */
+    public List<List<ConnectedObject>> getComponents() {
+	int[] comp = getComponentIds();
+	List<List<ConnectedObject>> rv = new ArrayList<List<ConnectedObject>>();
+
+	synchronized (this) {
+	    for (int i = 0; i < ncomponents; i++)
+		rv.add(new ArrayList<ConnectedObject>());
+	}
+	for (int n = 0; n < nodes.length; n++)
+	    rv.get(comp[n]).add(nodes[n]);
+	return rv;
+    }
+
+    /**
+     * Return true if a and b are in the same connected component.
+     * @param a an element or substrate
+     * @param b an element or substrate
+     * @return true if they are connected
+     */
+    public boolean connected(ConnectedObject a, ConnectedObject b) {
+	int ia = getId(a);
+	int ib = getId(b);
+
+	if ( ia == -1 || ib == -1 ) return false;
+	int[] comp = getComponentIds();
+	return comp[ia] == comp[ib];
+    }
+
+    /**
+     * Return the elements and substrates with the given attribute.  If value
+     * is null any value matches.
+     * @param name the attribute name
+     * @param value the value to match (may be null)
+     * @return the matching objects in ID order
+     */
+    public List<ConnectedObject> withAttribute(String name, String value) {
+	List<ConnectedObject> rv = new ArrayList<ConnectedObject>();
+
+	for (ConnectedObject o : nodes) {
+	    String v = o.getAttribute(name);
+
+	    if ( v == null ) continue;
+	    if ( value == null || value.equals(v)) rv.add(o);
+	}
+	return rv;
+    }
+
+    /**
+     * Return the computers that list an operating system with the given name
+     * and, if version is given, that version.
+     * @param name the operating system name
+     * @param version the version to match (may be null)
+     * @return the matching computers in ID order
+     */
+    public List<Computer> withOS(String name, String version) {
+	List<Computer> rv = new ArrayList<Computer>();
+
+	for (int i = 0; i < nelements; i++) {
+	    if ( !(nodes[i] instanceof Computer)) continue;
+	    Computer c = (Computer) nodes[i];
+
+	    for (OperatingSystem os : c.getOS()) {
+		if ( name != null && !name.equals(os.getName())) continue;
+		if ( version != null && !version.equals(os.getVersion()))
+		    continue;
+		rv.add(c);
+		break;
+	    }
+	}
+	return rv;
+    }
+
+    /**
+     * A binary min-heap of (key, node) pairs in parallel arrays.  A node may
+     * be pushed more than once; callers skip nodes already finished.
+     */
+    static private class Heap {
+	/** Keys */
+	private double[] keys;
+	/** Nodes */
+	private int[] vals;
+	/** Number of entries */
+	private int size;
+
+	/**
+	 * Create a heap.
+	 * @param n the initial capacity
+	 */
+	public Heap(int n) {
+	    keys = new double[Math.max(n, 1)];
+	    vals = new int[keys.length];
+	    size = 0;
+	}
+
+	/**
+	 * Return true if the heap is empty.
+	 * @return true if the heap is empty
+	 */
+	public boolean isEmpty() { return size == 0; }
+
+	/**
+	 * Add an entry.
+	 * @param k the key
+	 * @param v the node
+	 */
+	public void push(double k, int v) {
+	    int i = size++;
+
+	    if ( size > keys.length ) {
+		keys = Arrays.copyOf(keys, keys.length * 2);
+		vals = Arrays.copyOf(vals, vals.length * 2);
+	    }
+	    while (i > 0) {
+		int p = (i - 1) / 2;
+
+		if ( keys[p] <= k ) break;
+		keys[i] = keys[p];
+		vals[i] = vals[p];
+		i = p;
+	    }
+	    keys[i] = k;
+	    vals[i] = v;
+	}
+
+	/**
+	 * Remove the entry with the smallest key.
+	 * @return its node
+	 */
+	public int pop() {
+	    int rv = vals[0];
+	    double k = keys[--size];
+	    int v = vals[size];
+	    int i = 0;
+
+	    while (2 * i + 1 < size) {
+		int c = 2 * i + 1;
+
+		if ( c + 1 < size && keys[c+1] < keys[c] ) c++;
+		if ( k <= keys[c] ) break;
+		keys[i] = keys[c];
+		vals[i] = vals[c];
+		i = c;
+	    }
+	    keys[i] = k;
+	    vals[i] = v;
+	    return rv;
+	}
+    }
+}
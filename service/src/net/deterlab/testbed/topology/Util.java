@@ -3,6 +3,7 @@ package net.deterlab.testbed.topology;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -60,21 +61,35 @@ public class Util {
     }
 
     /**
-     * Return true if the substrate connects only elements inside the region
-     * defined by in.
+     * Return true if the substrate connects only elements inside the region.
      * @param s the substrate to test
-     * @param rp the region defining predicate
-     * @return true if the substrate connects only elements inside the region
-     * defined by in.
+     * @param inside the elements inside the region
+     * @return true if the substrate connects only elements inside the region.
      */
-    static private boolean substrateInside(Substrate s, RegionPredicate rp) {
+    static private boolean substrateInside(Substrate s, Set<Element> inside) {
 	for (Interface i: s.getInterfaces()) {
 	    Element e = i.getElement();
-	    if ( e != null && !rp.insideRegion(e)) return false;
+	    if ( e != null && !inside.contains(e)) return false;
 	}
 	return true;
     }
 
+    /**
+     * Return the elements of t inside the region defined by rp.  The
+     * predicate is evaluated once per element.
+     * @param t the topology
+     * @param rp the region defining predicate
+     * @return the elements inside the region
+     */
+    static private Set<Element> insideElements(Topology t,
+	    RegionPredicate rp) {
+	Set<Element> rv = new LinkedHashSet<Element>();
+
+	for (Element e: t.getElements())
+	    if ( rp.insideRegion(e)) rv.add(e);
+	return rv;
+    }
+
     /**
      * Return the index of the region name in the path, taking the path as a
      * sequence of components (0-based).  If the regin name is not there, or
@@ -129,26 +144,25 @@ public class Util {
     /**
      * Remove the interfaces attached from the given region name and return
      * them.  Readjust the interface path and rename the interfaces
-     * appropriately as well.
-     * @param rname the name of teh region to roll back to
+     * appropriately as well.  The position of the region in the element's
+     * path, the substrates in the region and the split interface paths come
+     * from the topology's PathIndex.
+     * @param paths the topology's path index
+     * @param idx the index of the region in the element's path
+     * @param plen the number of components in the element's path
+     * @param inSubs the substrates inside the region
      * @param e the element to edit
      * @return a disconnected list of interfaces to be attached to the region.
      */
-    static protected List<Interface> getRegionInterfaces(String rname,
-	    Element e) {
+    static protected List<Interface> getRegionInterfaces(PathIndex paths,
+	    int idx, int plen, Set<Substrate> inSubs, Element e) {
 	List<Interface> rv = new ArrayList<Interface>();
-	int idx = regionIndex(rname, e);
 
-	if (idx == -1) return rv;
-	String pathAttr = e.getAttribute("path");
-	String[] path = (pathAttr != null) ? pathAttr.split("/") : null;
-
-	if ( path == null ) return rv;
-	int pi = path.length - idx;
+	if (idx == -1 || plen == -1) return rv;
+	int pi = plen - idx;
 	for (Interface i: new ArrayList<Interface>(e.getInterfaces())) {
-	    if (inRegion(rname, i.getSubstrate())) continue;
-	    String ipathAttr = i.getAttribute("interface_path");
-	    String[] ipath = (ipathAttr != null) ? ipathAttr.split("/") : null;
+	    if (inSubs.contains(i.getSubstrate())) continue;
+	    String[] ipath = paths.getInterfacePath(i);
 
 	    if (ipath == null ) continue;
 
@@ -174,22 +188,20 @@ public class Util {
      */
     static public void collapseExistingRegion(Topology t, Region r) 
 	    throws TopologyException {
-	List<Substrate> inSubs = new ArrayList<Substrate>();
-	List<Element> inElems = new ArrayList<Element>();
-	List<Interface> inInts = new ArrayList<Interface>();
+	PathIndex paths = t.getPathIndex();
 	String rname = r.getName();
-
-	for (Element e: t.getElements())
-	    if ( inRegion(rname, e)) inElems.add(e);
-	for (Substrate s : t.getSubstrates())
-	    if ( inRegion(rname, s)) inSubs.add(s);
-
+	List<Substrate> inSubs = paths.getSubstrates(rname);
+	List<Element> inElems = paths.getElements(rname);
+	List<Interface> inInts = new ArrayList<Interface>();
+	Set<Substrate> subSet = new HashSet<Substrate>(inSubs);
 
 	// All the stuff in inSubs and inElems is going to be removed, but
 	// first we gather up the interfaces that need to be connected to this
 	// region.
 	for ( Element e : inElems ) {
-	    inInts.addAll(getRegionInterfaces(rname, e));
+	    inInts.addAll(getRegionInterfaces(paths,
+			paths.regionIndex(rname, e), paths.pathLength(e),
+			subSet, e));
 	    t.removeElement(e);
 	}
 	for (Substrate s: inSubs) 
@@ -217,43 +229,43 @@ public class Util {
 	List<Element> inElems = new ArrayList<Element>();
 	List<Interface> inInts = new ArrayList<Interface>();
 	Map<String, Substrate> nameToSub = new HashMap<String, Substrate>();
+	Set<Element> inside = insideElements(t, rp);
 
 	// Create copies of all the substrates in the region and make an index
 	// to find them by name
 	for (Substrate s : t.getSubstrates())
-	    if ( substrateInside(s, rp)) {
+	    if ( substrateInside(s, inside)) {
 		Substrate ss = s.clone();
 		nameToSub.put(s.getName(), s);
 		inSubs.add(ss);
 	    }
 	// Create copies of the elements in the proposed region and connect
 	// them to the duplicated substrates.
-	for (Element e: t.getElements())
-	    if ( rp.insideRegion(e)) {
-		Map<String, String> ifToSub = new HashMap<String, String>();
-		Element ne = e.clone();
-
-		for (Interface i : e.getInterfaces()) {
-		    String sn = i.getSubstrate().getName();
-		    if ( nameToSub.containsKey(sn))
-			ifToSub.put(i.getName(), i.getSubstrate().getName());
-		}
-
-		// the clone of the element has created interfaces with the
-		// same names connected only to the element.  This loop
-		// connects the interfaces of the clone to the clones of the
-		// substrates with the same name.
-		for (Interface i :
-			new ArrayList<Interface>(ne.getInterfaces())) {
-		    String iname = i.getName();
-
-		    if (ifToSub.containsKey(iname))
-			i.connect(null, nameToSub.get(ifToSub.get(iname)));
-		    else
-			i.disconnect();
-		}
-		inElems.add(ne);
+	for (Element e: inside) {
+	    Map<String, String> ifToSub = new HashMap<String, String>();
+	    Element ne = e.clone();
+
+	    for (Interface i : e.getInterfaces()) {
+		String sn = i.getSubstrate().getName();
+		if ( nameToSub.containsKey(sn))
+		    ifToSub.put(i.getName(), i.getSubstrate().getName());
 	    }
+
+	    // the clone of the element has created interfaces with the
+	    // same names connected only to the element.  This loop
+	    // connects the interfaces of the clone to the clones of the
+	    // substrates with the same name.
+	    for (Interface i :
+		    new ArrayList<Interface>(ne.getInterfaces())) {
+		String iname = i.getName();
+
+		if (ifToSub.containsKey(iname))
+		    i.connect(null, nameToSub.get(ifToSub.get(iname)));
+		else
+		    i.disconnect();
+	    }
+	    inElems.add(ne);
+	}
 	return new Topology(inSubs, inElems, null);
     }
 
@@ -281,10 +293,11 @@ public class Util {
 	Map<String, String> fmap = new HashMap<String, String>();
 	Region r = new Region(rname, level, fname, null, null);
 
-	for (Element e: t.getElements())
-	    if ( rp.insideRegion(e)) inElems.add(e);
+	Set<Element> inside = insideElements(t, rp);
+
+	inElems.addAll(inside);
 	for (Substrate s : t.getSubstrates())
-	    if ( substrateInside(s, rp)) inSubs.add(s);
+	    if ( substrateInside(s, inside)) inSubs.add(s);
 
 	t.addElement(r);
 
@@ -103,7 +103,7 @@ public class AddExperimentAspects extends Utility {
 	File f = new File(path);
 
 	if (f.isFile())
-	    rv.setData(putBytes(readFile(f)));
+	    rv.setData(putFile(f));
 	else if (u != null && p != null && !p.equals("file"))
 	    rv.setDataReference(u.toExternalForm());
 	else
@@ -151,6 +151,9 @@ public class AddExperimentAspects extends Utility {
 	    // This is the GetProfileDescription call
 	    ExperimentsStub stub =
 		new ExperimentsStub(getServiceUrl("Experiments"));
+
+	    StubFactory.enableMTOM(stub);
+
 	    ExperimentsStub.AddExperimentAspects addReq = 
 		new ExperimentsStub.AddExperimentAspects();
 
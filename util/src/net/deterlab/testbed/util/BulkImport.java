@@ -0,0 +1,281 @@
+package net.deterlab.testbed.util;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.LineNumberReader;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+
+import java.rmi.RemoteException;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.deterlab.testbed.api.DeterFault;
+
+/**
+ * Runs the many independent calls of a bulk import concurrently.  Each step
+ * has a key.  Steps run on the worker threads of a StubFactory with a bounded
+ * number in flight, idempotent steps that fail with a transport error are
+ * retried with backoff, and the keys of finished steps are appended to a
+ * checkpoint file.  Other steps are tried once: a transport error does not
+ * say whether the server carried out the call, and repeating a creation
+ * could make a duplicate.
+ * Steps whose keys are in the checkpoint are skipped, so rerunning an import
+ * that stopped part way picks up where it left off.
+ * <p>
+ * Imports proceed in phases (e.g., users before the projects they own).
+ * startPhase resets the counters and finishPhase waits for every step in the
+ * phase and reports throughput.
+ * @author DETER Team
+ * @version 1.0
+ */
+public class BulkImport {
+    /**
+     * One step of an import.  Steps get their stubs from Utility.getStub (or
+     * the factory's getStub) so each worker thread has its own.
+     */
+    public interface Step {
+	/**
+	 * Do the work.
+	 * @throws Exception on failure
+	 */
+	public void run() throws Exception;
+    }
+
+    /**
+     * A step that can safely be repeated, e.g., a lookup or a call that
+     * leaves the same state however often it is made.  Those that fail
+     * with a RemoteException are retried.
+     */
+    public interface IdempotentStep extends Step { }
+
+    /** Initial retry delay in ms, doubled each retry */
+    static public final long RETRY_DELAY = 250;
+    /** Longest retry delay in ms */
+    static public final long MAX_RETRY_DELAY = 10000;
+    /** Report progress after this many steps */
+    static public final int PROGRESS_INTERVAL = 100;
+
+    /** Runs the steps */
+    private StubFactory factory;
+    /** Bounds the steps in flight */
+    private Semaphore slots;
+    /** Maximum steps in flight */
+    private int inFlight;
+    /** Times to retry a failed idempotent step */
+    private int retries;
+    /** Keys of finished steps, from this run and earlier ones */
+    private Set<String> done;
+    /** True if the checkpoint held steps from an earlier run */
+    private boolean resuming;
+    /** Appends to the checkpoint, null if there is none */
+    private PrintWriter checkpoint;
+    /** Progress reports go here */
+    private PrintStream out;
+    /** Failed keys and why, in the current phase */
+    private Map<String, String> failures;
+    /** Current phase name */
+    private String phase;
+    /** When the current phase started */
+    private long start;
+    /** Steps finished in the current phase */
+    private AtomicInteger completed;
+    /** Steps skipped in the current phase */
+    private AtomicInteger skipped;
+
+    /**
+     * Set up an import, reading the keys already done from the checkpoint.
+     * @param f runs the steps
+     * @param cp the checkpoint file, may be null for no checkpoint
+     * @param n the maximum steps in flight
+     * @param r the number of times to retry an idempotent step
+     * @param o progress reports go here, System.err if null
+     * @throws IOException if the checkpoint cannot be read or opened
+     */
+    public BulkImport(StubFactory f, File cp, int n, int r, PrintStream o)
+	    throws IOException {
+	factory = f;
+	inFlight = n;
+	slots = new Semaphore(n);
+	retries = r;
+	out = (o != null) ? o : System.err;
+	done = Collections.synchronizedSet(new HashSet<String>());
+	failures = Collections.synchronizedMap(
+		new LinkedHashMap<String, String>());
+	completed = new AtomicInteger();
+	skipped = new AtomicInteger();
+	checkpoint = null;
+
+	if ( cp == null ) return;
+	if ( cp.exists() ) {
+	    LineNumberReader lines = new LineNumberReader(new FileReader(cp));
+	    String line = null;
+
+	    try {
+		while ( (line = lines.readLine()) != null )
+		    if ( line.length() > 0 ) done.add(line);
+	    }
+	    finally {
+		lines.close();
+	    }
+	    resuming = !done.isEmpty();
+	    if ( resuming )
+		out.println("Resuming: " + done.size() + " steps done");
+	}
+	checkpoint = new PrintWriter(new FileWriter(cp, true));
+    }
+
+    /**
+     * Return true if the step with this key finished, in this run or an
+     * earlier one.
+     * @param key the key
+     * @return true if the step finished
+     */
+    public boolean isDone(String key) { return done.contains(key); }
+
+    /**
+     * Return true if this run picks up an earlier one.  Steps that an earlier
+     * run may have carried out without checkpointing can check for their
+     * results first.
+     * @return true if the checkpoint held steps from an earlier run
+     */
+    public boolean isResuming() { return resuming; }
+
+    /**
+     * Record that a step finished.  Steps that do several things can call
+     * this for each part, so a retry or a resume skips the parts done.
+     * @param key the key
+     */
+    public void markDone(String key) {
+	if ( !done.add(key)) return;
+	if ( checkpoint == null ) return;
+	synchronized (checkpoint) {
+	    checkpoint.println(key);
+	    checkpoint.flush();
+	}
+    }
+
+    /**
+     * Start a new phase.
+     * @param name the phase name, used in reports
+     */
+    public void startPhase(String name) {
+	phase = name;
+	start = System.currentTimeMillis();
+	completed.set(0);
+	skipped.set(0);
+	failures.clear();
+    }
+
+    /**
+     * Describe a failure.
+     * @param e the exception
+     * @return the description
+     */
+    static private String describe(Exception e) {
+	if ( e instanceof DeterFault ) {
+	    DeterFault df = (DeterFault) e;
+
+	    return df.getErrorMessage() + ": " + df.getDetailMessage();
+	}
+	else return e.toString();
+    }
+
+    /**
+     * Print the throughput of the current phase.
+     * @param n the number of steps finished
+     */
+    private void progress(int n) {
+	double secs = (System.currentTimeMillis() - start) / 1000.0;
+
+	out.format("%s: %d done, %d skipped, %d failed in %.1fs " +
+		"(%.1f/s)%n", phase, n, skipped.get(), failures.size(), secs,
+		(secs > 0) ? n / secs : 0.0);
+    }
+
+    /**
+     * Run a step unless it is already done.  Blocks while the maximum number
+     * of steps are in flight.  Only IdempotentSteps are retried.  Failures
+     * are recorded, not thrown; the key is not checkpointed so a later run
+     * tries it again.
+     * @param key the step's key
+     * @param step the step
+     * @throws InterruptedException if interrupted waiting for a slot
+     */
+    public void submit(final String key, final Step step)
+	    throws InterruptedException {
+	if ( isDone(key) ) {
+	    skipped.incrementAndGet();
+	    return;
+	}
+	slots.acquire();
+	factory.submit(new Callable<Void>() {
+	    public Void call() {
+		try {
+		    long delay = RETRY_DELAY;
+		    int limit = (step instanceof IdempotentStep) ? retries : 0;
+
+		    for (int attempt = 0; ; attempt++) {
+			try {
+			    step.run();
+			    markDone(key);
+			    int n = completed.incrementAndGet();
+			    if ( n % PROGRESS_INTERVAL == 0 ) progress(n);
+			    return null;
+			}
+			catch (Exception e) {
+			    if ( attempt >= limit ||
+				    !(e instanceof RemoteException)) {
+				failures.put(key, describe(e));
+				return null;
+			    }
+			}
+			Thread.sleep(delay);
+			delay = Math.min(2 * delay, MAX_RETRY_DELAY);
+		    }
+		}
+		catch (InterruptedException e) {
+		    failures.put(key, "Interrupted");
+		    return null;
+		}
+		finally {
+		    slots.release();
+		}
+	    }
+	});
+    }
+
+    /**
+     * Wait for every step in the phase, then report its throughput and
+     * failures.
+     * @return the failed keys and why, in the order they failed
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public Map<String, String> finishPhase() throws InterruptedException {
+	slots.acquire(inFlight);
+	slots.release(inFlight);
+	progress(completed.get());
+	synchronized (failures) {
+	    for (Map.Entry<String, String> f : failures.entrySet())
+		out.println("\t" + f.getKey() + " failed: " + f.getValue());
+	    return new LinkedHashMap<String, String>(failures);
+	}
+    }
+
+    /**
+     * Close the checkpoint.
+     */
+    public void close() {
+	if ( checkpoint != null ) checkpoint.close();
+    }
+}
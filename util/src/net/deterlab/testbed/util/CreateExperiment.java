@@ -170,7 +170,7 @@ public class CreateExperiment extends Utility {
 	File f = new File(path);
 
 	if (f.isFile())
-	    rv.setData(putBytes(readFile(f)));
+	    rv.setData(putFile(f));
 	else if (u != null && p != null && !p.equals("file"))
 	    rv.setDataReference(u.toExternalForm());
 	else
@@ -265,6 +265,9 @@ public class CreateExperiment extends Utility {
 	    // This is the GetProfileDescription call
 	    ExperimentsStub stub =
 		new ExperimentsStub(getServiceUrl("Experiments"));
+
+	    StubFactory.enableMTOM(stub);
+
 	     ExperimentsStub.GetProfileDescription descReq =
 		new ExperimentsStub.GetProfileDescription();
 	    ExperimentsStub.GetProfileDescriptionResponse descResp = 
@@ -17,6 +17,7 @@ public class EmptyDeterDatabase extends Utility {
 
     /** The right order to empty the tables */
     static public String[] tables = new String[] {
+	"mailoutbox",
 	"usernotification",
 	"notification",
 	"userchallenge",
@@ -49,6 +50,7 @@ public class EmptyDeterDatabase extends Utility {
 	"projectusers",
 	"projectperms",
 	"realizationcontainment",
+	"realizationevents",
 	"realizationperms",
 	"realizationtopology",
 	"resourceperms",
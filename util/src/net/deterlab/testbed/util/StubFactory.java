@@ -0,0 +1,286 @@
+package net.deterlab.testbed.util;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+
+import java.lang.reflect.InvocationTargetException;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.TrustManagerFactory;
+
+import org.apache.axis2.AxisFault;
+import org.apache.axis2.Constants;
+
+import org.apache.axis2.client.Stub;
+
+import org.apache.axis2.context.ConfigurationContext;
+import org.apache.axis2.context.ConfigurationContextFactory;
+
+import org.apache.axis2.transport.http.HTTPConstants;
+
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.conn.ssl.SSLSocketFactory;
+
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.PoolingClientConnectionManager;
+import org.apache.http.impl.conn.SchemeRegistryFactory;
+
+/**
+ * Makes client stubs that share one pooled, keep-alive HTTP transport and one
+ * TLS context, so that calls after the first to a given server reuse an open
+ * connection or at least resume a TLS session instead of doing a full
+ * handshake.  Axis2 stubs are not safe to use from more than one thread at a
+ * time, so getStub hands each thread its own stub for each service; the stubs
+ * are cheap because the configuration context and transport are shared.
+ * <p>
+ * The factory also runs calls concurrently: submit takes a Callable that gets
+ * its stubs from the factory and runs it on a pool of worker threads.
+ * @author DETER Team
+ * @version 1.0
+ */
+public class StubFactory {
+    /** Default number of connections (and worker threads) */
+    static public final int DEFAULT_CONNECTIONS = 8;
+    /** How long an idle TLS session can be resumed, in seconds */
+    static public final int SESSION_TIMEOUT = 3600;
+
+    /** The base service URL that service names are appended to */
+    private String serviceUrl;
+    /** Axis2 configuration context shared by all stubs */
+    private ConfigurationContext context;
+    /** The pooled connections */
+    private PoolingClientConnectionManager connections;
+    /** Runs asynchronous calls */
+    private ExecutorService executor;
+    /** Each thread's stubs, by stub class */
+    private ThreadLocal<Map<Class<?>, Stub>> stubs;
+
+    /**
+     * Make a factory.
+     * @param url the base service URL - service names are appended to it
+     * @param ssl the TLS context to make connections with.  If null, the JVM
+     * default is used.
+     * @param conns the maximum number of connections to the server, which is
+     * also the number of threads running asynchronous calls
+     * @throws AxisFault if the Axis2 configuration cannot be created
+     */
+    public StubFactory(String url, SSLContext ssl, int conns)
+	    throws AxisFault {
+	SchemeRegistry schemes = SchemeRegistryFactory.createDefault();
+	final AtomicInteger threadNo = new AtomicInteger();
+
+	if ( ssl != null ) {
+	    SSLSocketFactory sf = new SSLSocketFactory(ssl,
+		    SSLSocketFactory.BROWSER_COMPATIBLE_HOSTNAME_VERIFIER);
+
+	    schemes.register(new Scheme("https", 443, sf));
+	}
+
+	serviceUrl = url;
+	connections = new PoolingClientConnectionManager(schemes);
+	connections.setMaxTotal(conns);
+	connections.setDefaultMaxPerRoute(conns);
+
+	// Every stub made with this context uses the same HttpClient, and so
+	// the same connection pool.
+	context = ConfigurationContextFactory.
+	    createConfigurationContextFromFileSystem(null, null);
+	context.setProperty(HTTPConstants.REUSE_HTTP_CLIENT, Boolean.TRUE);
+	context.setProperty(HTTPConstants.MULTITHREAD_HTTP_CONNECTION_MANAGER,
+		connections);
+	context.setProperty(HTTPConstants.CACHED_HTTP_CLIENT,
+		new DefaultHttpClient(connections));
+
+	stubs = new ThreadLocal<Map<Class<?>, Stub>>() {
+	    protected Map<Class<?>, Stub> initialValue() {
+		return new HashMap<Class<?>, Stub>();
+	    }
+	};
+	executor = Executors.newFixedThreadPool(conns, new ThreadFactory() {
+	    public Thread newThread(Runnable r) {
+		Thread t = new Thread(r,
+			"stub-worker-" + threadNo.incrementAndGet());
+		t.setDaemon(true);
+		return t;
+	    }
+	});
+    }
+
+    /**
+     * Make a factory with the default number of connections.
+     * @param url the base service URL - service names are appended to it
+     * @param ssl the TLS context to make connections with.  If null, the JVM
+     * default is used.
+     * @throws AxisFault if the Axis2 configuration cannot be created
+     */
+    public StubFactory(String url, SSLContext ssl) throws AxisFault {
+	this(url, ssl, DEFAULT_CONNECTIONS);
+    }
+
+    /**
+     * Load a key store.
+     * @param file the store file
+     * @param pw the store password, may be null
+     * @return the store
+     * @throws GeneralSecurityException if the store is malformed
+     * @throws IOException if the store cannot be read
+     */
+    static private KeyStore loadStore(String file, String pw)
+	    throws GeneralSecurityException, IOException {
+	KeyStore ks = KeyStore.getInstance(KeyStore.getDefaultType());
+	FileInputStream in = new FileInputStream(file);
+
+	try {
+	    ks.load(in, (pw != null) ? pw.toCharArray() : null);
+	}
+	finally {
+	    in.close();
+	}
+	return ks;
+    }
+
+    /**
+     * Create a TLS context from the key and trust stores named by the
+     * javax.net.ssl system properties (which is where Utility.loadID and
+     * Utility.loadTrust put them).  Client sessions are cached so later
+     * connections can skip the full handshake.
+     * @return the new context
+     * @throws GeneralSecurityException if the stores are malformed
+     * @throws IOException if the stores cannot be read
+     */
+    static public SSLContext sslContextFromProperties()
+	    throws GeneralSecurityException, IOException {
+	String keyFile = System.getProperty("javax.net.ssl.keyStore");
+	String keyPw = System.getProperty("javax.net.ssl.keyStorePassword");
+	String trustFile = System.getProperty("javax.net.ssl.trustStore");
+	String trustPw =
+	    System.getProperty("javax.net.ssl.trustStorePassword");
+	KeyManagerFactory kmf = null;
+	TrustManagerFactory tmf = null;
+	SSLContext ssl = SSLContext.getInstance("TLS");
+
+	if ( keyFile != null ) {
+	    kmf = KeyManagerFactory.getInstance(
+		    KeyManagerFactory.getDefaultAlgorithm());
+	    kmf.init(loadStore(keyFile, keyPw),
+		    (keyPw != null) ? keyPw.toCharArray() : new char[0]);
+	}
+	if ( trustFile != null ) {
+	    tmf = TrustManagerFactory.getInstance(
+		    TrustManagerFactory.getDefaultAlgorithm());
+	    tmf.init(loadStore(trustFile, trustPw));
+	}
+	ssl.init((kmf != null) ? kmf.getKeyManagers() : null,
+		(tmf != null) ? tmf.getTrustManagers() : null, null);
+
+	SSLSessionContext sessions = ssl.getClientSessionContext();
+	sessions.setSessionCacheSize(0);
+	sessions.setSessionTimeout(SESSION_TIMEOUT);
+	return ssl;
+    }
+
+    /**
+     * Return the calling thread's stub of the given class, creating it if
+     * need be.  The service name is the class name without "Stub", so
+     * getStub(UsersStub.class) talks to the Users service.
+     * @param cls the stub class
+     * @return the stub
+     * @throws AxisFault if the stub cannot be created
+     */
+    public <T extends Stub> T getStub(Class<T> cls) throws AxisFault {
+	Map<Class<?>, Stub> mine = stubs.get();
+	Stub s = mine.get(cls);
+
+	if ( s == null ) {
+	    String service = cls.getSimpleName().replaceFirst("Stub$", "");
+
+	    try {
+		s = cls.getConstructor(ConfigurationContext.class,
+			String.class).newInstance(context,
+			    serviceUrl + service);
+	    }
+	    catch (InvocationTargetException e) {
+		throw AxisFault.makeFault(e.getCause());
+	    }
+	    catch (ReflectiveOperationException e) {
+		throw AxisFault.makeFault(e);
+	    }
+	    enableMTOM(s);
+	    mine.put(cls, s);
+	}
+	return cls.cast(s);
+    }
+
+    /**
+     * Send opaque data in requests made through the stub as MTOM
+     * attachments rather than inline base64.  The services reply with MTOM
+     * to requests that use it.
+     * @param s the stub
+     */
+    static public void enableMTOM(Stub s) {
+	s._getServiceClient().getOptions().setProperty(
+		Constants.Configuration.ENABLE_MTOM, Constants.VALUE_TRUE);
+    }
+
+    /**
+     * Run a call on one of the factory's worker threads.  The call should get
+     * its stubs from getStub.
+     * @param call the call to make
+     * @return the result, when it arrives
+     */
+    public <T> Future<T> submit(Callable<T> call) {
+	return executor.submit(call);
+    }
+
+    /**
+     * Run a set of calls concurrently and wait for them all.  The results are
+     * in the same order as the calls.
+     * @param calls the calls to make
+     * @return the results
+     * @throws ExecutionException if any call threw an exception.  The first
+     * (in call order) is the cause.
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public <T> List<T> invokeAll(Collection<? extends Callable<T>> calls)
+	    throws ExecutionException, InterruptedException {
+	List<T> rv = new ArrayList<T>();
+
+	for (Future<T> f : executor.invokeAll(calls))
+	    rv.add(f.get());
+	return rv;
+    }
+
+    /**
+     * Stop the worker threads and close the pooled connections.  Stubs from
+     * this factory cannot be used afterward.
+     */
+    public void shutdown() {
+	executor.shutdown();
+	try {
+	    executor.awaitTermination(1, TimeUnit.MINUTES);
+	}
+	catch (InterruptedException ignored) { }
+	connections.shutdown();
+    }
+}
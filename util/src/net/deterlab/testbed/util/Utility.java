@@ -19,6 +19,7 @@ import java.security.GeneralSecurityException;
 import java.security.cert.X509Certificate;
 
 import javax.activation.DataHandler;
+import javax.activation.FileDataSource;
 import javax.net.ssl.SSLException;
 
 import net.deterlab.abac.ABACException;
@@ -68,6 +69,10 @@ public class Utility {
     /** Property file name */
     static protected File propName = 
 	new File(System.getProperty("user.home"), ".deterutils.properties");
+    /** Stub factory shared by everything in this program */
+    static private StubFactory stubFactory = null;
+    /** Connections the shared stub factory will pool */
+    static private int stubConnections = StubFactory.DEFAULT_CONNECTIONS;
 
 
     /**
@@ -367,6 +372,63 @@ public class Utility {
 	return loadID(getUserIDFilename(), getUserIDPassword());
     }
 
+    /**
+     * Return the stub factory shared by everything in this program.  It is
+     * created on first use from the default service url and the key and trust
+     * stores set by loadID and loadTrust, so call those first.
+     * @return the factory
+     * @throws AxisFault if the factory cannot be created
+     */
+    static public synchronized StubFactory getStubFactory()
+	    throws AxisFault {
+	if ( stubFactory == null ) {
+	    try {
+		stubFactory = new StubFactory(getServiceUrl(),
+			StubFactory.sslContextFromProperties(),
+			stubConnections);
+	    }
+	    catch (GeneralSecurityException e) {
+		throw AxisFault.makeFault(e);
+	    }
+	    catch (IOException e) {
+		throw AxisFault.makeFault(e);
+	    }
+	}
+	return stubFactory;
+    }
+
+    /**
+     * Set the number of connections (and worker threads) the shared stub
+     * factory uses.  Takes effect when the factory is next created, so call
+     * it before the first getStub or call resetStubFactory.
+     * @param n the number of connections
+     */
+    static public synchronized void setStubConnections(int n) {
+	stubConnections = n;
+    }
+
+    /**
+     * Discard the shared stub factory and its connections.  The next one is
+     * created from the current key and trust stores, so call this after
+     * changing identities (e.g., saving a new login certificate).
+     */
+    static public synchronized void resetStubFactory() {
+	if ( stubFactory == null ) return;
+	stubFactory.shutdown();
+	stubFactory = null;
+    }
+
+    /**
+     * Return this thread's stub of the given class from the shared factory.
+     * Stubs made this way reuse connections to the server.
+     * @param cls the stub class, e.g., UsersStub.class
+     * @return the stub
+     * @throws AxisFault if the stub cannot be created
+     */
+    static public <T extends Stub> T getStub(Class<T> cls) throws AxisFault {
+	return getStubFactory().getStub(cls);
+    }
+
     /**
      * Print msg to stderr and exit with a high exit code.
      * @param msg the message to print
@@ -415,6 +477,36 @@ public class Utility {
 	return bos.toByteArray();
     }
 
+    /**
+     * Put a file into a DataHandler so that it can be made part of a
+     * request.  The file is read as the request is sent rather than loaded
+     * into memory, so this is the way to send large files.
+     * @param f the file to send
+     * @return a properly initialized DataHandler
+     */
+    static public DataHandler putFile(File f) {
+	return new DataHandler(new FileDataSource(f));
+    }
+
+    /**
+     * Copy the contents of a DataHandler to a file without holding them all
+     * in memory.  With MTOM the contents are read from the response as they
+     * are written.
+     * @param dh the DataHandler
+     * @param f the file to write
+     * @throws IOException if there are I/O problems.
+     */
+    static public void getFile(DataHandler dh, File f) throws IOException {
+	FileOutputStream out = new FileOutputStream(f);
+
+	try {
+	    dh.writeTo(out);
+	}
+	finally {
+	    out.close();
+	}
+    }
+
     /**
      * Print a hex dump of a byte array.  Mostly for debugging.
      * @param bytes the array to dump
@@ -640,7 +732,7 @@ public class Utility {
 	throws DeterFault {
 	Identity i = null;
 	try {
-	    UsersStub stub = new UsersStub(getServiceUrl() + "Users");
+	    UsersStub stub = getStub(UsersStub.class);
 	    return login(stub, uid, password);
 	}
 	catch (AxisFault e) {
@@ -705,7 +797,7 @@ public class Utility {
      */
     static public void logout() throws DeterFault {
 	try {
-	    UsersStub stub = new UsersStub(getServiceUrl() + "Users");
+	    UsersStub stub = getStub(UsersStub.class);
 	    logout(stub);
 	}
 	catch (AxisFault e) {
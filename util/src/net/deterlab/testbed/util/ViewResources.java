@@ -1,7 +1,6 @@
 package net.deterlab.testbed.util;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 
 import java.util.Arrays;
@@ -92,6 +91,8 @@ public class ViewResources extends Utility {
 
 	    ResourcesStub stub =
 		new ResourcesStub(getServiceUrl("Resources"));
+
+	    StubFactory.enableMTOM(stub);
 	    ResourcesStub.ViewResources req = 
 		new ResourcesStub.ViewResources();
 	    ArrayList<ResourcesStub.ResourceTag> tags = new ArrayList<>();
@@ -180,11 +181,9 @@ public class ViewResources extends Utility {
 		if ( saveData && r.getData() != null) {
 		    try {
 			File outf = new File(r.getName());
-			FileOutputStream outs = new FileOutputStream(outf);
 
 			System.out.println("Saving data to: " + outf);
-			outs.write(getBytes(r.getData()));
-			outs.close();
+			getFile(r.getData(), outf);
 		    }
 		    catch (IOException ie) {
 			System.err.println("Error saving data: " + ie);
@@ -24,8 +24,10 @@ import java.awt.geom.Rectangle2D;
 import java.awt.geom.RoundRectangle2D;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -40,12 +42,15 @@ import javax.swing.JPanel;
 import javax.swing.JPopupMenu;
 import javax.swing.JTextField;
 import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
 
 import edu.uci.ics.jung.algorithms.layout.Layout;
 import edu.uci.ics.jung.algorithms.layout.GraphElementAccessor;
 import edu.uci.ics.jung.algorithms.layout.ISOMLayout;
 import edu.uci.ics.jung.algorithms.layout.StaticLayout;
 
+import edu.uci.ics.jung.algorithms.layout.util.RandomLocationTransformer;
+
 import edu.uci.ics.jung.graph.Graph;
 import edu.uci.ics.jung.graph.ObservableGraph;
 import edu.uci.ics.jung.graph.UndirectedGraph;
@@ -83,6 +88,7 @@ import net.deterlab.testbed.topology.Fragment;
 import net.deterlab.testbed.topology.Interface;
 import net.deterlab.testbed.topology.NameMap;
 import net.deterlab.testbed.topology.OtherElement;
+import net.deterlab.testbed.topology.PathIndex;
 import net.deterlab.testbed.topology.Region;
 import net.deterlab.testbed.topology.Substrate;
 import net.deterlab.testbed.topology.Topology;
@@ -104,6 +110,10 @@ public class TopologyPanel extends JPanel {
     static protected final Dimension preferredSize = new Dimension(350, 350);
     /** Size of the initial layout */
     static protected final double initialLayoutSize = 1000.0;
+    /** Full layouts of graphs bigger than this are done region first */
+    static protected final int multilevelThreshold = 200;
+    /** Layout steps between updates of the display */
+    static protected final int publishStep = 50;
 
     /** The topology to draw/edit */
     private TopologyDescription top;
@@ -119,6 +129,12 @@ public class TopologyPanel extends JPanel {
     private Point2D oldCenter;
     /** The regions expanded */
     private Map<String, Region> regions;
+    /** The background layout running, if any */
+    private LayoutWorker worker;
+    /** Member positions of collapsed regions relative to the region */
+    private Map<String, Map<String, Point2D>> regionPositions;
+    /** Positions for named vertices about to be added to the graph */
+    private Map<String, Point2D> pending;
 
     /** Scaled shape to draw for a substrate */
     private Shape subShape;
@@ -164,80 +180,399 @@ public class TopologyPanel extends JPanel {
 	}
 
 	// If no new vertices, or no layout at all has been done, bail.
-	if (newVertices.isEmpty() || layout == null) return;
+	if (newVertices.isEmpty() || layout == null) {
+	    pending.clear();
+	    return;
+	}
 	addToLayout(g, newVertices);
     }
 
     /**
-     * Layout the graph and return a static layout.
-     * @param lg the graph to layout
+     * Name of a vertex, used to key cached positions.
+     * @param o the vertex
+     * @return its name, or null if it has none
+     */
+    protected static String vertexName(ConnectedObject o) {
+	if ( o instanceof Element ) return ((Element) o).getName();
+	else if ( o instanceof Substrate ) return ((Substrate) o).getName();
+	else return null;
+    }
+
+    /**
+     * Transform from the large space that full layouts are computed in to
+     * the current display: shrink to fit and move to the display center.
+     * @return the transform
      */
-    protected Layout<ConnectedObject, Interface> layoutGraph(
-	    Graph<ConnectedObject, Interface> lg) {
-	// Use ISOMLayout to lay out the graph in a large space.
-	ISOMLayout<ConnectedObject, Interface> tlayout =
-	    new ISOMLayout<ConnectedObject, Interface>(lg);
-	tlayout.initialize();
-
-	// Calculate the positions
-	tlayout.setSize(new Dimension((int) initialLayoutSize,
-		    (int) initialLayoutSize));
-	while (!tlayout.done())
-	    tlayout.step();
-
-	// Translate to the simpler display layout
-	StaticLayout<ConnectedObject, Interface> layout =
-	    new StaticLayout<ConnectedObject, Interface>(lg,
-		new ScaleTransform(tlayout,
+    protected AffineTransform displayTransform() {
+	// Concatenate reads backward: move the initial center to the origin,
+	// scale, and move the origin to the display center.
+	AffineTransform xf = AffineTransform.getTranslateInstance(
+		layoutSize.getWidth()/2, layoutSize.getHeight()/2);
+	xf.concatenate(AffineTransform.getScaleInstance(
 		    (0.85 * layoutSize.getWidth())/initialLayoutSize,
-		    (0.85 * layoutSize.getHeight())/initialLayoutSize,
-		    new Point2D.Double(initialLayoutSize/2,initialLayoutSize/2),
-		    new Point2D.Double(layoutSize.getWidth()/2,
-			layoutSize.getHeight()/2)));
-	return layout;
+		    (0.85 * layoutSize.getHeight())/initialLayoutSize));
+	xf.concatenate(AffineTransform.getTranslateInstance(
+		    -initialLayoutSize/2, -initialLayoutSize/2));
+	return xf;
+    }
+
+    /**
+     * Stop any background layout.  Vertices stay wherever it last put
+     * them.
+     */
+    protected void cancelLayout() {
+	if ( worker == null ) return;
+	worker.cancel(false);
+	worker = null;
+    }
+
+    /**
+     * Start laying out lg in the background, cancelling any layout already
+     * running.  Vertices in fixed stay where they are; if fixed is empty
+     * the whole graph is laid out from scratch.  The worker gets its own
+     * copy of the graph so the user can keep editing.
+     * @param lg the graph to layout
+     * @param fixed positions of the vertices that do not move
+     */
+    protected void startLayout(Graph<ConnectedObject, Interface> lg,
+	    Map<ConnectedObject, Point2D> fixed) {
+	Graph<ConnectedObject, Interface> cg =
+	    new UndirectedSparseMultigraph<ConnectedObject, Interface>();
+	Map<ConnectedObject, String> groups =
+	    new HashMap<ConnectedObject, String>();
+
+	cancelLayout();
+	for (ConnectedObject v : lg.getVertices()) {
+	    String pathAttr = v.getAttribute("path");
+
+	    cg.addVertex(v);
+	    if ( pathAttr == null ) continue;
+	    // The outermost region is the first non-empty path component
+	    for (String pc : pathAttr.split("/")) {
+		if ( pc.isEmpty()) continue;
+		groups.put(v, pc);
+		break;
+	    }
+	}
+	for (Interface i : lg.getEdges())
+	    cg.addEdge(i, lg.getEndpoints(i));
+
+	worker = new LayoutWorker(cg, fixed, groups);
+	worker.execute();
     }
 
     /**
-     * Layout new nodes added to lg that have been added to the panel's layout
-     * randomly.  Create a new ISOMLayout with all old nodes locked and new
-     * nodes free and lay it out.  Then put the new nodes into the panel's
-     * layout.
+     * Lay out new nodes added to lg.  Nodes with a pending position (e.g.,
+     * from a region collapsed earlier) go straight there.  The rest start
+     * next to their placed neighbors and are laid out in the background
+     * with all other nodes held still.
      * @param lg the graph to layout
      * @param nv the new vertices
      */
     protected void addToLayout(Graph<ConnectedObject, Interface> lg,
 	    Set<ConnectedObject> nv) {
-	// Use ISOMLayout to lay out the graph in a large space.
-	ISOMLayout<ConnectedObject, Interface> tlayout =
-	    new ISOMLayout<ConnectedObject, Interface>(lg);
-	tlayout.initialize();
-	tlayout.setSize(layout.getSize());
+	Map<ConnectedObject, Point2D> fixed =
+	    new HashMap<ConnectedObject, Point2D>();
+	Set<ConnectedObject> free = new HashSet<ConnectedObject>();
+
+	for (ConnectedObject v: nv) {
+	    Point2D p = pending.get(vertexName(v));
+
+	    if ( p != null ) layout.setLocation(v, p);
+	    else free.add(v);
+	}
+	pending.clear();
+	if ( free.isEmpty()) return;
+
+	for (ConnectedObject v: free) {
+	    double x = 0.0;
+	    double y = 0.0;
+	    int n = 0;
+
+	    for (ConnectedObject u: lg.getNeighbors(v)) {
+		if ( free.contains(u)) continue;
+		Point2D p = layout.transform(u);
+		x += p.getX();
+		y += p.getY();
+		n++;
+	    }
+	    if ( n > 0 ) layout.setLocation(v, new Point2D.Double(x/n, y/n));
+	}
 	for (ConnectedObject v: lg.getVertices()) {
-	    if ( nv.contains(v)) continue;
-	    tlayout.setLocation(v, layout.transform(v));
-	    tlayout.lock(v, true);
+	    if ( free.contains(v)) continue;
+	    fixed.put(v, (Point2D) layout.transform(v).clone());
 	}
+	startLayout(lg, fixed);
+    }
 
-	while (!tlayout.done())
-	    tlayout.step();
+    /**
+     * Remember where the members of a region are relative to their center
+     * so that expanding the region again puts them back without a layout.
+     * The region itself will appear at that center.  Offsets are stored as
+     * fractions of the layout size so a resize in between does not matter.
+     * @param rname the region name
+     * @param members the elements and substrates in the region
+     */
+    protected void cacheRegion(String rname,
+	    Collection<? extends ConnectedObject> members) {
+	Map<String, Point2D> offsets = new HashMap<String, Point2D>();
+	double x = 0.0;
+	double y = 0.0;
+	int n = 0;
+
+	for (ConnectedObject v: members) {
+	    if ( !g.containsVertex(v)) continue;
+	    Point2D p = layout.transform(v);
+	    x += p.getX();
+	    y += p.getY();
+	    n++;
+	}
+	if ( n == 0 ) return;
+	Point2D center = new Point2D.Double(x/n, y/n);
 
-	for (ConnectedObject v: lg.getVertices()) {
-	    if (!nv.contains(v)) continue;
-	    layout.setLocation(v, tlayout.transform(v));
+	for (ConnectedObject v: members) {
+	    String name = vertexName(v);
+
+	    if ( name == null || !g.containsVertex(v)) continue;
+	    Point2D p = layout.transform(v);
+	    offsets.put(name, new Point2D.Double(
+			(p.getX() - center.getX())/layoutSize.getWidth(),
+			(p.getY() - center.getY())/layoutSize.getHeight()));
 	}
+	regionPositions.put(rname, offsets);
+	pending.put(rname, center);
     }
 
     /**
-     * Redo the graph layout and move vertices to their new locations. Called
-     * from the menu.
+     * Redo the graph layout and move vertices to their new locations as it
+     * progresses. Called from the menu.
      */
     protected void redraw() {
-	Layout<ConnectedObject, Interface> l = layoutGraph(g);
-	for (ConnectedObject c: g.getVertices())
-	    layout.setLocation(c, l.transform(c));
-	vv.repaint();
+	startLayout(g, new HashMap<ConnectedObject, Point2D>());
     }
 
+    /**
+     * Computes a layout off the event thread and streams positions to the
+     * view as they improve.  Full layouts are computed in a large square
+     * and scaled into the display; incremental ones are computed in display
+     * coordinates around the fixed vertices.  Large full layouts are done
+     * by region first: each outermost region is laid out as a single
+     * vertex, and then each region's contents are laid out on their own and
+     * shrunk into place.
+     */
+    protected class LayoutWorker extends
+	SwingWorker<Void, Map<ConnectedObject, Point2D>> {
+	/** Private copy of the graph being laid out */
+	private Graph<ConnectedObject, Interface> lg;
+	/** Vertices that keep their positions */
+	private Map<ConnectedObject, Point2D> fixed;
+	/** The outermost region of each vertex that is in one */
+	private Map<ConnectedObject, String> groups;
+	/** True if this is a full layout in the initial layout space */
+	private boolean full;
+	/** Size of the space the layout is computed in */
+	private Dimension size;
+
+	/**
+	 * Build the worker.  Called on the event thread.
+	 * @param g the graph to lay out, not shared with the view
+	 * @param f positions of the vertices that do not move
+	 * @param gr the outermost region of each vertex in one
+	 */
+	public LayoutWorker(Graph<ConnectedObject, Interface> g,
+		Map<ConnectedObject, Point2D> f,
+		Map<ConnectedObject, String> gr) {
+	    lg = g;
+	    fixed = f;
+	    groups = gr;
+	    full = fixed.isEmpty();
+	    size = (full) ?
+		new Dimension((int) initialLayoutSize,
+			(int) initialLayoutSize) :
+		layout.getSize();
+	}
+
+	/**
+	 * Copy the positions of the free vertices out of a layout.
+	 * @param sg the graph laid out
+	 * @param l the layout
+	 * @param lock the locked vertices, which are skipped
+	 * @return the positions
+	 */
+	private Map<ConnectedObject, Point2D> positions(
+		Graph<ConnectedObject, Interface> sg,
+		Layout<ConnectedObject, Interface> l,
+		Map<ConnectedObject, Point2D> lock) {
+	    Map<ConnectedObject, Point2D> rv =
+		new HashMap<ConnectedObject, Point2D>();
+
+	    for (ConnectedObject v: sg.getVertices()) {
+		if ( lock.containsKey(v)) continue;
+		rv.put(v, (Point2D) l.transform(v).clone());
+	    }
+	    return rv;
+	}
+
+	/**
+	 * Run an ISOMLayout to completion.
+	 * @param sg the graph to lay out
+	 * @param lock vertices to lock in place, with their positions
+	 * @param every publish positions this often (in steps), 0 for never
+	 * @return the positions of the free vertices, or null if cancelled
+	 */
+	private Map<ConnectedObject, Point2D> isom(
+		Graph<ConnectedObject, Interface> sg,
+		Map<ConnectedObject, Point2D> lock, int every) {
+	    ISOMLayout<ConnectedObject, Interface> tlayout =
+		new ISOMLayout<ConnectedObject, Interface>(sg);
+
+	    tlayout.initialize();
+	    tlayout.setSize(size);
+	    for (Map.Entry<ConnectedObject, Point2D> e: lock.entrySet()) {
+		tlayout.setLocation(e.getKey(), e.getValue());
+		tlayout.lock(e.getKey(), true);
+	    }
+
+	    for (int i = 1; !tlayout.done(); i++) {
+		if ( isCancelled()) return null;
+		tlayout.step();
+		if ( every > 0 && i % every == 0 )
+		    publish(positions(sg, tlayout, lock));
+	    }
+	    return positions(sg, tlayout, lock);
+	}
+
+	/**
+	 * Lay out the graph a region at a time.
+	 * @return false if the regions do not shrink the graph enough to be
+	 * worth it.
+	 */
+	private boolean multilevel() {
+	    Map<ConnectedObject, Point2D> none =
+		new HashMap<ConnectedObject, Point2D>();
+	    Graph<ConnectedObject, Interface> cg =
+		new UndirectedSparseMultigraph<ConnectedObject, Interface>();
+	    // Vertex in cg standing for each region
+	    Map<String, ConnectedObject> coarse =
+		new HashMap<String, ConnectedObject>();
+	    // Vertex in cg standing for each vertex in lg
+	    Map<ConnectedObject, ConnectedObject> rep =
+		new HashMap<ConnectedObject, ConnectedObject>();
+	    // The contents of each region, keyed by the vertex in cg
+	    Map<ConnectedObject, Graph<ConnectedObject, Interface>> members =
+		new HashMap<ConnectedObject,
+		    Graph<ConnectedObject, Interface>>();
+
+	    for (ConnectedObject v: lg.getVertices()) {
+		String rname = groups.get(v);
+		ConnectedObject c = v;
+
+		if ( rname != null ) {
+		    if ( (c = coarse.get(rname)) == null ) {
+			c = new OtherElement();
+			coarse.put(rname, c);
+			members.put(c, new UndirectedSparseMultigraph<
+				ConnectedObject, Interface>());
+			cg.addVertex(c);
+		    }
+		    members.get(c).addVertex(v);
+		}
+		else cg.addVertex(c);
+		rep.put(v, c);
+	    }
+
+	    if ( cg.getVertexCount() * 2 > lg.getVertexCount()) return false;
+
+	    for (Interface i: lg.getEdges()) {
+		Pair<ConnectedObject> p = lg.getEndpoints(i);
+		ConnectedObject a = rep.get(p.getFirst());
+		ConnectedObject b = rep.get(p.getSecond());
+
+		if ( a == b ) {
+		    if ( members.containsKey(a) )
+			members.get(a).addEdge(i, p.getFirst(), p.getSecond());
+		}
+		else if ( cg.findEdge(a, b) == null )
+		    cg.addEdge(new Interface(), a, b);
+	    }
+
+	    Map<ConnectedObject, Point2D> cpos = isom(cg, none, 0);
+
+	    if ( cpos == null ) return true;
+
+	    // Show the coarse picture: everything sits on its region
+	    Map<ConnectedObject, Point2D> pos =
+		new HashMap<ConnectedObject, Point2D>();
+	    for (ConnectedObject v: lg.getVertices())
+		pos.put(v, cpos.get(rep.get(v)));
+	    publish(pos);
+
+	    // Refine each region and shrink it around its coarse position
+	    // in proportion to how much of the graph it holds.
+	    for (Map.Entry<ConnectedObject, Graph<ConnectedObject, Interface>>
+		    m : members.entrySet()) {
+		Graph<ConnectedObject, Interface> sg = m.getValue();
+		Point2D c = cpos.get(m.getKey());
+		double s = Math.sqrt(
+			(double) sg.getVertexCount()/lg.getVertexCount());
+		Map<ConnectedObject, Point2D> mpos = isom(sg, none, 0);
+
+		if ( mpos == null ) return true;
+		for (Map.Entry<ConnectedObject, Point2D> e: mpos.entrySet()) {
+		    Point2D p = e.getValue();
+
+		    p.setLocation(
+			    c.getX() + s * (p.getX() - size.getWidth()/2),
+			    c.getY() + s * (p.getY() - size.getHeight()/2));
+		}
+		publish(mpos);
+	    }
+	    return true;
+	}
+
+	/**
+	 * Compute the layout.
+	 * @return nothing
+	 */
+	public Void doInBackground() {
+	    if ( full && lg.getVertexCount() > multilevelThreshold &&
+		    multilevel())
+		return null;
+
+	    Map<ConnectedObject, Point2D> pos = isom(lg, fixed, publishStep);
+
+	    if ( pos != null ) publish(pos);
+	    return null;
+	}
+
+	/**
+	 * Move the vertices still in the view to their newest positions.
+	 * Runs on the event thread.
+	 * @param chunks positions published since the last call, in order
+	 */
+	protected void process(List<Map<ConnectedObject, Point2D>> chunks) {
+	    if ( isCancelled()) return;
+
+	    AffineTransform xf = (full) ?
+		displayTransform() : new AffineTransform();
+
+	    for (Map<ConnectedObject, Point2D> pos : chunks) {
+		for (Map.Entry<ConnectedObject, Point2D> e: pos.entrySet()) {
+		    if ( !g.containsVertex(e.getKey())) continue;
+		    layout.setLocation(e.getKey(),
+			    xf.transform(e.getValue(), null));
+		}
+	    }
+	    vv.repaint();
+	}
+
+	/**
+	 * Forget this worker once it finishes.
+	 */
+	protected void done() {
+	    if ( worker == this ) worker = null;
+	}
+    }
 
     /**
      * Transformer that paints the vertices according to their values
@@ -416,55 +751,6 @@ public class TopologyPanel extends JPanel {
 	setShapes();
     }
 
-    /**
-     * This class is used to rescale and recenter the initial layout into a
-     * static layout.  It is passed to the initializer parameter of the
-     * StaticLayout constructor after being initialized with the initial layout
-     * (a Transformer), the new scale, old
-     * center point and new center point.
-     */
-    protected class ScaleTransform implements 
-	Transformer<ConnectedObject, Point2D> {
-	/** The post layout transform - scaling and moving to a new center */
-	private AffineTransform scaleXform;
-	/** The layout being transformed */
-	private Layout<ConnectedObject, Interface> xform;
-
-	/**
-	 * Build the transformer.
-	 * @param t the layout being rescaled and recentered.
-	 * @param sx the scale factor on the x axis.
-	 * @param sy the scale factor on the y axis.
-	 * @param oldCenter the center of the initial layout.
-	 * @param newCenter the center of the new layout
-	 */
-	public ScaleTransform(Layout<ConnectedObject, Interface> t, 
-		double sx, double sy, Point2D oldCenter, Point2D newCenter) { 
-	    // Concatenate reads backward.  This sequence of transforms 
-	    //  1. Moves the point from its position relative to the old center
-	    //	    to the origin
-	    //  2. Applies the scaling factor
-	    //  3. Moves the point to its new position relative to the new
-	    //	    center.
-	    scaleXform = AffineTransform.getTranslateInstance(newCenter.getX(),
-		    newCenter.getY());
-	    scaleXform.concatenate(AffineTransform.getScaleInstance(sx, sy));
-	    scaleXform.concatenate(
-		    AffineTransform.getTranslateInstance(
-			-oldCenter.getX(), -oldCenter.getY()));
-	    xform = t;
-	}
-	/**
-	 * Carry out the transform.   Get the point from the existing layout
-	 * and use xform to move it to its new home.
-	 * @param o the object that names the vertex in the Layout
-	 * @return the rescaled and recentered position.
-	 */
-	public Point2D transform(ConnectedObject o) {
-	    return scaleXform.transform(xform.transform(o), null);
-	}
-    }
-
     /**
      * Factory that throws out unititialized OtherElements to act as
      * placeholders.  FinishAddingVertex will replace them with something
@@ -770,6 +1056,9 @@ public class TopologyPanel extends JPanel {
 
 	    NameMap inMap = top.getNameMap(pathname);
 	    NameMap outMap = new NameMap(pathname, null, null);
+	    Point2D center = (Point2D) layout.transform(r).clone();
+
+	    cancelLayout();
 
 	    try {
 		r.expand(f, inMap, top, outMap);
@@ -786,6 +1075,20 @@ public class TopologyPanel extends JPanel {
 			JOptionPane.ERROR_MESSAGE);
 		return;
 	    }
+
+	    // If the region was expanded before, put its contents back where
+	    // they were.
+	    Map<String, Point2D> offsets = regionPositions.get(r.getName());
+
+	    if ( offsets != null ) {
+		for (Map.Entry<String, Point2D> o : offsets.entrySet()) {
+		    Point2D p = o.getValue();
+
+		    pending.put(o.getKey(), new Point2D.Double(
+			    center.getX() + p.getX() * layoutSize.getWidth(),
+			    center.getY() + p.getY() * layoutSize.getHeight()));
+		}
+	    }
 	    updateTopologyGraph();
 	    rescale();
 	    vv.repaint();
@@ -803,6 +1106,12 @@ public class TopologyPanel extends JPanel {
 	    r = rr; 
 	}
 	public void actionPerformed(ActionEvent e) {
+	    PathIndex paths = top.getPathIndex();
+	    List<ConnectedObject> members = new ArrayList<ConnectedObject>(
+		    paths.getElements(r.getName()));
+
+	    members.addAll(paths.getSubstrates(r.getName()));
+	    cancelLayout();
 	    try { 
 		Util.collapseExistingRegion(top, r);
 	    }
@@ -815,6 +1124,7 @@ public class TopologyPanel extends JPanel {
 		return;
 	    }
 
+	    cacheRegion(r.getName(), members);
 	    updateTopologyGraph();
 	    rescale();
 	    vv.repaint();
@@ -1065,10 +1375,10 @@ public class TopologyPanel extends JPanel {
     }
 
     /**
-     * Create the panel to display the topology - use a computationally
-     * intensive layout to arrive at an initial position for the vertices, then
-     * map them into a static layout for display.  Set up the various
-     * connections for dynamic scaling on window resize.
+     * Create the panel to display the topology - scatter the vertices in a
+     * static layout for display and start a computationally intensive layout
+     * in the background that moves them into place as it goes.  Set up the
+     * various connections for dynamic scaling on window resize.
      */
     public TopologyPanel(TopologyDescription t) {
 	// When we attach the visualization server, the GridLayout will keep it
@@ -1077,6 +1387,8 @@ public class TopologyPanel extends JPanel {
 	top = t;
 	g = new UndirectedSparseMultigraph<ConnectedObject, Interface>();
 	regions = new HashMap<String, Region>();
+	regionPositions = new HashMap<String, Map<String, Point2D>>();
+	pending = new HashMap<String, Point2D>();
 	updateTopologyGraph();
 	ObservableGraph<ConnectedObject, Interface> og = 
 	    new ObservableGraph<ConnectedObject, Interface>(g);
@@ -1086,7 +1398,8 @@ public class TopologyPanel extends JPanel {
 	oldCenter = new Point2D.Double(preferredSize.getWidth()/2, 
 		preferredSize.getHeight()/2);
 	setShapes();
-	layout = layoutGraph(og);
+	layout = new StaticLayout<ConnectedObject, Interface>(og,
+		new RandomLocationTransformer<ConnectedObject>(layoutSize));
 	layout.setSize(layoutSize);
 
 	// Initialize the viewer
@@ -1109,6 +1422,7 @@ public class TopologyPanel extends JPanel {
 	og.addGraphEventListener(new ChangeHandler());
 	add(vv);
 	validate();
+	startLayout(og, new HashMap<ConnectedObject, Point2D>());
     }
 
     /**
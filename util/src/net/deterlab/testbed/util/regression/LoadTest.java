@@ -0,0 +1,422 @@
+package net.deterlab.testbed.util.regression;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import net.deterlab.testbed.api.DeterFault;
+
+import net.deterlab.testbed.util.Utility;
+import net.deterlab.testbed.util.gui.LoginDialog;
+
+import net.deterlab.testbed.util.option.ListOption;
+import net.deterlab.testbed.util.option.NumberOption;
+import net.deterlab.testbed.util.option.Option;
+import net.deterlab.testbed.util.option.ParamOption;
+
+import org.apache.log4j.Level;
+
+/**
+ * Drives a service with concurrent simulated users built from the regression
+ * tests.  Each simulated user repeatedly picks a RegressionTest from a
+ * weighted mix, runs it, and cleans up after it until the run is over.  Users
+ * start evenly spread across the ramp-up time.  The time each test takes is
+ * recorded, and when the run ends the count, error rate, throughput and
+ * latency percentiles of each test are written to a CSV file, one row per
+ * test, labelled so runs against different builds can be compared.
+ * <p>
+ * Many tests create users and projects with fixed names, so two copies cannot
+ * run at once.  Those belong in the setup list, which is run once, in order,
+ * before the load starts and cleaned up after it ends.  The mix should hold
+ * tests that only read or that clean up after themselves.
+ * @author DETER Team
+ * @version 1.0
+ */
+public class LoadTest extends Utility {
+    /** Columns of the results file */
+    static public final String HEADER = "label,test,count,errors," +
+	"error_rate,throughput,mean_ms,p50_ms,p90_ms,p99_ms,max_ms";
+
+    /**
+     * Latencies and errors of one test.  Threads add to it concurrently.
+     */
+    static private class Stats {
+	/** Latencies in ms of the successful runs */
+	private List<Double> latencies;
+	/** Number of failed runs */
+	private int errors;
+
+	/**
+	 * Empty statistics.
+	 */
+	public Stats() {
+	    latencies = new ArrayList<Double>();
+	    errors = 0;
+	}
+
+	/**
+	 * Record a run.
+	 * @param ms how long it took
+	 * @param ok true if it succeeded
+	 */
+	public synchronized void add(double ms, boolean ok) {
+	    if ( ok ) latencies.add(ms);
+	    else errors++;
+	}
+
+	/**
+	 * Return the value at the given percentile of sorted latencies.
+	 * @param sorted the sorted latencies
+	 * @param pct the percentile (0-100)
+	 * @return the value, 0 if there are none
+	 */
+	static private double percentile(double[] sorted, double pct) {
+	    if ( sorted.length == 0 ) return 0.0;
+	    int i = (int) Math.ceil(pct / 100.0 * sorted.length) - 1;
+
+	    return sorted[Math.max(0, Math.min(i, sorted.length-1))];
+	}
+
+	/**
+	 * Write a CSV row of these statistics.
+	 * @param w where to write
+	 * @param label the run label
+	 * @param name the test name
+	 * @param secs the length of the run in seconds
+	 */
+	public synchronized void write(PrintWriter w, String label,
+		String name, double secs) {
+	    double[] sorted = new double[latencies.size()];
+	    double total = 0.0;
+	    int count = sorted.length + errors;
+
+	    for (int i = 0; i < sorted.length; i++) {
+		sorted[i] = latencies.get(i);
+		total += sorted[i];
+	    }
+	    Arrays.sort(sorted);
+	    w.format("%s,%s,%d,%d,%.4f,%.3f,%.1f,%.1f,%.1f,%.1f,%.1f%n",
+		    label, name, count, errors,
+		    (count > 0) ? (double) errors / count : 0.0,
+		    (secs > 0) ? sorted.length / secs : 0.0,
+		    (sorted.length > 0) ? total / sorted.length : 0.0,
+		    percentile(sorted, 50), percentile(sorted, 90),
+		    percentile(sorted, 99), percentile(sorted, 100));
+	}
+    }
+
+    /**
+     * One simulated user.
+     */
+    static private class SimulatedUser extends Thread {
+	/** Test names in the mix */
+	private String[] names;
+	/** Running total of the weights, parallel to names */
+	private double[] weights;
+	/** Statistics for each test, by name */
+	private Map<String, Stats> stats;
+	/** Data directory passed to the tests */
+	private File dataDir;
+	/** When to start, in ms */
+	private long start;
+	/** When to stop, in ms */
+	private long end;
+	/** Pause between tests, in ms */
+	private long think;
+	/** Chooses tests */
+	private Random random;
+
+	/**
+	 * Create a user.
+	 * @param n the user number, used in the thread name
+	 * @param ns the test names
+	 * @param ws the running total of the weights
+	 * @param st the statistics, by name
+	 * @param dd the data directory
+	 * @param s when to start
+	 * @param e when to stop
+	 * @param t the pause between tests
+	 */
+	public SimulatedUser(int n, String[] ns, double[] ws,
+		Map<String, Stats> st, File dd, long s, long e, long t) {
+	    super("simulated-user-" + n);
+	    setDaemon(true);
+	    names = ns;
+	    weights = ws;
+	    stats = st;
+	    dataDir = dd;
+	    start = s;
+	    end = e;
+	    think = t;
+	    random = new Random();
+	}
+
+	/**
+	 * Pick a test name from the mix.
+	 * @return the name
+	 */
+	private String pick() {
+	    double r = random.nextDouble() * weights[weights.length-1];
+
+	    for (int i = 0; i < weights.length; i++)
+		if ( r < weights[i] ) return names[i];
+	    return names[names.length-1];
+	}
+
+	/**
+	 * Run tests until the end of the run.
+	 */
+	public void run() {
+	    File trace = null;
+
+	    try {
+		trace = File.createTempFile("loadtest", ".xml");
+		trace.deleteOnExit();
+		long wait = start - System.currentTimeMillis();
+		if ( wait > 0 ) Thread.sleep(wait);
+	    }
+	    catch (IOException e) {
+		Regression.log.error("Cannot create trace file: " + e);
+		return;
+	    }
+	    catch (InterruptedException e) {
+		return;
+	    }
+
+	    while ( System.currentTimeMillis() < end ) {
+		String name = pick();
+		RegressionTest t = null;
+		boolean ok = false;
+		long then = System.nanoTime();
+
+		try {
+		    t = makeTest(name);
+		    t.runTest(trace, dataDir);
+		    ok = true;
+		}
+		catch (RegressionTest.RegressionException ignored) { }
+		catch (RuntimeException e) {
+		    Regression.log.error(name + ": " + e);
+		}
+		stats.get(name).add((System.nanoTime() - then) / 1e6, ok);
+
+		try {
+		    if ( t != null ) t.cleanUp();
+		}
+		catch (RuntimeException e) {
+		    Regression.log.error(name + " cleanup: " + e);
+		}
+
+		if ( think > 0 ) {
+		    try {
+			Thread.sleep(think);
+		    }
+		    catch (InterruptedException e) {
+			return;
+		    }
+		}
+	    }
+	}
+    }
+
+    /**
+     * Make a new instance of the named regression test.
+     * @param name the test's class name, without the package
+     * @return the new test
+     * @throws IllegalArgumentException if there is no such test
+     */
+    static RegressionTest makeTest(String name) {
+	try {
+	    return Class.forName(
+		    LoadTest.class.getPackage().getName() + "." + name).
+		asSubclass(RegressionTest.class).newInstance();
+	}
+	catch (ClassNotFoundException e) {
+	    throw new IllegalArgumentException("No such test: " + name);
+	}
+	catch (ClassCastException e) {
+	    throw new IllegalArgumentException("Not a test: " + name);
+	}
+	catch (ReflectiveOperationException e) {
+	    throw new IllegalArgumentException("Cannot create " + name +
+		    ": " + e);
+	}
+    }
+
+    /**
+     * Fail with a usage message
+     */
+    static public void usage() {
+	Regression.fatal("LoadTest [--users n] [--duration secs] " +
+		"[--rampup secs] [--think ms] [--mix test[:weight] ...] " +
+		"[--setup test ...] [--label label] [--pass password] " +
+		"results_file data_directory [admin user]");
+    }
+
+    /**
+     * Run the load test.
+     * @param args the command line arguments
+     */
+    static public void main(String[] args) {
+	NumberOption users = new NumberOption("users", 10);
+	NumberOption duration = new NumberOption("duration", 60);
+	NumberOption rampup = new NumberOption("rampup", 10);
+	NumberOption think = new NumberOption("think", 0);
+	ListOption mix = new ListOption("mix");
+	ListOption setup = new ListOption("setup");
+	ParamOption label = new ParamOption("label", "run");
+	ParamOption passwd = new ParamOption("pass");
+	List<String> argv = new ArrayList<String>();
+
+	Regression.initLog();
+	try {
+	    Option.parseArgs(args, new Option[] {
+		users, duration, rampup, think, mix, setup, label, passwd },
+		argv);
+	}
+	catch (Option.OptionException e) {
+	    usage();
+	}
+	if ( argv.size() < 2 ) usage();
+
+	File results = new File(argv.get(0));
+	File dataDir = new File(argv.get(1));
+	String adminUser = (argv.size() > 2) ? argv.get(2) : "deterboss";
+	int nUsers = users.getValue().intValue();
+	Collection<String> mixes = mix.getValue();
+	Map<String, Stats> stats = new LinkedHashMap<String, Stats>();
+	List<RegressionTest> setupTests = new ArrayList<RegressionTest>();
+	String[] names = null;
+	double[] weights = null;
+	int n = 0;
+
+	if ( mixes.isEmpty() ) mixes = Arrays.asList("GetVersion");
+	names = new String[mixes.size()];
+	weights = new double[mixes.size()];
+	try {
+	    for (String m : mixes) {
+		String[] parts = m.split(":", 2);
+		double w = (parts.length > 1) ?
+		    Double.parseDouble(parts[1]) : 1.0;
+
+		if ( w <= 0 ) usage();
+		makeTest(parts[0]);
+		names[n] = parts[0];
+		weights[n] = w + ((n > 0) ? weights[n-1] : 0.0);
+		stats.put(parts[0], new Stats());
+		n++;
+	    }
+	    for (String s : setup.getValue())
+		setupTests.add(makeTest(s));
+	}
+	catch (NumberFormatException e) {
+	    usage();
+	}
+	catch (IllegalArgumentException e) {
+	    Regression.fatal(e.getMessage());
+	}
+
+	loadTrust();
+	loadID();
+	setStubConnections(nUsers);
+
+	String pwd = passwd.getValue();
+
+	if ( pwd == null ) {
+	    LoginDialog ld = new LoginDialog();
+
+	    ld.setVisible(true);
+	    pwd = new String(ld.getPassword());
+	    if (ld.isCancelled() || pwd.length() == 0) {
+		ld.dispose();
+		return;
+	    }
+	    ld.dispose();
+	}
+
+	try {
+	    login(adminUser, pwd);
+	} catch (DeterFault df) {
+	    Regression.fatal(df.getErrorMessage() + ": " +
+		    df.getDetailMessage());
+	} catch (Exception e) {
+	    e.printStackTrace();
+	    Regression.fatal("unexpected exception");
+	}
+
+	int exitCode = 0;
+	int step = 0;
+
+	try {
+	    for (RegressionTest t : setupTests) {
+		File trace = File.createTempFile(
+			String.format("%03d-%s", step++, t.getName()), ".xml");
+
+		System.out.println("Setup: " + t.getName());
+		trace.deleteOnExit();
+		t.runTest(trace, dataDir);
+	    }
+
+	    // The tests log every call at INFO, which would swamp the console
+	    // under load.
+	    Regression.log.setLevel(Level.WARN);
+
+	    long rampMs = (long) (rampup.getValue().doubleValue() * 1000);
+	    long start = System.currentTimeMillis();
+	    long end = start + rampMs +
+		(long) (duration.getValue().doubleValue() * 1000);
+	    List<SimulatedUser> threads = new ArrayList<SimulatedUser>();
+
+	    System.out.println("Running " + nUsers + " users until " +
+		    new Date(end));
+	    for (int i = 0; i < nUsers; i++) {
+		SimulatedUser u = new SimulatedUser(i, names, weights, stats,
+			dataDir, start + i * rampMs / Math.max(nUsers, 1), end,
+			think.getValue().longValue());
+
+		threads.add(u);
+		u.start();
+	    }
+	    for (SimulatedUser u : threads)
+		u.join();
+
+	    double secs = (System.currentTimeMillis() - start) / 1000.0;
+	    PrintWriter w = new PrintWriter(new FileWriter(results));
+
+	    try {
+		w.println(HEADER);
+		for (Map.Entry<String, Stats> e : stats.entrySet())
+		    e.getValue().write(w, label.getValue(), e.getKey(), secs);
+	    }
+	    finally {
+		w.close();
+	    }
+	    System.out.println("Results in " + results);
+	}
+	catch (RegressionTest.RegressionException e) {
+	    exitCode = 20;
+	}
+	catch (IOException e) {
+	    Regression.log.error("Cannot write results: " + e);
+	    exitCode = 20;
+	}
+	catch (InterruptedException e) {
+	    exitCode = 20;
+	}
+	Regression.log.setLevel(Level.INFO);
+	Regression.log.info("Cleaning up");
+	for (int i = setupTests.size()-1; i >= 0; i--)
+	    setupTests.get(i).cleanUp();
+	System.exit(exitCode);
+    }
+}